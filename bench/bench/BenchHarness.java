@@ -0,0 +1,255 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Small timing harness for the telemetry hot paths. It runs an operation
+ * either flat out or paced at a fixed frame rate and reports time, CPU and
+ * allocated bytes for the calling thread.
+ *
+ * measure() works the way JMH's average time mode does: timed warm-up
+ * iterations, then measured ones, each giving a time per operation, with
+ * the mean and its 99.9% confidence interval as the result. It also
+ * reports what JMH's gc profiler does: bytes allocated per operation and
+ * the collections that ran.
+ *
+ * Allocation figures come from com.sun.management.ThreadMXBean and read as
+ * -1 on VMs that do not provide it.
+ */
+public class BenchHarness {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Result of one measured run.
+     */
+    public static class Result {
+
+        public final String name;
+        public final long ops;
+        public final long wallNanos;
+        public final long cpuNanos;
+        public final long allocatedBytes;
+
+        Result(String name, long ops, long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.name = name;
+            this.ops = ops;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public double nanosPerOp() {
+            return ops == 0 ? 0 : (double) cpuNanos / ops;
+        }
+
+        public double bytesPerOp() {
+            return ops == 0 || allocatedBytes < 0 ? -1 : (double) allocatedBytes / ops;
+        }
+
+        public double cpuLoad() {
+            return wallNanos == 0 ? 0 : (double) cpuNanos / wallNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %10d ops %10.1f ns/op %10.1f B/op %6.2f%% cpu",
+                    name, ops, nanosPerOp(), bytesPerOp(), 100 * cpuLoad());
+        }
+    }
+
+    /**
+     * Result of measure(): wall time per operation of every measured
+     * iteration.
+     */
+    public static class Measurement {
+
+        public final String name;
+        public final double[] nanosPerOp;
+        public final long ops;
+        public final double bytesPerOp;
+        public final long gcCount;
+        public final long gcTimeMs;
+
+        Measurement(String name, double[] nanosPerOp, long ops, double bytesPerOp, long gcCount, long gcTimeMs) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.ops = ops;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+        }
+
+        public double mean() {
+            double sum = 0;
+            for (double x : nanosPerOp) {
+                sum += x;
+            }
+            return sum / nanosPerOp.length;
+        }
+
+        /**
+         *
+         * @return half width of the 99.9% confidence interval of the mean,
+         * NaN with a single iteration
+         */
+        public double error() {
+            int n = nanosPerOp.length;
+            if (n < 2) {
+                return Double.NaN;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (double x : nanosPerOp) {
+                squares += (x - mean) * (x - mean);
+            }
+            return studentT999(n - 1) * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-60s %12.1f +- %8.1f ns/op %10.1f B/op %4d gc",
+                    name, mean(), error(), bytesPerOp, gcCount);
+        }
+    }
+
+    // two sided 99.9% quantiles of Student's t for 1 to 30 degrees of freedom
+    private static final double[] studentT = {
+        636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+        3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+    };
+
+    static double studentT999(int degrees) {
+        if (degrees <= studentT.length) {
+            return studentT[degrees - 1];
+        }
+        // tends to the normal quantile, 3.291
+        return 3.291 + (studentT[studentT.length - 1] - 3.291) * studentT.length / degrees;
+    }
+
+    /**
+     * Runs op for warmups iterations, then for iterations measured ones, of
+     * about iterationMs each. The clock is read every few calls, as many as
+     * take about a tenth of a millisecond, so it does not weigh on fast
+     * operations.
+     */
+    public static Measurement measure(String name, Runnable op, int warmups, int iterations, long iterationMs) {
+        long batch = 1;
+        long deadlineNanos = iterationMs * 1000000L;
+        for (int w = 0; w < warmups; w++) {
+            batch = iterate(op, batch, deadlineNanos)[1];
+        }
+        double[] scores = new double[iterations];
+        long ops = 0;
+        long alloc0 = allocatedBytes();
+        long gcCount0 = gcCount();
+        long gcTime0 = gcTimeMs();
+        for (int i = 0; i < iterations; i++) {
+            long[] r = iterate(op, batch, deadlineNanos);
+            scores[i] = (double) r[2] / r[0];
+            ops += r[0];
+            batch = r[1];
+        }
+        long alloc = alloc0 < 0 ? -1 : allocatedBytes() - alloc0;
+        return new Measurement(name, scores, ops, alloc < 0 ? -1 : (double) alloc / ops,
+                gcCount() - gcCount0, gcTimeMs() - gcTime0);
+    }
+
+    /**
+     *
+     * @return operations, next batch size, nanoseconds
+     */
+    private static long[] iterate(Runnable op, long batch, long deadlineNanos) {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (long i = 0; i < batch; i++) {
+                op.run();
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < deadlineNanos);
+        long next = Math.max(1, ops * 100000L / Math.max(1, elapsed));
+        return new long[]{ops, next, elapsed};
+    }
+
+    static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    static long gcTimeMs() {
+        long t = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            t += Math.max(0, gc.getCollectionTime());
+        }
+        return t;
+    }
+
+    /**
+     * Runs op as fast as possible, after the same number of warm-up calls.
+     */
+    public static Result throughput(String name, Runnable op, long iterations) {
+        for (long i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long alloc0 = allocatedBytes();
+        long cpu0 = cpuNanos();
+        long wall0 = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long wall = System.nanoTime() - wall0;
+        long cpu = cpuNanos() - cpu0;
+        long alloc = alloc0 < 0 ? -1 : allocatedBytes() - alloc0;
+        return new Result(name, iterations, wall, cpu, alloc);
+    }
+
+    /**
+     * Calls op at a fixed rate for the given time, the way a link reader
+     * would at that frame rate, and reports the cost of keeping up.
+     */
+    public static Result paced(String name, Runnable op, int hz, long durationMs) {
+        long period = 1000000000L / hz;
+        long frames = durationMs * hz / 1000;
+        long alloc0 = allocatedBytes();
+        long cpu0 = cpuNanos();
+        long wall0 = System.nanoTime();
+        long next = wall0;
+        for (long i = 0; i < frames; i++) {
+            op.run();
+            next += period;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        long wall = System.nanoTime() - wall0;
+        long cpu = cpuNanos() - cpu0;
+        long alloc = alloc0 < 0 ? -1 : allocatedBytes() - alloc0;
+        return new Result(name + " @" + hz + "Hz", frames, wall, cpu, alloc);
+    }
+
+    static long cpuNanos() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two JMH style result files, e.g. HotPathBench runs before and
+ * after a change: score of each benchmark and parameter set in both, and
+ * the ratio new / old. Reads the one line per result files HotPathBench
+ * writes as well as JMH's own pretty printed ones.
+ *
+ * Arguments: old result file, new result file, optionally the ratio above
+ * which a benchmark counts as slower (default 1.1). Exits with 1 if one
+ * did, so a build can fail on it.
+ */
+public class CompareBench {
+
+    private static final Pattern benchmark = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern params = Pattern.compile("\"params\"\\s*:\\s*\\{([^}]*)\\}");
+    private static final Pattern score = Pattern.compile("\"score\"\\s*:\\s*([-+0-9.eE]+|null)");
+    private static final Pattern param = Pattern.compile("\"([^\"]*)\"\\s*:\\s*\"([^\"]*)\"");
+
+    /**
+     *
+     * @param file
+     * @return primary score by benchmark and parameters, in file order
+     */
+    static Map<String, Double> read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < bytes.length) {
+                int r = in.read(bytes, n, bytes.length - n);
+                if (r < 0) {
+                    break;
+                }
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        String json = new String(bytes, "UTF-8");
+        Map<String, Double> scores = new LinkedHashMap<String, Double>();
+        Matcher m = benchmark.matcher(json);
+        int start = m.find() ? m.start() : -1;
+        while (start >= 0) {
+            String name = m.group(1);
+            int end = m.find() ? m.start() : json.length();
+            // the primary metric comes before the secondary ones
+            String result = json.substring(start, end);
+            StringBuilder key = new StringBuilder(name);
+            Matcher p = params.matcher(result);
+            if (p.find()) {
+                char separator = ':';
+                Matcher kv = param.matcher(p.group(1));
+                while (kv.find()) {
+                    key.append(separator).append(kv.group(1)).append('=').append(kv.group(2));
+                    separator = ',';
+                }
+            }
+            Matcher s = score.matcher(result);
+            if (s.find() && !s.group(1).equals("null")) {
+                scores.put(key.toString(), Double.parseDouble(s.group(1)));
+            }
+            start = end < json.length() ? end : -1;
+        }
+        return scores;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareBench old.json new.json [ratio]");
+            System.exit(2);
+        }
+        Map<String, Double> before = read(new File(args[0]));
+        Map<String, Double> after = read(new File(args[1]));
+        double limit = args.length > 2 ? Double.parseDouble(args[2]) : 1.1;
+        int slower = 0;
+        for (Map.Entry<String, Double> e : after.entrySet()) {
+            Double old = before.get(e.getKey());
+            if (old == null) {
+                System.out.println(String.format("%-70s %14s %14.1f        new", e.getKey(), "", e.getValue()));
+                continue;
+            }
+            double ratio = e.getValue() / old;
+            String mark = ratio > limit ? "  slower" : ratio < 1 / limit ? "  faster" : "";
+            if (ratio > limit) {
+                slower++;
+            }
+            System.out.println(String.format("%-70s %14.1f %14.1f %8.2fx%s", e.getKey(), old, e.getValue(), ratio, mark));
+        }
+        System.exit(slower > 0 ? 1 : 0);
+    }
+}
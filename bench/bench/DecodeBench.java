@@ -0,0 +1,76 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.DataPacket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the legacy int[] frame path (UDPServer copy plus
+ * DataPacket.setDataIntArray) with the ByteBuffer decoder, flat out and at
+ * the 50, 200 and 1000 Hz link rates.
+ */
+public class DecodeBench {
+
+    public static byte[] sampleFrame(long seed) {
+        int size = DataPacket.getDataPacketSize();
+        byte[] frame = new byte[size];
+        Random random = new Random(seed);
+        frame[0] = 'U';
+        frame[1] = 'U';
+        frame[2] = 'T';
+        int sum = 0;
+        for (int i = 3; i < size - 2; i++) {
+            // Keep the byte sum under 32767, the checksum is a signed short.
+            frame[i] = (byte) random.nextInt(128);
+            sum += frame[i];
+        }
+        frame[size - 2] = (byte) (sum >> 8);
+        frame[size - 1] = (byte) sum;
+        return frame;
+    }
+
+    public static void main(String[] args) {
+        final byte[] frame = sampleFrame(1);
+        final ByteBuffer buffer = ByteBuffer.wrap(frame);
+        final DataPacket legacy = new DataPacket();
+        final DataPacket decoder = new DataPacket();
+        final int size = DataPacket.getDataPacketSize();
+
+        Runnable legacyOp = new Runnable() {
+            public void run() {
+                int[] intArray = new int[size];
+                for (int j = 0; j < size; j++) {
+                    intArray[j] = frame[j] < 0 ? frame[j] + 256 : frame[j];
+                }
+                legacy.setDataIntArray(intArray);
+            }
+        };
+        Runnable bufferOp = new Runnable() {
+            public void run() {
+                decoder.setDataBuffer(buffer, 0);
+            }
+        };
+
+        legacyOp.run();
+        bufferOp.run();
+        double[] a = legacy.getDataArray();
+        double[] b = decoder.getDataArray();
+        for (int i = 0; i < a.length; i++) {
+            if (Double.compare(a[i], b[i]) != 0) {
+                throw new IllegalStateException("decoders disagree on channel " + i + ": " + a[i] + " != " + b[i]);
+            }
+        }
+
+        System.out.println(BenchHarness.throughput("intArrayToValues", legacyOp, 2000000));
+        System.out.println(BenchHarness.throughput("setDataBuffer", bufferOp, 2000000));
+        int[] rates = {50, 200, 1000};
+        for (int hz : rates) {
+            System.out.println(BenchHarness.paced("intArrayToValues", legacyOp, hz, 5000));
+            System.out.println(BenchHarness.paced("setDataBuffer", bufferOp, hz, 5000));
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import comm.ChannelInterface;
+import comm.StreamFramer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import kernel.TelemetryConsumer;
+import kernel.TelemetryRing;
+import kernel.VehicleLink;
+import metrics.LatencyHistogram;
+import net.udp.server.UDPServer;
+import sim.TelemetryGenerator;
+
+/**
+ * Drives the receive side of the station with a TelemetryGenerator and
+ * measures every stage a frame goes through:
+ *
+ * - transit: generator send to the station reading the frame (UDP loopback
+ * through UDPServer, or a pipe read with a StreamFramer the way the serial
+ * port is);
+ * - decode: VehicleLink.decode, up to the row being published in the ring;
+ * - record: ring to the VehicleLink recorder appending the row to the
+ * flight recording (mean and max from its ring consumer);
+ * - gui: ring to a consumer that coalesces every 20 ms like the Kernel's
+ * GUI publisher.
+ *
+ * Frames are accounted for from both ends: what the generator lost,
+ * duplicated and corrupted, and what the station decoded, rejected, saw
+ * twice, never saw, and what the ring consumers dropped.
+ *
+ * Each run is written as one JSON line to stdout and, if given, appended to
+ * a report file.
+ *
+ * Arguments: mode (udp, serial or all), vehicles, rate in Hz, seconds,
+ * loss, duplication and corruption probabilities, jitter in ms, report
+ * file. "all" (the default) runs a clean and an impaired UDP fleet and an
+ * impaired serial link; its only argument is the report file.
+ */
+public class EndToEndBench {
+
+    private static final int basePort = 47000;
+    private static final long guiPeriodMs = 20;
+
+    /**
+     * The station side: decodes into the links and checks every frame
+     * against what the generator sent. Per vehicle state is only touched by
+     * the thread reading that vehicle's link.
+     */
+    static class Station implements ChannelInterface {
+
+        final VehicleLink[] links;
+        TelemetryGenerator generator;
+        final LatencyHistogram transit = new LatencyHistogram("transit");
+        final LatencyHistogram decode = new LatencyHistogram("decode");
+        final long[] valid;
+        final long[] rejected;
+        final long[] repeated;
+        final long[] gaps;
+        final long[] last;
+
+        Station(VehicleLink[] links) {
+            this.links = links;
+            int n = links.length;
+            valid = new long[n];
+            rejected = new long[n];
+            repeated = new long[n];
+            gaps = new long[n];
+            last = new long[n];
+            for (int i = 0; i < n; i++) {
+                last[i] = -1;
+            }
+        }
+
+        public void setDataIn(VehicleLink link, ByteBuffer frame, int offset) {
+            long t0 = System.nanoTime();
+            boolean ok = link.decode(frame, offset);
+            decode.recordNanos(System.nanoTime() - t0);
+            int v = link.getVehicleId();
+            if (!ok) {
+                rejected[v]++;
+                return;
+            }
+            valid[v]++;
+            long sequence = generator.getSequence(link.getDataPacket().getTime());
+            long sent = generator.getSendNanos(v, sequence);
+            if (sent != 0) {
+                transit.recordNanos(t0 - sent);
+            }
+            if (sequence <= last[v]) {
+                repeated[v]++;
+            } else {
+                gaps[v] += sequence - last[v] - 1;
+                last[v] = sequence;
+            }
+        }
+
+        public void setDataIn(int vehicleId, ByteBuffer frame, int offset) {
+            setDataIn(links[vehicleId], frame, offset);
+        }
+
+        public void setDataIn(ByteBuffer frame, int offset) {
+            setDataIn(links[0], frame, offset);
+        }
+
+        public void setDataIn(int[] intArray) {
+        }
+
+        public void setDataIn(String st) {
+        }
+
+        public void joutln(String st, boolean b) {
+        }
+
+        public void joutln(String st) {
+        }
+
+        public void sendSerial(String st) {
+        }
+
+        public void setSerialPortAvaliable(boolean b) {
+        }
+
+        public void setInterface(int iter) {
+        }
+
+        public void sendDataToTerminal(char c) {
+        }
+
+        public void sendDataToTerminal(String buffer) {
+        }
+
+        long sum(long[] a) {
+            long s = 0;
+            for (long x : a) {
+                s += x;
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Stands in for the GUI publisher: newest row at most every 20 ms.
+     */
+    static class GuiProbe extends TelemetryConsumer {
+
+        final LatencyHistogram latency;
+
+        GuiProbe(TelemetryRing ring, LatencyHistogram latency) {
+            super(ring, "gui probe", true, guiPeriodMs);
+            this.latency = latency;
+        }
+
+        @Override
+        protected void process(double[] row) {
+            latency.recordNanos(System.nanoTime() - getConsumer().getLastReceiveNanos());
+        }
+    }
+
+    /**
+     * Reads a pipe like SerialConnection2 reads the port.
+     */
+    static class SerialReader extends Thread {
+
+        private final PipedInputStream in;
+        private final StreamFramer framer;
+
+        SerialReader(PipedInputStream in, final Station station, final VehicleLink link) {
+            super("Serial reader " + link.getVehicleId());
+            this.in = in;
+            framer = new StreamFramer(new StreamFramer.FrameListener() {
+                public void frameReceived(ByteBuffer buffer, int offset) {
+                    station.setDataIn(link, buffer, offset);
+                }
+
+                public void frameRejected(ByteBuffer buffer, int offset) {
+                    station.setDataIn(link, buffer, offset);
+                }
+
+                public void messageReceived(String message) {
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (framer.read(in) != -1) {
+                }
+            } catch (IOException ex) {
+                // the writer went away without closing: end of the link
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "all";
+        if (mode.equals("all")) {
+            File report = args.length > 1 ? new File(args[1]) : null;
+            run("udp", 4, 200, 5, 0, 0, 0, 0, report);
+            run("udp", 4, 200, 5, 0.01, 0.01, 0.01, 2, report);
+            run("serial", 1, 1000, 5, 0.01, 0.01, 0.01, 0.5, report);
+            return;
+        }
+        File report = args.length > 8 ? new File(args[8]) : null;
+        run(mode,
+                args.length > 1 ? Integer.parseInt(args[1]) : 4,
+                args.length > 2 ? Double.parseDouble(args[2]) : 200,
+                args.length > 3 ? Double.parseDouble(args[3]) : 5,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0,
+                args.length > 5 ? Double.parseDouble(args[5]) : 0,
+                args.length > 6 ? Double.parseDouble(args[6]) : 0,
+                args.length > 7 ? Double.parseDouble(args[7]) : 0,
+                report);
+    }
+
+    private static void run(String mode, int vehicles, double rate, double seconds, double loss,
+            double duplication, double corruption, double jitterMs, File report) throws Exception {
+        File dir = File.createTempFile("e2e-bench", "");
+        dir.delete();
+        dir.mkdir();
+        VehicleLink[] links = new VehicleLink[vehicles];
+        GuiProbe[] probes = new GuiProbe[vehicles];
+        LatencyHistogram gui = new LatencyHistogram("gui");
+        for (int i = 0; i < vehicles; i++) {
+            links[i] = new VehicleLink(i, basePort + i, new File(dir, "v" + i + ".rec"));
+            probes[i] = new GuiProbe(links[i].getTelemetryRing(), gui);
+            probes[i].start();
+        }
+        Station station = new Station(links);
+
+        UDPServer server = null;
+        SerialReader[] readers = new SerialReader[0];
+        TelemetryGenerator.Sink sink;
+        if (mode.equals("udp")) {
+            server = new UDPServer(station, 1 << 20);
+            int[] ports = new int[vehicles];
+            for (int i = 0; i < vehicles; i++) {
+                server.addLink(links[i]);
+                ports[i] = links[i].getPort();
+            }
+            for (int i = 0; i < vehicles; i++) {
+                while (server.getFramer(links[i]) == null) {
+                    Thread.sleep(5);
+                }
+            }
+            sink = new TelemetryGenerator.UdpSink("127.0.0.1", ports);
+        } else if (mode.equals("serial")) {
+            OutputStream[] pipes = new OutputStream[vehicles];
+            readers = new SerialReader[vehicles];
+            for (int i = 0; i < vehicles; i++) {
+                PipedInputStream in = new PipedInputStream(1 << 16);
+                pipes[i] = new PipedOutputStream(in);
+                readers[i] = new SerialReader(in, station, links[i]);
+                readers[i].start();
+            }
+            sink = new TelemetryGenerator.StreamSink(pipes);
+        } else {
+            throw new IllegalArgumentException("mode " + mode);
+        }
+
+        TelemetryGenerator generator = new TelemetryGenerator(sink, vehicles, rate, 1);
+        station.generator = generator;
+        generator.setLoss(loss);
+        generator.setDuplication(duplication);
+        generator.setCorruption(corruption);
+        generator.setJitterMs(jitterMs);
+        generator.setDurationMs((long) (seconds * 1000));
+        generator.start();
+        generator.join();
+        sink.close();
+        for (SerialReader reader : readers) {
+            reader.join(2000);
+        }
+        // let the last frames through the rings
+        Thread.sleep(200);
+        long datagrams = 0;
+        if (server != null) {
+            datagrams = server.getDatagrams();
+            server.closeConnection();
+        }
+
+        long recorded = 0;
+        long recordDropped = 0;
+        long guiDropped = 0;
+        long recordMean = 0;
+        long recordMax = 0;
+        for (int i = 0; i < vehicles; i++) {
+            recorded += links[i].getFlightRecorder().getRowCount();
+            for (TelemetryRing.Consumer consumer : links[i].getTelemetryRing().getConsumers()) {
+                if (consumer.getName().startsWith("recorder")) {
+                    recordDropped += consumer.getDropped();
+                    recordMean += consumer.getMeanLatencyNanos() / vehicles;
+                    recordMax = Math.max(recordMax, consumer.getMaxLatencyNanos());
+                } else {
+                    guiDropped += consumer.getDropped();
+                }
+            }
+            probes[i].stopConsumer();
+            links[i].close();
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+
+        // sequence numbers the station never decoded that the generator did
+        // not lose, corrupt or skip on purpose
+        long gaps = station.sum(station.gaps);
+        long missing = gaps - generator.getLost() - generator.getCorrupted() - generator.getUnencodable();
+        long valid = station.sum(station.valid);
+        long repeated = station.sum(station.repeated);
+        JsonReport json = new JsonReport()
+                .put("bench", "end_to_end")
+                .put("mode", mode)
+                .put("vehicles", vehicles)
+                .put("rate_hz", rate)
+                .put("seconds", seconds)
+                .put("loss", loss)
+                .put("duplication", duplication)
+                .put("corruption", corruption)
+                .put("jitter_ms", jitterMs)
+                .put("cpus", Runtime.getRuntime().availableProcessors())
+                .begin("generator")
+                .put("sent", generator.getSent())
+                .put("lost", generator.getLost())
+                .put("duplicated", generator.getDuplicated())
+                .put("corrupted", generator.getCorrupted())
+                .put("unencodable", generator.getUnencodable())
+                .put("late", generator.getLate())
+                .put("bytes", generator.getBytes())
+                .end()
+                .begin("station")
+                .put("datagrams", datagrams)
+                .put("decoded", valid)
+                .put("rejected", station.sum(station.rejected))
+                .put("repeated", repeated)
+                .put("gaps", gaps)
+                .put("missing", missing)
+                .put("recorded_rows", recorded)
+                .put("record_dropped", recordDropped)
+                .put("gui_dropped", guiDropped)
+                .end()
+                .begin("latency")
+                .put("transit", station.transit)
+                .put("decode", station.decode)
+                .begin("record")
+                .put("mean_us", recordMean / 1000)
+                .put("max_us", recordMax / 1000)
+                .end()
+                .put("gui", gui)
+                .end()
+                .put("frames_per_s", valid / seconds);
+        System.out.println(json);
+        json.appendTo(report);
+    }
+}
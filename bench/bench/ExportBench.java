@@ -0,0 +1,93 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.DataPacket;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import recorder.ExportSelection;
+import recorder.FlightExporter;
+import recorder.FlightLog;
+import recorder.FlightRecorder;
+
+/**
+ * Records synthetic flights of growing length and exports them to a MAT
+ * file, sampling heap use while the export runs. The peak should stay flat
+ * as the row count grows.
+ *
+ * Arguments: row counts to try (default 1000000 5000000 10000000). Each run
+ * needs about rows * 450 bytes of temporary disk space.
+ */
+public class ExportBench {
+
+    private static volatile long peakHeap = 0;
+    private static volatile boolean sampling = false;
+
+    public static void main(String[] args) throws Exception {
+        long[] counts = {1000000L, 5000000L, 10000000L};
+        if (args.length > 0) {
+            counts = new long[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Long.parseLong(args[i]);
+            }
+        }
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Thread sampler = new Thread() {
+            public void run() {
+                while (true) {
+                    if (sampling) {
+                        peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+                    }
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        };
+        sampler.setDaemon(true);
+        sampler.start();
+
+        for (long rows : counts) {
+            File rec = File.createTempFile("export-bench", ".rec");
+            File mat = File.createTempFile("export-bench", ".mat");
+            try {
+                record(rec, rows);
+                System.gc();
+                long baseline = memory.getHeapMemoryUsage().getUsed();
+                peakHeap = baseline;
+                sampling = true;
+                long t0 = System.nanoTime();
+                FlightLog log = new FlightLog(rec);
+                FlightExporter.writeMat(log, mat, "data", new ExportSelection(), null);
+                log.close();
+                long t = System.nanoTime() - t0;
+                sampling = false;
+                System.out.println(String.format("%,12d rows  %8.1f s  %8.1f MB/s  heap baseline %6.1f MB  peak %6.1f MB",
+                        rows, t / 1e9, mat.length() / 1e6 / (t / 1e9), baseline / 1e6, peakHeap / 1e6));
+            } finally {
+                rec.delete();
+                mat.delete();
+            }
+        }
+    }
+
+    private static void record(File file, long rows) throws IOException {
+        FlightRecorder recorder = new FlightRecorder(file, DataPacket.getDataArraySize());
+        double[] row = new double[DataPacket.getDataArraySize()];
+        for (long i = 0; i < rows; i++) {
+            row[DataPacket.INDEX_TIME] = i * 0.02;
+            for (int j = 1; j < row.length; j++) {
+                row[j] = Math.sin(i * 1e-3 + j);
+            }
+            recorder.append(row, i * 20000L);
+            recorder.commitIfDue();
+        }
+        recorder.close();
+    }
+}
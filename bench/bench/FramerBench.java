@@ -0,0 +1,199 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import comm.StreamFramer;
+import data.DataPacket;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Runs recorded-like byte streams through the old byte-at-a-time serial
+ * framing loop and through StreamFramer, and reports throughput and how
+ * many good frames each one recovers.
+ *
+ * Fixtures: a clean stream, the same stream delivered in random 1..300 byte
+ * chunks, and a corrupted stream with flipped bytes, garbage bursts between
+ * frames and truncated frames.
+ */
+public class FramerBench {
+
+    private static final int frameCount = 20000;
+
+    /**
+     * Stream fixture with the number of intact frames it holds.
+     */
+    static class Fixture {
+
+        final String name;
+        final byte[] bytes;
+        final int goodFrames;
+        final int maxChunk;
+
+        Fixture(String name, byte[] bytes, int goodFrames, int maxChunk) {
+            this.name = name;
+            this.bytes = bytes;
+            this.goodFrames = goodFrames;
+            this.maxChunk = maxChunk;
+        }
+    }
+
+    /**
+     * Hands out the fixture in chunks of random size, like a serial driver.
+     */
+    static class ChunkedInputStream extends InputStream {
+
+        private final byte[] data;
+        private final int maxChunk;
+        private final Random random = new Random(7);
+        private int pos = 0;
+
+        ChunkedInputStream(byte[] data, int maxChunk) {
+            this.data = data;
+            this.maxChunk = maxChunk;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, 1 + random.nextInt(maxChunk)), data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return data.length - pos;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Fixture[] fixtures = {clean(), fragmented(), corrupted()};
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2;
+            for (Fixture fixture : fixtures) {
+                long t0 = System.nanoTime();
+                int legacy = runLegacy(fixture);
+                long t1 = System.nanoTime();
+                StreamFramer framer = runFramer(fixture);
+                long t2 = System.nanoTime();
+                if (report) {
+                    System.out.println(fixture.name + ": " + fixture.bytes.length + " bytes, " + fixture.goodFrames + " intact frames");
+                    System.out.println(String.format("  legacy  %8.1f MB/s  %6d good frames", mbps(fixture, t1 - t0), legacy));
+                    System.out.println(String.format("  framer  %8.1f MB/s  %6d good frames  (%s)", mbps(fixture, t2 - t1), framer.getFrames(), framer));
+                }
+            }
+        }
+    }
+
+    private static double mbps(Fixture fixture, long nanos) {
+        return fixture.bytes.length / 1e6 / (nanos / 1e9);
+    }
+
+    private static int runLegacy(Fixture fixture) throws IOException {
+        InputStream is = new ChunkedInputStream(fixture.bytes, fixture.maxChunk);
+        DataPacket packet = new DataPacket();
+        byte[] frameBytes = new byte[200];
+        ByteBuffer frameBuffer = ByteBuffer.wrap(frameBytes);
+        int frameSize = DataPacket.getDataPacketSize();
+        int cont = 0;
+        int good = 0;
+        int newData;
+        // The loop SerialConnection2.serialEvent used before StreamFramer.
+        while ((newData = is.read()) != -1) {
+            if (cont == frameSize - 1) {
+                frameBytes[cont] = (byte) newData;
+                if (frameBytes[0] == 'U' && frameBytes[1] == 'U' && frameBytes[2] == 'T') {
+                    packet.setDataBuffer(frameBuffer, 0);
+                    if (packet.isCheckSum()) {
+                        good++;
+                    }
+                }
+                cont = 0;
+            }
+            frameBytes[cont] = (byte) newData;
+            if (cont > 1 && frameBytes[cont - 2] == 'U' && frameBytes[cont - 1] == 'U' && frameBytes[cont] == 'T') {
+                frameBytes[0] = 'U';
+                frameBytes[1] = 'U';
+                frameBytes[2] = 'T';
+                cont = 2;
+            }
+            cont++;
+        }
+        return good;
+    }
+
+    private static StreamFramer runFramer(Fixture fixture) throws IOException {
+        InputStream is = new ChunkedInputStream(fixture.bytes, fixture.maxChunk);
+        final DataPacket packet = new DataPacket();
+        StreamFramer framer = new StreamFramer(new StreamFramer.FrameListener() {
+            public void frameReceived(ByteBuffer buffer, int offset) {
+                packet.setDataBuffer(buffer, offset);
+            }
+
+            public void frameRejected(ByteBuffer buffer, int offset) {
+            }
+
+            public void messageReceived(String message) {
+            }
+        });
+        while (framer.read(is) != -1) {
+        }
+        return framer;
+    }
+
+    private static Fixture clean() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < frameCount; i++) {
+            byte[] frame = DecodeBench.sampleFrame(i);
+            out.write(frame, 0, frame.length);
+        }
+        return new Fixture("clean", out.toByteArray(), frameCount, 4096);
+    }
+
+    private static Fixture fragmented() {
+        Fixture clean = clean();
+        return new Fixture("fragmented", clean.bytes, frameCount, 300);
+    }
+
+    private static Fixture corrupted() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Random random = new Random(3);
+        int good = 0;
+        for (int i = 0; i < frameCount; i++) {
+            byte[] frame = DecodeBench.sampleFrame(i);
+            int kind = random.nextInt(100);
+            if (kind < 5) {
+                // Flipped payload byte: checksum fails.
+                frame[3 + random.nextInt(frame.length - 5)] ^= 0x40;
+                out.write(frame, 0, frame.length);
+            } else if (kind < 7) {
+                // Truncated frame, the next header follows right away.
+                out.write(frame, 0, 3 + random.nextInt(frame.length - 3));
+            } else {
+                out.write(frame, 0, frame.length);
+                good++;
+            }
+            if (random.nextInt(10) == 0) {
+                int n = random.nextInt(40);
+                for (int j = 0; j < n; j++) {
+                    out.write(random.nextBoolean() ? 'U' : random.nextInt(256));
+                }
+            }
+        }
+        return new Fixture("corrupted", out.toByteArray(), good, 300);
+    }
+}
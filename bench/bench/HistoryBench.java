@@ -0,0 +1,77 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.DataPacket;
+import java.io.File;
+import recorder.FlightHistory;
+import recorder.FlightLog;
+import recorder.FlightRecorder;
+
+/**
+ * Records a synthetic flight into a FlightRecorder and a FlightHistory side
+ * by side, then asks the history for spans from the whole flight down to a
+ * second on a 1000 pixel wide plot.
+ *
+ * Argument: rows to record (default 1000000, about 17 minutes at 1 kHz). Needs
+ * about rows * 450 bytes of temporary disk space.
+ */
+public class HistoryBench {
+
+    private static final int pixels = 1000;
+    private static final long periodMicros = 1000;
+
+    public static void main(String[] args) throws Exception {
+        final long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000L;
+        final int width = DataPacket.getDataArraySize();
+        File rec = File.createTempFile("history-bench", ".rec");
+        try {
+            FlightRecorder recorder = new FlightRecorder(rec, width);
+            final FlightHistory history = new FlightHistory(width);
+            final FlightLog log = new FlightLog(rec);
+            history.setRawSource(log);
+            final double[] row = new double[width];
+            final long t0 = System.currentTimeMillis() * 1000;
+
+            long start = System.nanoTime();
+            for (long i = 0; i < rows; i++) {
+                double t = i * 1e-3;
+                for (int c = 0; c < width; c++) {
+                    row[c] = Math.sin(0.01 * t + c);
+                }
+                history.append(row, t0 + i * periodMicros);
+            }
+            long historyNanos = System.nanoTime() - start;
+            for (long i = 0; i < rows; i++) {
+                row[0] = i * 1e-3;
+                recorder.append(row, t0 + i * periodMicros);
+                recorder.commitIfDue();
+            }
+            recorder.commit();
+            System.out.println(String.format("append %d rows x %d channels: %.2f us/row, pyramid %d levels, %.1f MB",
+                    rows, width, historyNanos / 1000.0 / rows, history.getLevels(), history.getBytes() / 1e6));
+
+            final FlightHistory.Buckets buckets = new FlightHistory.Buckets();
+            final long end = t0 + rows * periodMicros;
+            long[] spans = {rows * periodMicros, 600000000L, 60000000L, 1000000L};
+            String[] names = {"whole flight", "10 min", "1 min", "1 s"};
+            for (int s = 0; s < spans.length; s++) {
+                final long span = Math.min(spans[s], rows * periodMicros);
+                final int[] channel = {0};
+                BenchHarness.Result r = BenchHarness.throughput("query " + names[s], new Runnable() {
+                    public void run() {
+                        long from = end - span;
+                        history.query(1 + channel[0]++ % (width - 1), from, end, pixels, buckets);
+                    }
+                }, 2000);
+                System.out.println(r + String.format("  %5d buckets at level %2d", buckets.getSize(), buckets.getLevel()));
+            }
+            log.close();
+            recorder.close();
+        } finally {
+            rec.delete();
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import comm.StreamFramer;
+import data.DataPacket;
+import data.ParamPacket;
+import data.WaypointPacket;
+import des.graph2d.Entity2D;
+import des.graph2d.HeadingDisplay;
+import des.graph2d.SlideDisplay;
+import des.graph2d.ThetaPhiDisplay;
+import des.map.tile.TileSource;
+import des.map.tile.TileStore;
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.swing.JPanel;
+import sim.FlightModel;
+import sim.FrameEncoder;
+
+/**
+ * Average time per call of the telemetry hot paths, one benchmark per
+ * method and parameter set, run the way a JMH suite in average time mode
+ * with the gc profiler would be:
+ *
+ * - decode.setDataIntArray / decode.setDataBuffer: checksum and decoding
+ * of a frame, by payload (frames of a simulated flight, random valid bytes,
+ * a text message);
+ * - framer.feed: StreamFramer splitting datagrams of 1, 8 or 64 frames,
+ * which replaced the UDPServer copy loop;
+ * - uplink.param / uplink.waypoint: assembling and signing an uplink
+ * packet, reusing the packet object or not;
+ * - hud.update / hud.rotateAndTranslate: one HUD widget update, and only
+ * the transform and draw of its nodes, at two angles;
+ * - map.wgs2objCoord / map.wgs2mercator / map.mercator2wgs: the
+ * PanelDrawing coordinate transforms at two zoom levels;
+ * - map.paint: PanelDrawing.paint() of a track of 100, 1024 and 10000
+ * points.
+ *
+ * The PanelDrawing transforms are private and called by reflection with a
+ * reused argument array, so their scores include the reflective call; they
+ * are meant to be compared between runs, not taken as absolute.
+ *
+ * Results are printed and, with -rf, written in JMH's JSON result format
+ * so the same tools read them; CompareBench diffs two result files.
+ *
+ * Arguments: [-wi warm-up iterations] [-i iterations] [-r ms per
+ * iteration] [-rf result file] [regex on benchmark:params]
+ */
+public class HotPathBench {
+
+    private static final int sampleFrames = 64;
+    private static final String mode = "avgt";
+
+    /**
+     * One benchmark method with one set of parameters.
+     */
+    static class Case {
+
+        final String benchmark;
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        final Runnable op;
+
+        Case(String benchmark, Runnable op) {
+            this.benchmark = benchmark;
+            this.op = op;
+        }
+
+        Case param(String name, Object value) {
+            params.put(name, String.valueOf(value));
+            return this;
+        }
+
+        String label() {
+            StringBuilder s = new StringBuilder(benchmark);
+            char separator = ':';
+            for (Map.Entry<String, String> e : params.entrySet()) {
+                s.append(separator).append(e.getKey()).append('=').append(e.getValue());
+                separator = ',';
+            }
+            return s.toString();
+        }
+    }
+
+    // keeps results alive so the JIT cannot drop the work
+    static volatile double sink;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int warmups = 5;
+        int iterations = 10;
+        long iterationMs = 500;
+        File resultFile = null;
+        Pattern filter = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-wi")) {
+                warmups = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-i")) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-r")) {
+                iterationMs = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-rf")) {
+                resultFile = new File(args[++i]);
+            } else {
+                filter = Pattern.compile(args[i]);
+            }
+        }
+
+        ArrayList<Case> cases = new ArrayList<Case>();
+        addDecodeCases(cases);
+        addFramerCases(cases);
+        addUplinkCases(cases);
+        addHudCases(cases);
+        addMapCases(cases);
+
+        ArrayList<String> results = new ArrayList<String>();
+        for (Case c : cases) {
+            if (filter != null && !filter.matcher(c.label()).find()) {
+                continue;
+            }
+            BenchHarness.Measurement m = BenchHarness.measure(c.label(), c.op, warmups, iterations, iterationMs);
+            System.out.println(m);
+            results.add(toJson(c, m, warmups, iterations, iterationMs).toString());
+        }
+        if (resultFile != null) {
+            write(resultFile, results);
+        }
+    }
+
+    /**
+     * One element of a JMH result file.
+     */
+    private static JsonReport toJson(Case c, BenchHarness.Measurement m, int warmups, int iterations, long iterationMs) {
+        JsonReport json = new JsonReport()
+                .put("jmhVersion", "harness")
+                .put("benchmark", "bench.HotPathBench." + c.benchmark)
+                .put("mode", mode)
+                .put("threads", 1)
+                .put("forks", 1)
+                .put("jvm", System.getProperty("java.home"))
+                .put("jdkVersion", System.getProperty("java.version"))
+                .put("warmupIterations", warmups)
+                .put("warmupTime", iterationMs + " ms")
+                .put("measurementIterations", iterations)
+                .put("measurementTime", iterationMs + " ms");
+        if (!c.params.isEmpty()) {
+            json.begin("params");
+            for (Map.Entry<String, String> e : c.params.entrySet()) {
+                json.put(e.getKey(), e.getValue());
+            }
+            json.end();
+        }
+        return json.begin("primaryMetric")
+                .put("score", m.mean())
+                .put("scoreError", m.error())
+                .put("scoreUnit", "ns/op")
+                .put("rawData", new double[][]{m.nanosPerOp})
+                .end()
+                .begin("secondaryMetrics")
+                .begin("gc.alloc.rate.norm")
+                .put("score", m.bytesPerOp)
+                .put("scoreUnit", "B/op")
+                .end()
+                .begin("gc.count")
+                .put("score", m.gcCount)
+                .put("scoreUnit", "counts")
+                .end()
+                .begin("gc.time")
+                .put("score", m.gcTimeMs)
+                .put("scoreUnit", "ms")
+                .end()
+                .end();
+    }
+
+    private static void write(File file, ArrayList<String> results) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        Writer out = new FileWriter(file);
+        try {
+            out.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                out.write(results.get(i));
+                out.write(i + 1 < results.size() ? ",\n" : "\n");
+            }
+            out.write("]\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     *
+     * @param payload flight, random or message
+     * @return sampleFrames frames of that kind
+     */
+    static byte[][] frames(String payload) {
+        int size = DataPacket.getDataPacketSize();
+        byte[][] frames = new byte[sampleFrames][];
+        if (payload.equals("flight")) {
+            FlightModel model = new FlightModel(0, 1);
+            double[] row = new double[DataPacket.getDataArraySize()];
+            ByteBuffer frame = ByteBuffer.allocate(size);
+            int n = 0;
+            for (int i = 0; n < sampleFrames; i++) {
+                model.fill(0.02 * i, row);
+                if (FrameEncoder.encode(row, model.getWaypointIds(), frame, 0)) {
+                    frames[n++] = frame.array().clone();
+                }
+            }
+        } else if (payload.equals("random")) {
+            for (int i = 0; i < sampleFrames; i++) {
+                frames[i] = DecodeBench.sampleFrame(i);
+            }
+        } else {
+            for (int i = 0; i < sampleFrames; i++) {
+                byte[] frame = new byte[size];
+                frame[0] = 'U';
+                frame[1] = 'U';
+                frame[2] = 'M';
+                byte[] text = ("waypoint " + i + " reached").getBytes();
+                System.arraycopy(text, 0, frame, 3, text.length);
+                frames[i] = frame;
+            }
+        }
+        return frames;
+    }
+
+    private static void addDecodeCases(ArrayList<Case> cases) {
+        String[] payloads = {"flight", "random", "message"};
+        for (String payload : payloads) {
+            byte[][] frames = frames(payload);
+            final int[][] intArrays = new int[frames.length][];
+            final ByteBuffer[] buffers = new ByteBuffer[frames.length];
+            for (int i = 0; i < frames.length; i++) {
+                intArrays[i] = new int[frames[i].length];
+                for (int j = 0; j < frames[i].length; j++) {
+                    intArrays[i][j] = frames[i][j] & 0xFF;
+                }
+                buffers[i] = ByteBuffer.wrap(frames[i]);
+            }
+            final DataPacket legacy = new DataPacket();
+            cases.add(new Case("decode.setDataIntArray", new Runnable() {
+                int next = 0;
+
+                public void run() {
+                    legacy.setDataIntArray(intArrays[next++ & (sampleFrames - 1)]);
+                    sink = legacy.getTime();
+                }
+            }).param("payload", payload));
+            final DataPacket decoder = new DataPacket();
+            cases.add(new Case("decode.setDataBuffer", new Runnable() {
+                int next = 0;
+
+                public void run() {
+                    decoder.setDataBuffer(buffers[next++ & (sampleFrames - 1)], 0);
+                    sink = decoder.getTime();
+                }
+            }).param("payload", payload));
+        }
+    }
+
+    private static void addFramerCases(ArrayList<Case> cases) {
+        byte[][] frames = frames("flight");
+        int size = DataPacket.getDataPacketSize();
+        int[] framesPerDatagram = {1, 8, 64};
+        for (int k : framesPerDatagram) {
+            final ByteBuffer datagram = ByteBuffer.allocate(k * size);
+            for (int i = 0; i < k; i++) {
+                datagram.put(frames[i]);
+            }
+            final DataPacket packet = new DataPacket();
+            final StreamFramer framer = new StreamFramer(new StreamFramer.FrameListener() {
+                public void frameReceived(ByteBuffer buffer, int offset) {
+                    packet.setDataBuffer(buffer, offset);
+                }
+
+                public void frameRejected(ByteBuffer buffer, int offset) {
+                }
+
+                public void messageReceived(String message) {
+                }
+            });
+            cases.add(new Case("framer.feed", new Runnable() {
+                public void run() {
+                    datagram.clear();
+                    framer.feed(datagram);
+                    sink = packet.getTime();
+                }
+            }).param("framesPerDatagram", k));
+        }
+    }
+
+    private static void addUplinkCases(ArrayList<Case> cases) {
+        final ParamPacket param = new ParamPacket();
+        cases.add(new Case("uplink.param", new Runnable() {
+            public void run() {
+                param.assembleParameterPacket((byte) 3, 1.5f);
+            }
+        }).param("object", "reused"));
+        cases.add(new Case("uplink.param", new Runnable() {
+            public void run() {
+                new ParamPacket().assembleParameterPacket((byte) 3, 1.5f);
+            }
+        }).param("object", "new"));
+        final WaypointPacket waypoint = new WaypointPacket();
+        cases.add(new Case("uplink.waypoint", new Runnable() {
+            public void run() {
+                waypoint.assembleWaypointPacket((byte) 2, -932277000, 449740000, 100f);
+            }
+        }).param("object", "reused"));
+        cases.add(new Case("uplink.waypoint", new Runnable() {
+            public void run() {
+                new WaypointPacket().assembleWaypointPacket((byte) 2, -932277000, 449740000, 100f);
+            }
+        }).param("object", "new"));
+    }
+
+    private static void addHudCases(ArrayList<Case> cases) {
+        BufferedImage image = new BufferedImage(1200, 720, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g2 = image.createGraphics();
+        String[] widgets = {"thetaPhi", "heading", "slide"};
+        int[] angles = {0, 30};
+        for (String name : widgets) {
+            for (int angle : angles) {
+                final Entity2D widget;
+                if (name.equals("thetaPhi")) {
+                    widget = new ThetaPhiDisplay(600, 350, 52, 5, 5);
+                } else if (name.equals("heading")) {
+                    widget = new HeadingDisplay(600, 50, 40, 60, 10, 5);
+                } else {
+                    widget = new SlideDisplay(910, 350, 40, 40, 10, 5, false);
+                }
+                final double[] values = {angle, angle, 0};
+                final double radians = Math.toRadians(angle);
+                widget.update(values, g2);
+                cases.add(new Case("hud.update", new Runnable() {
+                    public void run() {
+                        widget.update(values, g2);
+                    }
+                }).param("widget", name).param("angle", angle));
+                cases.add(new Case("hud.rotateAndTranslate", new Runnable() {
+                    public void run() {
+                        widget.rotateAndTranslate(radians, 600, 350, g2);
+                    }
+                }).param("widget", name).param("angle", angle));
+            }
+        }
+    }
+
+    /**
+     *
+     * @return a panel without map tiles, centered on the simulated flights
+     */
+    static JPanel mapPanel(Class<?> type, int zoom) throws Exception {
+        JPanel panel = (JPanel) type.getDeclaredConstructor().newInstance();
+        panel.setSize(800, 600);
+        type.getMethod("setTileSource", TileSource.class, TileStore.class).invoke(panel, null, null);
+        type.getMethod("setPositionDeg", Point2D.class).invoke(panel, new Point2D.Double(44.9740, -93.2277));
+        type.getMethod("setZoom", int.class).invoke(panel, zoom);
+        return panel;
+    }
+
+    /**
+     * PanelDrawing is loaded by name: it reaches into the Kernel, and so
+     * into the whole application, which a bench class path may not have.
+     * The map benchmarks are skipped then.
+     */
+    private static void addMapCases(ArrayList<Case> cases) throws Exception {
+        Class<?> type;
+        try {
+            type = Class.forName("des.map.PanelDrawing");
+        } catch (Throwable ex) {
+            System.out.println("map benchmarks skipped, PanelDrawing not available: " + ex);
+            return;
+        }
+        int[] zooms = {10, 17};
+        final Point2D wgs = new Point2D.Double(Math.toRadians(44.9751), Math.toRadians(-93.2260));
+        for (int zoom : zooms) {
+            final JPanel panel = mapPanel(type, zoom);
+            final Method wgs2objCoord = method(type, "wgs2objCoord");
+            final Method wgs2mercator = method(type, "wgs2mercator");
+            final Method mercator2wgs = method(type, "mercator2wgs");
+            final Object[] wgsArgs = {wgs};
+            final Object[] mercatorArgs = {wgs2mercator.invoke(panel, wgsArgs)};
+            cases.add(new Case("map.wgs2objCoord", new Runnable() {
+                public void run() {
+                    sink = ((Point2D) invoke(wgs2objCoord, panel, wgsArgs)).getX();
+                }
+            }).param("zoom", zoom));
+            cases.add(new Case("map.wgs2mercator", new Runnable() {
+                public void run() {
+                    sink = ((Point2D) invoke(wgs2mercator, panel, wgsArgs)).getX();
+                }
+            }).param("zoom", zoom));
+            cases.add(new Case("map.mercator2wgs", new Runnable() {
+                public void run() {
+                    sink = ((Point2D) invoke(mercator2wgs, panel, mercatorArgs)).getX();
+                }
+            }).param("zoom", zoom));
+        }
+
+        int[] points = {100, 1024, 10000};
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g2 = image.createGraphics();
+        Method setPositions = type.getMethod("setPositions", double[].class, double[].class, int.class);
+        for (int n : points) {
+            final JPanel panel = mapPanel(type, 15);
+            FlightModel model = new FlightModel(0, 1);
+            double[] row = new double[DataPacket.getDataArraySize()];
+            double[] lat = new double[n];
+            double[] lng = new double[n];
+            for (int i = 0; i < n; i++) {
+                model.fill(0.2 * i, row);
+                lat[i] = Math.toRadians(row[DataPacket.INDEX_LATITUD]);
+                lng[i] = Math.toRadians(row[DataPacket.INDEX_LONGITUD]);
+            }
+            setPositions.invoke(panel, lat, lng, n);
+            cases.add(new Case("map.paint", new Runnable() {
+                public void run() {
+                    panel.paint(g2);
+                }
+            }).param("points", n));
+        }
+    }
+
+    private static Method method(Class<?> type, String name) throws NoSuchMethodException {
+        Method m = type.getDeclaredMethod(name, Point2D.class);
+        m.setAccessible(true);
+        return m;
+    }
+
+    private static Object invoke(Method m, Object target, Object[] args) {
+        try {
+            return m.invoke(target, args);
+        } catch (Exception ex) {
+            throw new IllegalStateException(m.getName(), ex);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import des.graph2d.BarDisplay;
+import des.graph2d.ChromeLayer;
+import des.graph2d.FlagDisplay;
+import des.graph2d.GPSDisplay;
+import des.graph2d.HeadingDisplay;
+import des.graph2d.SlideDisplay;
+import des.graph2d.SurfacesDisplay;
+import des.graph2d.ThetaPhiDisplay;
+import des.graph2d.TimeDisplay;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Frame time and allocations per frame for the HUD: the widgets of
+ * PanelHUD, laid out and updated the way PanelHUD.draw() does, drawn into
+ * an offscreen image of the panel size. PanelHUD itself pulls in the whole
+ * application, so the bench builds the same widgets directly.
+ *
+ * "steady" repeats the same sample, "flight" changes every value each
+ * frame like live telemetry does. Each runs once drawing everything and
+ * once with the chrome cached in a ChromeLayer. Offscreen the layer can
+ * only use BufferedImages, so this measures the software path.
+ */
+public class HudBench {
+
+    private static final int frames = 5000;
+    private static final Color background = new Color(73, 68, 103);
+
+    private final int centerX = 600;
+    private final int centerY = 350;
+    private final ThetaPhiDisplay thetaPhiDisplay = new ThetaPhiDisplay(centerX, centerY, 52, 5, 5);
+    private final SlideDisplay altitudeDisplay = new SlideDisplay(centerX + 310, centerY, 40, 40, 10, 5, false);
+    private final SlideDisplay airSpeedDisplay = new SlideDisplay(centerX - 310, centerY, 40, 40, 10, 5, true);
+    private final FlagDisplay flagDisplay = new FlagDisplay(0, centerY - 170, 80, 30, 5, 2,
+            new String[]{"", "AHD", "IHD", "WPN", "MAN", "", "IMU DATA", "GPS DATA", "GPS LOCK", "TELE DATA"});
+    private final SurfacesDisplay surfacesSlides = new SurfacesDisplay(120, centerY + 70, 150, 15, -25, 25);
+    private final HeadingDisplay headingDisplay = new HeadingDisplay(centerX, 50, 40, 60, 10, 5);
+    private final BarDisplay batteryBar = new BarDisplay("Battery", 20, 40, 200, 20, false);
+    private final BarDisplay cpuLoadBar = new BarDisplay("CPU load", 20, 120, 200, 20, false);
+    private final GPSDisplay gpsDisplay = new GPSDisplay(centerX - 170, centerY + 170, 250, 50, 2);
+    private final TimeDisplay timeDisplay = new TimeDisplay(centerX + 100, centerY + 170 + 25, 4);
+    private final double[] values = new double[3];
+    private final double[] surfaces = new double[4];
+    private final BufferedImage image = new BufferedImage(1200, 720, BufferedImage.TYPE_INT_RGB);
+    private final Graphics2D g2 = image.createGraphics();
+    private final ChromeLayer chromeLayer;
+    private int frame = 0;
+
+    HudBench(boolean layered) {
+        if (layered) {
+            chromeLayer = new ChromeLayer();
+            chromeLayer.setAlwaysCache(true);
+            chromeLayer.add(thetaPhiDisplay);
+            chromeLayer.add(altitudeDisplay);
+            chromeLayer.add(airSpeedDisplay);
+            chromeLayer.add(flagDisplay);
+            chromeLayer.add(surfacesSlides);
+            chromeLayer.add(headingDisplay);
+            chromeLayer.add(batteryBar);
+            chromeLayer.add(cpuLoadBar);
+            chromeLayer.add(gpsDisplay);
+            chromeLayer.add(timeDisplay);
+        } else {
+            chromeLayer = null;
+        }
+    }
+
+    /**
+     * One PanelHUD.draw() for the sample at time t.
+     */
+    void draw(double t) {
+        g2.setColor(background);
+        g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+        if (chromeLayer != null) {
+            chromeLayer.paint(g2, null, image.getWidth(), image.getHeight());
+        }
+        values[0] = 5 * Math.sin(t);
+        values[1] = 30 * Math.sin(0.3 * t);
+        thetaPhiDisplay.update(values, g2);
+        values[0] = 120 + 40 * Math.sin(0.1 * t);
+        altitudeDisplay.update(values, g2);
+        values[0] = (360 + 17 * t) % 360;
+        headingDisplay.update(values, g2);
+        values[0] = 18 + 3 * Math.sin(0.7 * t);
+        values[1] = 20;
+        airSpeedDisplay.update(values, g2);
+        surfaces[0] = 10 * Math.sin(t);
+        surfaces[1] = 5 * Math.sin(1.3 * t);
+        surfaces[2] = 20 * Math.sin(0.2 * t);
+        surfaces[3] = -8 * Math.sin(0.9 * t);
+        surfacesSlides.update(surfaces, g2);
+        values[0] = ((int) t & 1) == 0 ? 0x2c2 : 0x3c4;
+        flagDisplay.update(values, g2);
+        values[0] = 80 - t / 100;
+        batteryBar.update(values, g2);
+        values[0] = 35 + 10 * Math.sin(t);
+        cpuLoadBar.update(values, g2);
+        values[0] = 44.97 + t * 1e-6;
+        values[1] = -93.23 - t * 1e-6;
+        values[2] = 9;
+        gpsDisplay.update(values, g2);
+        values[0] = t;
+        timeDisplay.update(values, g2);
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        for (int run = 0; run < 2; run++) {
+            boolean layered = run == 1;
+            final HudBench hud = new HudBench(layered);
+            String mode = layered ? ", chrome layer" : ", full redraw";
+            BenchHarness.Result steady = BenchHarness.throughput("HUD frame, steady" + mode, new Runnable() {
+                public void run() {
+                    hud.draw(12.345);
+                }
+            }, frames);
+            BenchHarness.Result flight = BenchHarness.throughput("HUD frame, flight" + mode, new Runnable() {
+                public void run() {
+                    hud.draw(0.01 * hud.frame++);
+                }
+            }, frames);
+            System.out.println(steady + String.format("  %8.1f us/frame", steady.nanosPerOp() / 1000));
+            System.out.println(flight + String.format("  %8.1f us/frame", flight.nanosPerOp() / 1000));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.DataPacket;
+import java.io.File;
+import recorder.FlightIndex;
+import recorder.FlightLog;
+import recorder.FlightRecorder;
+
+/**
+ * Records a synthetic flight with a flight mode that changes every few
+ * minutes, then answers the two questions export and replay ask, through
+ * the FlightIndex and by reading every row: "channels X and Y between t0
+ * and t1" and "rows where the flight mode changed". Both answers are
+ * compared, then the index file is removed and rebuilt from the recording.
+ *
+ * Argument: rows to record (default 1000000, about 17 minutes at 1 kHz).
+ * Needs about rows * 450 bytes of temporary disk space.
+ */
+public class IndexBench {
+
+    private static final long periodMicros = 1000;
+    private static final int mode = DataPacket.INDEX_FLIGHT_MODE;
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000L;
+        int width = DataPacket.getDataArraySize();
+        File rec = File.createTempFile("index-bench", ".rec");
+        File idx = new File(rec.getPath() + ".idx");
+        try {
+            long t0 = System.currentTimeMillis() * 1000;
+            FlightRecorder recorder = new FlightRecorder(rec, width);
+            double[] row = new double[width];
+            long expectedChanges = 0;
+            for (long i = 0; i < rows; i++) {
+                double m = (i / 150000) % 4;
+                if (i > 0 && m != row[mode]) {
+                    expectedChanges++;
+                }
+                row[mode] = m;
+                row[DataPacket.INDEX_ALTITUDE] = 100 + 50 * Math.sin(i * 1e-4);
+                row[DataPacket.INDEX_IAS] = 20 + Math.cos(i * 1e-3);
+                recorder.append(row, t0 + i * periodMicros);
+                recorder.commitIfDue();
+            }
+            recorder.close();
+
+            for (int pass = 0; pass < 2; pass++) {
+                FlightLog log = new FlightLog(rec);
+                long open = System.nanoTime();
+                FlightIndex index = log.getIndex();
+                open = System.nanoTime() - open;
+                System.out.println(String.format("%s: %d blocks in %.1f ms",
+                        pass == 0 ? "index written while recording" : "index rebuilt from the recording",
+                        index.getBlocks(), open / 1e6));
+                run(log, index, t0, rows, expectedChanges);
+                log.close();
+                idx.delete();
+            }
+        } finally {
+            rec.delete();
+            idx.delete();
+        }
+    }
+
+    private static void run(final FlightLog log, final FlightIndex index, long t0, final long rows,
+            final long expectedChanges) throws Exception {
+        final long from = t0 + rows / 3 * periodMicros;
+        final long to = from + 60000 * periodMicros;
+        final int[] channels = {DataPacket.INDEX_ALTITUDE, DataPacket.INDEX_IAS};
+        final long[] count = new long[2];
+        final FlightIndex.RowVisitor sum = new FlightIndex.RowVisitor() {
+            public void row(long row, long timestampMicros, double[] values) {
+                count[0]++;
+            }
+        };
+        final FlightIndex.ChangeVisitor changes = new FlightIndex.ChangeVisitor() {
+            public void change(long row, long timestampMicros, double previous, double value) {
+                count[1]++;
+            }
+        };
+        final double[] full = new double[log.getWidth()];
+        final long[] time = new long[1];
+        Runnable rangeScan = new Runnable() {
+            public void run() {
+                try {
+                    for (long r = 0; r < rows; r++) {
+                        time[0] = log.readTimestamp(r);
+                        if (time[0] >= from && time[0] < to) {
+                            log.readRow(r, full);
+                            count[0]++;
+                        }
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        Runnable rangeIndex = new Runnable() {
+            public void run() {
+                try {
+                    index.scan(channels, from, to, sum);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        Runnable changeScan = new Runnable() {
+            public void run() {
+                try {
+                    double previous = Double.NaN;
+                    for (long r = 0; r < rows; r++) {
+                        log.readRow(r, full);
+                        if (r > 0 && full[mode] != previous) {
+                            count[1]++;
+                        }
+                        previous = full[mode];
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        Runnable changeIndex = new Runnable() {
+            public void run() {
+                try {
+                    index.changes(mode, Long.MIN_VALUE, Long.MAX_VALUE, changes);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        report("2 channels over 60 s, full scan", rangeScan, 60000, count, 0, 3);
+        report("2 channels over 60 s, index", rangeIndex, 60000, count, 0, 50);
+        report("mode changes, full scan", changeScan, expectedChanges, count, 1, 3);
+        report("mode changes, index", changeIndex, expectedChanges, count, 1, 50);
+    }
+
+    private static void report(String name, Runnable query, long expected, long[] count, int slot, int runs) {
+        BenchHarness.Result r = BenchHarness.throughput(name, query, runs);
+        long found = count[slot] / (2 * runs);
+        count[slot] = 0;
+        System.out.println(r + String.format("  %9.3f ms/query, %d rows%s", r.nanosPerOp() / 1e6, found,
+                found == expected ? "" : " (expected " + expected + ")"));
+    }
+}
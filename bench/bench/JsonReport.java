@@ -0,0 +1,180 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import metrics.LatencyHistogram;
+
+/**
+ * One JSON object on one line, for benchmark results other tools read.
+ * Fields are written in the order they are put; begin()/end() nest an
+ * object.
+ */
+public class JsonReport {
+
+    private final StringBuilder json = new StringBuilder("{");
+    private boolean first = true;
+
+    private JsonReport key(String name) {
+        if (!first) {
+            json.append(',');
+        }
+        first = false;
+        string(name);
+        json.append(':');
+        return this;
+    }
+
+    private void string(String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    public JsonReport put(String name, String value) {
+        key(name);
+        string(value);
+        return this;
+    }
+
+    public JsonReport put(String name, long value) {
+        key(name).json.append(value);
+        return this;
+    }
+
+    /**
+     * NaN and infinities are written as null.
+     */
+    public JsonReport put(String name, double value) {
+        key(name);
+        number(value);
+        return this;
+    }
+
+    public JsonReport put(String name, double[] values) {
+        key(name);
+        array(values);
+        return this;
+    }
+
+    /**
+     * An array of arrays, like JMH's rawData (one array per fork).
+     */
+    public JsonReport put(String name, double[][] values) {
+        key(name).json.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            array(values[i]);
+        }
+        json.append(']');
+        return this;
+    }
+
+    private void array(double[] values) {
+        json.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            number(values[i]);
+        }
+        json.append(']');
+    }
+
+    private void number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append("null");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            json.append((long) value);
+        } else {
+            json.append(Double.toString(value));
+        }
+    }
+
+    public JsonReport put(String name, boolean value) {
+        key(name).json.append(value);
+        return this;
+    }
+
+    /**
+     * Count, mean, percentiles and max of a histogram, in microseconds.
+     */
+    public JsonReport put(String name, LatencyHistogram histogram) {
+        return begin(name)
+                .put("count", histogram.getCount())
+                .put("mean_us", histogram.getMean())
+                .put("p50_us", histogram.getPercentile(50))
+                .put("p90_us", histogram.getPercentile(90))
+                .put("p99_us", histogram.getPercentile(99))
+                .put("p999_us", histogram.getPercentile(99.9))
+                .put("max_us", histogram.getMax())
+                .end();
+    }
+
+    public JsonReport put(String name, BenchHarness.Result result) {
+        return begin(name)
+                .put("ops", result.ops)
+                .put("ns_per_op", result.nanosPerOp())
+                .put("bytes_per_op", result.bytesPerOp())
+                .put("cpu_load", result.cpuLoad())
+                .end();
+    }
+
+    /**
+     * Starts a nested object; put() goes into it until end().
+     */
+    public JsonReport begin(String name) {
+        key(name).json.append('{');
+        first = true;
+        return this;
+    }
+
+    public JsonReport end() {
+        json.append('}');
+        first = false;
+        return this;
+    }
+
+    /**
+     * Appends the report as one line to a file, creating its directory.
+     *
+     * @param file null to do nothing
+     */
+    public void appendTo(File file) throws IOException {
+        if (file == null) {
+            return;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        Writer out = new FileWriter(file, true);
+        try {
+            out.write(toString());
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return json.toString() + "}";
+    }
+}
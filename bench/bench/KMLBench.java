@@ -0,0 +1,143 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.DataPacket;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipFile;
+import javax.xml.parsers.DocumentBuilderFactory;
+import kml.FileManager;
+import kml.KMLFrame;
+import kml.KMLWriter;
+import org.w3c.dom.Document;
+import sim.FlightModel;
+
+/**
+ * Writes a simulated flight as KML, the way KMLManager does, and times it:
+ *
+ * - rewrite: what KMLManager did before, the whole document built by
+ *   KMLFrame and saved again at every point,
+ * - append: KMLWriter flushed at every point,
+ * - batch: KMLWriter flushed every 8 points (2 s at 4 Hz),
+ * - segments: as batch, rolling a KMZ segment every 3600 points.
+ *
+ * Every file written is parsed back and its points counted. Written is
+ * what was saved for rewrite, the size of the files for the others.
+ * Rewrite is quadratic, keep the counts low.
+ *
+ * Arguments: points to try (default 1000 5000 10000).
+ */
+public class KMLBench {
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = {1000, 5000, 10000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        File root = File.createTempFile("kml-bench", "");
+        root.delete();
+        root.mkdirs();
+        try {
+            // warm up, not reported
+            run(root, 2000, false);
+            for (int n : counts) {
+                run(root, n, true);
+            }
+        } finally {
+            File[] files = root.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            root.delete();
+        }
+    }
+
+    private static void run(File root, int n, boolean print) throws Exception {
+        FlightModel model = new FlightModel(0, 1);
+        double[] row = new double[DataPacket.getDataArraySize()];
+        double[] lon = new double[n];
+        double[] lat = new double[n];
+        double[] alt = new double[n];
+        for (int i = 0; i < n; i++) {
+            model.fill(0.25 * i, row);
+            lon[i] = row[DataPacket.INDEX_LONGITUD];
+            lat[i] = row[DataPacket.INDEX_LATITUD];
+            alt[i] = row[DataPacket.INDEX_ALTITUDE];
+        }
+
+        File file = new File(root, "rewrite.kml");
+        KMLFrame frame = new KMLFrame();
+        long written = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            String kml = frame.getKMLLineString(lon[i], lat[i], alt[i]);
+            FileManager.saveFile(file.getPath(), kml);
+            written += kml.length();
+        }
+        if (print) {
+            report("rewrite", n, System.nanoTime() - start, written, file, 0);
+        }
+
+        write("append", new File(root, "append.kml"), lon, lat, alt, 1, 0, print);
+        write("batch", new File(root, "batch.kml"), lon, lat, alt, 8, 0, print);
+        write("segments", new File(root, "segments.kml"), lon, lat, alt, 8, 3600, print);
+    }
+
+    private static void write(String name, File file, double[] lon, double[] lat, double[] alt,
+            int batch, int segmentPoints, boolean print) throws Exception {
+        int n = lon.length;
+        long start = System.nanoTime();
+        KMLWriter writer = new KMLWriter(file, 2, segmentPoints);
+        writer.setFlushPoints(batch);
+        for (int i = 0; i < n; i++) {
+            writer.append(lon[i], lat[i], alt[i]);
+        }
+        writer.close();
+        long time = System.nanoTime() - start;
+        // each segment after the first starts with the last point of the one before
+        int points = count(parse(file));
+        long written = file.length();
+        for (int i = 1; i <= writer.getSegmentCount(); i++) {
+            written += writer.getSegmentFile(i).length();
+            ZipFile zip = new ZipFile(writer.getSegmentFile(i));
+            try {
+                Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .parse(zip.getInputStream(zip.getEntry("doc.kml")));
+                points += count(document) - 1;
+            } finally {
+                zip.close();
+            }
+        }
+        if (points != n) {
+            throw new IllegalStateException(name + ": " + points + " points read back, " + n + " written");
+        }
+        parse(writer.getLatestFile());
+        if (print) {
+            report(name, n, time, written, file, writer.getSegmentCount());
+        }
+    }
+
+    private static Document parse(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+    private static int count(Document document) {
+        String text = document.getElementsByTagName("coordinates").item(0).getTextContent().trim();
+        return text.length() == 0 ? 0 : text.split("\\s+").length;
+    }
+
+    private static void report(String name, int n, long time, long written, File file, int segments)
+            throws IOException {
+        double ms = time / 1e6;
+        System.out.println(String.format("%-9s points=%-6d %9.1f ms %8.2f us/point  %8d KB written  file %d KB  %d segments",
+                name, n, ms, 1000 * ms / n, written / 1024, file.length() / 1024, segments));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import des.map.tile.TileSource;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * A z/x/y tile server on the loopback interface that stands in for a real
+ * one: tiles come from a TileSource, e.g. a FileTileSource, or are drawn,
+ * each one different. Answers after a delay like a server on the internet
+ * would, and can be made to fail every n-th request with 503.
+ *
+ * URL template: http://127.0.0.1:port/{z}/{x}/{y}.png
+ */
+public class LocalTileServer {
+
+    private final TileSource tiles;
+    private final int latencyMs;
+    private final int failEvery;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private HttpServer server;
+
+    /**
+     *
+     * @param tiles the tiles to serve, null to draw them
+     * @param latencyMs delay of every answer
+     * @param failEvery every n-th request fails, 0 for never
+     */
+    public LocalTileServer(TileSource tiles, int latencyMs, int failEvery) {
+        this.tiles = tiles != null ? tiles : new DrawnTiles();
+        this.latencyMs = latencyMs;
+        this.failEvery = failEvery;
+    }
+
+    /**
+     *
+     * @param threads requests answered at the same time
+     * @return the port
+     */
+    public int start(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    answer(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    public String getUrlTemplate() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/{z}/{x}/{y}.png";
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        long n = requests.incrementAndGet();
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+        if (failEvery > 0 && n % failEvery == 0) {
+            failed.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            return;
+        }
+        String[] parts = exchange.getRequestURI().getPath().split("[/.]");
+        byte[] data = null;
+        try {
+            data = tiles.fetch(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        } catch (RuntimeException ex) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+        if (data == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, data.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(data);
+        out.close();
+        served.incrementAndGet();
+        bytes.addAndGet(data.length);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getServed() {
+        return served.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * A tile with its z/x/y written on it, the colour changing with x and y.
+     */
+    static class DrawnTiles implements TileSource {
+
+        public byte[] fetch(int zoom, int x, int y) throws IOException {
+            if (zoom < 0 || zoom > 29 || x < 0 || y < 0 || x >= (1 << zoom) || y >= (1 << zoom)) {
+                return null;
+            }
+            BufferedImage tile = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = tile.createGraphics();
+            g2.setColor(new Color(Color.HSBtoRGB((x * 7 + y * 13) % 64 / 64f, 0.4f, 0.9f)));
+            g2.fillRect(0, 0, 256, 256);
+            g2.setColor(Color.DARK_GRAY);
+            g2.drawRect(0, 0, 255, 255);
+            g2.drawString(zoom + "/" + x + "/" + y, 10, 20);
+            g2.dispose();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            ImageIO.write(tile, "png", out);
+            return out.toByteArray();
+        }
+    }
+}
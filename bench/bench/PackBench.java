@@ -0,0 +1,141 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import des.map.tile.TilePack;
+import des.map.tile.TilePacker;
+import des.map.tile.TileStore;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fills a TileStore with a square of tiles at zoom 17 and the tiles above
+ * them up to zoom 10, random bytes of 1 to 6 KB each, packs it with
+ * TilePacker and compares looking tiles up in the store and in the pack:
+ * tiles that are there, picked at random, and tiles that are not.
+ * Every packed tile is compared with the stored one.
+ *
+ * Argument: tiles per side at zoom 17 (default 128, about 22000 tiles and
+ * 75 MB of temporary disk space in all).
+ */
+public class PackBench {
+
+    private static final int zoom = 17;
+    private static final int x0 = 31640;
+    private static final int y0 = 47090;
+
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        File root = File.createTempFile("pack-bench", "");
+        root.delete();
+        final TileStore store = new TileStore(new File(root, "store"));
+        File packFile = new File(root, "tiles.tilepack");
+        try {
+            Random random = new Random(1);
+            long tiles = 0;
+            long bytes = 0;
+            for (int z = 10; z <= zoom; z++) {
+                int shift = zoom - z;
+                for (int y = y0 >> shift; y <= (y0 + side - 1) >> shift; y++) {
+                    for (int x = x0 >> shift; x <= (x0 + side - 1) >> shift; x++) {
+                        byte[] data = new byte[1024 + random.nextInt(5 * 1024)];
+                        random.nextBytes(data);
+                        store.put(z, x, y, data);
+                        tiles++;
+                        bytes += data.length;
+                    }
+                }
+            }
+            System.out.println(String.format("%d tiles, %d KB stored", tiles, bytes / 1024));
+
+            long start = System.nanoTime();
+            int packed = TilePacker.pack(store, packFile);
+            System.out.println(String.format("packed %d tiles in %.0f ms, %d KB",
+                    packed, (System.nanoTime() - start) / 1e6, packFile.length() / 1024));
+            start = System.nanoTime();
+            final TilePack pack = new TilePack(packFile);
+            System.out.println(String.format("opened %s in %.3f ms", pack, (System.nanoTime() - start) / 1e6));
+
+            for (int z = 10; z <= zoom; z++) {
+                int shift = zoom - z;
+                for (int y = y0 >> shift; y <= (y0 + side - 1) >> shift; y++) {
+                    for (int x = x0 >> shift; x <= (x0 + side - 1) >> shift; x++) {
+                        if (!Arrays.equals(store.get(z, x, y), pack.fetch(z, x, y))) {
+                            throw new IllegalStateException("tile " + z + "/" + x + "/" + y + " differs");
+                        }
+                    }
+                }
+            }
+            System.out.println("all tiles equal");
+
+            final int[] xs = new int[4096];
+            final int[] ys = new int[4096];
+            for (int i = 0; i < xs.length; i++) {
+                xs[i] = x0 + random.nextInt(side);
+                ys[i] = y0 + random.nextInt(side);
+            }
+            final int[] next = {0};
+            System.out.println(BenchHarness.measure("store.get", new Runnable() {
+                public void run() {
+                    int i = next[0]++ & 4095;
+                    sink = length(store, xs[i], ys[i]);
+                }
+            }, 3, 5, 1000));
+            System.out.println(BenchHarness.measure("pack.fetch", new Runnable() {
+                public void run() {
+                    int i = next[0]++ & 4095;
+                    sink = length(pack, xs[i], ys[i]);
+                }
+            }, 3, 5, 1000));
+            System.out.println(BenchHarness.measure("store.get missing", new Runnable() {
+                public void run() {
+                    int i = next[0]++ & 4095;
+                    sink = length(store, xs[i] + side, ys[i]);
+                }
+            }, 3, 5, 1000));
+            System.out.println(BenchHarness.measure("pack.fetch missing", new Runnable() {
+                public void run() {
+                    int i = next[0]++ & 4095;
+                    sink = length(pack, xs[i] + side, ys[i]);
+                }
+            }, 3, 5, 1000));
+            pack.close();
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static int length(TileStore store, int x, int y) {
+        try {
+            byte[] data = store.get(zoom, x, y);
+            return data == null ? 0 : data.length;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static int length(TilePack pack, int x, int y) {
+        try {
+            byte[] data = pack.fetch(zoom, x, y);
+            return data == null ? 0 : data.length;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
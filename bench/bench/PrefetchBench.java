@@ -0,0 +1,156 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import des.map.tile.HttpTileSource;
+import des.map.tile.TileArea;
+import des.map.tile.TilePrefetcher;
+import des.map.tile.TileStore;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Pre-caches a field site, a five sided polygon of about 4 x 3 km, from a
+ * LocalTileServer that answers after 30 ms and fails every 25th request:
+ *
+ * 1. zoom 12-16 with one download thread and with eight,
+ * 2. zoom 12-18 with eight threads, cancelled half way and run again from
+ *    the checkpoint, then run a third time, which has nothing to do.
+ *
+ * Checks that every tile of the area is stored, with the bytes the server
+ * sent, and that no tile was downloaded twice.
+ *
+ * Argument: threads for the parallel runs (default 8).
+ */
+public class PrefetchBench {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        ArrayList<Point2D> polygon = new ArrayList<Point2D>();
+        double[][] degrees = {
+            {45.0020, -93.2900}, {45.0150, -93.2500}, {45.0000, -93.2350},
+            {44.9850, -93.2450}, {44.9880, -93.2850}};
+        for (double[] p : degrees) {
+            polygon.add(new Point2D.Double(Math.toRadians(p[0]), Math.toRadians(p[1])));
+        }
+        TileArea area = new TileArea(polygon);
+        for (int z = 12; z <= 18; z++) {
+            System.out.println(String.format("zoom %d: %d tiles", z, area.count(z)));
+        }
+
+        LocalTileServer server = new LocalTileServer(null, 30, 25);
+        server.start(16);
+        HttpTileSource source = new HttpTileSource(server.getUrlTemplate(), "PrefetchBench");
+        File root = File.createTempFile("prefetch-bench", "");
+        root.delete();
+        try {
+            for (int t : new int[]{1, threads}) {
+                TileStore store = new TileStore(new File(root, "run" + t));
+                TilePrefetcher prefetcher = prefetcher(source, store, t);
+                long start = System.nanoTime();
+                boolean all = prefetcher.run(area, 12, 16, null);
+                report(t + " thread(s), zoom 12-16", prefetcher, all, start);
+            }
+
+            TileStore store = new TileStore(new File(root, "resume"));
+            File checkpoint = new File(store.getRoot(), "prefetch.checkpoint");
+            long total = 0;
+            for (int z = 12; z <= 18; z++) {
+                total += area.count(z);
+            }
+            final long half = total / 2;
+            final TilePrefetcher first = prefetcher(source, store, threads);
+            first.setProgressListener(new TilePrefetcher.ProgressListener() {
+                public void progress(int zoom, long totalAtZoom, long doneAtZoom) {
+                    if (first.getDownloaded() + first.getMissing() >= half) {
+                        first.cancel();
+                    }
+                }
+            });
+            long requests = server.getRequests();
+            long start = System.nanoTime();
+            boolean all = first.run(area, 12, 18, checkpoint);
+            report("zoom 12-18, cancelled", first, all, start);
+            System.out.println("  checkpoint left: " + checkpoint.isFile());
+
+            TilePrefetcher second = prefetcher(source, store, threads);
+            start = System.nanoTime();
+            all = second.run(area, 12, 18, checkpoint);
+            report("zoom 12-18, resumed", second, all, start);
+
+            TilePrefetcher third = prefetcher(source, store, threads);
+            start = System.nanoTime();
+            all = third.run(area, 12, 18, checkpoint);
+            report("zoom 12-18, again", third, all, start);
+
+            long downloaded = first.getDownloaded() + second.getDownloaded() + third.getDownloaded();
+            System.out.println(String.format("%d tiles, %d downloaded, %d server requests, %d of them failed",
+                    total, downloaded, server.getRequests() - requests, server.getFailed()));
+            check(area, store, 12, 18);
+            if (downloaded != total) {
+                throw new IllegalStateException("tiles downloaded " + downloaded + " times, expected " + total);
+            }
+        } finally {
+            server.stop();
+            delete(root);
+        }
+    }
+
+    private static TilePrefetcher prefetcher(HttpTileSource source, TileStore store, int threads) {
+        TilePrefetcher prefetcher = new TilePrefetcher(source, store, threads);
+        prefetcher.setBackoffMs(50);
+        return prefetcher;
+    }
+
+    private static void report(String name, TilePrefetcher prefetcher, boolean all, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%s: %.2f s, %.0f tiles/s, all stored: %s",
+                name, seconds, prefetcher.getDownloaded() / seconds, all));
+        System.out.println("  " + prefetcher);
+    }
+
+    /**
+     * Compares every stored tile with the one the server draws.
+     */
+    private static void check(TileArea area, final TileStore store, int fromZoom, int toZoom) throws Exception {
+        final LocalTileServer.DrawnTiles drawn = new LocalTileServer.DrawnTiles();
+        final String[] error = {null};
+        final long[] checked = {0};
+        for (int z = fromZoom; z <= toZoom; z++) {
+            area.visit(z, new TileArea.TileVisitor() {
+                public boolean tile(int zoom, int x, int y) {
+                    try {
+                        byte[] stored = store.get(zoom, x, y);
+                        if (stored == null) {
+                            error[0] = "tile " + zoom + "/" + x + "/" + y + " not stored";
+                        } else if (!Arrays.equals(stored, drawn.fetch(zoom, x, y))) {
+                            error[0] = "tile " + zoom + "/" + x + "/" + y + " differs";
+                        }
+                    } catch (Exception ex) {
+                        error[0] = ex.toString();
+                    }
+                    checked[0]++;
+                    return error[0] == null;
+                }
+            });
+        }
+        if (error[0] != null) {
+            throw new IllegalStateException(error[0]);
+        }
+        System.out.println(checked[0] + " tiles checked, all stored as served");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
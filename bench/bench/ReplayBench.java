@@ -0,0 +1,163 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.DataPacket;
+import java.io.File;
+import java.util.Random;
+import kernel.ReplaySource;
+import kernel.TelemetryConsumer;
+import kernel.VehicleLink;
+import recorder.FlightLog;
+import recorder.FlightRecorder;
+
+/**
+ * Replays a synthetic recording through a VehicleLink the way the Kernel
+ * does, with a consumer that reads every row:
+ *
+ * - at 10x and 100x for two seconds each, checking the pace and that the
+ * consumer saw exactly the rows recorded;
+ * - at MAX_SPEED to the end, giving rows per second through the ring and
+ * how many rows a consumer that cannot keep up drops;
+ * - seeking to random times, and stepping while paused.
+ *
+ * Rows per second are for the whole pipeline: on a machine with fewer
+ * cores than threads the consumers' time is included.
+ *
+ * Argument: rows to record (default 1000000, about 17 minutes at 1 kHz).
+ */
+public class ReplayBench {
+
+    private static final long periodMicros = 1000;
+
+    /**
+     * Reads every row and sums one channel, as a check the replay is exact.
+     */
+    private static class Checker extends TelemetryConsumer {
+
+        volatile long rows = 0;
+        volatile double sum = 0;
+
+        Checker(VehicleLink link) {
+            super(link.getTelemetryRing(), "bench", false, 0);
+        }
+
+        @Override
+        protected void process(double[] row) {
+            sum += row[DataPacket.INDEX_ALTITUDE];
+            rows++;
+        }
+    }
+
+    private static void drain(Checker checker) throws InterruptedException {
+        while (checker.getConsumer().getDepth() > 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(10);
+    }
+
+    /**
+     * Plays two seconds from the start at a speed, checking the pace and,
+     * when the consumer kept up, the values it saw.
+     */
+    private static void paced(ReplaySource replay, Checker checker, double speed) throws Exception {
+        drain(checker);
+        replay.seekRow(0);
+        replay.setSpeed(speed);
+        long before = replay.getPublished();
+        long dropped = checker.getConsumer().getDropped();
+        long rows = checker.rows;
+        double sum = checker.sum;
+        long start = System.nanoTime();
+        replay.resumeReplay();
+        Thread.sleep(2000);
+        replay.pauseReplay();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long played = replay.getPublished() - before;
+        drain(checker);
+        dropped = checker.getConsumer().getDropped() - dropped;
+        double expected = 0;
+        for (long i = 0; i < played; i++) {
+            expected += i % 1000;
+        }
+        String check;
+        if (dropped > 0) {
+            check = "consumer dropped " + dropped;
+        } else if (checker.rows - rows == played && checker.sum - sum == expected) {
+            check = "consumer saw every row, values exact";
+        } else {
+            check = "consumer values differ";
+        }
+        System.out.println(String.format("%.0fx: %d rows in %.3f s, %.1f recorded s per s, %s",
+                speed, played, seconds, played * periodMicros / 1e6 / seconds, check));
+    }
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1000000L;
+        int width = DataPacket.getDataArraySize();
+        File rec = File.createTempFile("replay-bench", ".rec");
+        File idx = new File(rec.getPath() + ".idx");
+        try {
+            long t0 = System.currentTimeMillis() * 1000;
+            FlightRecorder recorder = new FlightRecorder(rec, width);
+            double[] row = new double[width];
+            for (long i = 0; i < rows; i++) {
+                row[DataPacket.INDEX_TIME] = i * 1e-3;
+                row[DataPacket.INDEX_ALTITUDE] = i % 1000;
+                recorder.append(row, t0 + i * periodMicros);
+                recorder.commitIfDue();
+            }
+            recorder.close();
+
+            FlightLog log = new FlightLog(rec);
+            VehicleLink link = new VehicleLink(255, -1, null);
+            Checker checker = new Checker(link);
+            checker.start();
+            ReplaySource replay = new ReplaySource(log, link);
+            replay.pauseReplay();
+            replay.start();
+
+            paced(replay, checker, 10);
+            paced(replay, checker, 100);
+
+            replay.seekRow(0);
+            replay.setSpeed(ReplaySource.MAX_SPEED);
+            long before = replay.getPublished();
+            long busy = replay.getBusyNanos();
+            long dropped = checker.getConsumer().getDropped();
+            replay.resumeReplay();
+            replay.awaitPause(600000);
+            long played = replay.getPublished() - before;
+            busy = replay.getBusyNanos() - busy;
+            drain(checker);
+            System.out.println(String.format("max speed: %d rows in %.0f ms, %.2f M rows/s, every-row consumer dropped %d",
+                    played, busy / 1e6, played * 1e3 / busy, checker.getConsumer().getDropped() - dropped));
+
+            Random random = new Random(1);
+            int seeks = 10000;
+            long start = System.nanoTime();
+            for (int i = 0; i < seeks; i++) {
+                replay.seek(t0 + (long) (random.nextDouble() * rows) * periodMicros);
+            }
+            System.out.println(String.format("seek: %.1f us each over %.1f MB", (System.nanoTime() - start) / 1e3 / seeks,
+                    rec.length() / 1e6));
+
+            replay.seek(t0 + rows / 2 * periodMicros);
+            before = replay.getPublished();
+            replay.step(10);
+            replay.awaitPause(1000);
+            System.out.println(String.format("step 10 while paused: published %d, now at row %d",
+                    replay.getPublished() - before, replay.getRow()));
+
+            replay.stopReplay();
+            checker.stopConsumer();
+            link.close();
+            log.close();
+        } finally {
+            rec.delete();
+            idx.delete();
+        }
+    }
+}
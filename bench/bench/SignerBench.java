@@ -0,0 +1,94 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.ParamPacket;
+import data.WaypointPacket;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Packets per second for signing uplink packets: the old finishPacket()
+ * (Mac lookup, new key and copy per packet), a new packet object per send
+ * with the cached signer and a reused packet object.
+ */
+public class SignerBench {
+
+    private static final int iterations = 200000;
+
+    public static void main(String[] args) throws GeneralSecurityException {
+        verify();
+
+        final int[] unsigned = sampleParamBytes();
+        BenchHarness.Result legacy = BenchHarness.throughput("legacy finishPacket", new Runnable() {
+            public void run() {
+                legacySign(unsigned);
+            }
+        }, iterations);
+        BenchHarness.Result fresh = BenchHarness.throughput("new ParamPacket per send", new Runnable() {
+            public void run() {
+                new ParamPacket().assembleParameterPacket((byte) 3, 1.5f);
+            }
+        }, iterations);
+        final ParamPacket reused = new ParamPacket();
+        BenchHarness.Result reuse = BenchHarness.throughput("reused ParamPacket", new Runnable() {
+            public void run() {
+                reused.assembleParameterPacket((byte) 3, 1.5f);
+            }
+        }, iterations);
+
+        BenchHarness.Result[] results = {legacy, fresh, reuse};
+        for (BenchHarness.Result r : results) {
+            System.out.println(r + String.format("  %,12.0f packets/s", 1e9 / r.nanosPerOp()));
+        }
+    }
+
+    private static int[] sampleParamBytes() {
+        ParamPacket packet = new ParamPacket();
+        packet.assembleParameterPacket((byte) 3, 1.5f);
+        return packet.getPacketData();
+    }
+
+    /**
+     * The body of UpstreamPacket.finishPacket() before the cached signer.
+     */
+    static int[] legacySign(int[] packet) {
+        String key = "umnuavlab";
+        String algorithm = "HmacSHA1";
+        SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), algorithm);
+        Mac mac;
+        try {
+            mac = Mac.getInstance(algorithm);
+            mac.init(signingKey);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+        byte[] packet_data = new byte[packet.length - 20];
+        for (int i = 0; i < packet.length - 20; ++i) {
+            packet_data[i] = (byte) packet[i];
+        }
+        byte[] result = mac.doFinal(packet_data);
+        int[] signed = packet.clone();
+        for (int i = 0; i < 20; ++i) {
+            signed[packet.length - 20 + i] = result[i] & 0xFF;
+        }
+        return signed;
+    }
+
+    /**
+     * The new path must put the same bytes on the wire as the old one.
+     */
+    private static void verify() {
+        WaypointPacket waypoint = new WaypointPacket();
+        waypoint.assembleWaypointPacket((byte) 2, 931234567, 449876543, 310.5f);
+        int[] signed = waypoint.getPacketData();
+        if (!Arrays.equals(signed, legacySign(signed))) {
+            throw new IllegalStateException("Signature differs from the legacy signer");
+        }
+        System.out.println("signatures match the legacy signer");
+    }
+}
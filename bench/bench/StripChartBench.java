@@ -0,0 +1,68 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import des.graph2d.StripChart;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * The parameters scope at its design load: 10 channels sampled at 1 kHz
+ * with a 60 s window. Measures appending a sample, as the telemetry thread
+ * does, and painting a full window into an image of the chart size, as a
+ * repaint does.
+ */
+public class StripChartBench {
+
+    private static final int channels = 10;
+    private static final double rate = 1000;
+    private static final double window = 60;
+
+    private final StripChart chart = new StripChart(channels, window, rate);
+    private final BufferedImage image = new BufferedImage(650, 400, BufferedImage.TYPE_INT_RGB);
+    private final Graphics2D g2 = image.createGraphics();
+    private final double[][] signal = new double[4096][channels];
+    private long n = 0;
+
+    StripChartBench() {
+        chart.setSize(image.getWidth(), image.getHeight());
+        for (int i = 0; i < signal.length; i++) {
+            double t = i / 64.0;
+            for (int c = 0; c < channels; ++c) {
+                signal[i][c] = Math.sin(0.5 * t + c) * (c + 1) + 0.1 * Math.sin(37 * t);
+            }
+        }
+    }
+
+    void append() {
+        double t = n / rate;
+        chart.append(t, signal[(int) (n++ & 4095)]);
+    }
+
+    void paint() {
+        chart.paint(g2);
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        final StripChartBench bench = new StripChartBench();
+        BenchHarness.Result append = BenchHarness.throughput("append, 10 channels", new Runnable() {
+            public void run() {
+                bench.append();
+            }
+        }, (long) (window * rate));
+        System.out.println(append);
+        System.out.println("samples held: " + bench.chart.getSamples());
+        BenchHarness.Result paint = BenchHarness.throughput("paint, 60 s x 1 kHz x 10", new Runnable() {
+            public void run() {
+                bench.append();
+                bench.paint();
+            }
+        }, 200);
+        System.out.println(paint + String.format("  %8.2f ms/frame", paint.nanosPerOp() / 1e6));
+        double load = (append.nanosPerOp() * rate + paint.nanosPerOp() * 30) / 1e9;
+        System.out.println(String.format("1 kHz appends + 30 fps repaints: %.1f%% of one core", 100 * load));
+    }
+}
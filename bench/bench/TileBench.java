@@ -0,0 +1,123 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import des.map.tile.HttpTileSource;
+import des.map.tile.TileEngine;
+import des.map.tile.TileMath;
+import des.map.tile.TileStore;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Pans a 1024x768 map across a city at zoom 15 the way PanelDrawing draws
+ * it, tiles coming from a LocalTileServer that answers after 30 ms:
+ *
+ * 1. from the server, into an empty disk cache,
+ * 2. with a new engine and no server, from the disk cache,
+ * 3. the same pan again, from memory.
+ *
+ * Prints how long a frame takes and how many tiles were not there yet when
+ * it was drawn, then how long until the last view was complete.
+ *
+ * Arguments: frames (default 400), pixels panned per frame (default 8).
+ */
+public class TileBench {
+
+    private static final int width = 1024;
+    private static final int height = 768;
+    private static final int zoom = 15;
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int step = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        File root = File.createTempFile("tile-bench", "");
+        root.delete();
+        LocalTileServer server = new LocalTileServer(null, 30, 0);
+        server.start(8);
+        try {
+            TileStore store = new TileStore(root);
+            TileEngine network = new TileEngine(new HttpTileSource(server.getUrlTemplate(), "TileBench"),
+                    store, 64L << 20, 4, 256);
+            pan("server", network, frames, step);
+            network.stop();
+            System.out.println(String.format("  server answered %d requests, %d KB",
+                    server.getServed(), server.getBytes() / 1024));
+
+            TileEngine offline = new TileEngine(null, store, 64L << 20, 4, 256);
+            pan("disk cache", offline, frames, step);
+            pan("memory", offline, frames, step);
+            offline.stop();
+        } finally {
+            server.stop();
+            delete(root);
+        }
+    }
+
+    private static void pan(String name, TileEngine engine, int frames, int step) throws InterruptedException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        // Minneapolis, panning east and a little south
+        double x0 = TileMath.longitudeToPixel(Math.toRadians(-93.2650), zoom);
+        double y0 = TileMath.latitudeToPixel(Math.toRadians(44.9778), zoom);
+        long[] nanos = new long[frames];
+        long missing = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            long t = System.nanoTime();
+            missing += draw(engine, g2, (long) x0 + i * step, (long) y0 + i * step / 4);
+            nanos[i] = System.nanoTime() - t;
+            // a frame every 16 ms
+            Thread.sleep(16);
+        }
+        long last = 0;
+        while (draw(engine, g2, (long) x0 + (frames - 1) * step, (long) y0 + (frames - 1) * step / 4) > 0) {
+            Thread.sleep(5);
+            last += 5;
+        }
+        long total = (System.nanoTime() - start) / 1000000;
+        Arrays.sort(nanos);
+        System.out.println(String.format(
+                "%s: frame p50 %.3f ms, p99 %.3f ms, max %.3f ms; %.2f tiles missing per frame;"
+                + " last view complete %d ms after the last frame, %d ms total",
+                name, nanos[frames / 2] / 1e6, nanos[frames * 99 / 100] / 1e6, nanos[frames - 1] / 1e6,
+                missing / (double) frames, last, total));
+        System.out.println("  " + engine);
+        g2.dispose();
+    }
+
+    /**
+     * Draws the view with its top left corner at the given world pixel.
+     *
+     * @return tiles not in memory
+     */
+    private static int draw(TileEngine engine, Graphics2D g2, long left, long top) {
+        int size = TileMath.TILE_SIZE;
+        int missing = 0;
+        for (long ty = top / size; ty <= (top + height - 1) / size; ty++) {
+            for (long tx = left / size; tx <= (left + width - 1) / size; tx++) {
+                BufferedImage tile = engine.getTile(zoom, (int) tx, (int) ty);
+                if (tile != null) {
+                    g2.drawImage(tile, (int) (tx * size - left), (int) (ty * size - top), null);
+                } else {
+                    missing++;
+                }
+            }
+        }
+        return missing;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package bench;
+
+import data.DataPacket;
+import des.map.MercatorTrack;
+import des.map.TrackGeometry;
+import des.map.tile.TileMath;
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import sim.FlightModel;
+
+/**
+ * Draws simulated flights of growing length, positions at 10 Hz, on an
+ * 800x600 map the way PanelDrawing draws the track:
+ *
+ * - project: what paint did before, every position through Point2D
+ *   objects into boxed lists and then an int[] (drawing not included),
+ * - draw: TrackGeometry, nothing changed since the last frame,
+ * - pan: TrackGeometry, the view moved 3 pixels since the last frame,
+ * - away: TrackGeometry, the view is next to the track, not on it,
+ * - zoom: TrackGeometry after a zoom change, which redoes everything,
+ * - add: adding a position to the MercatorTrack.
+ *
+ * Arguments: positions to try (default 10000 100000 1000000).
+ */
+public class TrackBench {
+
+    private static final int width = 800;
+    private static final int height = 600;
+
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = {10000, 100000, 1000000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g2 = image.createGraphics();
+        for (final int n : counts) {
+            FlightModel model = new FlightModel(0, 1);
+            double[] row = new double[DataPacket.getDataArraySize()];
+            final double[] lat = new double[n];
+            final double[] lng = new double[n];
+            final MercatorTrack track = new MercatorTrack();
+            for (int i = 0; i < n; i++) {
+                model.fill(0.1 * i, row);
+                lat[i] = Math.toRadians(row[DataPacket.INDEX_LATITUD]);
+                lng[i] = Math.toRadians(row[DataPacket.INDEX_LONGITUD]);
+                track.add(lat[i], lng[i]);
+            }
+            final int zoom = 16;
+            final double centerLat = lat[n - 1];
+            final double centerLng = lng[n - 1];
+            final long left = (long) TileMath.longitudeToPixel(centerLng, zoom) - width / 2;
+            final long top = (long) TileMath.latitudeToPixel(centerLat, zoom) - height / 2;
+            final TrackGeometry geometry = new TrackGeometry(track);
+            geometry.draw(g2, zoom, left, top, width, height);
+            System.out.println(String.format("%d positions, %d points after simplifying at zoom %d",
+                    n, geometry.getPointCount(), zoom));
+
+            System.out.println(BenchHarness.measure("project:positions=" + n, new Runnable() {
+                public void run() {
+                    sink = project(lat, lng, n, centerLat, centerLng, zoom).length;
+                }
+            }, 2, 5, 1000));
+            System.out.println(BenchHarness.measure("draw:positions=" + n, new Runnable() {
+                public void run() {
+                    sink = geometry.draw(g2, zoom, left, top, width, height);
+                }
+            }, 2, 5, 1000));
+            final long[] pan = {0};
+            System.out.println(BenchHarness.measure("pan:positions=" + n, new Runnable() {
+                public void run() {
+                    long dx = (pan[0]++ % 200) * 3;
+                    sink = geometry.draw(g2, zoom, left + dx, top, width, height);
+                }
+            }, 2, 5, 1000));
+            System.out.println(BenchHarness.measure("away:positions=" + n, new Runnable() {
+                public void run() {
+                    sink = geometry.draw(g2, zoom, left + 20000, top, width, height);
+                }
+            }, 2, 5, 1000));
+            final int[] flip = {0};
+            System.out.println(BenchHarness.measure("zoom:positions=" + n, new Runnable() {
+                public void run() {
+                    int z = zoom + (flip[0]++ & 1);
+                    sink = geometry.draw(g2, z, left << (z - zoom), top << (z - zoom), width, height);
+                }
+            }, 1, 5, 1000));
+            final MercatorTrack growing = new MercatorTrack();
+            final int[] next = {0};
+            System.out.println(BenchHarness.measure("add:positions=" + n, new Runnable() {
+                public void run() {
+                    int i = next[0]++ % n;
+                    if (i == 0) {
+                        growing.clear();
+                    }
+                    growing.add(lat[i], lng[i]);
+                }
+            }, 2, 5, 1000));
+        }
+        g2.dispose();
+    }
+
+    /**
+     * The projection paint did before, for comparison: see the history of
+     * PanelDrawing.wgs2objCoord.
+     */
+    private static int[] project(double[] lat, double[] lng, int n, double centerLat, double centerLng, int zoom) {
+        ArrayList<Integer> xs = new ArrayList<Integer>();
+        ArrayList<Integer> ys = new ArrayList<Integer>();
+        double scale = (Math.PI / Math.pow(2, zoom)) / 128;
+        for (int i = 0; i < n; i++) {
+            Point2D wgs = new Point2D.Double(lat[i], lng[i]);
+            Point2D center = new Point2D.Double(centerLat, centerLng);
+            Point2D mercator = new Point2D.Double(
+                    Math.log(Math.abs(Math.tan(0.5 * (wgs.getX() + 0.5 * Math.PI)))),
+                    wgs.getY() - center.getY());
+            Point2D mercatorCenter = new Point2D.Double(
+                    0.5 * Math.log((1 + Math.sin(center.getX())) / (1 - Math.sin(center.getX()))), 0);
+            Point2D centered = new Point2D.Double(
+                    (mercator.getY() - mercatorCenter.getY()) / scale,
+                    (mercator.getX() - mercatorCenter.getX()) / scale);
+            int x = (int) (centered.getX() + width / 2);
+            int y = (int) (height / 2 - centered.getY());
+            if (x >= 0 && x <= width && y >= 0 && y <= height) {
+                xs.add(x);
+                ys.add(y);
+            }
+        }
+        int[] result = new int[xs.size() * 2];
+        for (int i = 0; i < xs.size(); i++) {
+            result[2 * i] = xs.get(i);
+            result[2 * i + 1] = ys.get(i);
+        }
+        return result;
+    }
+}
@@ -4,6 +4,8 @@
  */
 package comm;
 
+import java.nio.ByteBuffer;
+
 /**
  *
  * @author David Escobar Sanabria
@@ -47,6 +49,22 @@ public interface ChannelInterface {
      */
     public void setDataIn(int[] intArray);
 
+    /**
+     *Receive a frame without copying it. The buffer is reused by the reader
+     *once this call returns.
+     * @param frame Big-endian buffer holding the frame.
+     * @param offset Index of the first header byte.
+     */
+    public void setDataIn(ByteBuffer frame, int offset);
+
+    /**
+     *Receive a frame read from the link of one vehicle, same as above.
+     * @param vehicleId Vehicle of the link the frame arrived on.
+     * @param frame Big-endian buffer holding the frame.
+     * @param offset Index of the first header byte.
+     */
+    public void setDataIn(int vehicleId, ByteBuffer frame, int offset);
+
     public void setInterface(int iter);
 
     public void sendDataToTerminal(char c);
@@ -20,6 +20,7 @@ import java.net.SocketException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +38,8 @@ public class InternetAdapter {
     private final int port = 36867;
     private final InetAddress addr;
     private boolean active = false;
+    private DatagramPacket framePacket = null;
+    private byte[] frameBytes = new byte[256];
 
     public InternetAdapter() throws UnknownHostException {
         this.addr = InetAddress.getLocalHost();
@@ -106,5 +109,26 @@ public class InternetAdapter {
             client.send(new DatagramPacket(data, data.length, addr, port));
         }
     }
+
+    public void send(ByteBuffer frame, int offset, int length) throws IOException{
+        if(client != null){
+            if(framePacket == null){
+                framePacket = new DatagramPacket(new byte[0], 0, addr, port);
+            }
+            if(frame.hasArray()){
+                framePacket.setData(frame.array(), frame.arrayOffset() + offset, length);
+            } else {
+                // Direct buffers have no backing array, copy the frame out.
+                if(frameBytes.length < length){
+                    frameBytes = new byte[length];
+                }
+                for(int i = 0; i < length; ++i){
+                    frameBytes[i] = frame.get(offset + i);
+                }
+                framePacket.setData(frameBytes, 0, length);
+            }
+            client.send(framePacket);
+        }
+    }
     
 }
@@ -0,0 +1,413 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package comm;
+
+import data.DataPacket;
+import data.ParamPacket;
+import data.Waypoint;
+import data.WaypointPacket;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Makes sure parameter and waypoint updates reach the aircraft.
+ *
+ * The aircraft does not acknowledge uplink packets explicitly, but every
+ * telemetry frame echoes its custom parameters and waypoints. An update
+ * counts as acknowledged once the echo shows the value that was sent.
+ * Until then it is retransmitted after a timeout derived from the measured
+ * round trip time (Jacobson/Karels, with Karn's rule: retransmitted packets
+ * give no RTT sample), doubling on every retry.
+ *
+ * An echo only proves the packet arrived if a frame showed another value
+ * after it was sent. If the aircraft already had the value, the update is
+ * done, but gives no RTT or latency sample: the echo says nothing about
+ * when, or whether, the packet got there.
+ *
+ * At most getWindow() updates are in flight; the rest wait in send order.
+ * A newer value for the same parameter or waypoint replaces an older one
+ * that was not confirmed yet, whose future is cancelled.
+ */
+public class ReliableUplink extends Thread {
+
+    /**
+     * Sends a packet over whatever link is open.
+     */
+    public interface Transport {
+
+        public void send(int[] packet) throws IOException;
+    }
+
+    public static final int PARAMETER = 0;
+    public static final int WAYPOINT = 1;
+
+    private static final long minTimeoutNanos = 100000000L;
+    private static final long maxTimeoutNanos = 5000000000L;
+    private static final long initialTimeoutNanos = 1000000000L;
+    private static final long checkPeriodMs = 20;
+
+    /**
+     * An update waiting for its echo.
+     */
+    private static class Update {
+
+        final int type;
+        final int id;
+        final float value;
+        final int longitude;
+        final int latitude;
+        final int[] packet;
+        final UplinkFrame future;
+        long firstSentNanos = 0;
+        long lastSentNanos = 0;
+        long timeoutNanos = 0;
+        int attempts = 0;
+        // a frame showed another value since the update went out
+        boolean changed = false;
+
+        Update(int type, int id, float value, int longitude, int latitude, int[] packet) {
+            this.type = type;
+            this.id = id;
+            this.value = value;
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.packet = packet;
+            byte[] bytes = new byte[packet.length];
+            for (int i = 0; i < packet.length; i++) {
+                bytes[i] = (byte) packet[i];
+            }
+            future = new UplinkFrame(bytes, UplinkWriter.PRIORITY_COMMAND, true);
+        }
+
+        int key() {
+            return type << 8 | id;
+        }
+    }
+
+    private final Transport transport;
+    private final Map<Integer, Update> inFlight = new LinkedHashMap<Integer, Update>();
+    private final Map<Integer, Update> waiting = new LinkedHashMap<Integer, Update>();
+    private volatile int window = 4;
+    private volatile int maxAttempts = 10;
+    private volatile boolean running = true;
+    private long smoothedRttNanos = -1;
+    private long rttVarianceNanos = 0;
+    private long timeoutNanos = initialTimeoutNanos;
+    private final LatencyHistogram parameterLatency = new LatencyHistogram(MetricsRegistry.PARAMETER_ACK);
+    private final LatencyHistogram waypointLatency = new LatencyHistogram(MetricsRegistry.WAYPOINT_ACK);
+    private final LatencyHistogram roundTrip = new LatencyHistogram(MetricsRegistry.UPLINK_RTT);
+    private volatile long sent = 0;
+    private volatile long retransmitted = 0;
+    private volatile long acknowledged = 0;
+    private volatile long unchanged = 0;
+    private volatile long superseded = 0;
+    private volatile long failed = 0;
+
+    public ReliableUplink(Transport transport) {
+        super("Reliable uplink");
+        this.transport = transport;
+        setDaemon(true);
+    }
+
+    /**
+     *
+     * @param paramId id as sent, 1 for the first custom parameter
+     * @param value
+     * @return completes when the aircraft echoes the value
+     */
+    public UplinkFrame sendParameter(byte paramId, float value) {
+        ParamPacket packet = new ParamPacket();
+        packet.assembleParameterPacket(paramId, value);
+        return queue(new Update(PARAMETER, paramId & 0xFF, value, 0, 0, packet.getPacketData()));
+    }
+
+    /**
+     *
+     * @param waypointId
+     * @param longitude degrees * 1e7
+     * @param latitude degrees * 1e7
+     * @param altitude
+     * @return completes when the aircraft echoes the waypoint
+     */
+    public UplinkFrame sendWaypoint(byte waypointId, int longitude, int latitude, float altitude) {
+        WaypointPacket packet = new WaypointPacket();
+        packet.assembleWaypointPacket(waypointId, longitude, latitude, altitude);
+        return queue(new Update(WAYPOINT, waypointId & 0xFF, altitude, longitude, latitude, packet.getPacketData()));
+    }
+
+    private UplinkFrame queue(Update update) {
+        List<Update> toSend = new ArrayList<Update>(1);
+        synchronized (this) {
+            Update old = inFlight.remove(update.key());
+            if (old == null) {
+                old = waiting.remove(update.key());
+            }
+            if (old != null) {
+                old.future.cancel(false);
+                superseded++;
+            }
+            waiting.put(update.key(), update);
+            fillWindow(System.nanoTime(), toSend);
+        }
+        transmit(toSend);
+        return update.future;
+    }
+
+    /**
+     * Matches the echo of a telemetry frame against the updates in flight.
+     * Called by the thread that decoded the frame.
+     *
+     * @param packet decoded frame with a valid checksum
+     */
+    public void echo(DataPacket packet) {
+        List<Update> toSend = null;
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (inFlight.isEmpty()) {
+                return;
+            }
+            double[] parameters = packet.getCustomParameters();
+            Waypoint[] waypoints = packet.getCustomWaypoints();
+            Iterator<Update> it = inFlight.values().iterator();
+            while (it.hasNext()) {
+                Update update = it.next();
+                if (matches(update, parameters, waypoints)) {
+                    it.remove();
+                    acknowledge(update, now);
+                } else {
+                    update.changed = true;
+                }
+            }
+            if (!waiting.isEmpty() && inFlight.size() < window) {
+                toSend = new ArrayList<Update>();
+                fillWindow(now, toSend);
+            }
+        }
+        if (toSend != null) {
+            transmit(toSend);
+        }
+    }
+
+    private boolean matches(Update update, double[] parameters, Waypoint[] waypoints) {
+        if (update.type == PARAMETER) {
+            int index = update.id - 1;
+            return index >= 0 && index < parameters.length && (float) parameters[index] == update.value;
+        }
+        for (int i = 0; i < waypoints.length; i++) {
+            Waypoint waypoint = waypoints[i];
+            if (waypoint.getID() == update.id
+                    && Math.round(waypoint.getLongitude() * 1e7) == update.longitude
+                    && Math.round(waypoint.getLatitude() * 1e7) == update.latitude
+                    && waypoint.getAltitude() == update.value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void acknowledge(Update update, long now) {
+        acknowledged++;
+        if (!update.changed) {
+            unchanged++;
+            update.future.acknowledged(now);
+            return;
+        }
+        if (update.attempts == 1) {
+            long rtt = now - update.lastSentNanos;
+            roundTrip.recordNanos(rtt);
+            if (smoothedRttNanos < 0) {
+                smoothedRttNanos = rtt;
+                rttVarianceNanos = rtt / 2;
+            } else {
+                rttVarianceNanos += (Math.abs(smoothedRttNanos - rtt) - rttVarianceNanos) / 4;
+                smoothedRttNanos += (rtt - smoothedRttNanos) / 8;
+            }
+            timeoutNanos = Math.min(maxTimeoutNanos, Math.max(minTimeoutNanos, smoothedRttNanos + 4 * rttVarianceNanos));
+        }
+        (update.type == PARAMETER ? parameterLatency : waypointLatency).recordNanos(now - update.firstSentNanos);
+        update.future.acknowledged(now);
+    }
+
+    private void fillWindow(long now, List<Update> toSend) {
+        Iterator<Update> it = waiting.values().iterator();
+        while (inFlight.size() < window && it.hasNext()) {
+            Update update = it.next();
+            it.remove();
+            update.firstSentNanos = now;
+            update.lastSentNanos = now;
+            update.timeoutNanos = timeoutNanos;
+            inFlight.put(update.key(), update);
+            toSend.add(update);
+        }
+    }
+
+    private void transmit(List<Update> updates) {
+        for (Update update : updates) {
+            synchronized (this) {
+                update.attempts++;
+                update.lastSentNanos = System.nanoTime();
+                sent++;
+            }
+            try {
+                transport.send(update.packet);
+            } catch (IOException ex) {
+                System.err.println("Uplink send error: " + ex);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Update> toSend = new ArrayList<Update>();
+        while (running) {
+            try {
+                Thread.sleep(checkPeriodMs);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            toSend.clear();
+            long now = System.nanoTime();
+            synchronized (this) {
+                Iterator<Update> it = inFlight.values().iterator();
+                while (it.hasNext()) {
+                    Update update = it.next();
+                    if (now - update.lastSentNanos < update.timeoutNanos) {
+                        continue;
+                    }
+                    if (update.attempts >= maxAttempts) {
+                        it.remove();
+                        failed++;
+                        update.future.failed(new IOException("No acknowledgement after " + update.attempts + " attempts"));
+                        continue;
+                    }
+                    update.timeoutNanos = Math.min(maxTimeoutNanos, 2 * update.timeoutNanos);
+                    retransmitted++;
+                    toSend.add(update);
+                }
+                fillWindow(now, toSend);
+            }
+            transmit(toSend);
+        }
+    }
+
+    /**
+     * Stops retransmitting; updates not confirmed yet fail.
+     */
+    public void stopUplink() {
+        running = false;
+        synchronized (this) {
+            IOException closed = new IOException("Uplink closed");
+            for (Update update : inFlight.values()) {
+                update.future.failed(closed);
+            }
+            for (Update update : waiting.values()) {
+                update.future.failed(closed);
+            }
+            inFlight.clear();
+            waiting.clear();
+        }
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     *
+     * @param window updates in flight at once
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     *
+     * @return current retransmission timeout for new updates, nanoseconds
+     */
+    public synchronized long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     *
+     * @return time from the first transmission of a parameter to its echo
+     */
+    public LatencyHistogram getParameterLatency() {
+        return parameterLatency;
+    }
+
+    /**
+     *
+     * @return time from the first transmission of a waypoint to its echo
+     */
+    public LatencyHistogram getWaypointLatency() {
+        return waypointLatency;
+    }
+
+    /**
+     *
+     * @return round trip of updates confirmed on the first transmission
+     */
+    public LatencyHistogram getRoundTrip() {
+        return roundTrip;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getRetransmitted() {
+        return retransmitted;
+    }
+
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     *
+     * @return acknowledged updates the aircraft already had, which gave no
+     * RTT or latency sample
+     */
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    public long getSuperseded() {
+        return superseded;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "uplink sent " + sent + ", retransmitted " + retransmitted + ", acknowledged " + acknowledged
+                + " (" + unchanged + " unchanged), superseded " + superseded + ", failed " + failed + "; " + parameterLatency + "; " + waypointLatency;
+    }
+}
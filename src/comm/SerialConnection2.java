@@ -1,11 +1,11 @@
 package comm;
 
 //import javax.comm.*;
-import data.DataPacket;
 import gnu.io.*;
 import java.awt.TextArea;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.TooManyListenersException;
 
 /**
@@ -25,7 +25,6 @@ public class SerialConnection2 implements SerialPortEventListener,
     private boolean open;
     private int channelInterface = 0;
     private String buffer = "   ";
-    private int frameSize = DataPacket.getDataPacketSize();;
 
 
     /**
@@ -34,8 +33,20 @@ public class SerialConnection2 implements SerialPortEventListener,
      *
      */
     public String stringData = "";
-    private int[] intArray = new int[200];
-    private int cont = 0;
+    private final StreamFramer framer = new StreamFramer(new StreamFramer.FrameListener() {
+
+        public void frameReceived(ByteBuffer buffer, int offset) {
+            parent.setDataInSerial(buffer, offset);
+        }
+
+        public void frameRejected(ByteBuffer buffer, int offset) {
+            parent.setDataInSerial(buffer, offset);
+        }
+
+        public void messageReceived(String message) {
+            parent.setDataInSerial(message);
+        }
+    });
     public final static int TERMINAL = 0;
     public final static int VISUALIZATION = 1;
 
@@ -111,6 +122,7 @@ public class SerialConnection2 implements SerialPortEventListener,
         // Add ownership listener to allow ownership event handling.
         portId.addPortOwnershipListener(this);
 
+        framer.reset();
         open = true;
     }
 
@@ -183,6 +195,22 @@ public class SerialConnection2 implements SerialPortEventListener,
         return open;
     }
 
+    /**
+     *
+     * @return stream of the open port, null while closed
+     */
+    public OutputStream getOutputStream() {
+        return os;
+    }
+
+    /**
+     *
+     * @return framer splitting the received bytes into frames
+     */
+    public StreamFramer getFramer() {
+        return framer;
+    }
+
     /**
      *
      * @param e
@@ -197,83 +225,14 @@ public class SerialConnection2 implements SerialPortEventListener,
             case SerialPortEvent.DATA_AVAILABLE:
 
                 if (channelInterface == VISUALIZATION) {
-                    while (newData != -1) {
-
-                        try {
-                            newData = is.read();
-
-                            if (newData == -1) {
-                                break;
-
-                            } else {
-
-                                if (cont == frameSize-1) {
-
-                                    intArray[cont] = newData;
-                                    if (intArray[0] == (int) 'U' && intArray[1] == (int) 'U' && intArray[2] == (int) 'T') {
-
-                                        parent.setDataInSerial(intArray);
-
-                                    }
-
-                                    cont = 0;
-                                }
-
-                                if (cont>0 && intArray[cont-1] =='\0'  && intArray[0] == (int) 'U' && intArray[1] == (int) 'U' && intArray[2] == (int) 'M') {
-
-                                     parent.setDataInSerial(intArrayToString(intArray, 3, cont-1));
-                                     cont =0;
-                                }
-
-
-                                intArray[cont] = newData;
-
-                                if (cont > 1 && intArray[cont - 2] == (int) 'U' && intArray[cont - 1] == (int) 'U' && intArray[cont] == (int) 'T') {
-                                    intArray[0] = intArray[cont - 2];
-                                    intArray[1] = intArray[cont - 1];
-                                    intArray[2] = intArray[cont];
-                                    cont = 2;                                    
-                                    frameSize = DataPacket.getDataPacketSize();;
-                                    //System.out.println("sync");
-                                }
-
-
-                                 if (cont > 1 && intArray[cont - 2] == (int) 'U' && intArray[cont - 1] == (int) 'U' && intArray[cont] == (int) 'M') {
-
-                                    intArray[0] = 'U';
-                                    intArray[1] = 'U';
-                                    intArray[2] = 'M';
-                                    cont = 2;
-                                    frameSize = DataPacket.getMessagePacketSize();
-                                   
-                                }
-
-                                /*if (cont > 1 && intArray[cont - 2] == (int) 'U' && intArray[cont - 1] == (int) 'U' && intArray[cont] == (int) 'M') {
-                                intArray[0] = intArray[cont - 2];
-                                intArray[1] = intArray[cont - 1];
-                                intArray[2] = intArray[cont];
-                                cont = 2;
-                                }*/
-
-                                cont++;
-
-                                //stData = stData + (char) (newData);
-                            /*if (stData.length() > 2 && stData.substring(stData.length() - 3, stData.length()).compareTo("UUT") == 0) {
-                                stData = "UUT";
-                                }
-
-                                if (stData.length() > 2 && stData.substring(0, 3).compareTo("UUT") == 0 && stData.length() == 51) {
-                                //System.out.println("Frame data = "+stData);
-                                this.parent.setDataInSerial(stData);
-                                }*/
-                                //inputBuffer.append((char) newData);
-                            }
-
-                        } catch (IOException ex) {
-                            System.err.println(ex);
-                            return;
-                        }
-
+                    try {
+                        int n;
+                        do {
+                            n = framer.read(is);
+                        } while (n > 0 && is.available() > 0);
+                    } catch (IOException ex) {
+                        System.err.println(ex);
+                        return;
                     }
                 } else {
 
@@ -375,14 +334,6 @@ public class SerialConnection2 implements SerialPortEventListener,
         this.channelInterface = channelInterface;
     }
 
-
-    public String intArrayToString(int[] byteArray, int begin, int end){
-        String st = "";
-        for(int i = begin; i<=end;i++){
-            st=st+(char)intArray[i];
-        }
-        return st;
-    }
 }
 
 
@@ -6,7 +6,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Timer;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import kernel.Kernel;
@@ -33,6 +35,12 @@ public class SerialManager extends Thread {
     private String stStopBits;
     private String stParidad;
     private int channelInterface =0;
+    private volatile UplinkWriter uplink = null;
+    /**
+     * Uplink rate in bytes per second, 0 for the line rate of the port.
+     * Set with -Duplink.bytesPerSecond=n.
+     */
+    private int uplinkBytesPerSecond = Integer.getInteger("uplink.bytesPerSecond", 0);
     public static final int TERMINAL=0;
     public static final int VISUALIZATION=1;
     /**
@@ -120,6 +128,8 @@ public class SerialManager extends Thread {
 
         try {
             connection.openConnection();
+            uplink = new UplinkWriter(connection.getOutputStream(), getUplinkRate());
+            uplink.start();
             manager.joutln("Serial communication initialized !");
 
         } catch (SerialConnectionException e2) {
@@ -156,64 +166,85 @@ public class SerialManager extends Thread {
      *Metodo que cierra la conexión con puerto serial.
      */
     public void serialExit() {
-        this.connection.closeConnection();
+        closeConnection();
     }
 
     /**
      *Metodo que envia un arreglo de enteros por puerto serial.
      * @param data Arreglo de enteros.
+     * @return frame queued on the uplink; completes once it is written
      */
-    public void sendData(int[] data) {
-        System.out.println();
+    public Future<UplinkFrame> sendData(int[] data) {
+        byte[] bytes = new byte[data.length];
         for (int i = 0; i < data.length; i++) {
-            this.connection.writePort(data[i]);
-
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+            bytes[i] = (byte) data[i];
         }
-        //this.managerEx.app.jout("Trama enviada");
+        return sendData(bytes);
     }
     
     /**
      *Metodo que envia un arreglo de enteros por puerto serial.
      * @param data Arreglo de enteros.
+     * @return frame queued on the uplink; completes once it is written
      */
-    public void sendData(byte[] data) {
-        System.out.println();
-        for (int i = 0; i < data.length; i++) {
-            this.connection.writePort(data[i]);
-
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-        }
-        //this.managerEx.app.jout("Trama enviada");
-    }    
+    public Future<UplinkFrame> sendData(byte[] data) {
+        return send(new UplinkFrame(data, UplinkWriter.PRIORITY_COMMAND, false));
+    }
 
     /**
      *Metodo que envia un String a traves del puerto serial.
      * @param st String que se envia.
+     * @return last frame of the text; completes once it is written
      */
-    public void sendData(String st) {
-        for (int i = 0; i < st.length(); i++) {
+    public Future<UplinkFrame> sendData(String st) {
+        UplinkWriter writer = uplink;
+        if (writer == null) {
+            return notConnected(new UplinkFrame(new byte[0], UplinkWriter.PRIORITY_TERMINAL, false));
+        }
+        return writer.submitText(st);
+    }
+
+    /**
+     * Queues a frame on the uplink.
+     *
+     * @param frame
+     * @return the frame, to wait on
+     */
+    public Future<UplinkFrame> send(UplinkFrame frame) {
+        UplinkWriter writer = uplink;
+        if (writer == null) {
+            return notConnected(frame);
+        }
+        return writer.submit(frame);
+    }
+
+    private UplinkFrame notConnected(UplinkFrame frame) {
+        frame.failed(new IOException("Serial port not open"));
+        return frame;
+    }
 
-            this.connection.writePort(st.charAt(i));
+    private int getUplinkRate() {
+        return uplinkBytesPerSecond > 0 ? uplinkBytesPerSecond : parameters.getBaudRate() / 10;
+    }
 
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+    /**
+     *
+     * @param bytesPerSecond uplink rate, 0 for the line rate of the port
+     */
+    public void setUplinkBytesPerSecond(int bytesPerSecond) {
+        uplinkBytesPerSecond = bytesPerSecond;
+        UplinkWriter writer = uplink;
+        if (writer != null) {
+            writer.setBytesPerSecond(getUplinkRate());
         }
-        //this.managerEx.app.jout("Trama enviada");
+    }
+
+    /**
+     *
+     * @return writer of the open port, null while closed
+     */
+    public UplinkWriter getUplink() {
+        return uplink;
     }
 
     /**
@@ -231,10 +262,23 @@ public class SerialManager extends Thread {
     public void setDataInSerial(int[] intArray) {
         manager.setDataIn(intArray);
     }
+
+    /**
+     *
+     * @param frame Buffer holding a complete frame.
+     * @param offset Index of the first header byte.
+     */
+    public void setDataInSerial(ByteBuffer frame, int offset) {
+        manager.setDataIn(frame, offset);
+    }
     /**
      *
      */
     public void closeConnection(){
+        if (uplink != null) {
+            uplink.stopWriter();
+            uplink = null;
+        }
         connection.closeConnection();
     }
 
@@ -0,0 +1,345 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package comm;
+
+import data.DataPacket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
+/**
+ * Splits a byte stream into telemetry ('UUT') and message ('UUM') frames.
+ *
+ * Bytes are read in bulk into a buffer and scanned for the 'UU' sync header
+ * eight bytes at a time. A telemetry frame is only passed on as received
+ * once it is complete and its checksum matches; otherwise the scan resumes
+ * one byte after the false header, so a corrupted frame costs at most one
+ * frame instead of knocking the stream out of sync. Partial frames are kept
+ * until the rest arrives, so chunks may split frames anywhere.
+ *
+ * Not thread safe: one framer per link, fed from the link's reader thread.
+ */
+public class StreamFramer {
+
+    /**
+     * Receives the frames found in the stream. The buffer passed in is the
+     * framer's own; it is only valid until the call returns.
+     */
+    public interface FrameListener {
+
+        /**
+         * A complete telemetry frame with a valid checksum.
+         *
+         * @param buffer
+         * @param offset index of the first header byte
+         */
+        public void frameReceived(ByteBuffer buffer, int offset);
+
+        /**
+         * A complete telemetry frame whose checksum does not match.
+         *
+         * @param buffer
+         * @param offset index of the first header byte
+         */
+        public void frameRejected(ByteBuffer buffer, int offset);
+
+        /**
+         * A text message sent by the aircraft.
+         *
+         * @param message
+         */
+        public void messageReceived(String message);
+    }
+
+    private static final long SYNC_BYTES = 0x5555555555555555L; // 'U' in every byte
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final int minRead = 512;
+
+    private static final Counter resyncCounter = MetricsRegistry.getInstance().counter(MetricsRegistry.RESYNCS);
+
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private final FrameListener listener;
+    private final int telemetrySize = DataPacket.getDataPacketSize();
+    private final int messageSize = DataPacket.getMessagePacketSize();
+    private int start = 0;
+    private int end = 0;
+    private boolean inSync = false;
+    private long frames = 0;
+    private long rejected = 0;
+    private long messages = 0;
+    private long resyncs = 0;
+    private long garbageBytes = 0;
+    private long bytes = 0;
+
+    /**
+     *
+     * @param listener
+     */
+    public StreamFramer(FrameListener listener) {
+        this(4096, listener);
+    }
+
+    /**
+     *
+     * @param capacity bytes buffered, at least two frames and a read
+     * @param listener
+     */
+    public StreamFramer(int capacity, FrameListener listener) {
+        int min = 2 * Math.max(telemetrySize, messageSize) + minRead;
+        buffer = new byte[Math.max(capacity, min)];
+        view = ByteBuffer.wrap(buffer);
+        this.listener = listener;
+    }
+
+    /**
+     * Reads what the stream has into the buffer with one read call and
+     * passes on the frames completed by it.
+     *
+     * @param in
+     * @return bytes read, -1 at the end of the stream
+     * @throws IOException
+     */
+    public int read(InputStream in) throws IOException {
+        makeRoom();
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n > 0) {
+            end += n;
+            bytes += n;
+            scan();
+        }
+        return n;
+    }
+
+    /**
+     * Passes on the frames completed by the given bytes.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public void feed(byte[] data, int offset, int length) {
+        while (length > 0) {
+            makeRoom();
+            int n = Math.min(length, buffer.length - end);
+            System.arraycopy(data, offset, buffer, end, n);
+            end += n;
+            bytes += n;
+            offset += n;
+            length -= n;
+            scan();
+        }
+    }
+
+    /**
+     * Passes on the frames completed by the remaining bytes of data, which
+     * is read up to its limit.
+     *
+     * @param data
+     */
+    public void feed(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            makeRoom();
+            int n = Math.min(data.remaining(), buffer.length - end);
+            data.get(buffer, end, n);
+            end += n;
+            bytes += n;
+            scan();
+        }
+    }
+
+    /**
+     * Drops any partial frame, e.g. after the link was reopened.
+     */
+    public void reset() {
+        start = 0;
+        end = 0;
+        inSync = false;
+    }
+
+    private void makeRoom() {
+        if (buffer.length - end >= minRead) {
+            return;
+        }
+        // Compact instead of wrapping around so every frame stays contiguous
+        // for the decoder; what is left is always less than one frame.
+        int left = end - start;
+        System.arraycopy(buffer, start, buffer, 0, left);
+        start = 0;
+        end = left;
+    }
+
+    private void scan() {
+        while (true) {
+            int sync = indexOfSync(start, end);
+            if (sync < 0) {
+                // Keep a trailing 'U', it may be the first half of a header.
+                int keep = end > start && buffer[end - 1] == 'U' ? 1 : 0;
+                skip(end - keep - start);
+                return;
+            }
+            skip(sync - start);
+            if (end - start < 3) {
+                return;
+            }
+            byte type = buffer[start + 2];
+            if (type == 'T') {
+                if (end - start < telemetrySize) {
+                    return;
+                }
+                if (isChecksumValid(start)) {
+                    frames++;
+                    inSync = true;
+                    listener.frameReceived(view, start);
+                    start += telemetrySize;
+                } else {
+                    rejected++;
+                    listener.frameRejected(view, start);
+                    skip(1);
+                }
+            } else if (type == 'M') {
+                int limit = Math.min(end, start + messageSize);
+                int terminator = -1;
+                boolean header = false;
+                for (int i = start + 3; i < limit; i++) {
+                    if (buffer[i] == 0) {
+                        terminator = i;
+                        break;
+                    }
+                    if (buffer[i] == 'U' && i + 1 < end && buffer[i + 1] == 'U') {
+                        // Another header before the end of the text: the
+                        // 'UUM' was noise, do not let it swallow that frame.
+                        header = true;
+                        break;
+                    }
+                }
+                if (header) {
+                    skip(1);
+                    continue;
+                }
+                if (terminator < 0 && end - start < messageSize) {
+                    return;
+                }
+                int textEnd = terminator < 0 ? start + messageSize : terminator;
+                messages++;
+                inSync = true;
+                listener.messageReceived(toString(start + 3, textEnd));
+                start = terminator < 0 ? textEnd : terminator + 1;
+            } else {
+                skip(1);
+            }
+        }
+    }
+
+    private void skip(int n) {
+        if (n <= 0) {
+            return;
+        }
+        if (inSync) {
+            resyncs++;
+            resyncCounter.increment();
+            inSync = false;
+        }
+        garbageBytes += n;
+        start += n;
+    }
+
+    /**
+     * Finds the next "UU" header. Words of eight bytes without any 'U' are
+     * skipped with one comparison; the bytes of the others are checked one
+     * by one.
+     *
+     * @return index of the first 'U' of the header, -1 if there is none
+     */
+    private int indexOfSync(int from, int to) {
+        int i = from;
+        while (i < to - 1) {
+            if (i + 8 <= to) {
+                long x = view.getLong(i) ^ SYNC_BYTES;
+                if (((x - LOW_BITS) & ~x & HIGH_BITS) == 0) {
+                    i += 8;
+                    continue;
+                }
+            }
+            int stop = Math.min(i + 8, to - 1);
+            for (; i < stop; i++) {
+                if (buffer[i] == 'U' && buffer[i + 1] == 'U') {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean isChecksumValid(int offset) {
+        int sum = 0;
+        int last = offset + telemetrySize - 2;
+        for (int i = offset + 3; i < last; i++) {
+            sum += buffer[i] & 0xFF;
+        }
+        return sum == view.getShort(last);
+    }
+
+    private String toString(int from, int to) {
+        StringBuilder st = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            st.append((char) (buffer[i] & 0xFF));
+        }
+        return st.toString();
+    }
+
+    /**
+     *
+     * @return telemetry frames passed on with a valid checksum
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     *
+     * @return telemetry frames whose checksum did not match
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     *
+     * @return times the stream lost sync after a good frame
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     *
+     * @return bytes skipped while looking for a header
+     */
+    public long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     *
+     * @return bytes read or fed so far
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "bytes " + bytes + ", frames " + frames + ", rejected " + rejected
+                + ", messages " + messages + ", resyncs " + resyncs + ", garbage " + garbageBytes;
+    }
+}
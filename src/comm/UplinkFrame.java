@@ -0,0 +1,148 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package comm;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A frame queued on the uplink. As a Future it completes once the frame has
+ * been written to the port, or, for frames that need an acknowledgement,
+ * once the aircraft confirmed it.
+ */
+public class UplinkFrame implements Future<UplinkFrame> {
+
+    private final byte[] data;
+    private final int priority;
+    private final boolean ackRequired;
+    private final long queuedNanos = System.nanoTime();
+    private volatile long writtenNanos = 0;
+    private volatile long acknowledgedNanos = 0;
+    private volatile boolean cancelled = false;
+    private volatile IOException error = null;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     *
+     * @param data bytes written in one go
+     * @param priority UplinkWriter.PRIORITY_COMMAND or PRIORITY_TERMINAL
+     * @param ackRequired true to complete on acknowledged() instead of on
+     * the write
+     */
+    public UplinkFrame(byte[] data, int priority, boolean ackRequired) {
+        this.data = data;
+        this.priority = priority;
+        this.ackRequired = ackRequired;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public boolean isAckRequired() {
+        return ackRequired;
+    }
+
+    public long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    /**
+     *
+     * @return System.nanoTime() of the last write, 0 if not written yet
+     */
+    public long getWrittenNanos() {
+        return writtenNanos;
+    }
+
+    /**
+     *
+     * @return System.nanoTime() of the acknowledgement, 0 if none
+     */
+    public long getAcknowledgedNanos() {
+        return acknowledgedNanos;
+    }
+
+    void written(long nanos) {
+        writtenNanos = nanos;
+        if (!ackRequired) {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Marks the frame as confirmed by the aircraft.
+     *
+     * @param nanos System.nanoTime() the confirmation arrived
+     */
+    public void acknowledged(long nanos) {
+        if (isDone()) {
+            return;
+        }
+        acknowledgedNanos = nanos;
+        done.countDown();
+    }
+
+    /**
+     * Completes the frame with an error.
+     *
+     * @param ex
+     */
+    public void failed(IOException ex) {
+        if (isDone()) {
+            return;
+        }
+        error = ex;
+        done.countDown();
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+        cancelled = true;
+        done.countDown();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public UplinkFrame get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    public UplinkFrame get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private UplinkFrame result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package comm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes queued uplink frames to the port on its own thread, so senders
+ * (usually the GUI thread) never wait for the link.
+ *
+ * Each frame goes out with a single write. Frames are paced to a byte rate
+ * instead of sleeping between bytes, and parameter and waypoint frames
+ * (PRIORITY_COMMAND) always go before queued terminal text.
+ */
+public class UplinkWriter extends Thread {
+
+    public static final int PRIORITY_COMMAND = 0;
+    public static final int PRIORITY_TERMINAL = 1;
+    /**
+     * Terminal text is split in chunks of this size so a command never
+     * waits behind a long string.
+     */
+    public static final int TERMINAL_CHUNK = 32;
+
+    private final OutputStream out;
+    private final LinkedList<UplinkFrame> commandLane = new LinkedList<UplinkFrame>();
+    private final LinkedList<UplinkFrame> terminalLane = new LinkedList<UplinkFrame>();
+    private volatile int bytesPerSecond;
+    private volatile boolean running = true;
+    private long nextWriteNanos = 0;
+    private volatile long framesWritten = 0;
+    private volatile long bytesWritten = 0;
+
+    /**
+     *
+     * @param out stream of the port
+     * @param bytesPerSecond uplink rate, 0 to write as fast as the port
+     * takes it
+     */
+    public UplinkWriter(OutputStream out, int bytesPerSecond) {
+        super("Uplink writer");
+        this.out = out;
+        this.bytesPerSecond = bytesPerSecond;
+        setDaemon(true);
+    }
+
+    /**
+     * Queues a frame.
+     *
+     * @param frame
+     * @return the frame, to wait on
+     */
+    public UplinkFrame submit(UplinkFrame frame) {
+        synchronized (this) {
+            if (!running) {
+                frame.failed(new IOException("Uplink closed"));
+                return frame;
+            }
+            if (frame.getPriority() == PRIORITY_COMMAND) {
+                commandLane.add(frame);
+            } else {
+                terminalLane.add(frame);
+            }
+            notify();
+        }
+        return frame;
+    }
+
+    /**
+     * Queues text for the terminal lane.
+     *
+     * @param st
+     * @return frame holding the end of the text
+     */
+    public UplinkFrame submitText(String st) {
+        UplinkFrame last = null;
+        for (int i = 0; i < st.length() || last == null; i += TERMINAL_CHUNK) {
+            int end = Math.min(st.length(), i + TERMINAL_CHUNK);
+            byte[] chunk = new byte[end - i];
+            for (int j = i; j < end; j++) {
+                chunk[j - i] = (byte) st.charAt(j);
+            }
+            last = submit(new UplinkFrame(chunk, PRIORITY_TERMINAL, false));
+        }
+        return last;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long wait = nextWriteNanos - System.nanoTime();
+            if (bytesPerSecond > 0 && wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            UplinkFrame frame;
+            synchronized (this) {
+                frame = commandLane.poll();
+                if (frame == null) {
+                    frame = terminalLane.poll();
+                }
+                if (frame == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            if (frame.isCancelled()) {
+                continue;
+            }
+            byte[] data = frame.getData();
+            try {
+                out.write(data, 0, data.length);
+                out.flush();
+            } catch (IOException ex) {
+                System.err.println("OutputStream write error: " + ex);
+                frame.failed(ex);
+                continue;
+            }
+            long now = System.nanoTime();
+            framesWritten++;
+            bytesWritten += data.length;
+            int rate = bytesPerSecond;
+            if (rate > 0) {
+                nextWriteNanos = Math.max(nextWriteNanos, now) + data.length * 1000000000L / rate;
+            }
+            frame.written(now);
+        }
+    }
+
+    /**
+     * Stops the writer; frames still queued fail.
+     */
+    public void stopWriter() {
+        synchronized (this) {
+            running = false;
+            IOException closed = new IOException("Uplink closed");
+            for (UplinkFrame frame : commandLane) {
+                frame.failed(closed);
+            }
+            for (UplinkFrame frame : terminalLane) {
+                frame.failed(closed);
+            }
+            commandLane.clear();
+            terminalLane.clear();
+            notify();
+        }
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     *
+     * @param bytesPerSecond uplink rate, 0 for unpaced
+     */
+    public void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public synchronized int getQueuedFrames() {
+        return commandLane.size() + terminalLane.size();
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
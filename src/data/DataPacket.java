@@ -5,6 +5,7 @@
 package data;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.logging.Level;
@@ -23,6 +24,8 @@ public class DataPacket implements Serializable {
 
     private String dataString = "";
     private int[] dataIntArray = null;
+    private transient ByteBuffer dataBuffer = null;
+    private int dataBufferOffset = 0;
     private double[] dataArray = null;
     private double time = 0;
     private double ias_ref = 0;
@@ -93,15 +96,44 @@ public class DataPacket implements Serializable {
     public static final int MODE_WPN = 3;
     private boolean checkSum = false;
 
+    // Position of each channel inside getDataArray().
+    public static final int INDEX_TIME = 0;
+    public static final int INDEX_ALT_REF = 1;
+    public static final int INDEX_IAS_REF = 2;
+    public static final int INDEX_P = 3;
+    public static final int INDEX_Q = 4;
+    public static final int INDEX_R = 5;
+    public static final int INDEX_ALTITUDE = 6;
+    public static final int INDEX_IAS = 7;
+    public static final int INDEX_PSI = 8;
+    public static final int INDEX_THETA = 9;
+    public static final int INDEX_PHI = 10;
+    public static final int INDEX_AILERON = 11;
+    public static final int INDEX_ELEVATOR = 12;
+    public static final int INDEX_THROTTLE = 13;
+    public static final int INDEX_RUDDER = 14;
+    public static final int INDEX_CPULOAD = 15;
+    public static final int INDEX_LONGITUD = 16;
+    public static final int INDEX_LATITUD = 17;
+    public static final int INDEX_FLIGHT_MODE = 18;
+    public static final int INDEX_GPS_SATELLITES = 19;
+    public static final int INDEX_CUSTOM_DATA = 20;
+    public static final int INDEX_CUSTOM_PARAMETERS = INDEX_CUSTOM_DATA + customDataCount;
+    public static final int INDEX_CUSTOM_WAYPOINTS = INDEX_CUSTOM_PARAMETERS + customParameterCount;
+    private static final int dataArraySize = INDEX_CUSTOM_WAYPOINTS + 3 * customWaypointsDownstreamCount;
+
 
     /**
      * 
      */
     public DataPacket() {
-        dataArray = new double[20+customDataCount+customParameterCount+3*customWaypointsDownstreamCount];
+        dataArray = new double[dataArraySize];
         customScopes = new double[customDataCount];
         customParameters = new double[customParameterCount];
         customWaypointsDownstream = new Waypoint[customWaypointsDownstreamCount];
+        for (int i = 0; i < customWaypointsDownstreamCount; i++) {
+            customWaypointsDownstream[i] = new Waypoint();
+        }
     }
 
     /**
@@ -206,6 +238,7 @@ public class DataPacket implements Serializable {
      */
     public void setDataIntArray(int[] dataIntArray) {
         this.dataIntArray = dataIntArray;
+        this.dataBuffer = null;
 
         if (dataIntArray[2] == (int)'M') {
             message = bytesToString(dataIntArray, 3, 102) ;
@@ -222,6 +255,49 @@ public class DataPacket implements Serializable {
 
 
 
+    }
+
+    /**
+     * Decodes a frame straight out of a big-endian buffer without copying it.
+     * The buffer is only read with absolute gets, so its position and limit
+     * are left untouched and the caller may reuse it for the next frame as
+     * soon as this method returns.
+     *
+     * @param buffer buffer holding the frame, starting with the 'UU' header
+     * @param offset index of the first header byte inside the buffer
+     */
+    public void setDataBuffer(ByteBuffer buffer, int offset) {
+        this.dataBuffer = buffer;
+        this.dataBufferOffset = offset;
+        this.dataIntArray = null;
+
+        if (buffer.get(offset + 2) == (byte) 'M') {
+            message = bytesToString(buffer, offset + 3, offset + 102);
+            messagaAvaliable = true;
+        } else {
+            doCheckSum(buffer, offset);
+            if (checkSum) {
+                bufferToValues(buffer, offset);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the buffer of the last frame decoded by setDataBuffer, or null
+     * if the last frame came in as an int array
+     */
+    public ByteBuffer getDataBuffer() {
+        return dataBuffer;
+    }
+
+    /**
+     *
+     * @return index of the first header byte of the last frame inside
+     * getDataBuffer()
+     */
+    public int getDataBufferOffset() {
+        return dataBufferOffset;
     }
 
     /**
@@ -422,6 +498,26 @@ public class DataPacket implements Serializable {
         return 103;
     }
 
+    /**
+     *
+     * @return number of channels in getDataArray()
+     */
+    public static int getDataArraySize() {
+        return dataArraySize;
+    }
+
+    public static int getCustomDataCount() {
+        return customDataCount;
+    }
+
+    public static int getCustomParameterCount() {
+        return customParameterCount;
+    }
+
+    public static int getCustomWaypointCount() {
+        return customWaypointsDownstreamCount;
+    }
+
     /**
      *
      * @return
@@ -689,6 +785,105 @@ public class DataPacket implements Serializable {
 
     }
 
+    private void bufferToValues(ByteBuffer data, int off) {
+
+        if (data.get(off) == (byte) 'U' && data.get(off + 1) == (byte) 'U' && data.get(off + 2) == (byte) 'T') {
+            messagaAvaliable = false;
+
+            // Same layout and scale factors as intArrayToValues, read with
+            // absolute big-endian gets instead of shifting ints by hand.
+            time = data.getInt(off + 3) * 1.0e-04;
+            dataArray[0] = time;
+
+            altRef = data.getShort(off + 7) * (2.441480758e-03);
+            dataArray[1] = altRef;
+
+            ias_ref = data.getShort(off + 9) * (2.441480758e-03);
+            dataArray[2] = ias_ref;
+
+            p = data.getShort(off + 11) * 1.065264436e-04;
+            dataArray[3] = p;
+            q = data.getShort(off + 13) * 1.065264436e-04;
+            dataArray[4] = q;
+            r = data.getShort(off + 15) * 1.065264436e-04;
+            dataArray[5] = r;
+
+            altitude = data.getShort(off + 17) * 3.0517578125e-01;
+            dataArray[6] = altitude;
+            IAS = data.getShort(off + 19) * 2.4414062500e-03;
+            dataArray[7] = IAS;
+            psi = data.getShort(off + 21) * 5.4931640625e-03;
+            dataArray[8] = psi;
+            theta = data.getShort(off + 23) * 2.7465820313e-03;
+            dataArray[9] = theta;
+            phi = data.getShort(off + 25) * 5.4931640625e-03;
+            dataArray[10] = phi;
+
+            aileron = data.getShort(off + 27) * (1.220740379e-03);
+            dataArray[11] = aileron;
+            elevator = data.getShort(off + 29) * (1.220740379e-03);
+            dataArray[12] = elevator;
+            throttle = data.getShort(off + 31) * (3.051850947599719e-05);
+            dataArray[13] = throttle;
+            rudder = data.getShort(off + 33) * (1.220740379e-03);
+            dataArray[14] = rudder;
+
+            cpuload = data.getShort(off + 35);
+            dataArray[15] = cpuload;
+
+            longitud = data.getInt(off + 37) * 1.0e-07;
+            dataArray[16] = longitud;
+            latitud = data.getInt(off + 41) * 1.0e-07;
+            dataArray[17] = latitud;
+
+            flight_mode = data.getShort(off + 45);
+            dataArray[18] = flight_mode;
+            gpsSatellites = data.getShort(off + 47);
+            dataArray[19] = gpsSatellites;
+
+            accelLF = data.getShort(off + 49);
+            accelLR = data.getShort(off + 51);
+            accelCF = data.getShort(off + 53);
+            accelCR = data.getShort(off + 55);
+            accelRF = data.getShort(off + 57);
+            accelRR = data.getShort(off + 59);
+
+            int dataOffset = off + 49;
+            int dataArrayOffset = 20;
+            for (int i = 0; i < customDataCount; ++i) {
+                customScopes[i] = data.getFloat(dataOffset + 4 * i);
+                dataArray[dataArrayOffset + i] = customScopes[i];
+            }
+            dataOffset += customScopesSize;
+            dataArrayOffset += customDataCount;
+            for (int i = 0; i < customParameterCount; ++i) {
+                customParameters[i] = data.getFloat(dataOffset + 4 * i);
+                dataArray[dataArrayOffset + i] = customParameters[i];
+            }
+            dataOffset += customParameterSize;
+            dataArrayOffset += customParameterCount;
+
+            for (int i = 0; i < customWaypointsDownstreamCount; ++i) {
+                Waypoint waypoint = customWaypointsDownstream[i];
+                waypoint.setID(data.get(dataOffset) & 0xFF);
+                dataOffset++;
+                double lon = data.getInt(dataOffset) / 1e7;
+                double lat = data.getInt(dataOffset + 4) / 1e7;
+                float alt = data.getFloat(dataOffset + 8);
+                waypoint.setLongitude(lon);
+                waypoint.setLatitude(lat);
+                waypoint.setAltitude(alt);
+                dataArray[dataArrayOffset + 3 * i] = lon;
+                dataArray[dataArrayOffset + 3 * i + 1] = lat;
+                dataArray[dataArrayOffset + 3 * i + 2] = alt;
+                dataOffset += 12;
+            }
+        } else {
+            message = bytesToString(data, off + 3, off + frameSize - 1);
+            messagaAvaliable = true;
+        }
+    }
+
     private void stringToIntArray(String st) {
         //System.out.println("Data lenght = "+st.length());
         dataIntArray = new int[st.length()];
@@ -727,12 +922,17 @@ public class DataPacket implements Serializable {
         }
         //long sum2 = 256*dataIntArray[frameSize - 2] + dataIntArray[frameSize - 1];
         long sum2 = (long) ((((byte) dataIntArray[frameSize-2]) << 8) | dataIntArray[frameSize-1]) ;
-        if (sum2 == sum) {
-            checkSum = true;
-        } else {
-            checkSum = false;
-            System.out.println("sum= " + sum + " sum2= " + sum2 + " , lenght= " + dataIntArray.length);
+        checkSum = sum2 == sum;
+    }
+
+    private void doCheckSum(ByteBuffer data, int off) {
+        long sum = 0;
+        for (int i = off + 3; i < off + frameSize - 2; i++) {
+            sum = sum + (data.get(i) & 0xFF);
         }
+        long sum2 = data.getShort(off + frameSize - 2);
+        // failures are counted by the link, see MetricsRegistry.CHECKSUM_FAILURES
+        checkSum = sum2 == sum;
     }
 
     /**
@@ -768,6 +968,14 @@ public class DataPacket implements Serializable {
         return st;
     }
 
+    private String bytesToString(ByteBuffer data, int pos_i, int pos_f) {
+        StringBuilder st = new StringBuilder(pos_f - pos_i + 1);
+        for (int i = pos_i; i <= pos_f; i++) {
+            st.append((char) (data.get(i) & 0xFF));
+        }
+        return st.toString();
+    }
+
     public boolean isMessagaAvaliable() {
         return messagaAvaliable;
     }
@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA1 signer for uplink packets. Looking up and keying a Mac is far
+ * more expensive than signing a 30 byte packet, so each thread keeps one
+ * keyed instance (get()) and reuses it for every packet.
+ *
+ * The key is read once from the uplink.key system property, falling back
+ * to the key the aircraft ships with; setKey() replaces it for every
+ * thread.
+ *
+ * @author Christian Dernehl
+ */
+public class PacketSigner {
+
+    public static final String ALGORITHM = "HmacSHA1";
+    public static final int SIGNATURE_SIZE = 20;
+    private static final String defaultKey = "umnuavlab";
+
+    private static volatile byte[] key = System.getProperty("uplink.key", defaultKey).getBytes(Charset.forName("ISO-8859-1"));
+    private static volatile int keyGeneration = 0;
+
+    private static final ThreadLocal<PacketSigner> signers = new ThreadLocal<PacketSigner>() {
+        @Override
+        protected PacketSigner initialValue() {
+            return new PacketSigner();
+        }
+    };
+
+    private Mac mac = null;
+    private int macGeneration = -1;
+    private final byte[] signature = new byte[SIGNATURE_SIZE];
+
+    private PacketSigner() {
+    }
+
+    /**
+     *
+     * @return the signer of the calling thread; do not hand it to others
+     */
+    public static PacketSigner get() {
+        return signers.get();
+    }
+
+    /**
+     * Replaces the uplink key; signers pick it up on their next packet.
+     *
+     * @param newKey
+     */
+    public static synchronized void setKey(byte[] newKey) {
+        key = newKey.clone();
+        keyGeneration++;
+    }
+
+    private Mac mac() throws GeneralSecurityException {
+        int generation = keyGeneration;
+        if (mac == null || macGeneration != generation) {
+            Mac m = Mac.getInstance(ALGORITHM);
+            m.init(new SecretKeySpec(key, ALGORITHM));
+            mac = m;
+            macGeneration = generation;
+        }
+        return mac;
+    }
+
+    /**
+     * Signs buffer[offset, offset + length) and writes the signature right
+     * after it. The position and limit of the buffer are left as they were.
+     *
+     * @param buffer
+     * @param offset first byte covered by the signature
+     * @param length bytes covered by the signature
+     * @return false if no HMAC-SHA1 provider is available
+     */
+    public boolean sign(ByteBuffer buffer, int offset, int length) {
+        try {
+            Mac m = mac();
+            if (buffer.hasArray()) {
+                m.update(buffer.array(), buffer.arrayOffset() + offset, length);
+            } else {
+                ByteBuffer data = buffer.duplicate();
+                data.limit(offset + length).position(offset);
+                m.update(data);
+            }
+            m.doFinal(signature, 0);
+        } catch (GeneralSecurityException ex) {
+            Logger.getLogger(PacketSigner.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        for (int i = 0; i < SIGNATURE_SIZE; ++i) {
+            buffer.put(offset + length + i, signature[i]);
+        }
+        return true;
+    }
+}
@@ -6,31 +6,49 @@
 
 package data;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 
 /**
+ * Uplink packet: header, 16-bit packet counter, type, payload and an
+ * HMAC-SHA1 of everything before it. The packet is assembled straight into
+ * its own ByteBuffer, reused when the packet object is reused.
  *
  * @author Christian Dernehl
  */
 public abstract class UpstreamPacket {
     private final byte[] HEADER = { 'U', 'U', 'T'};
-    private int[] packet;
+    private ByteBuffer ownBuffer = null;
+    private ByteBuffer buffer = null;
+    private int base = 0;
     private final int HEADER_SIZE = HEADER.length;
     private final int PACKET_COUNTER_SIZE = 2;
     private final int PACKET_TYPE_SIZE = 1;
     private final int PAYLOAD_START = HEADER_SIZE + PACKET_COUNTER_SIZE + PACKET_TYPE_SIZE;
-    private final int CHECKSUM_SIZE = 20;
+    private final int CHECKSUM_SIZE = PacketSigner.SIGNATURE_SIZE;
     static private int packetCounter = 0;
     
+    /**
+     *
+     * @return the packet as unsigned byte values
+     */
     public int[] getPacketData(){
+        int[] packet = new int[getPacketSize()];
+        for(int i = 0; i < packet.length; ++i){
+            packet[i] = buffer.get(base + i) & 0xFF;
+        }
         return packet;
     }
-    
+
+    /**
+     *
+     * @return view of the assembled packet, position 0 to limit
+     */
+    public ByteBuffer getPacketBuffer(){
+        ByteBuffer view = buffer.duplicate();
+        view.limit(base + getPacketSize()).position(base);
+        return view.slice();
+    }
+
     protected abstract int getPayloadSize();
     protected abstract int getPacketType();
     
@@ -39,32 +57,34 @@ public abstract class UpstreamPacket {
     }
     
     protected void allocate(){
-        packet = new int[getPacketSize()];
+        if(ownBuffer == null){
+            ownBuffer = ByteBuffer.allocate(getPacketSize());
+        }
+        buffer = ownBuffer;
+        base = 0;
     }
     
     protected void assembleHeader(){
         for(int i = 0; i < HEADER_SIZE; ++i){
-            packet[i] = HEADER[i];
+            buffer.put(base + i, HEADER[i]);
         }
-        packet[HEADER_SIZE] = packetCounter >> 8;
-        packet[HEADER_SIZE+1] = packetCounter & 0xFF;
-        packet[HEADER_SIZE+2] = getPacketType() & 0xFF;
+        buffer.put(base + HEADER_SIZE, (byte) (packetCounter >> 8));
+        buffer.put(base + HEADER_SIZE + 1, (byte) (packetCounter & 0xFF));
+        buffer.put(base + HEADER_SIZE + 2, (byte) (getPacketType() & 0xFF));
     }
     
     protected void writePayloadBufferByte(int pos, int data){
-        packet[PAYLOAD_START + pos] = 0xFF & data;
+        buffer.put(base + PAYLOAD_START + pos, (byte) (0xFF & data));
     }
     
     protected void writePayloadBufferInt16(int pos, int data){
-        packet[PAYLOAD_START + pos] = data & 0xFF00;
-        packet[PAYLOAD_START + pos + 1] = data & 0x00FF;
+        // Kept as sent so far: the high byte is masked but not shifted.
+        buffer.put(base + PAYLOAD_START + pos, (byte) (data & 0xFF00));
+        buffer.put(base + PAYLOAD_START + pos + 1, (byte) (data & 0x00FF));
     }
     
     protected void writePayloadBufferInt32(int pos, int data){
-        for(int i = 0; i < 4; ++i){
-            int mask = 0xFF << (8*(3-i));                        
-            packet[PAYLOAD_START + pos + i] = ((data & mask) >> (8*(3-i)));
-        }
+        buffer.putInt(base + PAYLOAD_START + pos, data);
     }
     
     protected void writePayloadBufferFloat32(int pos, float data){
@@ -74,32 +94,7 @@ public abstract class UpstreamPacket {
     
     protected void finishPacket(){
         packetCounter++;
-        String key = "umnuavlab";
-        String algorithm = "HmacSHA1";
-        SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(), algorithm);
-
-        Mac mac;
-        try {
-            mac = Mac.getInstance(algorithm);
-            mac.init(signingKey);
-        } catch (NoSuchAlgorithmException ex) {
-            Logger.getLogger(ParamPacket.class.getName()).log(Level.SEVERE, null, ex);
-            return;
-        } catch (InvalidKeyException ex) {
-            Logger.getLogger(ParamPacket.class.getName()).log(Level.SEVERE, null, ex);
-            return;
-        }
-
-        byte[] packet_data = new byte[packet.length - CHECKSUM_SIZE];
-        for(int i = 0; i < packet.length - CHECKSUM_SIZE; ++i){
-            packet_data[i] = (byte)packet[i];
-        }        
-        byte[] result = mac.doFinal(packet_data);
-        for(int i = 0; i < CHECKSUM_SIZE; ++i){
-            int val = 0;
-            val |= result[i];            
-            packet[getPacketSize()-CHECKSUM_SIZE + i] = val;
-        }   
+        PacketSigner.get().sign(buffer, base, getPacketSize() - CHECKSUM_SIZE);
     }
     
     public UpstreamPacket(){
@@ -17,6 +17,9 @@ public class BarDisplay extends Entity2D {
     private boolean vertical = true;
     private int centerX, centerY, width, height;
     private String name;
+    private final Rectangle2D.Double level = new Rectangle2D.Double();
+    private Node valueText;
+    private double lastValue = Double.NaN;
 
     public BarDisplay(String name_,int centerX_, int centerY_, int width_, int heigth_, boolean verical_) {
         centerX = centerX_;
@@ -25,6 +28,18 @@ public class BarDisplay extends Entity2D {
         height = heigth_;
         vertical = verical_;
         name=name_;
+        build();
+    }
+
+    @Override
+    protected void build() {
+        removeAll();
+        setOrigin(centerX, centerY);
+        addEntity(new Rectangle2D.Double(0, 0, width, height), Color.yellow, lineWidth).setChrome(true);
+        addFilledEntity(level, Color.yellow, lineWidth, true);
+        addEntity(name, width/2-name.length()*4, -10, Color.yellow, lineWidth, true).setChrome(true);
+        valueText = addEntity("", 0, height+20, Color.yellow, lineWidth, true);
+        lastValue = Double.NaN;
     }
 
     @Override
@@ -39,25 +54,21 @@ public class BarDisplay extends Entity2D {
         if(v<0){
             v=0;
         }
-        removeAll();
-        Rectangle2D r = new Rectangle2D.Double(0, 0, width, height);
-        addEntity(r, Color.yellow, lineWidth);
-
-        if (vertical) {
-            int l = (int) (v * height / 100);
-            r = new Rectangle2D.Double(0, height - l, width, l);
-            addFilledEntity(r, Color.yellow, lineWidth, true);
 
-        } else {
-            int l = (int) (v * width / 100);
-            r = new Rectangle2D.Double(0, 0, l, height);
-            addFilledEntity(r, Color.yellow, lineWidth, true);
+        if (v != lastValue) {
+            if (vertical) {
+                int l = (int) (v * height / 100);
+                level.setRect(0, height - l, width, l);
+            } else {
+                int l = (int) (v * width / 100);
+                level.setRect(0, 0, l, height);
+            }
+            String stVal=""+v;
+            valueText.setText(stVal);
+            valueText.setPosition(width/2-stVal.length()*4, height+20);
+            lastValue = v;
         }
 
-        addEntity(name, width/2-name.length()*4, -10, Color.yellow, lineWidth, true);
-        String stVal=""+v;
-        addEntity(stVal, width/2-stVal.length()*4, height+20, Color.yellow, lineWidth, true);
-
         rotateAndTranslate(0, centerX, centerY, g2);
 
     }
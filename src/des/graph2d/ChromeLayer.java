@@ -0,0 +1,200 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.graph2d;
+
+import java.awt.AlphaComposite;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+
+/**
+ * Static chrome (frames, bezels, fixed labels and pointers) of a set of
+ * widgets, rendered once into one small transparent image per widget and
+ * blitted under the dynamic part on every paint. While the layer is in use
+ * the widgets added here do not draw their chrome themselves.
+ *
+ * The images are VolatileImages, so on screens that accelerate images the
+ * blits happen in video memory and cost the CPU next to nothing. Where
+ * images are not accelerated, blending the sprites in software costs more
+ * than drawing the few chrome lines again, so the layer steps aside and
+ * the widgets draw everything, unless setAlwaysCache(true) asks for
+ * BufferedImages anyway.
+ *
+ * An image is rendered again when its widget rebuilds its scene, when the
+ * area painted is resized, when the VolatileImage loses its contents, or
+ * after invalidate().
+ */
+public class ChromeLayer {
+
+    /**
+     * Cached chrome of one widget.
+     */
+    private static class Sprite {
+
+        final Entity2D widget;
+        Rectangle bounds = null;
+        Image image = null;
+        boolean valid = false;
+        int version = -1;
+
+        Sprite(Entity2D widget) {
+            this.widget = widget;
+        }
+
+        void flush() {
+            if (image != null) {
+                image.flush();
+                image = null;
+            }
+            valid = false;
+        }
+    }
+
+    private final ArrayList<Sprite> sprites = new ArrayList<Sprite>();
+    private int width = 0;
+    private int height = 0;
+    private boolean cached = false;
+    private boolean alwaysCache = false;
+    private volatile long renders = 0;
+
+    public ChromeLayer() {
+    }
+
+    public void add(Entity2D widget) {
+        sprites.add(new Sprite(widget));
+        widget.setChromeCached(cached);
+    }
+
+    /**
+     *
+     * @param alwaysCache true to cache even where images are not
+     * accelerated, in BufferedImages if there is no screen
+     */
+    public void setAlwaysCache(boolean alwaysCache) {
+        this.alwaysCache = alwaysCache;
+    }
+
+    /**
+     * Renders the chrome again on the next paint.
+     */
+    public void invalidate() {
+        for (Sprite sprite : sprites) {
+            sprite.flush();
+        }
+    }
+
+    /**
+     * Draws the chrome of every widget, if the layer is in use.
+     *
+     * @param g2
+     * @param target component painted, null if offscreen
+     * @param w width of the area painted
+     * @param h height of the area painted
+     * @return false if the widgets draw their own chrome
+     */
+    public boolean paint(Graphics2D g2, Component target, int w, int h) {
+        GraphicsConfiguration gc = target == null ? null : target.getGraphicsConfiguration();
+        boolean cache = alwaysCache || (gc != null && gc.getImageCapabilities().isAccelerated());
+        if (cache != cached) {
+            cached = cache;
+            for (Sprite sprite : sprites) {
+                sprite.widget.setChromeCached(cache);
+            }
+            invalidate();
+        }
+        if (!cache) {
+            return false;
+        }
+        if (w != width || h != height) {
+            invalidate();
+            width = w;
+            height = h;
+        }
+        for (Sprite sprite : sprites) {
+            if (sprite.version != sprite.widget.getChromeVersion()) {
+                sprite.flush();
+                sprite.bounds = sprite.widget.getChromeBounds(g2);
+                sprite.version = sprite.widget.getChromeVersion();
+            }
+            if (sprite.bounds.isEmpty()) {
+                continue;
+            }
+            if (gc == null) {
+                paintBuffered(sprite, g2);
+            } else {
+                paintVolatile(sprite, g2, gc);
+            }
+        }
+        return true;
+    }
+
+    private void paintBuffered(Sprite sprite, Graphics2D g2) {
+        if (!(sprite.image instanceof BufferedImage)) {
+            sprite.flush();
+            sprite.image = new BufferedImage(sprite.bounds.width, sprite.bounds.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        if (!sprite.valid) {
+            render(sprite, g2);
+        }
+        g2.drawImage(sprite.image, sprite.bounds.x, sprite.bounds.y, null);
+    }
+
+    private void paintVolatile(Sprite sprite, Graphics2D g2, GraphicsConfiguration gc) {
+        if (!(sprite.image instanceof VolatileImage)) {
+            sprite.flush();
+        }
+        VolatileImage image;
+        do {
+            if (sprite.image == null) {
+                sprite.image = gc.createCompatibleVolatileImage(sprite.bounds.width, sprite.bounds.height, Transparency.TRANSLUCENT);
+                sprite.valid = false;
+            }
+            image = (VolatileImage) sprite.image;
+            int status = image.validate(gc);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                sprite.flush();
+                continue;
+            }
+            if (status == VolatileImage.IMAGE_RESTORED) {
+                sprite.valid = false;
+            }
+            if (!sprite.valid) {
+                render(sprite, g2);
+            }
+            g2.drawImage(image, sprite.bounds.x, sprite.bounds.y, null);
+        } while (sprite.image == null || image.contentsLost());
+    }
+
+    private void render(Sprite sprite, Graphics2D target) {
+        Graphics2D lg = (Graphics2D) sprite.image.getGraphics();
+        try {
+            lg.setComposite(AlphaComposite.Clear);
+            lg.fillRect(0, 0, sprite.bounds.width, sprite.bounds.height);
+            lg.setComposite(AlphaComposite.SrcOver);
+            lg.setRenderingHints(target.getRenderingHints());
+            lg.setFont(target.getFont());
+            lg.translate(-sprite.bounds.x, -sprite.bounds.y);
+            sprite.widget.drawChrome(lg);
+        } finally {
+            lg.dispose();
+        }
+        sprite.valid = true;
+        renders++;
+    }
+
+    /**
+     *
+     * @return how many chrome images were rendered so far
+     */
+    public long getRenders() {
+        return renders;
+    }
+}
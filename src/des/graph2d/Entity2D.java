@@ -7,228 +7,398 @@ package des.graph2d;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
-import java.util.Vector;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
 
 /**
+ * A HUD widget drawn from a retained list of nodes (shapes and strings).
+ *
+ * Widgets build their geometry once in build() and keep the nodes they
+ * need to move; update() then only shifts nodes, switches them on and off
+ * and replaces text that changed, so drawing a frame allocates next to
+ * nothing. Strokes are shared and the transforms are reused.
+ *
+ * Nodes marked as chrome never change after build(). When the widget is
+ * part of a ChromeLayer they are drawn once into the layer's image and
+ * skipped by rotateAndTranslate().
+ *
+ * The old immediate style (removeAll() and addEntity() on every update)
+ * still works; removed nodes are recycled by the next addEntity().
  *
  * @author david2010a
  */
 public abstract class Entity2D {
 
-    private Vector shapesVector;
-    private Vector colorsVector;
-    private Vector lineWidthVector;
-    private Vector posStringCenterX;
-    private Vector posStringCenterY;
-    private int nStrings = 0;
-    private Vector isStatic;
-    private Vector isFilled;
-    protected int lineWidth = 2;
-    private Vector isDashed;
-
-    public abstract void update(double[] value, Graphics2D g2);
-
-    public Entity2D() {
-        shapesVector = new Vector();
-        colorsVector = new Vector();
-        lineWidthVector = new Vector();
-        posStringCenterX = new Vector();
-        posStringCenterY = new Vector();
-        isFilled = new Vector();
-        isStatic = new Vector();
-        isDashed = new Vector();
-    }
-
-    public void rotateAndTranslate(double angle, int trans_x, int trans_y, Graphics2D g2) {
-
-        int countStrings = 0;
-
-
-        try {
-            for (int i = 0; i < shapesVector.size(); i++) {
-                g2.setColor((Color) colorsVector.elementAt(i));
+    private static final BasicStroke[] strokes = new BasicStroke[16];
+    private static final BasicStroke dashed = new BasicStroke(1.0f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10.0f, new float[]{10.0f}, 0.0f);
+    private static final int labelOffset = 1000;
+    private static final String[] labels = new String[labelOffset + 10000];
+
+    /**
+     * One shape or string of the scene.
+     */
+    public static class Node {
+
+        private Shape shape;
+        private String text;
+        private Color color;
+        private int lineWidth;
+        private int x, y;
+        private int dx, dy;
+        private boolean isStatic, isFilled, isDashed, visible, chrome;
+
+        void set(Shape shape, String text, int x, int y, Color color, int lineWidth, boolean isStatic, boolean isFilled, boolean isDashed) {
+            this.shape = shape;
+            this.text = text;
+            this.x = x;
+            this.y = y;
+            this.color = color;
+            this.lineWidth = lineWidth;
+            this.isStatic = isStatic;
+            this.isFilled = isFilled;
+            this.isDashed = isDashed;
+            dx = 0;
+            dy = 0;
+            visible = true;
+            chrome = false;
+        }
 
-                Object obj = (Object) shapesVector.elementAt(i);
-                int width = ((Integer) lineWidthVector.elementAt(i)).intValue();
-                g2.setStroke(new BasicStroke(width));
+        public Shape getShape() {
+            return shape;
+        }
 
-                if (obj instanceof Shape) {
+        public String getText() {
+            return text;
+        }
 
-                    AffineTransform atBack = g2.getTransform();
-                    AffineTransform at = AffineTransform.getTranslateInstance(trans_x, trans_y);
-                    boolean _isStatic = (Boolean) isStatic.elementAt(i);
-                    boolean _isFilled = (Boolean) isFilled.elementAt(i);
-                    boolean _isDashed = (Boolean) isDashed.elementAt(i);
+        public void setText(String text) {
+            this.text = text;
+        }
 
-                    if (_isDashed) {
-                        float dash1[] = {10.0f};
-                        BasicStroke dashed = new BasicStroke(1.0f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10.0f, dash1, 0.0f);
-                        g2.setStroke(dashed);
+        /**
+         *
+         * @param x where the string starts
+         * @param y baseline of the string
+         */
+        public void setPosition(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
 
+        public void setColor(Color color) {
+            this.color = color;
+        }
 
-                    }
+        public void setDashed(boolean isDashed) {
+            this.isDashed = isDashed;
+        }
 
-                    if (!_isStatic) {
-                        at.rotate(Math.toRadians(angle));
-                    }
+        public void setVisible(boolean visible) {
+            this.visible = visible;
+        }
 
+        /**
+         * Marks a node that is not rotated and never changes, drawn under
+         * everything else.
+         *
+         * @param chrome
+         */
+        public void setChrome(boolean chrome) {
+            this.chrome = chrome;
+        }
 
-                    if (_isFilled) {
-                        g2.fill(at.createTransformedShape((Shape) obj));
-                    } else {
-                        g2.draw(at.createTransformedShape((Shape) obj));
-                    }
+        /**
+         * Moves the node without touching its geometry.
+         *
+         * @param dx
+         * @param dy
+         */
+        public void setOffset(int dx, int dy) {
+            this.dx = dx;
+            this.dy = dy;
+        }
+    }
 
+    private final ArrayList<Node> nodes = new ArrayList<Node>();
+    private int nNodes = 0;
+    private final AffineTransform fixedTransform = new AffineTransform();
+    private final AffineTransform rotatedTransform = new AffineTransform();
+    private int originX = 0;
+    private int originY = 0;
+    private boolean chromeCached = false;
+    private int chromeVersion = 0;
+    private int travelX = 0;
+    private int travelY = 0;
+    private boolean rotating = false;
+    protected int lineWidth = 2;
 
+    public abstract void update(double[] value, Graphics2D g2);
 
-                    g2.setTransform(atBack);
-                }
+    public Entity2D() {
+    }
 
-                if (obj instanceof String) {
-                    //AffineTransform at = AffineTransform.getTranslateInstance(trans_x, trans_y);
+    /**
+     * Builds the retained scene. Called by the widgets once their fields
+     * are set, and again when the line width changes.
+     */
+    protected void build() {
+    }
 
-                    AffineTransform atBack = g2.getTransform();
-                    AffineTransform at = new AffineTransform();
-                    //AffineTransform at = AffineTransform.getTranslateInstance(trans_x, trans_y);
-                    int newX = ((Integer) posStringCenterX.elementAt(countStrings)).intValue(); // ((Integer)posStringCenter[0].elementAt(countStrings)).intValue() + trans_x;
-                    int newY = ((Integer) posStringCenterY.elementAt(countStrings)).intValue();//((Integer)posStringCenter[1].elementAt(countStrings)).intValue() + trans_y;
+    static Stroke stroke(int width) {
+        if (width < 0 || width >= strokes.length) {
+            return new BasicStroke(width);
+        }
+        if (strokes[width] == null) {
+            strokes[width] = new BasicStroke(width);
+        }
+        return strokes[width];
+    }
 
+    /**
+     *
+     * @param x where the chrome of the widget is drawn
+     * @param y
+     */
+    protected void setOrigin(int x, int y) {
+        originX = x;
+        originY = y;
+    }
 
-                    //posStringCenter[0].setElementAt(new Integer(newX), countStrings);
-                    //posStringCenter[1].setElementAt(new Integer(newY), countStrings);
-                    countStrings++;
-                    at.setToTranslation(trans_x, trans_y);
-                    //System.out.println("newX: "+newX+" newY= "+newY+" count: "+countStrings);
-                    g2.transform(at);
+    /**
+     * Tells getExtent() how far the widget moves its nodes.
+     *
+     * @param travelX largest horizontal node offset
+     * @param travelY largest vertical node offset
+     * @param rotating true if the nodes that are not static rotate
+     */
+    protected void setMotion(int travelX, int travelY, boolean rotating) {
+        this.travelX = travelX;
+        this.travelY = travelY;
+        this.rotating = rotating;
+    }
 
-                    boolean _isStatic = (Boolean) isStatic.elementAt(i);
-                    if (!_isStatic) {
-                        at.setToRotation(Math.toRadians(angle));
-                        g2.transform(at);
+    /**
+     * Area the widget may paint in, whatever the values shown: every node,
+     * moved as far as it can travel, rotated all the way round if the
+     * widget rotates, with room for longer strings. Used to repaint only
+     * the widgets that changed.
+     *
+     * @param g2 graphics the widget is drawn with, for the font
+     * @return in the coordinates of g2
+     */
+    public Rectangle getExtent(Graphics2D g2) {
+        Rectangle2D fixed = null;
+        double radius = 0;
+        for (int i = 0; i < nNodes; i++) {
+            Node node = nodes.get(i);
+            Rectangle2D r;
+            if (node.shape != null) {
+                // room for mitred corners
+                int grow = 5 * Math.max(node.lineWidth, 1) + 1;
+                r = node.shape.getBounds2D();
+                r.setRect(r.getX() - grow, r.getY() - grow, r.getWidth() + 2 * grow, r.getHeight() + 2 * grow);
+            } else if (node.text != null) {
+                r = g2.getFont().getStringBounds(node.text, g2.getFontRenderContext());
+                r.setRect(node.x + r.getX() - 40, node.y + r.getY() - 2, r.getWidth() + 80, r.getHeight() + 4);
+            } else {
+                continue;
+            }
+            r.setRect(r.getX() - travelX, r.getY() - travelY, r.getWidth() + 2 * travelX, r.getHeight() + 2 * travelY);
+            if (rotating && !node.isStatic) {
+                double[] xs = {r.getMinX(), r.getMaxX()};
+                double[] ys = {r.getMinY(), r.getMaxY()};
+                for (double x : xs) {
+                    for (double y : ys) {
+                        radius = Math.max(radius, Math.sqrt(x * x + y * y));
                     }
-
-
-                    g2.drawString((String) obj, newX, newY);
-                    g2.transform(at);
-                    g2.setTransform(atBack);
-
                 }
-
+            } else if (fixed == null) {
+                fixed = r;
+            } else {
+                fixed.add(r);
             }
-        } catch (Exception e) {        }
-
-
-
-
-
+        }
+        Rectangle2D extent = new Rectangle2D.Double(-radius, -radius, 2 * radius, 2 * radius);
+        if (fixed != null) {
+            if (radius > 0) {
+                extent.add(fixed);
+            } else {
+                extent = fixed;
+            }
+        }
+        Rectangle out = extent.getBounds();
+        out.translate(originX, originY);
+        return out;
     }
 
-    public void addEntity(Shape shape, Color color, int lineWidth, boolean _isStatic) {
+    /**
+     *
+     * @param chromeCached true if a ChromeLayer draws the chrome nodes
+     */
+    public void setChromeCached(boolean chromeCached) {
+        this.chromeCached = chromeCached;
+    }
 
-        isStatic.addElement(_isStatic);
-        colorsVector.addElement(color);
-        shapesVector.addElement(shape);
-        lineWidthVector.addElement(new Integer(lineWidth));
-        isFilled.addElement(false);
-        isDashed.addElement(false);
+    public boolean isChromeCached() {
+        return chromeCached;
+    }
 
+    /**
+     *
+     * @return changes whenever the scene is rebuilt, so cached chrome can
+     * be thrown away
+     */
+    public int getChromeVersion() {
+        return chromeVersion;
     }
 
-    public void addEntity(Shape shape, Color color, int lineWidth, boolean _isStatic, boolean _isDashed) {
+    /**
+     *
+     * @param g2 graphics the chrome will be drawn with, for the font
+     * @return area covered by the chrome nodes, in the coordinates of g2;
+     * empty if there are none
+     */
+    public Rectangle getChromeBounds(Graphics2D g2) {
+        Rectangle2D bounds = null;
+        for (int i = 0; i < nNodes; i++) {
+            Node node = nodes.get(i);
+            if (!node.chrome) {
+                continue;
+            }
+            Rectangle2D r;
+            if (node.shape != null) {
+                Stroke nodeStroke = node.isDashed ? dashed : stroke(node.lineWidth);
+                r = nodeStroke.createStrokedShape(node.shape).getBounds2D();
+                r.setRect(r.getX() - 1, r.getY() - 1, r.getWidth() + 2, r.getHeight() + 2);
+            } else if (node.text != null) {
+                r = g2.getFont().getStringBounds(node.text, g2.getFontRenderContext());
+                r.setRect(node.x + r.getX() - 2, node.y + r.getY() - 2, r.getWidth() + 4, r.getHeight() + 4);
+            } else {
+                continue;
+            }
+            if (bounds == null) {
+                bounds = r;
+            } else {
+                bounds.add(r);
+            }
+        }
+        if (bounds == null) {
+            return new Rectangle();
+        }
+        Rectangle out = bounds.getBounds();
+        out.translate(originX, originY);
+        return out;
+    }
 
-        isStatic.addElement(_isStatic);
-        colorsVector.addElement(color);
-        shapesVector.addElement(shape);
-        lineWidthVector.addElement(new Integer(lineWidth));
-        isFilled.addElement(false);
-        isDashed.addElement(_isDashed);
+    /**
+     * Draws only the chrome nodes, at the origin of the widget.
+     *
+     * @param g2
+     */
+    public void drawChrome(Graphics2D g2) {
+        drawNodes(0, originX, originY, g2, true);
+    }
 
+    public void rotateAndTranslate(double angle, int trans_x, int trans_y, Graphics2D g2) {
+        drawNodes(angle, trans_x, trans_y, g2, false);
     }
 
-    public void addFilledEntity(Shape shape, Color color, int lineWidth, boolean _isStatic) {
+    private void drawNodes(double angle, int trans_x, int trans_y, Graphics2D g2, boolean chromeOnly) {
 
-        isStatic.addElement(_isStatic);
-        colorsVector.addElement(color);
-        shapesVector.addElement(shape);
-        lineWidthVector.addElement(new Integer(lineWidth));
-        isFilled.addElement(true);
-        isDashed.addElement(false);
+        AffineTransform atBack = g2.getTransform();
+        fixedTransform.setTransform(atBack);
+        fixedTransform.translate(trans_x, trans_y);
+        rotatedTransform.setTransform(fixedTransform);
+        rotatedTransform.rotate(Math.toRadians(angle));
 
+        for (int i = 0; i < nNodes; i++) {
+            Node node = nodes.get(i);
+            if (!node.visible || (chromeOnly ? !node.chrome : node.chrome && chromeCached)) {
+                continue;
+            }
+            g2.setColor(node.color);
+            g2.setTransform(node.isStatic ? fixedTransform : rotatedTransform);
+            if (node.dx != 0 || node.dy != 0) {
+                g2.translate(node.dx, node.dy);
+            }
+            if (node.shape != null) {
+                g2.setStroke(node.isDashed ? dashed : stroke(node.lineWidth));
+                if (node.isFilled) {
+                    g2.fill(node.shape);
+                } else {
+                    g2.draw(node.shape);
+                }
+            } else if (node.text != null) {
+                g2.drawString(node.text, node.x, node.y);
+            }
+        }
+        g2.setTransform(atBack);
     }
 
-    public void addFilledEntity(Shape shape, Color color, int lineWidth) {
-
-        isStatic.addElement(false);
-        colorsVector.addElement(color);
-        shapesVector.addElement(shape);
-        lineWidthVector.addElement(new Integer(lineWidth));
-        isFilled.addElement(true);
-        isDashed.addElement(false);
-
+    private Node add(Shape shape, String text, int x, int y, Color color, int lineWidth, boolean _isStatic, boolean _isFilled, boolean _isDashed) {
+        Node node;
+        if (nNodes < nodes.size()) {
+            node = nodes.get(nNodes);
+        } else {
+            node = new Node();
+            nodes.add(node);
+        }
+        nNodes++;
+        node.set(shape, text, x, y, color, lineWidth, _isStatic, _isFilled, _isDashed);
+        return node;
     }
 
-    public void addEntity(String st, int c_x, int c_y, Color color, int lineWidth) {
-        isStatic.addElement(false);
-        colorsVector.addElement(color);
-        shapesVector.addElement(st);
-        lineWidthVector.addElement(new Integer(lineWidth));
-        posStringCenterX.addElement(new Integer(c_x));
-        posStringCenterY.addElement(new Integer(c_y));
-        isFilled.addElement(false);
-        isDashed.addElement(false);
-        nStrings++;
+    public Node addEntity(Shape shape, Color color, int lineWidth, boolean _isStatic) {
+        return add(shape, null, 0, 0, color, lineWidth, _isStatic, false, false);
+    }
 
+    public Node addEntity(Shape shape, Color color, int lineWidth, boolean _isStatic, boolean _isDashed) {
+        return add(shape, null, 0, 0, color, lineWidth, _isStatic, false, _isDashed);
+    }
 
+    public Node addFilledEntity(Shape shape, Color color, int lineWidth, boolean _isStatic) {
+        return add(shape, null, 0, 0, color, lineWidth, _isStatic, true, false);
     }
 
-    public void addEntity(Shape shape, Color color, int lineWidth) {
+    public Node addFilledEntity(Shape shape, Color color, int lineWidth) {
+        return add(shape, null, 0, 0, color, lineWidth, false, true, false);
+    }
 
-        isStatic.addElement(false);
-        colorsVector.addElement(color);
-        shapesVector.addElement(shape);
-        lineWidthVector.addElement(new Integer(lineWidth));
-        isFilled.addElement(false);
-        isDashed.addElement(false);
+    public Node addEntity(String st, int c_x, int c_y, Color color, int lineWidth) {
+        return add(null, st, c_x, c_y, color, lineWidth, false, false, false);
     }
 
-    public void addEntity(String st, int c_x, int c_y, Color color, int lineWidth, boolean _isStatic) {
-        isStatic.addElement(_isStatic);
-        colorsVector.addElement(color);
-        shapesVector.addElement(st);
-        lineWidthVector.addElement(new Integer(lineWidth));
-        posStringCenterX.addElement(new Integer(c_x));
-        posStringCenterY.addElement(new Integer(c_y));
-        isFilled.addElement(false);
-        isDashed.addElement(false);
-        nStrings++;
+    public Node addEntity(Shape shape, Color color, int lineWidth) {
+        return add(shape, null, 0, 0, color, lineWidth, false, false, false);
+    }
 
+    public Node addEntity(String st, int c_x, int c_y, Color color, int lineWidth, boolean _isStatic) {
+        return add(null, st, c_x, c_y, color, lineWidth, _isStatic, false, false);
     }
 
+    /**
+     * Empties the scene. Nodes handed out before are reused by the next
+     * addEntity() calls, so do not keep them.
+     */
     public void removeAll() {
-        colorsVector.removeAllElements();
-        lineWidthVector.removeAllElements();
-        shapesVector.removeAllElements();
-        posStringCenterX.removeAllElements();
-        posStringCenterY.removeAllElements();
-        isFilled.removeAllElements();
-        colorsVector.removeAllElements();
-        isStatic.removeAllElements();
-        isDashed.removeAllElements();
-        nStrings = 0;
+        nNodes = 0;
+        chromeVersion++;
     }
 
     public void setLineWidth(int lineWidth) {
         this.lineWidth = lineWidth;
+        build();
     }
 
     public String takeDigits(String stDouble, int nDigits) {
-        
+
         String stOut = "";
-        
-        
+
+
         int pointCounter = 0;
         for (int j = 0; j < stDouble.length(); j++) {
             if (stDouble.charAt(j) == '.') {
@@ -248,4 +418,20 @@ public abstract class Entity2D {
 
         return stOut;
     }
+
+    /**
+     * Tick labels, so a tape scrolling over the same values does not build
+     * the same strings again.
+     */
+    static String label(int value) {
+        if (value >= -labelOffset && value < labels.length - labelOffset) {
+            String st = labels[value + labelOffset];
+            if (st == null) {
+                st = Integer.toString(value);
+                labels[value + labelOffset] = st;
+            }
+            return st;
+        }
+        return Integer.toString(value);
+    }
 }
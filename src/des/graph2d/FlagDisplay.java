@@ -16,6 +16,9 @@ public class FlagDisplay extends Entity2D {
 
     private int width, heigth, rows, columns, centerX, centerY;
     private String[] names;
+    private Node[] boxes;
+    private Node[] labels;
+    private int lastModes = -1;
     
 
     public FlagDisplay(int _centerX, int _centerY, int _width, int _heigth, int _rows, int _columns, String[] _names) {
@@ -27,33 +30,46 @@ public class FlagDisplay extends Entity2D {
         rows = _rows;
         columns = _columns;
         names = _names;
+        build();
 
     }
 
-    public void update(double values[], Graphics2D g2) {
-
-        int modes = (int) values[0];
-
+    @Override
+    protected void build() {
         removeAll();
-        Rectangle2D r;
+        setOrigin(centerX, centerY);
+        boxes = new Node[rows * columns];
+        labels = new Node[rows * columns];
         int count = 0;
         double xj = 0, yi = 0;
-        Color c;
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
                 xj = (j + 1) * width / 4 + j * width;
                 yi = (i + 1) * heigth / 4 + i * heigth;
-                r = new Rectangle2D.Double(xj, yi, width, heigth);
+                boxes[count] = addEntity(new Rectangle2D.Double(xj, yi, width, heigth), Color.BLACK, lineWidth, true);
+                labels[count] = addEntity(names[count], (int) (xj + width / 2 - names[count].length() * 4), (int) (yi + heigth / 2 + 4), Color.BLACK, lineWidth, true);
+                count++;
+            }
+        }
+        lastModes = -1;
+    }
+
+    public void update(double values[], Graphics2D g2) {
 
+        int modes = (int) values[0];
+
+        if (modes != lastModes) {
+            Color c;
+            for (int count = 0; count < boxes.length; count++) {
                 if (((modes << (15 - count)) & 32768) == 32768) {
                     c = Color.YELLOW;
                 } else {
                     c = Color.BLACK;
                 }
-                addEntity(r, c, lineWidth, true);
-                addEntity(names[count], (int) (xj + width / 2 - names[count].length() * 4), (int) (yi + heigth / 2 + 4), c, lineWidth, true);
-                count++;
+                boxes[count].setColor(c);
+                labels[count].setColor(c);
             }
+            lastModes = modes;
         }
 
 
@@ -21,35 +21,53 @@ public class GPSDisplay extends Entity2D{
     private int width;
     private int height;
     private int fontSize;
+    private Node latText, lonText, satText;
+    private double lastLat = Double.NaN, lastLon = Double.NaN, lastSatellites = Double.NaN;
+
     public GPSDisplay(int _centerX, int _centerY, int _width, int _height, int _fontSize){
         centerX=_centerX;
         centerY=_centerY;
         width=_width;
         height=_height;
         fontSize=_fontSize;
+        build();
+
+    }
 
+    @Override
+    protected void build() {
+        removeAll();
+        setOrigin(centerX, centerY);
+        addEntity(new Rectangle2D.Double(0,0, width, height), Color.yellow, lineWidth, true).setChrome(true);
+        latText = addEntity("", 10, height/3, Color.yellow, lineWidth, true);
+        lonText = addEntity("", 10, 2*height/3+10, Color.yellow, lineWidth, true);
+        satText = addEntity("", 2*width/3, 2*height/3, Color.yellow, lineWidth, true);
+        lastLat = Double.NaN;
+        lastLon = Double.NaN;
+        lastSatellites = Double.NaN;
     }
+
     @Override
     public void update(double[] value, Graphics2D g2) {
 
-        removeAll();
         double lat=value[0];
         double lon=value[1];
         double nSatellites=value[2];
 
-         Rectangle2D r = new Rectangle2D.Double(0,0, width, height);
-         addEntity(r, Color.yellow, lineWidth, true);
-         String stLon="Lon: "+lon;
-         stLon = takeDigits(stLon, 5);
-         String stLat="Lat: "+lat;
-         stLat = takeDigits(stLat, 5);
-         String stNSat="# Sats: "+nSatellites;
-
-         
-
-         addEntity(stLat, 10, height/3, Color.yellow, lineWidth, true);
-         addEntity(stLon, 10, 2*height/3+10, Color.yellow, lineWidth, true);
-         addEntity(stNSat, 2*width/3, 2*height/3, Color.yellow, lineWidth, true);
+         if (lon != lastLon) {
+             String stLon="Lon: "+lon;
+             lonText.setText(takeDigits(stLon, 5));
+             lastLon = lon;
+         }
+         if (lat != lastLat) {
+             String stLat="Lat: "+lat;
+             latText.setText(takeDigits(stLat, 5));
+             lastLat = lat;
+         }
+         if (nSatellites != lastSatellites) {
+             satText.setText("# Sats: "+nSatellites);
+             lastSatellites = nSatellites;
+         }
          
          rotateAndTranslate(0, centerX, centerY, g2);
          
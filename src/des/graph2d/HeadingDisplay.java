@@ -23,6 +23,10 @@ public class HeadingDisplay extends Entity2D {
     private int height,dw,nLines,delta, centerX,centerY;
     private double lastOffsetDeg=0;
     private boolean isLineWidthLarge=true;
+    private Line2D.Double[] tickLines;
+    private Node[] ticks;
+    private Node[] labels;
+    private int lastCV = Integer.MIN_VALUE;
 
 
     public HeadingDisplay( int _centerX, int _centerY,int _height, int _dw, int _nLines, int _delta){
@@ -34,14 +38,42 @@ public class HeadingDisplay extends Entity2D {
         centerX=_centerX;
         centerY=_centerY;
 
+        build();
     }
 
-    public void update(double[] value, Graphics2D g2){
+    /**
+     * One tick and one label per slot of the tape; the tape scrolls by
+     * offsetPix and the ticks are relabelled when the centre value changes.
+     */
+    @Override
+    protected void build() {
         removeAll();
+        setOrigin(centerX, centerY);
+        setMotion(dw, 0, false);
 
         if (nLines % 2 == 0) {
             nLines++;
         }
+        double width = (nLines - 1) * dw;
+        tickLines = new Line2D.Double[nLines];
+        ticks = new Node[nLines];
+        labels = new Node[nLines];
+        for (int i = 0; i < nLines; i++) {
+            tickLines[i] = new Line2D.Double(-width / 2 + dw * i, 0, -width / 2 + dw * i, height / 4);
+            ticks[i] = addEntity(tickLines[i], Color.yellow, lineWidth);
+            labels[i] = addEntity("", 0, height / 2 + 20, Color.yellow, lineWidth);
+        }
+
+        int[] points_x = {-height/4, 0, height/4 };
+        int[] points_y = {(int) (-height/2 - height/4), (int) (-height/2), (int) (-height/2 - height/4)};
+        Polygon polTrianglePhi = new Polygon(points_x, points_y, 3);
+        addEntity(polTrianglePhi, Color.yellow, 2*lineWidth).setChrome(true);
+
+        lastCV = Integer.MIN_VALUE;
+    }
+
+    public void update(double[] value, Graphics2D g2){
+
         double width = (nLines - 1) * dw;
         double mod = value[0] % delta;
         int cV = 0;
@@ -51,10 +83,6 @@ public class HeadingDisplay extends Entity2D {
         double offsetDeg = 0;
         int offsetPix = 0;
 
-        // Drawing  top arc
-
-        double xi = 0, r = (3 * height / 2 + dw) / 2;
-
         //Line2D l1 = new Line2D.Double(-width / 2, -height / 2 + dh * i + modulus, width / 2, -height / 2 + dh * i + modulus);
         if (mod > 0) {
             if (mod > delta / 2) {
@@ -77,15 +105,6 @@ public class HeadingDisplay extends Entity2D {
         max = cV + ((int) (nLines / 2)) * delta;
         min = cV - ((int) (nLines / 2)) * delta;
 
-//        if (lastOffsetDeg < -(delta / 4) && offsetDeg >= delta / 4) {
-//            isLineWidthLarge = !isLineWidthLarge;
-//
-//        } else {
-//            if (lastOffsetDeg >= (delta / 4) && offsetDeg < -delta / 4) {
-//                isLineWidthLarge = !isLineWidthLarge;
-//            }
-//        }
-
         if (Math.abs(cV % (2 * delta)) == 0) {
             isLineWidthLarge = true;
         }
@@ -95,64 +114,42 @@ public class HeadingDisplay extends Entity2D {
         }
 
         int fontSize = 8;
-        for (int i = 0; i < nLines; i++) {
-            int intLineValue = min + i * delta;
-            if(intLineValue>=360){
-                intLineValue=intLineValue-360;
-            }
-            if(intLineValue<0){
-                intLineValue=360+intLineValue;
-            }
-            String stValue = "" + intLineValue;
-            if(intLineValue==0){
-                stValue = "N";
-            }
-
-            if(intLineValue==180){
-                stValue = "S";
-            }
-            if(intLineValue==90){
-                stValue = "E";
-            }
-
-            if(intLineValue==270){
-                stValue = "W";
-            }
-
-            if (!isLineWidthLarge) {
-                if (i % 2 == 0) {
-                    Line2D l1 = new Line2D.Double(-width / 2 + dw * i + offsetPix, 0, -width / 2 + dw * i + offsetPix, height / 2);
-                    addEntity(l1, Color.yellow, lineWidth);
-                    addEntity(stValue, (int) (-width / 2 + dw * i + offsetPix - stValue.length() * fontSize / 2), height / 2 + 20, Color.yellow, lineWidth);
-
-                } else {
-                    Line2D l1 = new Line2D.Double(-width / 2 + dw * i + offsetPix, 0, -width / 2 + dw * i + offsetPix, height / 4);
-                    addEntity(l1, Color.yellow, lineWidth);
-                    //ent.addEntity(stValue, (int) (-height / 2 + dh * i + offsetPix), width / 4 + 10, Color.yellow, 1);
-                    //ent.addEntity(stValue, -width / 4 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, 1);
+        if (cV != lastCV) {
+            for (int i = 0; i < nLines; i++) {
+                int intLineValue = min + i * delta;
+                if(intLineValue>=360){
+                    intLineValue=intLineValue-360;
                 }
-            } if (isLineWidthLarge) {
-                if (i % 2 == 0) {
-                    Line2D l1 = new Line2D.Double(-width / 2 + dw * i + offsetPix, 0, -width / 2 + dw * i + offsetPix, height / 4);
-                    addEntity(l1, Color.yellow, lineWidth);
-                    //ent.addEntity(stValue,  (int) (-height / 2 + dh * i + offsetPix),width / 4 + 10, Color.yellow, 1);
-                    //ent.addEntity(stValue, -width / 4 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, 1);
-
+                if(intLineValue<0){
+                    intLineValue=360+intLineValue;
+                }
+                String stValue;
+                if(intLineValue==0){
+                    stValue = "N";
+                } else if(intLineValue==180){
+                    stValue = "S";
+                } else if(intLineValue==90){
+                    stValue = "E";
+                } else if(intLineValue==270){
+                    stValue = "W";
                 } else {
-                    Line2D l1 = new Line2D.Double(-width / 2 + dw * i + offsetPix, 0, -width / 2 + dw * i + offsetPix, height / 2);
-                    addEntity(l1, Color.yellow, lineWidth);
-                    addEntity(stValue, (int) (-width / 2 + dw * i + offsetPix) - stValue.length() * fontSize / 2, height / 2 + 20, Color.yellow, 2);
-                    //ent.addEntity(stValue, -width / 2 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, 1);
+                    stValue = label(intLineValue);
                 }
-            }
-
 
+                // long ticks carry the labels, alternating with short ones
+                boolean isLong = isLineWidthLarge ? i % 2 != 0 : i % 2 == 0;
+                double x = -width / 2 + dw * i;
+                tickLines[i].setLine(x, 0, x, isLong ? height / 2 : height / 4);
+                labels[i].setVisible(isLong);
+                labels[i].setText(stValue);
+                labels[i].setPosition((int) x - stValue.length() * fontSize / 2, height / 2 + 20);
+            }
+            lastCV = cV;
+        }
+        for (int i = 0; i < nLines; i++) {
+            ticks[i].setOffset(offsetPix, 0);
+            labels[i].setOffset(offsetPix, 0);
         }
-        
-        int[] points_x = {-height/4, 0, height/4 };
-        int[] points_y = {(int) (-height/2 - height/4), (int) (-height/2), (int) (-height/2 - height/4)};
-        Polygon polTrianglePhi = new Polygon(points_x, points_y, 3);
-        addEntity(polTrianglePhi, Color.yellow, 2*lineWidth);
 
         lastOffsetDeg = offsetDeg;
         rotateAndTranslate(0, centerX, centerY, g2);
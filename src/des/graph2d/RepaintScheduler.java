@@ -0,0 +1,152 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.graph2d;
+
+import java.awt.Component;
+import java.awt.Rectangle;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Repaints panels when their data changed, instead of on a timer.
+ *
+ * Panels invalidate the region a change affects; the scheduler merges the
+ * regions per component and asks Swing to repaint them, at most getMaxFps()
+ * times a second. Invalidations arriving while a frame is pending are
+ * folded into it. With nothing invalidated the thread just waits, so an
+ * idle link costs no CPU.
+ *
+ * The frame rate cap is read from the gui.maxFps system property (30 by
+ * default).
+ */
+public class RepaintScheduler extends Thread {
+
+    private static RepaintScheduler instance = null;
+
+    private Map<Component, Rectangle> dirty = new IdentityHashMap<Component, Rectangle>();
+    private Map<Component, Rectangle> painting = new IdentityHashMap<Component, Rectangle>();
+    private volatile int maxFps = Integer.getInteger("gui.maxFps", 30);
+    private volatile long frames = 0;
+    private volatile long invalidations = 0;
+    private volatile long regions = 0;
+
+    private RepaintScheduler() {
+        super("Repaint scheduler");
+        setDaemon(true);
+    }
+
+    /**
+     *
+     * @return the scheduler shared by all panels, started on first use
+     */
+    public static synchronized RepaintScheduler getInstance() {
+        if (instance == null) {
+            instance = new RepaintScheduler();
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Repaints the whole component with the next frame.
+     *
+     * @param c
+     */
+    public void invalidate(Component c) {
+        invalidate(c, 0, 0, Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Repaints a region of the component with the next frame.
+     *
+     * @param c
+     * @param r in the coordinates of c
+     */
+    public void invalidate(Component c, Rectangle r) {
+        invalidate(c, r.x, r.y, r.width, r.height);
+    }
+
+    public synchronized void invalidate(Component c, int x, int y, int width, int height) {
+        invalidations++;
+        Rectangle r = dirty.get(c);
+        if (r == null) {
+            dirty.put(c, new Rectangle(x, y, width, height));
+            notify();
+        } else {
+            r.add(x, y);
+            r.add(x + width, y + height);
+        }
+    }
+
+    @Override
+    public void run() {
+        long nextFrame = System.nanoTime();
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (dirty.isEmpty()) {
+                        wait();
+                    }
+                }
+                long wait = nextFrame - System.nanoTime();
+                if (wait > 0) {
+                    // whatever is invalidated meanwhile goes into this frame
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+                Map<Component, Rectangle> frame;
+                synchronized (this) {
+                    frame = dirty;
+                    dirty = painting;
+                    painting = frame;
+                }
+                for (Map.Entry<Component, Rectangle> entry : frame.entrySet()) {
+                    Rectangle r = entry.getValue();
+                    entry.getKey().repaint(r.x, r.y, r.width, r.height);
+                }
+                regions += frame.size();
+                frame.clear();
+                frames++;
+                nextFrame = System.nanoTime() + 1000000000L / Math.max(1, maxFps);
+            } catch (InterruptedException ex) {
+                Logger.getLogger(RepaintScheduler.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+        }
+    }
+
+    public int getMaxFps() {
+        return maxFps;
+    }
+
+    /**
+     *
+     * @param maxFps repaints per second at most
+     */
+    public void setMaxFps(int maxFps) {
+        this.maxFps = Math.max(1, maxFps);
+    }
+
+    /**
+     *
+     * @return frames that repainted something
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     *
+     * @return regions repainted, one per component and frame
+     */
+    public long getRegions() {
+        return regions;
+    }
+}
@@ -17,6 +17,12 @@ public class SlideDisplay extends Entity2D {
 
     private int centerX, centerY, width, dh, nLines, delta;
     private boolean mirror = false, negativeValues = false;
+    private Node valueText;
+    private Node[] ticks;
+    private Node[] labels;
+    private int[] tickValues;
+    private Node refUpper, refLower;
+    private double lastValue = Double.NaN;
 
     public SlideDisplay(int _centerX, int _centerY, int _width, int _dh, int _nLines, int _delta, boolean _mirror) {
         centerX = _centerX;
@@ -27,17 +33,62 @@ public class SlideDisplay extends Entity2D {
         nLines = _nLines;
         mirror = _mirror;
 
-        
+        build();
     }
 
-    public void update(double[] value, Graphics2D g2) {
-
+    /**
+     * The tape is a fixed set of ticks that scrolls by offsetPix; labels are
+     * only rewritten when the value under a tick changes.
+     */
+    @Override
+    protected void build() {
         removeAll();
+        setOrigin(centerX, centerY);
+        setMotion(0, 2 * dh, false);
 
         if (nLines % 2 == 0) {
             nLines++;
         }
         double height = (nLines - 1) * dh;
+        // mirror draws the tape to the right of the bezel
+        int side = mirror ? 1 : -1;
+
+        addEntity(new Line2D.Double(0, -height / 2 - dh / 2, 0, height / 2 + dh / 2), Color.yellow, lineWidth).setChrome(true);
+        addEntity(new Line2D.Double(0, -height / 2 - dh / 2, side * width / 2, -height / 2 - dh / 2), Color.yellow, lineWidth).setChrome(true);
+        addEntity(new Line2D.Double(0, height / 2 + dh / 2, side * width / 2, height / 2 + dh / 2), Color.yellow, lineWidth).setChrome(true);
+
+        int[] points_x = {0, -side * dh / 2, -side * dh / 2};
+        int[] points_y = {0, dh / 2, -dh / 2};
+        addEntity(new Polygon(points_x, points_y, 3), Color.yellow, lineWidth).setChrome(true);
+
+        valueText = addEntity("", 0, 0, Color.green, lineWidth);
+
+        ticks = new Node[nLines];
+        labels = new Node[nLines];
+        tickValues = new int[nLines];
+        for (int i = 0; i < nLines; i++) {
+            double y = -height / 2 + dh * i;
+            ticks[i] = addEntity(new Line2D.Double(side * width, y, 0, y), Color.yellow, lineWidth);
+            labels[i] = addEntity("", 0, (int) y, Color.yellow, lineWidth);
+            tickValues[i] = Integer.MIN_VALUE;
+        }
+
+        points_x[0] = 0;
+        points_x[1] = 0;
+        points_x[2] = -side * dh / 2;
+        points_y[0] = 0;
+        points_y[1] = -dh / 2;
+        points_y[2] = -dh / 2;
+        refUpper = addEntity(new Polygon(points_x, points_y, 3), Color.green, lineWidth);
+        points_y[1] = dh / 2;
+        points_y[2] = dh / 2;
+        refLower = addEntity(new Polygon(points_x, points_y, 3), Color.green, lineWidth);
+
+        lastValue = Double.NaN;
+    }
+
+    public void update(double[] value, Graphics2D g2) {
+
         double mod = value[0] % delta;
         int cV = 0;
         int max = 0, min = 0;
@@ -69,170 +120,54 @@ public class SlideDisplay extends Entity2D {
         max = cV + ((int) (nLines / 2)) * delta;
         min = cV - ((int) (nLines / 2)) * delta;
 
-
-
-        if (mirror) {
-
-            Line2D l = new Line2D.Double(0, -height / 2 - dh / 2, 0, height / 2 + dh / 2);
-            addEntity(l, Color.yellow, lineWidth);
-            l = new Line2D.Double(0, -height / 2 - dh / 2, width / 2, -height / 2 - dh / 2);
-            addEntity(l, Color.yellow, lineWidth);
-            l = new Line2D.Double(0, height / 2 + dh / 2, width / 2, height / 2 + dh / 2);
-            addEntity(l, Color.yellow, lineWidth);
-
-
-            int[] points_x = {0, -dh / 2, -dh / 2};
-            int[] points_y = {0, dh / 2, -dh / 2};
-            Polygon polTriangle = new Polygon(points_x, points_y, 3);
-            addEntity(polTriangle, Color.yellow, lineWidth);
-
-
+        if (value[0] != lastValue) {
             String stVal = "" + value[0];
             stVal=takeDigits(stVal, 1);
-            addEntity(stVal, -dh / 2 - 5 - stVal.length() * 8, 0, Color.green, lineWidth);
-
-            int fontSize = 4;
-            for (int i = 0; i < nLines; i++) {
-                int intLineValue = max - i * delta;
-
-                if (intLineValue >= 0 && negativeValues == false) {
-                    String stValue = "" + intLineValue;
-                    Line2D l1 = new Line2D.Double(width, -height / 2 + dh * i + offsetPix, 0, -height / 2 + dh * i + offsetPix);
-                    addEntity(l1, Color.yellow, lineWidth);
-                    //ent.addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, 1);
-                    addEntity(stValue, width + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                } else {
-                    if (negativeValues == true) {
-                        String stValue = "" + intLineValue;
-                        Line2D l1 = new Line2D.Double(width, -height / 2 + dh * i + offsetPix, 0, -height / 2 + dh * i + offsetPix);
-                        addEntity(l1, Color.yellow, lineWidth);
-                        //ent.addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, 1);
-                        addEntity(stValue, width + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                    }
-                }
-
-
-
-            }
-
-            double posRef = 0;
-            if (value[1] <= max && value[1] >= min) {
-                posRef = (int) (((int) value[0] - (int) value[1]) * dh / delta);
-
+            valueText.setText(stVal);
+            if (mirror) {
+                valueText.setPosition(-dh / 2 - 5 - stVal.length() * 8, 0);
             } else {
-                if (value[1] > max) {
-                    posRef = -1 * (int) ((nLines - 1) * dh / 2) - dh / 2;
-                }
-                if (value[1] < min) {
-
-                    posRef = (int) ((nLines - 1) * dh / 2) + dh / 2;
-                }
+                valueText.setPosition(dh / 2 + 5, 0);
             }
+            lastValue = value[0];
+        }
 
-            points_x[0] = 0;
-            points_x[1] = 0;
-            points_x[2] = -dh / 2;
-
-            points_y[0] = (int) posRef;
-            points_y[1] = (int) (posRef - dh / 2);
-            points_y[2] = (int) (posRef - dh / 2);
-
-            polTriangle = new Polygon(points_x, points_y, 3);
-            addEntity(polTriangle, Color.green, lineWidth);
-
-            points_x[0] = 0;
-            points_x[1] = 0;
-            points_x[2] = -dh / 2;
-
-            points_y[0] = (int) posRef;
-            points_y[1] = (int) (posRef + dh / 2);
-            points_y[2] = (int) (posRef + dh / 2);
-
-            polTriangle = new Polygon(points_x, points_y, 3);
-            addEntity(polTriangle, Color.green, lineWidth);
-
-
-        } else {
-
-            Line2D l = new Line2D.Double(0, -height / 2 - dh / 2, 0, height / 2 + dh / 2);
-            addEntity(l, Color.yellow, lineWidth);
-            l = new Line2D.Double(0, -height / 2 - dh / 2, -width / 2, -height / 2 - dh / 2);
-            addEntity(l, Color.yellow, lineWidth);
-            l = new Line2D.Double(0, height / 2 + dh / 2, -width / 2, height / 2 + dh / 2);
-            addEntity(l, Color.yellow, lineWidth);
-
-
-            int[] points_x = {0, dh / 2, dh / 2};
-            int[] points_y = {0, dh / 2, -dh / 2};
-            Polygon polTriangle = new Polygon(points_x, points_y, 3);
-            addEntity(polTriangle, Color.yellow, lineWidth);
-
-
-            String stVal = "" + value[0];
-            stVal=takeDigits(stVal, 1);
-            addEntity(stVal, dh / 2 + 5, 0, Color.green, lineWidth);
-
-            int fontSize = 8;
-            for (int i = 0; i < nLines; i++) {
-                int intLineValue = max - i * delta;
-
-                if (intLineValue >= 0 && negativeValues == false) {
-                    String stValue = "" + intLineValue;
-                    Line2D l1 = new Line2D.Double(-width, -height / 2 + dh * i + offsetPix, 0, -height / 2 + dh * i + offsetPix);
-                    addEntity(l1, Color.yellow, lineWidth);
-                    //ent.addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, 1);
-                    addEntity(stValue, -width - stValue.length() * fontSize - 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
+        int fontSize = 8;
+        for (int i = 0; i < nLines; i++) {
+            int intLineValue = max - i * delta;
+
+            if (intLineValue != tickValues[i]) {
+                boolean visible = intLineValue >= 0 || negativeValues;
+                ticks[i].setVisible(visible);
+                labels[i].setVisible(visible);
+                String stValue = label(intLineValue);
+                labels[i].setText(stValue);
+                double y = -(nLines - 1) * dh / 2.0 + dh * i;
+                if (mirror) {
+                    labels[i].setPosition(width + 10, (int) y);
                 } else {
-                    if (negativeValues == true) {
-                        String stValue = "" + intLineValue;
-                        Line2D l1 = new Line2D.Double(-width, -height / 2 + dh * i + offsetPix, 0, -height / 2 + dh * i + offsetPix);
-                        addEntity(l1, Color.yellow, lineWidth);
-                        //ent.addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, 1);
-                        addEntity(stValue, -width - stValue.length() * fontSize - 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                    }
+                    labels[i].setPosition(-width - stValue.length() * fontSize - 10, (int) y);
                 }
-
-
-
+                tickValues[i] = intLineValue;
             }
+            ticks[i].setOffset(0, offsetPix);
+            labels[i].setOffset(0, offsetPix);
+        }
 
-            double posRef = 0;
-            if (value[1] <= max && value[1] >= min) {
-                posRef = (int) (((int) value[0] - (int) value[1]) * dh / delta);
-
-            } else {
-                if (value[1] > max) {
-                    posRef = -1 * (int) ((nLines - 1) * dh / 2) - dh / 2;
+        double posRef = 0;
+        if (value[1] <= max && value[1] >= min) {
+            posRef = (int) (((int) value[0] - (int) value[1]) * dh / delta);
 
-                }
-                if (value[1] < min) {
-                    posRef = (int) ((nLines - 1) * dh / 2) + dh / 2;
-                }
+        } else {
+            if (value[1] > max) {
+                posRef = -1 * (int) ((nLines - 1) * dh / 2) - dh / 2;
+            }
+            if (value[1] < min) {
+                posRef = (int) ((nLines - 1) * dh / 2) + dh / 2;
             }
-
-
-            points_x[0] = 0;
-            points_x[1] = 0;
-            points_x[2] = dh / 2;
-
-            points_y[0] = (int) posRef;
-            points_y[1] = (int) (posRef - dh / 2);
-            points_y[2] = (int) (posRef - dh / 2);
-
-            polTriangle = new Polygon(points_x, points_y, 3);
-            addEntity(polTriangle, Color.green, lineWidth);
-
-            points_x[0] = 0;
-            points_x[1] = 0;
-            points_x[2] = dh / 2;
-
-            points_y[0] = (int) posRef;
-            points_y[1] = (int) (posRef + dh / 2);
-            points_y[2] = (int) (posRef + dh / 2);
-
-            polTriangle = new Polygon(points_x, points_y, 3);
-            addEntity(polTriangle, Color.green, lineWidth);
         }
+        refUpper.setOffset(0, (int) posRef);
+        refLower.setOffset(0, (int) posRef);
 
         rotateAndTranslate(0, centerX, centerY, g2);
 
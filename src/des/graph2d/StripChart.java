@@ -0,0 +1,400 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.graph2d;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import javax.swing.JPanel;
+
+/**
+ * Scrolling chart of a fixed set of channels sampled together, showing the
+ * last getWindow() seconds.
+ *
+ * Samples live in primitive ring buffers, one shared for the time stamps
+ * and one per channel for the values; they start small and grow up to
+ * window x maximum rate, so a slow link does not pay for the fast case.
+ * A paint walks the samples in the window once and keeps only the minimum
+ * and maximum of each pixel column, so each channel is drawn as a single
+ * polyline of at most two points per column however many samples there
+ * are.
+ *
+ * append() may be called from any thread; it only stores the sample and,
+ * unless one is already pending, asks the RepaintScheduler for a repaint.
+ */
+public class StripChart extends JPanel {
+
+    private static final Color[] palette = {
+        new Color(230, 80, 60), new Color(70, 140, 230), new Color(80, 180, 80),
+        new Color(240, 170, 40), new Color(160, 90, 200), new Color(40, 190, 190),
+        new Color(200, 200, 60), new Color(230, 110, 170), new Color(140, 140, 140),
+        new Color(120, 90, 50)
+    };
+    private static final Color gridColor = new Color(225, 225, 225);
+    private static final int initialSamples = 4096;
+    private static final int leftMargin = 60;
+    private static final int rightMargin = 10;
+    private static final int topMargin = 10;
+    private static final int bottomMargin = 35;
+
+    private final Object lock = new Object();
+    private final int channels;
+    private final double window;
+    private final int maxSamples;
+    private final String[] names;
+    private final boolean[] shown;
+    private String timeLabel = "time [s]";
+
+    private double[] times;
+    private double[][] values;
+    private int head = 0;
+    private int size = 0;
+    private volatile boolean repaintPending = false;
+
+    // paint scratch, reused while the width does not change
+    private int columns = 0;
+    private double[][] low;
+    private double[][] high;
+    private boolean[][] lowFirst;
+    private int[][] used;
+    private int[] nUsed;
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+
+    /**
+     *
+     * @param channels number of channels, each with its own colour
+     * @param window seconds shown
+     * @param maxRate highest sample rate to keep a full window of, in Hz
+     */
+    public StripChart(int channels, double window, double maxRate) {
+        this.channels = channels;
+        this.window = window;
+        this.maxSamples = (int) Math.ceil(window * maxRate) + 1;
+        names = new String[channels];
+        shown = new boolean[channels];
+        int n = Math.min(initialSamples, maxSamples);
+        times = new double[n];
+        values = new double[channels][n];
+        for (int i = 0; i < channels; ++i) {
+            names[i] = "Series " + (1 + i);
+            shown[i] = true;
+        }
+        nUsed = new int[channels];
+        setBackground(Color.WHITE);
+        setOpaque(true);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     *
+     * @return seconds shown
+     */
+    public double getWindow() {
+        return window;
+    }
+
+    public void setChannelName(int channel, String name) {
+        names[channel] = name;
+        RepaintScheduler.getInstance().invalidate(this);
+    }
+
+    public void setChannelVisible(int channel, boolean visible) {
+        shown[channel] = visible;
+        RepaintScheduler.getInstance().invalidate(this);
+    }
+
+    public boolean isChannelVisible(int channel) {
+        return shown[channel];
+    }
+
+    public void setTimeLabel(String timeLabel) {
+        this.timeLabel = timeLabel;
+    }
+
+    /**
+     *
+     * @return samples held, at most window x maximum rate
+     */
+    public int getSamples() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Forgets every sample.
+     */
+    public void clear() {
+        synchronized (lock) {
+            head = 0;
+            size = 0;
+        }
+        RepaintScheduler.getInstance().invalidate(this);
+    }
+
+    /**
+     * Adds one sample of every channel. A sample older than the newest one
+     * is dropped, unless it is more than a second older: then the source
+     * started over (a new flight or a replay) and the chart is cleared.
+     *
+     * @param time in seconds
+     * @param sample one value per channel; not kept
+     */
+    public void append(double time, double[] sample) {
+        synchronized (lock) {
+            if (size > 0) {
+                double newest = times[index(size - 1)];
+                if (time < newest - 1) {
+                    head = 0;
+                    size = 0;
+                } else if (time < newest) {
+                    return;
+                }
+            }
+            if (size == times.length) {
+                if (times.length < maxSamples && times[head] >= time - window) {
+                    grow();
+                } else {
+                    head = index(1);
+                    size--;
+                }
+            }
+            int i = index(size);
+            times[i] = time;
+            for (int c = 0; c < channels; ++c) {
+                values[c][i] = sample[c];
+            }
+            size++;
+        }
+        if (!repaintPending) {
+            repaintPending = true;
+            RepaintScheduler.getInstance().invalidate(this);
+        }
+    }
+
+    private int index(int i) {
+        int n = head + i;
+        return n >= times.length ? n - times.length : n;
+    }
+
+    private void grow() {
+        int n = (int) Math.min(maxSamples, 2L * times.length);
+        times = unroll(times, n);
+        for (int c = 0; c < channels; ++c) {
+            values[c] = unroll(values[c], n);
+        }
+        head = 0;
+    }
+
+    private double[] unroll(double[] ring, int n) {
+        double[] a = new double[n];
+        int first = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, a, 0, first);
+        System.arraycopy(ring, 0, a, first, size - first);
+        return a;
+    }
+
+    /**
+     *
+     * @return position of the first sample at or after t
+     */
+    private int search(double t) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[index(mid)] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void ensureColumns(int n) {
+        if (n == columns) {
+            return;
+        }
+        columns = n;
+        low = new double[channels][n];
+        high = new double[channels][n];
+        lowFirst = new boolean[channels][n];
+        used = new int[channels][n];
+        xs = new int[2 * n];
+        ys = new int[2 * n];
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        repaintPending = false;
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g;
+        int plotW = getWidth() - leftMargin - rightMargin;
+        int plotH = getHeight() - topMargin - bottomMargin;
+        if (plotW < 2 || plotH < 2) {
+            return;
+        }
+        ensureColumns(plotW);
+
+        double t1;
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        synchronized (lock) {
+            t1 = size == 0 ? window : Math.max(window, times[index(size - 1)]);
+            double t0 = t1 - window;
+            double scale = plotW / window;
+            int start = search(t0);
+            for (int c = 0; c < channels; ++c) {
+                nUsed[c] = 0;
+                if (!shown[c]) {
+                    continue;
+                }
+                double[] v = values[c];
+                int col = -1;
+                int n = -1;
+                for (int k = start; k < size; ++k) {
+                    int i = index(k);
+                    double y = v[i];
+                    if (y != y) {
+                        continue;
+                    }
+                    int x = Math.min(plotW - 1, (int) ((times[i] - t0) * scale));
+                    if (x != col) {
+                        col = x;
+                        n++;
+                        used[c][n] = x;
+                        low[c][n] = y;
+                        high[c][n] = y;
+                        lowFirst[c][n] = true;
+                    } else if (y < low[c][n]) {
+                        low[c][n] = y;
+                        lowFirst[c][n] = false;
+                    } else if (y > high[c][n]) {
+                        high[c][n] = y;
+                        lowFirst[c][n] = true;
+                    }
+                }
+                nUsed[c] = n + 1;
+                for (int k = 0; k <= n; ++k) {
+                    yMin = Math.min(yMin, low[c][k]);
+                    yMax = Math.max(yMax, high[c][k]);
+                }
+            }
+        }
+        if (yMin > yMax) {
+            yMin = -1;
+            yMax = 1;
+        } else if (yMax - yMin < 1e-9) {
+            yMin -= 1;
+            yMax += 1;
+        } else {
+            double pad = 0.05 * (yMax - yMin);
+            yMin -= pad;
+            yMax += pad;
+        }
+
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        drawAxes(g2, t1 - window, t1, yMin, yMax, plotW, plotH);
+
+        // plain 1 px lines: antialiased ones cost six times the whole
+        // decimation at 1300 points a channel
+        double yScale = plotH / (yMax - yMin);
+        int bottom = topMargin + plotH;
+        for (int c = 0; c < channels; ++c) {
+            int n = nUsed[c];
+            if (n == 0) {
+                continue;
+            }
+            int p = 0;
+            for (int k = 0; k < n; ++k) {
+                int x = leftMargin + used[c][k];
+                int yLow = bottom - (int) ((low[c][k] - yMin) * yScale);
+                int yHigh = bottom - (int) ((high[c][k] - yMin) * yScale);
+                xs[p] = x;
+                ys[p++] = lowFirst[c][k] ? yLow : yHigh;
+                if (yLow != yHigh) {
+                    xs[p] = x;
+                    ys[p++] = lowFirst[c][k] ? yHigh : yLow;
+                }
+            }
+            g2.setColor(palette[c % palette.length]);
+            g2.drawPolyline(xs, ys, p);
+        }
+        drawLegend(g2);
+    }
+
+    private void drawAxes(Graphics2D g2, double t0, double t1, double yMin, double yMax, int plotW, int plotH) {
+        FontMetrics fm = g2.getFontMetrics();
+        int bottom = topMargin + plotH;
+
+        double step = tickStep(t1 - t0);
+        for (double t = Math.ceil(t0 / step) * step; t <= t1; t += step) {
+            int x = leftMargin + (int) ((t - t0) * plotW / (t1 - t0));
+            g2.setColor(gridColor);
+            g2.drawLine(x, topMargin, x, bottom);
+            g2.setColor(Color.BLACK);
+            g2.drawLine(x, bottom, x, bottom + 4);
+            String s = format(t, step);
+            g2.drawString(s, x - fm.stringWidth(s) / 2, bottom + 4 + fm.getAscent());
+        }
+        g2.drawString(timeLabel, leftMargin + (plotW - fm.stringWidth(timeLabel)) / 2, getHeight() - 3);
+
+        step = tickStep(yMax - yMin);
+        for (double y = Math.ceil(yMin / step) * step; y <= yMax; y += step) {
+            int py = bottom - (int) ((y - yMin) * plotH / (yMax - yMin));
+            g2.setColor(gridColor);
+            g2.drawLine(leftMargin, py, leftMargin + plotW, py);
+            g2.setColor(Color.BLACK);
+            g2.drawLine(leftMargin - 4, py, leftMargin, py);
+            String s = format(y, step);
+            g2.drawString(s, leftMargin - 6 - fm.stringWidth(s), py + fm.getAscent() / 2 - 1);
+        }
+
+        g2.setColor(Color.BLACK);
+        g2.drawRect(leftMargin, topMargin, plotW, plotH);
+    }
+
+    private void drawLegend(Graphics2D g2) {
+        FontMetrics fm = g2.getFontMetrics();
+        int x = leftMargin + 8;
+        int y = topMargin + 4 + fm.getAscent();
+        for (int c = 0; c < channels; ++c) {
+            if (!shown[c]) {
+                continue;
+            }
+            g2.setColor(palette[c % palette.length]);
+            g2.fillRect(x, y - fm.getAscent() / 2 - 1, 12, 3);
+            g2.setColor(Color.BLACK);
+            g2.drawString(names[c], x + 16, y);
+            y += fm.getHeight();
+        }
+    }
+
+    /**
+     *
+     * @return 1, 2 or 5 times a power of ten, giving about 6 ticks over range
+     */
+    private static double tickStep(double range) {
+        double raw = range / 6;
+        double p = Math.pow(10, Math.floor(Math.log10(raw)));
+        double m = raw / p;
+        return (m < 1.5 ? 1 : m < 3.5 ? 2 : m < 7.5 ? 5 : 10) * p;
+    }
+
+    private static String format(double v, double step) {
+        if (step >= 1) {
+            return Long.toString(Math.round(v));
+        }
+        int decimals = (int) Math.ceil(-Math.log10(step));
+        return String.format("%." + decimals + "f", v);
+    }
+}
@@ -18,6 +18,11 @@ public class SurfacesDisplay extends Entity2D {
     private int width, height, centerX, centerY;
     private final int max;
     private final int min;
+    private final double[] surfaces = new double[4];
+    private final double[] lastSurfaces = new double[4];
+    private final String[] names = {"ail: ", "rud: ", "thr: ", "ele: "};
+    private Polygon[] pointers;
+    private Node[] values;
 
     public SurfacesDisplay(int _center_x, int _center_y, int _width, int _height,  int min_, int max_) {
         width = _width;
@@ -26,140 +31,103 @@ public class SurfacesDisplay extends Entity2D {
         centerY = _center_y;
         max=max_;
         min=min_;
+        build();
     }
 
-    public void update(double[] surfaces_, Graphics2D g2) {
+    /**
+     * Scales and brackets are fixed; only the pointer triangles move.
+     */
+    @Override
+    protected void build() {
         removeAll();
-
-        double[] surfaces=new double[4];
-
-        surfaces[0]=surfaces_[0];
-        if(surfaces[0]> max){
-            surfaces[0]=max;
-        }
-        if(surfaces[0]< min){
-            surfaces[0]=min;
-        }
-
-        surfaces[1]=surfaces_[1];
-        if(surfaces[1]> max){
-            surfaces[1]=max;
-        }
-        if(surfaces[1]< min){
-            surfaces[1]=min;
-        }
-
-
-        surfaces[2]=surfaces_[2];
-        if(surfaces[2]> max){
-            surfaces[2]=max;
-        }
-        if(surfaces[2]< min){
-            surfaces[2]=min;
-        }
-
-        surfaces[3]=surfaces_[3];
-        if(surfaces[3]> max){
-            surfaces[3]=max;
-        }
-        if(surfaces[3]< min){
-            surfaces[3]=min;
-        }
-
+        setOrigin(centerX, centerY);
+        setMotion(width, width, false);
+        pointers = new Polygon[4];
+        values = new Node[4];
 
         // Aileron
-        Line2D l = new Line2D.Double(-width / 2, height, width / 2, height);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(-width / 2, height, -width / 2, 0);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(width / 2, height, width / 2, 0);
-        addEntity(l, Color.yellow, lineWidth, true);
-
-        int b= -(int)( (width*min)/(max-min) );
-        int[] points_x = {(int) (width * surfaces[0] / (max-min) +b - width / 2), (int) (width * surfaces[0] / (max-min) +b+ height / 2 - width / 2), (int) (width * surfaces[0] / (max-min) + b - height / 2 - width / 2)};
+        addEntity(new Line2D.Double(-width / 2, height, width / 2, height), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(-width / 2, height, -width / 2, 0), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(width / 2, height, width / 2, 0), Color.yellow, lineWidth, true).setChrome(true);
+        int[] points_x = {0, height / 2, -height / 2};
         int[] points_y = {height, 0, 0};
-        Polygon polSurface = new Polygon(points_x, points_y, 3);
-        addEntity(polSurface, Color.yellow, lineWidth, true);
-
-        String stValue = "" + surfaces_[0];
-        stValue=takeDigits(stValue, 1);
-        stValue="ail: "+stValue;
-        addEntity(stValue, -stValue.length() * 4, +height + 15, Color.yellow, lineWidth, true);
-
+        pointers[0] = new Polygon(points_x, points_y, 3);
+        addEntity(pointers[0], Color.yellow, lineWidth, true);
+        values[0] = addEntity("", 0, +height + 15, Color.yellow, lineWidth, true);
 
         // Rudder
-        l = new Line2D.Double(-width / 2, width, width / 2, width);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(-width / 2, width, -width / 2, width - height);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(width / 2, width, width / 2, width - height);
-        addEntity(l, Color.yellow, lineWidth, true);
-
-        //b= -(int)( (width*min)/(max-min) );
-        points_x[0] = (int) (width * surfaces[1] / (max-min) + b - width / 2);
-        points_x[1] = (int) (width * surfaces[1] / (max-min) + b + height / 2 - width / 2);
-        points_x[2] = (int) (width * surfaces[1] / (max-min) + b - height / 2 - width / 2);
-
-        points_y[0] = width;
-        points_y[1] = width - height;
-        points_y[2] = width - height;
-        polSurface = new Polygon(points_x, points_y, 3);
-        addEntity(polSurface, Color.yellow, lineWidth, true);
-
-        stValue = "" + surfaces_[1];
-        stValue=takeDigits(stValue, 1);
-        stValue="rud: "+stValue;
-        addEntity(stValue, -stValue.length() * 4, width - height-5, Color.yellow, lineWidth, true);
-
+        addEntity(new Line2D.Double(-width / 2, width, width / 2, width), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(-width / 2, width, -width / 2, width - height), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(width / 2, width, width / 2, width - height), Color.yellow, lineWidth, true).setChrome(true);
+        points_y = new int[]{width, width - height, width - height};
+        pointers[1] = new Polygon(points_x, points_y, 3);
+        addEntity(pointers[1], Color.yellow, lineWidth, true);
+        values[1] = addEntity("", 0, width - height-5, Color.yellow, lineWidth, true);
 
         //Throttle
-        l = new Line2D.Double(-width / 2 - 2 * height, 0, -width / 2 - 2 * height, width);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(-width / 2 - 1 * height, 0, -width / 2 - 2 * height, 0);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(-width / 2 - 1 * height, width, -width / 2 - 2 * height, width);
-        addEntity(l, Color.yellow, lineWidth, true);
-
-        points_x[0] = -width / 2 - 2 * height;
-        points_x[1] = -width / 2 - 1 * height;
-        points_x[2] = -width / 2 - 1 * height;
-
-        //b= -(int)( (width*min)/(max-min) );
-        points_y[0] = (int) (width * surfaces[2] / (max-min) +b);
-        points_y[1] = (int) (width * surfaces[2] / (max-min) +b + height / 2);
-        points_y[2] = (int) (width * surfaces[2] / (max-min) +b- height / 2);
-        polSurface = new Polygon(points_x, points_y, 3);
-        addEntity(polSurface, Color.yellow, lineWidth, true);
-
-        stValue = "" + surfaces_[2];
-        stValue=takeDigits(stValue, 1);
-        stValue="thr: "+stValue;
-        addEntity(stValue, -width / 2 + 3, width / 2, Color.yellow, lineWidth, true);
-
+        addEntity(new Line2D.Double(-width / 2 - 2 * height, 0, -width / 2 - 2 * height, width), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(-width / 2 - 1 * height, 0, -width / 2 - 2 * height, 0), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(-width / 2 - 1 * height, width, -width / 2 - 2 * height, width), Color.yellow, lineWidth, true).setChrome(true);
+        points_x = new int[]{-width / 2 - 2 * height, -width / 2 - 1 * height, -width / 2 - 1 * height};
+        points_y = new int[]{0, height / 2, -height / 2};
+        pointers[2] = new Polygon(points_x, points_y, 3);
+        addEntity(pointers[2], Color.yellow, lineWidth, true);
+        values[2] = addEntity("", -width / 2 + 3, width / 2, Color.yellow, lineWidth, true);
 
         //Elevator
-        l = new Line2D.Double(width / 2 + 1 * height, 0, width / 2 + 1 * height, width);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(width / 2 + 1 * height, 0, width / 2 + 2 * height, 0);
-        addEntity(l, Color.yellow, lineWidth, true);
-        l = new Line2D.Double(width / 2 + 1 * height, width, width / 2 + 2 * height, width);
-        addEntity(l, Color.yellow, lineWidth, true);
-        points_x[0] = width / 2 + 1 * height;
-        points_x[1] = width / 2 + 2 * height;
-        points_x[2] = width / 2 + 2 * height;
-
-        //b= -(int)( (width*min)/(max-min) );
-        
-        points_y[0] = (int) (width * surfaces[3] / (max-min) +b);
-        points_y[1] = (int) (width * surfaces[3] / (max-min) +b+ height / 2);
-        points_y[2] = (int) (width * surfaces[3] / (max-min) +b- height / 2);
-        polSurface = new Polygon(points_x, points_y, 3);
-        addEntity(polSurface, Color.yellow, lineWidth, true);
-
-        stValue = "" + surfaces_[3];
-        stValue=takeDigits(stValue, 1);
-        stValue="ele: "+stValue;
-        addEntity(stValue, width / 2 - stValue.length() * 4 - 10, width / 2, Color.yellow, lineWidth, true);
+        addEntity(new Line2D.Double(width / 2 + 1 * height, 0, width / 2 + 1 * height, width), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(width / 2 + 1 * height, 0, width / 2 + 2 * height, 0), Color.yellow, lineWidth, true).setChrome(true);
+        addEntity(new Line2D.Double(width / 2 + 1 * height, width, width / 2 + 2 * height, width), Color.yellow, lineWidth, true).setChrome(true);
+        points_x = new int[]{width / 2 + 1 * height, width / 2 + 2 * height, width / 2 + 2 * height};
+        pointers[3] = new Polygon(points_x, points_y, 3);
+        addEntity(pointers[3], Color.yellow, lineWidth, true);
+        values[3] = addEntity("", 0, width / 2, Color.yellow, lineWidth, true);
+
+        for (int i = 0; i < 4; i++) {
+            lastSurfaces[i] = Double.NaN;
+        }
+    }
+
+    public void update(double[] surfaces_, Graphics2D g2) {
+
+        int b= -(int)( (width*min)/(max-min) );
+        for (int i = 0; i < 4; i++) {
+            surfaces[i]=surfaces_[i];
+            if(surfaces[i]> max){
+                surfaces[i]=max;
+            }
+            if(surfaces[i]< min){
+                surfaces[i]=min;
+            }
+            if (surfaces_[i] == lastSurfaces[i]) {
+                continue;
+            }
+            lastSurfaces[i] = surfaces_[i];
+
+            Polygon polSurface = pointers[i];
+            if (i < 2) {
+                polSurface.xpoints[0] = (int) (width * surfaces[i] / (max-min) +b - width / 2);
+                polSurface.xpoints[1] = (int) (width * surfaces[i] / (max-min) +b + height / 2 - width / 2);
+                polSurface.xpoints[2] = (int) (width * surfaces[i] / (max-min) +b - height / 2 - width / 2);
+            } else {
+                polSurface.ypoints[0] = (int) (width * surfaces[i] / (max-min) +b);
+                polSurface.ypoints[1] = (int) (width * surfaces[i] / (max-min) +b + height / 2);
+                polSurface.ypoints[2] = (int) (width * surfaces[i] / (max-min) +b - height / 2);
+            }
+            polSurface.invalidate();
+
+            String stValue = "" + surfaces_[i];
+            stValue=takeDigits(stValue, 1);
+            stValue=names[i]+stValue;
+            values[i].setText(stValue);
+            if (i == 0) {
+                values[i].setPosition(-stValue.length() * 4, +height + 15);
+            } else if (i == 1) {
+                values[i].setPosition(-stValue.length() * 4, width - height-5);
+            } else if (i == 3) {
+                values[i].setPosition(width / 2 - stValue.length() * 4 - 10, width / 2);
+            }
+        }
 
         rotateAndTranslate(0, centerX, centerY, g2);
 
@@ -23,6 +23,13 @@ public class ThetaPhiDisplay extends Entity2D {
     private boolean isLineWidthLarge = true;
     private int center_x, center_y;
     private boolean fillNegativeValues = false;
+    private Line2D.Double[] rungLines;
+    private Node[] rungs;
+    private Node[] rightLabels;
+    private Node[] leftLabels;
+    private Node angleText;
+    private int lastCV = Integer.MIN_VALUE;
+    private double lastTheta = Double.NaN;
 
     public ThetaPhiDisplay(int _center_x, int _center_y, int _dh, int _nLines, int _delta) {
 
@@ -33,24 +40,24 @@ public class ThetaPhiDisplay extends Entity2D {
         center_x = _center_x;
         center_y = _center_y;
 
+        build();
     }
 
-    public void update(double[] value, Graphics2D g2) {
+    /**
+     * The bank arc and the pitch ladder rotate with phi; the ladder rungs
+     * scroll with theta and are only reshaped when the centre value changes.
+     */
+    @Override
+    protected void build() {
+        removeAll();
+        setOrigin(center_x, center_y);
+        setMotion(0, dh, true);
 
-        double theta = value[0];
-        double phi = value[1];
-        this.removeAll();
         if (nLines % 2 == 0) {
             nLines++;
         }
         double height = (nLines - 1) * dh;
         int width = (int) (height / 2);
-        double mod = theta % delta;
-        int cV = 0;
-        int max = 0;
-
-        double offsetDeg = 0;
-        int offsetPix = 0;
 
         // Drawing  top arc
 
@@ -96,6 +103,47 @@ public class ThetaPhiDisplay extends Entity2D {
 
 
         }
+
+        rungLines = new Line2D.Double[nLines];
+        rungs = new Node[nLines];
+        rightLabels = new Node[nLines];
+        leftLabels = new Node[nLines];
+        for (int i = 0; i < nLines; i++) {
+            rungLines[i] = new Line2D.Double();
+            rungs[i] = addEntity(rungLines[i], Color.yellow, lineWidth);
+            rightLabels[i] = addEntity("", 0, 0, Color.yellow, lineWidth);
+            leftLabels[i] = addEntity("", 0, 0, Color.yellow, lineWidth);
+        }
+
+        int[] points_x = {- 20, 0, 20, 0};
+        int[] points_y = {30, 0, 30, 10};
+        Polygon polTriangleCenter = new Polygon(points_x, points_y, 4);
+        addEntity(polTriangleCenter, Color.green, lineWidth, true);
+
+        angleText = addEntity("", 0, -5, Color.green, lineWidth, true);
+
+        int[] points_x_tr = {-dh / 8, dh / 8, 0};
+        int[] points_y_tr = {(int) (-r - arcOffset + 2 * dh / 4), (int) (-r - arcOffset + 2 * dh / 4), (int) (-r - arcOffset + dh / 4)};
+        Polygon polTriangStatic = new Polygon(points_x_tr, points_y_tr, 3);
+        addEntity(polTriangStatic, Color.yellow, 2 * lineWidth, true).setChrome(true);
+
+        lastCV = Integer.MIN_VALUE;
+        lastTheta = Double.NaN;
+    }
+
+    public void update(double[] value, Graphics2D g2) {
+
+        double theta = value[0];
+        double phi = value[1];
+        double height = (nLines - 1) * dh;
+        int width = (int) (height / 2);
+        double mod = theta % delta;
+        int cV = 0;
+        int max = 0;
+
+        double offsetDeg = 0;
+        int offsetPix = 0;
+
         //Line2D l1 = new Line2D.Double(-width / 2, -height / 2 + dh * i + modulus, width / 2, -height / 2 + dh * i + modulus);
         if (mod > 0) {
             if (mod > delta / 2) {
@@ -120,16 +168,6 @@ public class ThetaPhiDisplay extends Entity2D {
 
         max = cV + ((int) (nLines / 2)) * delta;
 
-//        if (lastOffsetDeg < -(delta / 4) && offsetDeg >= delta / 4) {
-//            isLineWidthLarge = !isLineWidthLarge;
-//
-//        } else {
-//            if (lastOffsetDeg >= (delta / 4) && offsetDeg < -delta / 4) {
-//                isLineWidthLarge = !isLineWidthLarge;
-//            }
-//        }
-
-
         if (Math.abs(cV % (2 * delta)) == 0) {
             isLineWidthLarge = true;
         }
@@ -139,110 +177,49 @@ public class ThetaPhiDisplay extends Entity2D {
         }
 
 
-
-
         int fontSize = 8;
-        for (int i = 0; i < nLines; i++) {
-            int intLineValue = max - i * delta;
-            String stValue = "" + intLineValue;
-
-
-
-            if (isLineWidthLarge) {
-                if (i % 2 == 0) {
-                    Line2D l1 = new Line2D.Double(-width / 2, -height / 2 + dh * i + offsetPix, width / 2, -height / 2 + dh * i + offsetPix);
-                    if (intLineValue < 0) {
-                        addEntity(l1, Color.yellow, lineWidth, false, true);
-                        addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        addEntity(stValue, -width / 2 - stValue.length() * fontSize - 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                    } else {
-                        if (intLineValue == 0) {
-                            l1 = new Line2D.Double(-3 * width / 2, -height / 2 + dh * i + offsetPix, 3 * width / 2, -height / 2 + dh * i + offsetPix);
-                        } else {
-                            addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                            addEntity(stValue, -width / 2 - stValue.length() * fontSize - 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        }
-                        addEntity(l1, Color.yellow, lineWidth);
-                    }
-
-
-
-
+        if (cV != lastCV) {
+            for (int i = 0; i < nLines; i++) {
+                int intLineValue = max - i * delta;
+                String stValue = label(intLineValue);
+                double y = -height / 2 + dh * i;
+                // long and short rungs alternate, the horizon is longer still
+                boolean isLong = isLineWidthLarge ? i % 2 == 0 : i % 2 != 0;
+                int halfLength = isLong ? width / 2 : width / 4;
+                if (intLineValue == 0) {
+                    rungLines[i].setLine(-3 * width / 2, y, 3 * width / 2, y);
                 } else {
-                    Line2D l1 = new Line2D.Double(-width / 4, -height / 2 + dh * i + offsetPix, width / 4, -height / 2 + dh * i + offsetPix);
-                    if (intLineValue < 0) {
-                        addEntity(l1, Color.yellow, lineWidth, false, true);
-                        addEntity(stValue, width / 4 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        addEntity(stValue, -width / 4 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                    } else {
-                        if (intLineValue == 0) {
-                            l1 = new Line2D.Double(-3 * width / 2, -height / 2 + dh * i + offsetPix, 3 * width / 2, -height / 2 + dh * i + offsetPix);
-                        } else {
-                            addEntity(stValue, width / 4 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                            addEntity(stValue, -width / 4 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        }
-                        addEntity(l1, Color.yellow, lineWidth);
-                    }
-
-                }
-            } else {
-                if (i % 2 == 0) {
-                    Line2D l1 = new Line2D.Double(-width / 4, -height / 2 + dh * i + offsetPix, width / 4, -height / 2 + dh * i + offsetPix);
-                    if (intLineValue < 0) {
-                        addEntity(l1, Color.yellow, lineWidth, false, true);
-                        addEntity(stValue, width / 4 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        addEntity(stValue, -width / 4 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                    } else {
-                        if (intLineValue == 0) {
-                            l1 = new Line2D.Double(-3 * width / 2, -height / 2 + dh * i + offsetPix, 3 * width / 2, -height / 2 + dh * i + offsetPix);
-
-                        } else {
-                            addEntity(stValue, width / 4 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                            addEntity(stValue, -width / 4 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        }
-                        addEntity(l1, Color.yellow, lineWidth);
-                    }
-
-
-                } else {
-                    Line2D l1 = new Line2D.Double(-width / 2, -height / 2 + dh * i + offsetPix, width / 2, -height / 2 + dh * i + offsetPix);
-                    if (intLineValue < 0) {
-                        addEntity(l1, Color.yellow, lineWidth, false, true);
-                        addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        addEntity(stValue, -width / 2 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                    } else {
-                        if (intLineValue == 0) {
-                            l1 = new Line2D.Double(-3 * width / 2, -height / 2 + dh * i + offsetPix, 3 * width / 2, -height / 2 + dh * i + offsetPix);
-                        } else {
-                            addEntity(stValue, width / 2 + 10, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                            addEntity(stValue, -width / 2 - 10 - stValue.length() * fontSize, (int) (-height / 2 + dh * i + offsetPix), Color.yellow, lineWidth);
-                        }
-                        addEntity(l1, Color.yellow, lineWidth);
-                    }
-
+                    rungLines[i].setLine(-halfLength, y, halfLength, y);
                 }
+                rungs[i].setDashed(intLineValue < 0);
+                rightLabels[i].setVisible(intLineValue != 0);
+                leftLabels[i].setVisible(intLineValue != 0);
+                rightLabels[i].setText(stValue);
+                leftLabels[i].setText(stValue);
+                rightLabels[i].setPosition(halfLength + 10, (int) y);
+                leftLabels[i].setPosition(-halfLength - stValue.length() * fontSize - 10, (int) y);
             }
-
+            lastCV = cV;
+        }
+        for (int i = 0; i < nLines; i++) {
+            rungs[i].setOffset(0, offsetPix);
+            rightLabels[i].setOffset(0, offsetPix);
+            leftLabels[i].setOffset(0, offsetPix);
         }
 
         lastOffsetDeg = offsetDeg;
 
-        int[] points_x = {- 20, 0, 20, 0};
-        int[] points_y = {30, 0, 30, 10};
-        Polygon polTriangleCenter = new Polygon(points_x, points_y, 4);
-
-        addEntity(polTriangleCenter, Color.green, lineWidth, true);
-        String stAngle = "" + theta;
-        if (stAngle.length() > 7) {
-            stAngle = stAngle.substring(0, 7);
+        if (theta != lastTheta) {
+            String stAngle = "" + theta;
+            if (stAngle.length() > 7) {
+                stAngle = stAngle.substring(0, 7);
+            }
+            //g2.drawString(stAngle,  - (int) (8 * (stAngle.length() / 2)),  - 5);
+            angleText.setText(stAngle);
+            angleText.setPosition(-stAngle.length() * 4, -5);
+            lastTheta = theta;
         }
-        //g2.drawString(stAngle,  - (int) (8 * (stAngle.length() / 2)),  - 5);
-        addEntity(stAngle, -stAngle.length() * 4, -5, Color.green, lineWidth, true);
 
-        int[] points_x_tr = {-dh / 8, dh / 8, 0};
-        int[] points_y_tr = {(int) (-r - arcOffset + 2 * dh / 4), (int) (-r - arcOffset + 2 * dh / 4), (int) (-r - arcOffset + dh / 4)};
-        Polygon polTriangStatic = new Polygon(points_x_tr, points_y_tr, 3);
-        addEntity(polTriangStatic, Color.yellow, 2 * lineWidth, true);
         rotateAndTranslate(phi, center_x, center_y, g2);
 
     }
@@ -15,22 +15,34 @@ import java.awt.Graphics2D;
 public class TimeDisplay extends Entity2D{
 
     private int centerX,  centerY,  fontSize;
+    private Node timeText;
+    private double lastTime = Double.NaN;
 
     public TimeDisplay(int centerX_, int centerY_, int fontSize_){
         centerX=centerX_;
         centerY=centerY_;
         fontSize=fontSize_;
+        build();
     }
+
+    @Override
+    protected void build() {
+        removeAll();
+        setOrigin(centerX, centerY);
+        timeText = addEntity("", 0, 0, Color.yellow, lineWidth, true);
+        lastTime = Double.NaN;
+    }
+
     @Override
     public void update(double[] value, Graphics2D g2) {
 
-        removeAll();
         double time= value[0];
-        String stT = ""+time;
-        stT=this.takeDigits(stT, 6);
-        String stTime="Time: "+stT;
-
-        addEntity(stTime, 0, 0, Color.yellow, lineWidth, true);
+        if (time != lastTime) {
+            String stT = ""+time;
+            stT=this.takeDigits(stT, 6);
+            timeText.setText("Time: "+stT);
+            lastTime = time;
+        }
      
         rotateAndTranslate(0, centerX, centerY, g2);
 
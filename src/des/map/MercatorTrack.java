@@ -0,0 +1,100 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map;
+
+import des.map.tile.TileMath;
+
+/**
+ * The positions of a flight, projected once when they are added. Kept as
+ * web mercator world coordinates, 0..1 from the north west corner of the
+ * map, so the pixel of a position at any zoom is one multiplication away.
+ *
+ * Positions go into chunks of 4096 that are never moved or changed, so
+ * the track grows without copying and without limit. Safe to add from the
+ * telemetry thread while the map reads it.
+ */
+public class MercatorTrack {
+
+    private static final int chunkBits = 12;
+    private static final int chunkSize = 1 << chunkBits;
+    private static final int chunkMask = chunkSize - 1;
+
+    private double[][] xs = new double[16][];
+    private double[][] ys = new double[16][];
+    private int size = 0;
+    private int version = 0;
+
+    /**
+     *
+     * @param latitudeRad
+     * @param longitudeRad
+     */
+    public synchronized void add(double latitudeRad, double longitudeRad) {
+        int chunk = size >> chunkBits;
+        if (chunk == xs.length) {
+            double[][] grownX = new double[xs.length * 2][];
+            double[][] grownY = new double[ys.length * 2][];
+            System.arraycopy(xs, 0, grownX, 0, xs.length);
+            System.arraycopy(ys, 0, grownY, 0, ys.length);
+            xs = grownX;
+            ys = grownY;
+        }
+        if (xs[chunk] == null) {
+            xs[chunk] = new double[chunkSize];
+            ys[chunk] = new double[chunkSize];
+        }
+        xs[chunk][size & chunkMask] = TileMath.longitudeToPixel(longitudeRad, 0) / TileMath.TILE_SIZE;
+        ys[chunk][size & chunkMask] = TileMath.latitudeToPixel(latitudeRad, 0) / TileMath.TILE_SIZE;
+        size++;
+    }
+
+    /**
+     * Removes all positions.
+     */
+    public synchronized void clear() {
+        xs = new double[16][];
+        ys = new double[16][];
+        size = 0;
+        version++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return changes every time the track is cleared, so a reader knows
+     * to start over
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Copies world coordinates of a run of positions.
+     *
+     * @param from first position
+     * @param x destination of x, 0..1 west to east
+     * @param y destination of y, 0..1 north to south
+     * @param offset first index written in x and y
+     * @param length number of positions
+     */
+    public synchronized void get(int from, double[] x, double[] y, int offset, int length) {
+        if (from < 0 || length < 0 || from + length > size) {
+            throw new IndexOutOfBoundsException("positions " + from + "+" + length + " of " + size);
+        }
+        while (length > 0) {
+            int chunk = from >> chunkBits;
+            int start = from & chunkMask;
+            int n = Math.min(length, chunkSize - start);
+            System.arraycopy(xs[chunk], start, x, offset, n);
+            System.arraycopy(ys[chunk], start, y, offset, n);
+            from += n;
+            offset += n;
+            length -= n;
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package des.map;
 
 
+import comm.UplinkFrame;
 import java.awt.Color;
 import java.awt.Component;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.CellEditor;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.event.CellEditorListener;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.TableModelEvent;
@@ -32,14 +40,12 @@ import javax.swing.table.TableCellRenderer;
  *
  * @author david2010a
  */
-public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawingMapListener {
+public class PanelMap extends javax.swing.JPanel implements PanelDrawingMapListener {
 
     private int imageWidth;
     private int imageHeight;
     private double latLenght = 0;
     private double lonLenght = 0;
-    private double[] x;
-    private double[] y;
     private int zoom = 1;
     private double latCenter = 0;
     private double lonCenter = 0;
@@ -47,8 +53,6 @@ public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawi
     private double m_lat = 0;
     private double b_lon = 0;
     private double b_lat = 0;
-    private int bufferSize = 100;
-    private int countBuffer = 0;
     private double resolution = 0;
     private double lat_1 = -10000;
     private double lon_1 = -10000;
@@ -105,9 +109,6 @@ public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawi
         initComponents();
         panelDrawing.registerPanelDrawingMapListener(this);
 
-        x = new double[bufferSize];
-        y = new double[bufferSize];
-
         DefaultTableModel model = (DefaultTableModel) tblWaypoints.getModel();   
         
         model.addTableModelListener(new TableModelListener() {
@@ -127,20 +128,10 @@ public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawi
     }
 
     public void setPoint(double lat, double lon) {
-        if(countBuffer>bufferSize-1){
-            x[0]=x[bufferSize-1];
-            y[0]=y[bufferSize-1];
-            countBuffer=1;
-        }
-        //x[countBuffer] = (int) (lon * m_lon + b_lon);
-        //y[countBuffer] = imageHeight - (int) (lat * m_lat + b_lat);
-        x[countBuffer] = lat;
-        y[countBuffer] = lon;
-        countBuffer++;
         lat_1 = lat;
         lon_1 = lon;
 
-        panelDrawing.setPositions(x, y, countBuffer);
+        panelDrawing.addPosition(lat, lon);
     }
     
     public void setAltitude(double altitude){
@@ -194,13 +185,8 @@ public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawi
     }
 
     private void set() {
-        bufferSize = 1024;
         resolution = 7; 
 
-        x = new double[bufferSize];
-        y = new double[bufferSize];
-        countBuffer = 0;
-
         imageWidth = panelDrawing.getWidth();
         imageHeight = panelDrawing.getHeight();
         zoom = comboBoxZoom.getSelectedIndex() + 1;
@@ -238,6 +224,8 @@ public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawi
     }
     
     private synchronized void addEditedRow(int row){
+        // a confirmation of what was sent before must not clear the new edit
+        waypointsToSend.remove(row + 1);
         for(Integer i : editedRows){
             if(i == row){
                 return;
@@ -246,54 +234,85 @@ public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawi
         editedRows.add(row);
     }
     
+    /**
+     * Queues every edited waypoint on the uplink at once, its window paces
+     * them, and waits for the echoes on another thread. A row stays red
+     * until the aircraft confirmed it; the ones it did not are reported
+     * and sent again with the next edits.
+     */
     private synchronized void sendWaypoints(){        
-        try{
-            DefaultTableModel model = (DefaultTableModel) tblWaypoints.getModel();
-            for(Integer i : editedRows){
-                //get waypoint                
-                Integer id = (Integer) model.getValueAt(i, 0);
-                assert(id - 1 == i);
-                Double lat = getTableContent(i, 1) / 180 * Math.PI; // to radians
-                Double lng = getTableContent(i, 2) / 180 * Math.PI;
-                Double alt = getTableContent(i, 3) / 180 * Math.PI;
-                Waypoint wp = new Waypoint(lat, lng, alt);
-                waypointsToSend.put(1 + i, wp);
-            }                                                
-            for(Integer key : waypointsToSend.keySet()){
-                Waypoint wp = waypointsToSend.get(key);                
-                int longitude = (int) (wp.getLongitude() / Math.PI * 180* Math.pow(10, 7));
-                int latitude = (int) (wp.getLatitude() / Math.PI * 180 * Math.pow(10, 7));                
-                Double altitude = getTableContent(key - 1, 3);
-                float altitude_float = altitude.floatValue();
-                kernel.Kernel.getInstance().sendWaypoint(key.byteValue(), longitude, latitude, altitude_float);   
-                Thread.sleep(500);
-            }
-            editedRows.clear();            
-            userEditingWaypoints = false;
-        } catch (InterruptedException ex){
-            ex.printStackTrace();
+        DefaultTableModel model = (DefaultTableModel) tblWaypoints.getModel();
+        for(Integer i : editedRows){
+            //get waypoint                
+            Integer id = (Integer) model.getValueAt(i, 0);
+            assert(id - 1 == i);
+            Double lat = getTableContent(i, 1) / 180 * Math.PI; // to radians
+            Double lng = getTableContent(i, 2) / 180 * Math.PI;
+            Double alt = getTableContent(i, 3) / 180 * Math.PI;
+            Waypoint wp = new Waypoint(lat, lng, alt);
+            waypointsToSend.put(1 + i, wp);
+        }                                                
+        final Map<Integer, Future<UplinkFrame>> sent = new LinkedHashMap<Integer, Future<UplinkFrame>>();
+        final Map<Integer, Waypoint> waypoints = new HashMap<Integer, Waypoint>(waypointsToSend);
+        for(Integer key : waypointsToSend.keySet()){
+            Waypoint wp = waypointsToSend.get(key);                
+            int longitude = (int) (wp.getLongitude() / Math.PI * 180* Math.pow(10, 7));
+            int latitude = (int) (wp.getLatitude() / Math.PI * 180 * Math.pow(10, 7));                
+            Double altitude = getTableContent(key - 1, 3);
+            float altitude_float = altitude.floatValue();
+            sent.put(key, kernel.Kernel.getInstance().sendWaypoint(key.byteValue(), longitude, latitude, altitude_float));
         }
-    }
-
-
-    public void run() {
-
-        System.out.println("Thread");
-        try {
-            Thread.sleep(1500);
-        } catch (InterruptedException ex) {
-            Logger.getLogger(PanelMap.class.getName()).log(Level.SEVERE, null, ex);
+        userEditingWaypoints = false;
+        if(sent.isEmpty()){
+            return;
         }
-        for (int i = -180; i < 180; i++) {
-            setPoint(50*Math.sin(Math.toRadians(i)), i);
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(PanelMap.class.getName()).log(Level.SEVERE, null, ex);
+        cmdUpdateWaypoints.setEnabled(false);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                final StringBuilder failed = new StringBuilder();
+                for(final Map.Entry<Integer, Future<UplinkFrame>> entry : sent.entrySet()){
+                    try {
+                        entry.getValue().get();
+                        SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                waypointConfirmed(entry.getKey(), waypoints.get(entry.getKey()));
+                            }
+                        });
+                    } catch (CancellationException ex) {
+                        // replaced by a newer value of the same waypoint
+                    } catch (ExecutionException ex) {
+                        failed.append("\nWaypoint ").append(entry.getKey()).append(": ")
+                                .append(ex.getCause().getMessage());
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        cmdUpdateWaypoints.setEnabled(true);
+                        if(failed.length() > 0){
+                            JOptionPane.showMessageDialog(PanelMap.this, "Not confirmed by the aircraft:" + failed,
+                                    "Send waypoints", JOptionPane.WARNING_MESSAGE);
+                        }
+                    }
+                });
             }
+        }, "Waypoint upload");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private synchronized void waypointConfirmed(Integer key, Waypoint waypoint){
+        if(waypointsToSend.get(key) != waypoint){
+            // edited again since it was sent
+            return;
         }
+        editedRows.remove(Integer.valueOf(key - 1));
+        waypointsToSend.remove(key);
+        tblWaypoints.repaint();
     }
 
+
     /** This method is called from within the constructor to
      * initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is
@@ -541,7 +560,16 @@ public class PanelMap extends javax.swing.JPanel implements Runnable, PanelDrawi
         SaveImages.setEnabled(false);
         Thread t = new Thread(new Runnable() {
             public void run() {
-                panelDrawing.saveMapByMarkers("", finalFrom, finalTo);
+                try {
+                    panelDrawing.saveMapByMarkers("", finalFrom, finalTo);
+                } catch (final IllegalStateException ex) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            JOptionPane.showMessageDialog(PanelMap.this, ex.getMessage(),
+                                    "Save map", JOptionPane.WARNING_MESSAGE);
+                        }
+                    });
+                }
             }
         });
         t.start();
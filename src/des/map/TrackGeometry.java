@@ -0,0 +1,345 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map;
+
+import des.map.tile.TileMath;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+
+/**
+ * Draws a MercatorTrack as a polyline at a zoom level, doing as little as
+ * possible per frame.
+ *
+ * Positions are turned into world pixels of the zoom level once, as they
+ * come; positions on the same pixel as the one before are dropped, and
+ * every 1024 that are left are simplified with Douglas-Peucker to within
+ * half a pixel. Panning only moves the view over those points. Every 64
+ * points have a bounding box, and only the parts of the line whose box is
+ * in view are looked at, so a frame costs about as much as the line has
+ * visible detail, however long the flight. Everything is
+ * redone when the zoom level changes or the track is cleared.
+ *
+ * Not thread safe, use it from the thread that paints.
+ */
+public class TrackGeometry {
+
+    private static final int blockSize = 1024;
+    private static final double tolerance = 0.5;
+    // segments this far out of view are still drawn, for the line width
+    private static final int margin = 4;
+    private static final int boxBits = 6;
+
+    private final MercatorTrack track;
+    private int zoom = -1;
+    private int version = -1;
+    private int consumed = 0;
+    private double worldSize;
+
+    // the simplified line of the blocks done, world pixels
+    private int[] xs = new int[blockSize];
+    private int[] ys = new int[blockSize];
+    private int count = 0;
+    // bounds of the segments from point i << boxBits to the one 64 points on
+    private int[] boxes = new int[4 * (blockSize >> boxBits)];
+    // positions since, the first one is the last point of the line
+    private final int[] blockX = new int[blockSize];
+    private final int[] blockY = new int[blockSize];
+    private int blockCount = 0;
+    // points of line() while nothing was added, -1 if not known
+    private int lineCount = -1;
+
+    private final double[] u = new double[blockSize];
+    private final double[] v = new double[blockSize];
+    private final boolean[] keep = new boolean[blockSize];
+    private final int[] stack = new int[2 * blockSize];
+    // the polyline being drawn, in view coordinates
+    private int[] runX = new int[256];
+    private int[] runY = new int[256];
+    private int run = 0;
+    private int drawn = 0;
+
+    public TrackGeometry(MercatorTrack track) {
+        this.track = track;
+    }
+
+    /**
+     * Takes in the positions added since the last call.
+     *
+     * @param zoom
+     */
+    public void update(int zoom) {
+        if (zoom != this.zoom) {
+            this.zoom = zoom;
+            worldSize = TileMath.worldSize(zoom);
+            restart();
+        }
+        while (true) {
+            int n;
+            synchronized (track) {
+                if (track.getVersion() != version) {
+                    version = track.getVersion();
+                    restart();
+                }
+                n = Math.min(blockSize, track.size() - consumed);
+                if (n <= 0) {
+                    return;
+                }
+                track.get(consumed, u, v, 0, n);
+            }
+            consumed += n;
+            for (int i = 0; i < n; i++) {
+                add((int) Math.floor(u[i] * worldSize), (int) Math.floor(v[i] * worldSize));
+            }
+        }
+    }
+
+    private void restart() {
+        consumed = 0;
+        count = 0;
+        blockCount = 0;
+        lineCount = -1;
+    }
+
+    private void add(int x, int y) {
+        if (blockCount > 0 && blockX[blockCount - 1] == x && blockY[blockCount - 1] == y) {
+            return;
+        }
+        blockX[blockCount] = x;
+        blockY[blockCount] = y;
+        blockCount++;
+        lineCount = -1;
+        if (blockCount == blockSize) {
+            simplify(blockX, blockY, blockCount);
+            ensureCapacity(count + blockCount);
+            // the first point of a block is the last of the line already
+            for (int i = count > 0 ? 1 : 0; i < blockCount; i++) {
+                if (keep[i]) {
+                    xs[count] = blockX[i];
+                    ys[count] = blockY[i];
+                    addToBoxes(count);
+                    count++;
+                }
+            }
+            blockX[0] = blockX[blockCount - 1];
+            blockY[0] = blockY[blockCount - 1];
+            blockCount = 1;
+        }
+    }
+
+    /**
+     * Grows the boxes the point is in: its own and, if it is the first of
+     * its box, the one before, which ends at it.
+     */
+    private void addToBoxes(int point) {
+        int box = point >> boxBits;
+        if (4 * box + 4 > boxes.length) {
+            boxes = Arrays.copyOf(boxes, boxes.length * 2);
+        }
+        int x = xs[point];
+        int y = ys[point];
+        if ((point & ((1 << boxBits) - 1)) == 0) {
+            boxes[4 * box] = x;
+            boxes[4 * box + 1] = y;
+            boxes[4 * box + 2] = x;
+            boxes[4 * box + 3] = y;
+            if (box > 0) {
+                box--;
+            } else {
+                return;
+            }
+        }
+        boxes[4 * box] = Math.min(boxes[4 * box], x);
+        boxes[4 * box + 1] = Math.min(boxes[4 * box + 1], y);
+        boxes[4 * box + 2] = Math.max(boxes[4 * box + 2], x);
+        boxes[4 * box + 3] = Math.max(boxes[4 * box + 3], y);
+    }
+
+    private void ensureCapacity(int points) {
+        if (points > xs.length) {
+            int length = Math.max(points, xs.length * 2);
+            xs = Arrays.copyOf(xs, length);
+            ys = Arrays.copyOf(ys, length);
+        }
+    }
+
+    /**
+     * Douglas-Peucker, marks the points to keep in keep[].
+     */
+    private void simplify(int[] x, int[] y, int n) {
+        Arrays.fill(keep, 0, n, false);
+        keep[0] = true;
+        keep[n - 1] = true;
+        final double tolerance2 = tolerance * tolerance;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double dx = x[last] - x[first];
+            double dy = y[last] - y[first];
+            double length2 = dx * dx + dy * dy;
+            double farthest = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double px = x[i] - x[first];
+                double py = y[i] - y[first];
+                // distance to the segment, not the line: tracks double back
+                double t = length2 > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / length2)) : 0;
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                double d = ex * ex + ey * ey;
+                if (d > farthest) {
+                    farthest = d;
+                    index = i;
+                }
+            }
+            if (farthest > tolerance2) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return points of the line in xs, ys: the blocks done and, after
+     * them, the positions since, simplified
+     */
+    private int line() {
+        if (lineCount >= 0) {
+            return lineCount;
+        }
+        int total = count;
+        if (blockCount > 1) {
+            simplify(blockX, blockY, blockCount);
+            ensureCapacity(count + blockCount);
+            for (int i = count > 0 ? 1 : 0; i < blockCount; i++) {
+                if (keep[i]) {
+                    xs[total] = blockX[i];
+                    ys[total] = blockY[i];
+                    total++;
+                }
+            }
+        } else if (count == 0 && blockCount == 1) {
+            xs[0] = blockX[0];
+            ys[0] = blockY[0];
+            total = 1;
+        }
+        lineCount = total;
+        return total;
+    }
+
+    /**
+     * Draws the parts of the line in view.
+     *
+     * @param g2
+     * @param zoom
+     * @param left world pixel at the left edge of the view
+     * @param top world pixel at the top edge of the view
+     * @param width of the view
+     * @param height of the view
+     * @return points drawn
+     */
+    public int draw(Graphics2D g2, int zoom, long left, long top, int width, int height) {
+        update(zoom);
+        int total = line();
+        drawn = 0;
+        run = 0;
+        // the blocks done, box by box
+        int segment = 0;
+        while (segment < count - 1) {
+            int box = segment >> boxBits;
+            int end = Math.min(count - 1, (box + 1) << boxBits);
+            if (boxes[4 * box + 2] - left < -margin || boxes[4 * box] - left > width + margin
+                    || boxes[4 * box + 3] - top < -margin || boxes[4 * box + 1] - top > height + margin) {
+                flush(g2);
+                segment = end;
+                continue;
+            }
+            for (; segment < end; segment++) {
+                segment(g2, segment, left, top, width, height);
+            }
+        }
+        // the positions since
+        for (segment = Math.max(0, count - 1); segment < total - 1; segment++) {
+            segment(g2, segment, left, top, width, height);
+        }
+        flush(g2);
+        return drawn;
+    }
+
+    /**
+     * Adds the segment from point i to i + 1 to the polyline being drawn if
+     * it is in view, draws the polyline if not.
+     */
+    private void segment(Graphics2D g2, int i, long left, long top, int width, int height) {
+        int x0 = (int) (xs[i] - left);
+        int y0 = (int) (ys[i] - top);
+        int x1 = (int) (xs[i + 1] - left);
+        int y1 = (int) (ys[i + 1] - top);
+        boolean visible = Math.max(x0, x1) >= -margin && Math.min(x0, x1) <= width + margin
+                && Math.max(y0, y1) >= -margin && Math.min(y0, y1) <= height + margin;
+        if (!visible) {
+            flush(g2);
+            return;
+        }
+        if (run + 2 > runX.length) {
+            runX = Arrays.copyOf(runX, runX.length * 2);
+            runY = Arrays.copyOf(runY, runY.length * 2);
+        }
+        if (run == 0) {
+            runX[run] = x0;
+            runY[run] = y0;
+            run++;
+        }
+        runX[run] = x1;
+        runY[run] = y1;
+        run++;
+    }
+
+    private void flush(Graphics2D g2) {
+        if (run > 0) {
+            g2.drawPolyline(runX, runY, run);
+            drawn += run;
+            run = 0;
+        }
+    }
+
+    /**
+     *
+     * @return false if the track is empty, as of the last update
+     */
+    public boolean hasPosition() {
+        return blockCount > 0;
+    }
+
+    /**
+     *
+     * @return world pixel x of the last position, as of the last update
+     */
+    public int getLastX() {
+        return blockX[blockCount - 1];
+    }
+
+    /**
+     *
+     * @return world pixel y of the last position, as of the last update
+     */
+    public int getLastY() {
+        return blockY[blockCount - 1];
+    }
+
+    /**
+     *
+     * @return points of the simplified line, as of the last update
+     */
+    public int getPointCount() {
+        return line();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tiles from a z/x/y directory tree (root/z/x/y.png or .jpg), the layout
+ * tile servers and most tile tools use. Stands in for the network when
+ * testing, or serves tiles exported by another tool in the field.
+ */
+public class FileTileSource implements TileSource {
+
+    private static final String[] extensions = {".png", ".jpg", ".jpeg"};
+
+    private final File root;
+
+    public FileTileSource(File root) {
+        this.root = root;
+    }
+
+    public byte[] fetch(int zoom, int x, int y) throws IOException {
+        File dir = new File(new File(root, Integer.toString(zoom)), Integer.toString(x));
+        for (String extension : extensions) {
+            File file = new File(dir, y + extension);
+            if (file.isFile()) {
+                InputStream in = new FileInputStream(file);
+                try {
+                    return HttpTileSource.readFully(in, (int) file.length());
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return root.getPath();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Tiles from a z/x/y tile server. The URL template may use {z}, {x}, {y}
+ * and {q} (the quadkey), e.g.
+ * https://tile.openstreetmap.org/{z}/{x}/{y}.png
+ */
+public class HttpTileSource implements TileSource {
+
+    private static final int connectTimeoutMs = 5000;
+    private static final int readTimeoutMs = 10000;
+
+    private final String template;
+    private final String userAgent;
+
+    /**
+     *
+     * @param template URL with {z}, {x}, {y} or {q}
+     * @param userAgent sent with every request, tile servers ask for one
+     * that identifies the application
+     */
+    public HttpTileSource(String template, String userAgent) {
+        this.template = template;
+        this.userAgent = userAgent;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     *
+     * @return URL of the tile
+     */
+    public String getUrl(int zoom, int x, int y) {
+        return template.replace("{z}", Integer.toString(zoom))
+                .replace("{x}", Integer.toString(x))
+                .replace("{y}", Integer.toString(y))
+                .replace("{q}", TileMath.quadKey(zoom, x, y));
+    }
+
+    public byte[] fetch(int zoom, int x, int y) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(getUrl(zoom, x, y)).openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        connection.setRequestProperty("User-Agent", userAgent);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_NO_CONTENT) {
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for tile " + zoom + "/" + x + "/" + y);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                return readFully(in, connection.getContentLength());
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static byte[] readFully(InputStream in, int expected) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(expected > 0 ? expected : 16384);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The tiles touched by a polygon, e.g. the waypoints of a mission, at any
+ * zoom: every tile the outline passes through or that lies inside, and no
+ * other. Tiles are visited row by row from north to south, west to east,
+ * so the order is the same every time; a download can be resumed by its
+ * position in that order.
+ *
+ * One or two points make a point or a line, the tiles they touch are
+ * visited. Polygons crossing the date line are not supported.
+ */
+public class TileArea {
+
+    /**
+     * Told about every tile of the area.
+     */
+    public interface TileVisitor {
+
+        /**
+         *
+         * @return false to stop visiting
+         */
+        boolean tile(int zoom, int x, int y);
+    }
+
+    // vertices in world units, 0..1 from the north west corner
+    private final double[] u;
+    private final double[] v;
+
+    /**
+     *
+     * @param polygon vertices, latitude and longitude in radians
+     */
+    public TileArea(List<Point2D> polygon) {
+        if (polygon.isEmpty()) {
+            throw new IllegalArgumentException("empty polygon");
+        }
+        u = new double[polygon.size()];
+        v = new double[polygon.size()];
+        for (int i = 0; i < u.length; i++) {
+            Point2D p = polygon.get(i);
+            u[i] = TileMath.longitudeToPixel(p.getY(), 0) / TileMath.TILE_SIZE;
+            v[i] = TileMath.latitudeToPixel(p.getX(), 0) / TileMath.TILE_SIZE;
+        }
+    }
+
+    /**
+     *
+     * @return tiles of the area at the zoom level
+     */
+    public long count(int zoom) {
+        final long[] count = new long[1];
+        visit(zoom, new TileVisitor() {
+            public boolean tile(int zoom, int x, int y) {
+                count[0]++;
+                return true;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Visits the tiles of the area at the zoom level in order.
+     *
+     * @return false if the visitor stopped
+     */
+    public boolean visit(int zoom, TileVisitor visitor) {
+        final int n = 1 << zoom;
+        final int m = u.length;
+        double[] x = new double[m];
+        double[] y = new double[m];
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < m; i++) {
+            x[i] = u[i] * n;
+            y[i] = v[i] * n;
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        int firstX = clamp((int) Math.floor(minX), n);
+        int lastX = clamp((int) Math.floor(maxX), n);
+        int firstY = clamp((int) Math.floor(minY), n);
+        int lastY = clamp((int) Math.floor(maxY), n);
+        boolean[] row = new boolean[lastX - firstX + 1];
+        for (int ty = firstY; ty <= lastY; ty++) {
+            Arrays.fill(row, false);
+            // tiles the outline passes through
+            for (int i = 0; i < m; i++) {
+                int j = (i + 1) % m;
+                markEdge(x[i], y[i], x[j], y[j], ty, ty + 1, row, firstX, lastX);
+            }
+            // between them the tiles are all inside or all outside
+            if (m >= 3) {
+                int tx = 0;
+                while (tx < row.length) {
+                    if (row[tx]) {
+                        tx++;
+                        continue;
+                    }
+                    int end = tx;
+                    while (end < row.length && !row[end]) {
+                        end++;
+                    }
+                    if (contains(x, y, firstX + tx + 0.5, ty + 0.5)) {
+                        Arrays.fill(row, tx, end, true);
+                    }
+                    tx = end;
+                }
+            }
+            for (int tx = 0; tx < row.length; tx++) {
+                if (row[tx] && !visitor.tile(zoom, firstX + tx, ty)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int clamp(int tile, int n) {
+        return Math.max(0, Math.min(n - 1, tile));
+    }
+
+    /**
+     * Marks the columns the part of an edge within the band top..bottom
+     * passes through.
+     */
+    private static void markEdge(double x0, double y0, double x1, double y1, double top, double bottom,
+            boolean[] row, int firstX, int lastX) {
+        if ((y0 < top && y1 < top) || (y0 > bottom && y1 > bottom)) {
+            return;
+        }
+        double from = x0;
+        double to = x1;
+        if (y0 != y1) {
+            double t0 = (top - y0) / (y1 - y0);
+            double t1 = (bottom - y0) / (y1 - y0);
+            double tMin = Math.max(0, Math.min(t0, t1));
+            double tMax = Math.min(1, Math.max(t0, t1));
+            from = x0 + tMin * (x1 - x0);
+            to = x0 + tMax * (x1 - x0);
+        }
+        int a = Math.max(firstX, (int) Math.floor(Math.min(from, to)));
+        int b = Math.min(lastX, (int) Math.floor(Math.max(from, to)));
+        for (int tx = a; tx <= b; tx++) {
+            row[tx - firstX] = true;
+        }
+    }
+
+    /**
+     * Even-odd rule.
+     */
+    private static boolean contains(double[] x, double[] y, double px, double py) {
+        boolean inside = false;
+        for (int i = 0, j = x.length - 1; i < x.length; j = i++) {
+            if ((y[i] > py) != (y[j] > py)
+                    && px < (x[j] - x[i]) * (py - y[i]) / (y[j] - y[i]) + x[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     *
+     * @return the vertices in degrees, the same text for the same area
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < u.length; i++) {
+            double lat = Math.toDegrees(TileMath.pixelToLatitude(v[i] * TileMath.TILE_SIZE, 0));
+            double lng = Math.toDegrees(TileMath.pixelToLongitude(u[i] * TileMath.TILE_SIZE, 0));
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(String.format(Locale.US, "%.7f,%.7f", lat, lng));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded tiles kept in memory, least recently used dropped first once
+ * they take more than the given number of bytes. The size of a tile is the
+ * size of its pixel data, about 256 KB for a 256x256 ARGB tile.
+ */
+public class TileCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(256, 0.75f, true);
+    private long bytes = 0;
+    private long evicted = 0;
+
+    /**
+     *
+     * @param maxBytes
+     */
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     *
+     * @param key TileMath.key()
+     * @return the tile, null if not cached; counts as a use
+     */
+    public synchronized BufferedImage get(long key) {
+        return tiles.get(key);
+    }
+
+    public synchronized boolean contains(long key) {
+        return tiles.containsKey(key);
+    }
+
+    public synchronized void put(long key, BufferedImage tile) {
+        BufferedImage old = tiles.put(key, tile);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += sizeOf(tile);
+        Iterator<Map.Entry<Long, BufferedImage>> eldest = tiles.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Long, BufferedImage> e = eldest.next();
+            if (e.getKey() == key) {
+                // never drop the tile just added
+                continue;
+            }
+            bytes -= sizeOf(e.getValue());
+            eldest.remove();
+            evicted++;
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /**
+     *
+     * @param image
+     * @return bytes of pixel data of the image
+     */
+    static long sizeOf(BufferedImage image) {
+        DataBuffer data = image.getRaster().getDataBuffer();
+        return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getCount() {
+        return tiles.size();
+    }
+
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+}
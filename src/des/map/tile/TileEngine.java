@@ -0,0 +1,383 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Loads map tiles in the background and keeps them ready for painting.
+ *
+ * getTile() only looks in memory (a TileCache) and never waits: a tile
+ * that is not there is queued and null is returned, so the map paints
+ * what it has and pans without stalling. Loader threads take the queue
+ * newest first, since the tiles asked for last are the ones in view, and
+ * when the queue is full the oldest requests are dropped; they are asked
+ * for again if they come back into view. A loader looks in the tile pack,
+ * if there is one, and the TileStore on disk, then asks the TileSource and
+ * stores what it returns, decodes the tile and tells the listeners.
+ *
+ * Tiles the source failed on or does not have are not asked for again for
+ * a while.
+ */
+public class TileEngine {
+
+    private static final long retryFailedMs = 15000;
+    private static final long retryMissingMs = 300000;
+
+    /**
+     * Told when a tile was loaded, on the loader thread.
+     */
+    public interface TileListener {
+
+        void tileLoaded(int zoom, int x, int y);
+    }
+
+    private final TileCache cache;
+    private final LinkedBlockingDeque<Long> queue;
+    private final HashSet<Long> pending = new HashSet<Long>();
+    private final HashMap<Long, Long> retryAt = new HashMap<Long, Long>();
+    private final ArrayList<TileListener> listeners = new ArrayList<TileListener>();
+    private final Loader[] loaders;
+    private volatile TileSource source;
+    private volatile TileStore store;
+    private volatile TileSource pack;
+    private volatile int generation = 0;
+    private volatile boolean runFlag = true;
+
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+    // the loaders count these concurrently
+    private final AtomicLong fromDisk = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     *
+     * @param source where missing tiles are fetched
+     * @param store disk cache, null for none
+     * @param memoryBytes size of the decoded tile cache
+     * @param threads loader threads
+     * @param queueLimit requests waiting at most
+     */
+    public TileEngine(TileSource source, TileStore store, long memoryBytes, int threads, int queueLimit) {
+        this.source = source;
+        this.store = store;
+        this.cache = new TileCache(memoryBytes);
+        this.queue = new LinkedBlockingDeque<Long>(queueLimit);
+        loaders = new Loader[threads];
+        for (int i = 0; i < threads; i++) {
+            loaders[i] = new Loader(i);
+            loaders[i].start();
+        }
+    }
+
+    /**
+     * Loads tiles until the engine is stopped.
+     */
+    private class Loader extends Thread {
+
+        Loader(int index) {
+            super("Tile loader " + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (runFlag) {
+                long key;
+                try {
+                    key = queue.takeFirst();
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+                try {
+                    load(key);
+                } finally {
+                    synchronized (pending) {
+                        pending.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the tile if it is in memory; otherwise null, and the tile is
+     * queued for loading
+     */
+    public BufferedImage getTile(int zoom, int x, int y) {
+        long key = TileMath.key(zoom, x, y);
+        BufferedImage tile = cache.get(key);
+        if (tile != null) {
+            hits++;
+            return tile;
+        }
+        misses++;
+        request(key);
+        return null;
+    }
+
+    /**
+     *
+     * @return the tile if it is in memory, null otherwise; nothing is
+     * loaded
+     */
+    public BufferedImage getCachedTile(int zoom, int x, int y) {
+        return cache.get(TileMath.key(zoom, x, y));
+    }
+
+    private void request(long key) {
+        synchronized (pending) {
+            if (pending.contains(key)) {
+                return;
+            }
+            Long retry = retryAt.get(key);
+            if (retry != null) {
+                if (System.currentTimeMillis() < retry) {
+                    return;
+                }
+                retryAt.remove(key);
+            }
+            while (!queue.offerFirst(key)) {
+                Long oldest = queue.pollLast();
+                if (oldest != null) {
+                    pending.remove(oldest);
+                    dropped.incrementAndGet();
+                }
+            }
+            pending.add(key);
+        }
+    }
+
+    private void load(long key) {
+        int startGeneration = generation;
+        TileSource currentSource = source;
+        TileStore currentStore = store;
+        TileSource currentPack = pack;
+        int zoom = TileMath.zoomOf(key);
+        int x = TileMath.xOf(key);
+        int y = TileMath.yOf(key);
+        byte[] data = null;
+        boolean stored = false;
+        try {
+            if (currentPack != null) {
+                data = currentPack.fetch(zoom, x, y);
+                stored = data != null;
+            }
+            if (data == null && currentStore != null) {
+                data = currentStore.get(zoom, x, y);
+                stored = data != null;
+            }
+            if (data == null && currentSource != null) {
+                data = currentSource.fetch(zoom, x, y);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TileEngine.class.getName()).log(Level.FINE, null, ex);
+            failed(key, retryFailedMs, startGeneration);
+            return;
+        }
+        if (data == null) {
+            failed(key, retryMissingMs, startGeneration);
+            return;
+        }
+        BufferedImage tile = decode(data);
+        if (tile == null) {
+            failed(key, retryMissingMs, startGeneration);
+            return;
+        }
+        if (stored) {
+            fromDisk.incrementAndGet();
+        } else {
+            fetched.incrementAndGet();
+            if (currentStore != null) {
+                try {
+                    currentStore.put(zoom, x, y, data);
+                } catch (IOException ex) {
+                    Logger.getLogger(TileEngine.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+        // under the lock setSource() clears the cache with, so a tile of
+        // the old source cannot land after the clear
+        synchronized (pending) {
+            if (startGeneration != generation) {
+                // the source changed while loading, this tile is of the old one
+                return;
+            }
+            cache.put(key, tile);
+        }
+        for (TileListener listener : getListeners()) {
+            listener.tileLoaded(zoom, x, y);
+        }
+    }
+
+    private void failed(long key, long retryMs, int startGeneration) {
+        failed.incrementAndGet();
+        synchronized (pending) {
+            if (startGeneration != generation) {
+                // a failure of the old source says nothing about the new one
+                return;
+            }
+            retryAt.put(key, System.currentTimeMillis() + retryMs);
+        }
+    }
+
+    /**
+     * Decodes a tile into an image that paints without conversion.
+     *
+     * @return null if the bytes are no image
+     */
+    static BufferedImage decode(byte[] data) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(data));
+        } catch (IOException ex) {
+            return null;
+        }
+        if (image == null) {
+            return null;
+        }
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        if (image.getType() == type) {
+            return image;
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g2 = converted.createGraphics();
+        g2.drawImage(image, 0, 0, null);
+        g2.dispose();
+        return converted;
+    }
+
+    /**
+     * Switches to another source and disk cache, e.g. another map type.
+     * Tiles in memory and queued are dropped.
+     */
+    public void setSource(TileSource source, TileStore store) {
+        setSource(source, store, null);
+    }
+
+    /**
+     * Switches to another source and disk cache, e.g. another map type.
+     * Tiles in memory and queued are dropped.
+     *
+     * @param source where missing tiles are fetched
+     * @param store disk cache, null for none
+     * @param pack looked in before the disk cache and never copied into
+     * it, e.g. a TilePack; null for none
+     */
+    public void setSource(TileSource source, TileStore store, TileSource pack) {
+        synchronized (pending) {
+            generation++;
+            this.source = source;
+            this.store = store;
+            this.pack = pack;
+            queue.clear();
+            pending.clear();
+            retryAt.clear();
+            cache.clear();
+        }
+    }
+
+    public TileSource getSource() {
+        return source;
+    }
+
+    public TileStore getStore() {
+        return store;
+    }
+
+    public TileSource getPack() {
+        return pack;
+    }
+
+    public TileCache getCache() {
+        return cache;
+    }
+
+    public void addTileListener(TileListener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeTileListener(TileListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    private TileListener[] getListeners() {
+        synchronized (listeners) {
+            return listeners.toArray(new TileListener[listeners.size()]);
+        }
+    }
+
+    /**
+     * Stops the loader threads; queued tiles are not loaded.
+     */
+    public void stop() {
+        runFlag = false;
+        queue.clear();
+        for (Loader loader : loaders) {
+            loader.interrupt();
+        }
+    }
+
+    /**
+     *
+     * @return tiles waiting to be loaded
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getFromDisk() {
+        return fromDisk.get();
+    }
+
+    public long getFetched() {
+        return fetched.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     *
+     * @return requests dropped from a full queue
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "tiles: hits " + hits + ", misses " + misses + ", disk " + fromDisk.get() + ", fetched " + fetched.get()
+                + ", failed " + failed.get() + ", dropped " + dropped.get() + ", memory " + cache.getCount() + " tiles "
+                + cache.getBytes() / 1024 + " KB";
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+/**
+ * Web Mercator tile arithmetic, the scheme of the slippy map tile servers:
+ * at zoom z the world is 256 * 2^z pixels square, split in 2^z by 2^z tiles
+ * of 256 pixels, x growing east from -180 degrees and y growing south from
+ * about 85 degrees north. It is the same pixel scale PanelDrawing has
+ * always used for its static maps.
+ *
+ * Quadkeys name a tile by the quadrant taken at each zoom level, one digit
+ * per level, so tiles that are close share a prefix.
+ */
+public class TileMath {
+
+    public static final int TILE_SIZE = 256;
+    /**
+     * Latitude where the Mercator square ends, radians.
+     */
+    public static final double MAX_LATITUDE = Math.atan(Math.sinh(Math.PI));
+    public static final int MAX_ZOOM = 29;
+
+    private TileMath() {
+    }
+
+    /**
+     *
+     * @param zoom
+     * @return width and height of the world in pixels
+     */
+    public static double worldSize(int zoom) {
+        return (double) TILE_SIZE * (1L << zoom);
+    }
+
+    /**
+     *
+     * @param longitudeRad
+     * @param zoom
+     * @return pixel x from the west edge of the world
+     */
+    public static double longitudeToPixel(double longitudeRad, int zoom) {
+        return (longitudeRad + Math.PI) / (2 * Math.PI) * worldSize(zoom);
+    }
+
+    /**
+     *
+     * @param latitudeRad clamped to +-MAX_LATITUDE
+     * @param zoom
+     * @return pixel y from the north edge of the world
+     */
+    public static double latitudeToPixel(double latitudeRad, int zoom) {
+        double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitudeRad));
+        double mercator = Math.log(Math.tan(Math.PI / 4 + lat / 2));
+        return (1 - mercator / Math.PI) / 2 * worldSize(zoom);
+    }
+
+    public static double pixelToLongitude(double x, int zoom) {
+        return x / worldSize(zoom) * 2 * Math.PI - Math.PI;
+    }
+
+    public static double pixelToLatitude(double y, int zoom) {
+        double mercator = Math.PI * (1 - 2 * y / worldSize(zoom));
+        return Math.atan(Math.sinh(mercator));
+    }
+
+    /**
+     *
+     * @return x of the tile holding the longitude, 0..2^zoom-1
+     */
+    public static int tileX(double longitudeRad, int zoom) {
+        int n = 1 << zoom;
+        return Math.max(0, Math.min(n - 1, (int) Math.floor(longitudeToPixel(longitudeRad, zoom) / TILE_SIZE)));
+    }
+
+    /**
+     *
+     * @return y of the tile holding the latitude, 0..2^zoom-1
+     */
+    public static int tileY(double latitudeRad, int zoom) {
+        int n = 1 << zoom;
+        return Math.max(0, Math.min(n - 1, (int) Math.floor(latitudeToPixel(latitudeRad, zoom) / TILE_SIZE)));
+    }
+
+    /**
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return quadkey of the tile, zoom digits 0..3 ("" for zoom 0)
+     */
+    public static String quadKey(int zoom, int x, int y) {
+        char[] digits = new char[zoom];
+        for (int i = zoom; i > 0; i--) {
+            int mask = 1 << (i - 1);
+            int digit = ((x & mask) != 0 ? 1 : 0) + ((y & mask) != 0 ? 2 : 0);
+            digits[zoom - i] = (char) ('0' + digit);
+        }
+        return new String(digits);
+    }
+
+    /**
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return the tile as one number, for maps and sets
+     */
+    public static long key(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    public static int zoomOf(long key) {
+        return (int) (key >>> 58);
+    }
+
+    public static int xOf(long key) {
+        return (int) ((key >>> 29) & ((1 << 29) - 1));
+    }
+
+    public static int yOf(long key) {
+        return (int) (key & ((1 << 29) - 1));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Tiles from a file written by TilePacker. The file is mapped into memory;
+ * a tile is found by binary search in the sorted index and copied out of
+ * the mapping, no file is opened and no directory listed. Safe to use from
+ * several threads.
+ *
+ * Give it to PanelDrawing.setTileSource() to fly from the pack alone, or
+ * drop it next to the maps folder as maps/<map type>.tilepack to have the
+ * map look in it before the network.
+ */
+public class TilePack implements TileSource {
+
+    // the data is mapped in parts, one mapping is limited to 2 GB
+    private static final int segmentShift = 30;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final ByteBuffer index;
+    private final MappedByteBuffer[] segments;
+    private final int count;
+    private final int minZoom;
+    private final int maxZoom;
+
+    public TilePack(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < TilePacker.HEADER_SIZE) {
+                throw new IOException("Not a tile pack: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TilePacker.HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != TilePacker.MAGIC || header.getInt(4) != TilePacker.VERSION) {
+                throw new IOException("Not a tile pack: " + file);
+            }
+            count = header.getInt(TilePacker.OFFSET_COUNT);
+            minZoom = header.getInt(TilePacker.OFFSET_MIN_ZOOM);
+            maxZoom = header.getInt(TilePacker.OFFSET_MAX_ZOOM);
+            long indexOffset = header.getLong(TilePacker.OFFSET_INDEX);
+            long dataOffset = header.getLong(TilePacker.OFFSET_DATA);
+            if (indexOffset + (long) count * TilePacker.ENTRY_SIZE > dataOffset || dataOffset > size) {
+                throw new IOException("Damaged tile pack: " + file);
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * TilePacker.ENTRY_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long dataSize = size - dataOffset;
+            segments = new MappedByteBuffer[(int) ((dataSize + (1L << segmentShift) - 1) >> segmentShift)];
+            for (int i = 0; i < segments.length; i++) {
+                long from = (long) i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + from,
+                        Math.min(1L << segmentShift, dataSize - from));
+            }
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     *
+     * @return position of the tile in the index, -1 if it is not packed
+     */
+    private int find(long order) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long key = index.getLong(middle * TilePacker.ENTRY_SIZE);
+            if (key < order) {
+                low = middle + 1;
+            } else if (key > order) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(int zoom, int x, int y) {
+        return zoom >= minZoom && zoom <= maxZoom && find(TilePacker.order(zoom, x, y)) >= 0;
+    }
+
+    /**
+     *
+     * @return the tile as it was stored, null if it is not packed
+     */
+    public byte[] fetch(int zoom, int x, int y) throws IOException {
+        if (zoom < minZoom || zoom > maxZoom) {
+            return null;
+        }
+        int entry = find(TilePacker.order(zoom, x, y));
+        if (entry < 0) {
+            return null;
+        }
+        long location = index.getLong(entry * TilePacker.ENTRY_SIZE + 8);
+        long offset = location >>> 24;
+        byte[] data = new byte[(int) (location & 0xffffff)];
+        int done = 0;
+        while (done < data.length) {
+            // duplicates, the position of a shared buffer is not thread safe
+            ByteBuffer segment = segments[(int) (offset >> segmentShift)].duplicate();
+            segment.position((int) (offset & ((1 << segmentShift) - 1)));
+            int n = Math.min(data.length - done, segment.remaining());
+            segment.get(data, done, n);
+            done += n;
+            offset += n;
+        }
+        return data;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    /**
+     * Closes the file; the mapping goes when the pack is garbage collected.
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath() + " (" + count + " tiles, zoom " + minZoom + "-" + maxZoom + ")";
+    }
+}
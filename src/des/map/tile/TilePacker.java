@@ -0,0 +1,193 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Packs the tiles of a TileStore (what saveMapByMarkers downloaded) into
+ * one file that a TilePack reads, for taking a map to the field as one
+ * file instead of thousands.
+ *
+ * File layout: a 64 byte header (magic, version, number of tiles, lowest
+ * and highest zoom, offset of the index, offset of the tile data), the
+ * index of 16 byte entries sorted by quadkey (order key; offset of the tile
+ * from the start of the data in the upper 40 bits and its length in the
+ * lower 24), then the tiles one after the other in index order, as stored.
+ * Little endian.
+ *
+ * Usage: java des.map.tile.TilePacker maps/tiles/satellite maps/satellite.tilepack
+ */
+public class TilePacker {
+
+    static final int MAGIC = 0x55475354; // "UGST"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int OFFSET_COUNT = 8;
+    static final int OFFSET_MIN_ZOOM = 12;
+    static final int OFFSET_MAX_ZOOM = 16;
+    static final int OFFSET_INDEX = 24;
+    static final int OFFSET_DATA = 32;
+    static final int ENTRY_SIZE = 16;
+
+    private static final String extension = ".tile";
+
+    /**
+     * A stored tile found in the store.
+     */
+    private static class Entry {
+
+        final long order;
+        final File file;
+
+        Entry(long order, File file) {
+            this.order = order;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Sorts tiles by quadkey: a tile comes right before the tiles inside
+     * it, and those in quadkey order.
+     *
+     * @return the order key of the tile
+     */
+    static long order(int zoom, int x, int y) {
+        long morton = 0;
+        for (int i = zoom - 1; i >= 0; i--) {
+            morton = (morton << 2) | (((y >> i) & 1) << 1) | ((x >> i) & 1);
+        }
+        // 58 bits of quadkey digits from the top, the zoom below
+        return (morton << (2 * (TileMath.MAX_ZOOM - zoom)) << 5) | zoom;
+    }
+
+    /**
+     * Writes every tile of the store into a pack, replacing the file.
+     *
+     * @return number of tiles packed
+     */
+    public static int pack(TileStore store, File pack) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        int minZoom = Integer.MAX_VALUE;
+        int maxZoom = -1;
+        File[] zooms = store.getRoot().listFiles();
+        if (zooms != null) {
+            for (File dir : zooms) {
+                int zoom;
+                try {
+                    zoom = Integer.parseInt(dir.getName());
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                int before = entries.size();
+                collect(dir, zoom, entries);
+                if (entries.size() > before) {
+                    minZoom = Math.min(minZoom, zoom);
+                    maxZoom = Math.max(maxZoom, zoom);
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+            }
+        });
+
+        long indexOffset = HEADER_SIZE;
+        long dataOffset = indexOffset + (long) entries.size() * ENTRY_SIZE;
+        ByteBuffer index = ByteBuffer.allocate(entries.size() * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        File temporary = new File(pack.getPath() + ".part");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16);
+        try {
+            out.write(new byte[(int) dataOffset]);
+            long offset = 0;
+            for (Entry entry : entries) {
+                byte[] data = store.read(entry.file);
+                if (data.length >= 1 << 24 || offset + data.length >= 1L << 40) {
+                    throw new IOException("tile or pack too large: " + entry.file);
+                }
+                out.write(data);
+                index.putLong(entry.order);
+                index.putLong((offset << 24) | data.length);
+                offset += data.length;
+            }
+        } finally {
+            out.close();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(OFFSET_COUNT, entries.size());
+        header.putInt(OFFSET_MIN_ZOOM, entries.isEmpty() ? 0 : minZoom);
+        header.putInt(OFFSET_MAX_ZOOM, entries.isEmpty() ? 0 : maxZoom);
+        header.putLong(OFFSET_INDEX, indexOffset);
+        header.putLong(OFFSET_DATA, dataOffset);
+        RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+        try {
+            raf.write(header.array());
+            raf.write(index.array());
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        pack.delete();
+        if (!temporary.renameTo(pack)) {
+            temporary.delete();
+            throw new IOException("cannot write " + pack);
+        }
+        return entries.size();
+    }
+
+    private static void collect(File dir, int zoom, ArrayList<Entry> entries) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                collect(file, zoom, entries);
+            } else if (name.endsWith(extension) && name.length() == zoom + extension.length()) {
+                int x = 0;
+                int y = 0;
+                boolean quadKey = true;
+                for (int i = 0; i < zoom; i++) {
+                    int digit = name.charAt(i) - '0';
+                    if (digit < 0 || digit > 3) {
+                        quadKey = false;
+                        break;
+                    }
+                    x = (x << 1) | (digit & 1);
+                    y = (y << 1) | (digit >> 1);
+                }
+                if (quadKey) {
+                    entries.add(new Entry(order(zoom, x, y), file));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: TilePacker <tile store folder> <pack file>");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        int count = pack(new TileStore(new File(args[0])), new File(args[1]));
+        System.out.println(count + " tiles packed into " + args[1] + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
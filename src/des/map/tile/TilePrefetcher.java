@@ -0,0 +1,446 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the tiles of an area over a range of zoom levels into a
+ * TileStore, for flying where there is no network.
+ *
+ * Tiles already in the store are skipped. The others are fetched by a
+ * fixed number of threads; a failed fetch is tried again after a delay
+ * that doubles every time. The bytes are stored as the server sent them.
+ *
+ * Progress is saved to a checkpoint file every few seconds as the number
+ * of tiles, in the order TileArea visits them, that are all done. A run of
+ * the same area and zoom levels continues from there without looking at
+ * those tiles again. The checkpoint is removed when every tile was
+ * downloaded; after failures or cancel() it stays, and the next run tries
+ * the failed tiles again.
+ */
+public class TilePrefetcher {
+
+    private static final long checkpointMs = 2000;
+
+    /**
+     * Told about every tile done, on the downloading threads.
+     */
+    public interface ProgressListener {
+
+        void progress(int zoom, long totalAtZoom, long doneAtZoom);
+    }
+
+    private final TileSource source;
+    private final TileStore store;
+    private final int threads;
+    private int attempts = 4;
+    private long backoffMs = 500;
+    private ProgressListener listener;
+    private volatile boolean cancelled = false;
+
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private long resumed = 0;
+
+    // the run in progress
+    private File checkpoint;
+    private String checkpointArea;
+    private int fromZoom;
+    private long[] totals;
+    private AtomicLong[] done;
+    private long complete;
+    private long firstFailed;
+    private final TreeSet<Long> finished = new TreeSet<Long>();
+    private long lastSave;
+
+    /**
+     * A tile to download, its position in the run and where it is.
+     */
+    private static class Task {
+
+        final long sequence;
+        final int zoom;
+        final int x;
+        final int y;
+
+        Task(long sequence, int zoom, int x, int y) {
+            this.sequence = sequence;
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static final Task last = new Task(-1, 0, 0, 0);
+
+    /**
+     *
+     * @param source where tiles are downloaded
+     * @param store where they are kept
+     * @param threads downloads at the same time
+     */
+    public TilePrefetcher(TileSource source, TileStore store, int threads) {
+        this.source = source;
+        this.store = store;
+        this.threads = threads;
+    }
+
+    /**
+     *
+     * @param attempts fetches of a tile before it counts as failed
+     */
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     *
+     * @param backoffMs wait before the first retry, doubled for every one
+     * after
+     */
+    public void setBackoffMs(long backoffMs) {
+        this.backoffMs = backoffMs;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stops a run; downloads in progress are finished and the checkpoint is
+     * saved.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Downloads the area, returns when done or cancelled.
+     *
+     * @param area
+     * @param fromZoom
+     * @param toZoom
+     * @param checkpoint progress of this run, null for none
+     * @return true if every tile is in the store
+     */
+    public boolean run(TileArea area, int fromZoom, int toZoom, File checkpoint) throws InterruptedException {
+        this.checkpoint = checkpoint;
+        this.checkpointArea = fromZoom + "-" + toZoom + " " + area;
+        this.fromZoom = fromZoom;
+        cancelled = false;
+        downloaded.set(0);
+        skipped.set(0);
+        missing.set(0);
+        failed.set(0);
+        retries.set(0);
+        bytes.set(0);
+        totals = new long[toZoom - fromZoom + 1];
+        done = new AtomicLong[totals.length];
+        for (int z = fromZoom; z <= toZoom; z++) {
+            totals[z - fromZoom] = area.count(z);
+            done[z - fromZoom] = new AtomicLong();
+        }
+        resumed = readCheckpoint();
+        complete = resumed;
+        firstFailed = Long.MAX_VALUE;
+        finished.clear();
+        lastSave = System.currentTimeMillis();
+
+        final ArrayBlockingQueue<Task> queue = new ArrayBlockingQueue<Task>(threads * 4);
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, queue);
+            workers[i].start();
+        }
+        final long[] sequence = {0};
+        final InterruptedException[] interrupted = {null};
+        try {
+            for (int z = fromZoom; z <= toZoom && !cancelled; z++) {
+                area.visit(z, new TileArea.TileVisitor() {
+                    public boolean tile(int zoom, int x, int y) {
+                        long s = sequence[0]++;
+                        if (s < resumed) {
+                            progress(zoom);
+                            return true;
+                        }
+                        if (store.contains(zoom, x, y)) {
+                            skipped.incrementAndGet();
+                            finished(s, zoom, true);
+                            return true;
+                        }
+                        try {
+                            queue.put(new Task(s, zoom, x, y));
+                        } catch (InterruptedException ex) {
+                            interrupted[0] = ex;
+                            cancelled = true;
+                        }
+                        return !cancelled;
+                    }
+                });
+            }
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                queue.put(last);
+            }
+            for (Worker worker : workers) {
+                worker.join();
+            }
+        }
+        boolean all = !cancelled && failed.get() == 0;
+        synchronized (this) {
+            if (all && checkpoint != null) {
+                checkpoint.delete();
+            } else {
+                saveCheckpoint();
+            }
+        }
+        if (interrupted[0] != null) {
+            throw interrupted[0];
+        }
+        return all;
+    }
+
+    /**
+     * Downloads tiles from the queue until it gets the last one.
+     */
+    private class Worker extends Thread {
+
+        private final ArrayBlockingQueue<Task> queue;
+        private final Random random = new Random();
+
+        Worker(int index, ArrayBlockingQueue<Task> queue) {
+            super("Tile prefetch " + index);
+            setDaemon(true);
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (task == last) {
+                    return;
+                }
+                if (cancelled) {
+                    // not done, the checkpoint stays before it
+                    finished(task.sequence, task.zoom, false);
+                    continue;
+                }
+                finished(task.sequence, task.zoom, download(task));
+            }
+        }
+
+        private boolean download(Task task) {
+            for (int attempt = 0; attempt < attempts; attempt++) {
+                if (attempt > 0) {
+                    retries.incrementAndGet();
+                    long wait = backoffMs << (attempt - 1);
+                    try {
+                        // spread out so the threads do not retry together
+                        Thread.sleep(wait + (long) (random.nextDouble() * wait / 2));
+                    } catch (InterruptedException ex) {
+                        return false;
+                    }
+                    if (cancelled) {
+                        return false;
+                    }
+                }
+                byte[] data;
+                try {
+                    data = source.fetch(task.zoom, task.x, task.y);
+                } catch (IOException ex) {
+                    Logger.getLogger(TilePrefetcher.class.getName()).log(Level.FINE, null, ex);
+                    continue;
+                }
+                if (data == null) {
+                    // the server has no such tile, nothing to try again
+                    missing.incrementAndGet();
+                    return true;
+                }
+                try {
+                    store.put(task.zoom, task.x, task.y, data);
+                } catch (IOException ex) {
+                    Logger.getLogger(TilePrefetcher.class.getName()).log(Level.SEVERE, null, ex);
+                    break;
+                }
+                downloaded.incrementAndGet();
+                bytes.addAndGet(data.length);
+                return true;
+            }
+            failed.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void progress(int zoom) {
+        long count = done[zoom - fromZoom].incrementAndGet();
+        if (listener != null) {
+            listener.progress(zoom, totals[zoom - fromZoom], count);
+        }
+    }
+
+    /**
+     * Moves the checkpoint over the tiles done without a gap.
+     */
+    private void finished(long sequence, int zoom, boolean ok) {
+        synchronized (this) {
+            if (!ok) {
+                firstFailed = Math.min(firstFailed, sequence);
+            } else if (sequence < firstFailed) {
+                finished.add(sequence);
+                while (!finished.isEmpty() && finished.first() == complete) {
+                    finished.pollFirst();
+                    complete++;
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastSave >= checkpointMs) {
+                lastSave = now;
+                saveCheckpoint();
+            }
+        }
+        if (ok) {
+            progress(zoom);
+        }
+    }
+
+    /**
+     *
+     * @return tiles done by an earlier run of this area, 0 if none
+     */
+    private long readCheckpoint() {
+        if (checkpoint == null || !checkpoint.isFile()) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(checkpoint);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            if (checkpointArea.equals(properties.getProperty("area"))) {
+                return Long.parseLong(properties.getProperty("done", "0"));
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TilePrefetcher.class.getName()).log(Level.WARNING, null, ex);
+        } catch (NumberFormatException ex) {
+            Logger.getLogger(TilePrefetcher.class.getName()).log(Level.WARNING, null, ex);
+        }
+        return 0;
+    }
+
+    private void saveCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("area", checkpointArea);
+        properties.setProperty("done", Long.toString(complete));
+        File temporary = new File(checkpoint.getPath() + ".part");
+        try {
+            File dir = checkpoint.getAbsoluteFile().getParentFile();
+            if (dir != null) {
+                dir.mkdirs();
+            }
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                properties.store(out, "tile prefetch progress");
+            } finally {
+                out.close();
+            }
+            checkpoint.delete();
+            if (!temporary.renameTo(checkpoint)) {
+                throw new IOException("cannot write " + checkpoint);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TilePrefetcher.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     *
+     * @return tiles of the area at all zoom levels of the last run
+     */
+    public long getTotal() {
+        long total = 0;
+        if (totals != null) {
+            for (long count : totals) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    public long getDownloaded() {
+        return downloaded.get();
+    }
+
+    /**
+     *
+     * @return tiles that were already in the store
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     *
+     * @return tiles done by an earlier run, not looked at
+     */
+    public long getResumed() {
+        return resumed;
+    }
+
+    /**
+     *
+     * @return tiles the source does not have
+     */
+    public long getMissing() {
+        return missing.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "prefetch: " + getTotal() + " tiles, resumed " + resumed + ", skipped " + skipped.get()
+                + ", downloaded " + downloaded.get() + " (" + bytes.get() / 1024 + " KB), missing " + missing.get()
+                + ", failed " + failed.get() + ", retries " + retries.get();
+    }
+}
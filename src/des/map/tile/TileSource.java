@@ -0,0 +1,27 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.io.IOException;
+
+/**
+ * Where tiles come from when they are not cached: a tile server, or a
+ * local stand-in for one. Called from the TileEngine loader threads, so
+ * implementations must allow concurrent calls.
+ */
+public interface TileSource {
+
+    /**
+     *
+     * @param zoom
+     * @param x
+     * @param y
+     * @return the encoded image (PNG, JPEG) as served, null if the source has
+     * no such tile
+     * @throws IOException if the tile could not be fetched; it is retried
+     * later
+     */
+    byte[] fetch(int zoom, int x, int y) throws IOException;
+}
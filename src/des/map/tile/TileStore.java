@@ -0,0 +1,118 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package des.map.tile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * On-disk tile cache, one file per tile holding the bytes exactly as the
+ * source served them. Files are named by quadkey and filed under their
+ * zoom level and the quadkey without its last six digits, so neighbouring
+ * tiles share a directory of at most 4096 files:
+ *
+ * root/17/01231010123/01231010123020123.tile
+ *
+ * Tiles are written to a temporary file and renamed, so a reader never
+ * sees half a tile and an interrupted download leaves nothing behind. Safe
+ * to use from several threads and processes.
+ *
+ * A store is also a TileSource, for running from the cache alone.
+ */
+public class TileStore implements TileSource {
+
+    private static final int leafDigits = 6;
+    private static final String extension = ".tile";
+
+    private final File root;
+
+    public TileStore(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     *
+     * @return file the tile is or would be stored in
+     */
+    public File getFile(int zoom, int x, int y) {
+        String quadKey = TileMath.quadKey(zoom, x, y);
+        File dir = new File(root, Integer.toString(zoom));
+        if (zoom > leafDigits) {
+            dir = new File(dir, quadKey.substring(0, zoom - leafDigits));
+        }
+        return new File(dir, quadKey + extension);
+    }
+
+    public boolean contains(int zoom, int x, int y) {
+        return getFile(zoom, x, y).isFile();
+    }
+
+    /**
+     *
+     * @return the stored bytes, null if the tile is not stored
+     */
+    public byte[] get(int zoom, int x, int y) throws IOException {
+        File file = getFile(zoom, x, y);
+        if (!file.isFile()) {
+            return null;
+        }
+        return read(file);
+    }
+
+    byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return HttpTileSource.readFully(in, (int) file.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    public byte[] fetch(int zoom, int x, int y) throws IOException {
+        return get(zoom, x, y);
+    }
+
+    /**
+     * Stores a tile, replacing what was stored for it.
+     */
+    public void put(int zoom, int x, int y, byte[] data) throws IOException {
+        File file = getFile(zoom, x, y);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File temporary = File.createTempFile("tile", ".part", dir);
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                // renameTo does not replace on every platform
+                file.delete();
+                if (!temporary.renameTo(file)) {
+                    throw new IOException("cannot store " + file);
+                }
+            }
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return root.getPath();
+    }
+}
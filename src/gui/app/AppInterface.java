@@ -168,7 +168,22 @@ public interface AppInterface {
 
     public void setConnectionParameters(ConnectionParameters connectionParemeters);
 
+    /**
+     * Shows the newest custom data; called at most at the GUI rate.
+     *
+     * @param values
+     * @param time
+     */
     public void setCustomData(double[] values, double time);
+
+    /**
+     * Adds a sample of the custom data to the scope; called for every
+     * telemetry frame.
+     *
+     * @param values
+     * @param time
+     */
+    public void appendCustomData(double[] values, double time);
     
     public void setCustomParameters(double[] params);
 
@@ -177,5 +192,13 @@ public interface AppInterface {
     public void setConnectionLost();
 
     public void resetConnectionLost();
+
+    /**
+     * Lists the vehicles the station receives from.
+     *
+     * @param vehicleIds
+     * @param selected id of the vehicle shown in the GUI
+     */
+    public void setVehicles(int[] vehicleIds, int selected);
     
 }
@@ -39,6 +39,7 @@ public class FrameApp extends javax.swing.JFrame implements AppInterface{
     private final long changeColorEveryMs = 100;
     private boolean isRed = false;
     private boolean connectionLossDetected = false;
+    private javax.swing.JMenu menuVehicle;
     /**
      *
      */
@@ -46,10 +47,14 @@ public class FrameApp extends javax.swing.JFrame implements AppInterface{
         initComponents();
         menuItemSerialPort.setEnabled(true);
         menuItemUDP.setEnabled(false);
+        menuVehicle = new javax.swing.JMenu("Vehicle");
+        jMenu2.add(menuVehicle);
         setVisible(true);
         
         kernel=new Kernel(this);
         Kernel.setInstance(kernel);
+        jMenuBar1.add(new ReplayMenu(this, kernel), jMenuBar1.getComponentIndex(jMenu3));
+        jMenuBar1.revalidate();
         panelApp.setParent(this);
         //int a=225;
         //double rta = (double) ( 10*((double)a )/360);
@@ -570,6 +575,10 @@ public class FrameApp extends javax.swing.JFrame implements AppInterface{
         panelApp.setCustomData(values, time);
     }
 
+    public void appendCustomData(double[] values, double time) {
+        panelApp.appendCustomData(values, time);
+    }
+
     public void setCustomParameters(double[] params) {
         panelApp.setCustomParameters(params);
     }
@@ -596,6 +605,26 @@ public class FrameApp extends javax.swing.JFrame implements AppInterface{
         }                
     }
 
+    public void setVehicles(final int[] vehicleIds, final int selected) {
+        java.awt.EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                menuVehicle.removeAll();
+                javax.swing.ButtonGroup group = new javax.swing.ButtonGroup();
+                for (int i = 0; i < vehicleIds.length; i++) {
+                    final int vehicleId = vehicleIds[i];
+                    javax.swing.JRadioButtonMenuItem item = new javax.swing.JRadioButtonMenuItem("Vehicle " + vehicleId, vehicleId == selected);
+                    item.addActionListener(new java.awt.event.ActionListener() {
+                        public void actionPerformed(java.awt.event.ActionEvent evt) {
+                            kernel.selectVehicle(vehicleId);
+                        }
+                    });
+                    group.add(item);
+                    menuVehicle.add(item);
+                }
+            }
+        });
+    }
+
     public void resetConnectionLost() {
         panelApp.setBackground(lastColor);
         connectionLossDetected = false;
@@ -13,6 +13,7 @@ package gui.app;
 
 import data.ConnectionParameters;
 import data.Waypoint;
+import des.graph2d.RepaintScheduler;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.event.KeyEvent;
@@ -27,7 +28,7 @@ import javax.swing.JOptionPane;
  *
  * @author David Escobar Sanabria and Christian Dernehl
  */
-public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnable {
+public class PanelApp extends javax.swing.JPanel implements AppInterface {
 
     /** Creates new form PanelApp */
     private static final int TABBED_VISUALIZATION = 0;
@@ -49,9 +50,6 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
         //setBackground(new java.awt.Color(177,172,216));
         setBackground(new java.awt.Color(0,0,0));               
 
-        Thread t = new Thread(this);
-        t.start();
-
     }
 
     /**
@@ -79,6 +77,7 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
         panelKML1 = new gui.app.PanelKML();
         panelMap1 = new des.map.PanelMap();
         panelParameters1 = new gui.app.PanelParameters();
+        panelMetrics1 = new gui.app.PanelMetrics();
         panelConsole = new gui.app.PanelConsole();
 
         setBackground(new java.awt.Color(177, 172, 216));
@@ -135,6 +134,7 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
 
         tabbedPane.addTab("Map", jPanel1);
         tabbedPane.addTab("Parameters", panelParameters1);
+        tabbedPane.addTab("Metrics", panelMetrics1);
 
         add(tabbedPane, java.awt.BorderLayout.CENTER);
         add(panelConsole, java.awt.BorderLayout.PAGE_END);
@@ -164,6 +164,7 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
     private gui.app.PanelConsole panelConsole;
     private gui.app.PanelKML panelKML1;
     private des.map.PanelMap panelMap1;
+    private gui.app.PanelMetrics panelMetrics1;
     private gui.app.PanelParameters panelParameters1;
     private gui.app.PanelSettings panelSettings;
     private gui.hud.PanelHUD panelVisualization1;
@@ -335,7 +336,7 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
      */
     public void updateGUI() {
         //panelVisualization1.repaint();
-        this.repaint();
+        RepaintScheduler.getInstance().invalidate(this);
     }
 
     /**
@@ -426,7 +427,6 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
 
     public void drawGUI() {
         panelVisualization1.draw();
-        repaint();
     }
 
     public void setRefAltitude(double altRef) {
@@ -453,6 +453,11 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
     {
         panelParameters1.setValues(values, time);
     }
+
+    public void appendCustomData(double[] values, double time)
+    {
+        panelParameters1.appendValues(values, time);
+    }
     
     public void setCustomParameters(double[] params) {
         panelParameters1.setParams(params);
@@ -462,25 +467,6 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
         panelMap1.setWaypointReply(customWaypoints);
     }
 
-    public void run() {
-        try {
-            Thread.sleep(1200);
-        } catch (InterruptedException ex) {
-            Logger.getLogger(PanelApp.class.getName()).log(Level.SEVERE, null, ex);
-        }
-
-        while (true) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(PanelApp.class.getName()).log(Level.SEVERE, null, ex);
-            }            
-           panelVisualization1.draw();
-           repaint();
-
-        }
-    }
-
     public void setConnectionLost() {
         
     }
@@ -489,6 +475,10 @@ public class PanelApp extends javax.swing.JPanel implements AppInterface, Runnab
         
     }
 
+    public void setVehicles(int[] vehicleIds, int selected) {
+        
+    }
+
 
 
 
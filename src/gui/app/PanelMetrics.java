@@ -0,0 +1,161 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gui.app;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Metrics tab: every counter, gauge and latency histogram of the
+ * MetricsRegistry in one table, with the rate of each count over the last
+ * refresh. Refreshed once a second while the tab is shown.
+ */
+public class PanelMetrics extends JPanel {
+
+    private static final int refreshMs = 1000;
+    private static final String[] columns = {"Metric", "Count", "Rate (1/s)", "Mean (us)", "p50 (us)", "p90 (us)", "p99 (us)", "Max (us)"};
+
+    private final MetricsRegistry registry;
+    private final MetricsTableModel model = new MetricsTableModel();
+    private final Map<String, Long> lastCounts = new HashMap<String, Long>();
+    private long lastRefreshNanos = 0;
+    private final Timer timer;
+
+    /**
+     * One row of the table.
+     */
+    private static class Row {
+
+        final Object[] cells = new Object[columns.length];
+    }
+
+    private class MetricsTableModel extends AbstractTableModel {
+
+        private ArrayList<Row> rows = new ArrayList<Row>();
+
+        void setRows(ArrayList<Row> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            return rows.get(rowIndex).cells[columnIndex];
+        }
+    }
+
+    public PanelMetrics() {
+        this(MetricsRegistry.getInstance());
+    }
+
+    public PanelMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        setLayout(new BorderLayout());
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                PanelMetrics.this.registry.reset();
+                lastCounts.clear();
+                refresh();
+            }
+        });
+        bottom.add(reset);
+        add(bottom, BorderLayout.PAGE_END);
+
+        timer = new Timer(refreshMs, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (isShowing()) {
+                    refresh();
+                }
+            }
+        });
+        timer.start();
+    }
+
+    /**
+     * Reads the registry into the table. Called on the event thread.
+     */
+    public void refresh() {
+        long now = System.nanoTime();
+        double seconds = lastRefreshNanos == 0 ? 0 : (now - lastRefreshNanos) / 1e9;
+        lastRefreshNanos = now;
+        ArrayList<Row> rows = new ArrayList<Row>();
+        for (Counter counter : registry.getCounters()) {
+            Row row = new Row();
+            row.cells[0] = counter.getName();
+            row.cells[1] = counter.get();
+            row.cells[2] = rate(counter.getName(), counter.get(), seconds);
+            rows.add(row);
+        }
+        for (Map.Entry<String, MetricsRegistry.Gauge> e : registry.getGauges().entrySet()) {
+            Row row = new Row();
+            long value = e.getValue().getValue();
+            row.cells[0] = e.getKey();
+            row.cells[1] = value;
+            row.cells[2] = rate(e.getKey(), value, seconds);
+            rows.add(row);
+        }
+        for (LatencyHistogram histogram : registry.getHistograms()) {
+            Row row = new Row();
+            long count = histogram.getCount();
+            row.cells[0] = histogram.getName();
+            row.cells[1] = count;
+            row.cells[2] = rate(histogram.getName(), count, seconds);
+            row.cells[3] = Math.round(histogram.getMean());
+            row.cells[4] = histogram.getPercentile(50);
+            row.cells[5] = histogram.getPercentile(90);
+            row.cells[6] = histogram.getPercentile(99);
+            row.cells[7] = histogram.getMax();
+            rows.add(row);
+        }
+        model.setRows(rows);
+    }
+
+    private String rate(String name, long count, double seconds) {
+        Long last = lastCounts.put(name, count);
+        if (last == null || seconds <= 0) {
+            return "";
+        }
+        return String.format("%.1f", (count - last) / seconds);
+    }
+
+    /**
+     * Stops refreshing.
+     */
+    public void stop() {
+        timer.stop();
+    }
+}
@@ -6,6 +6,7 @@
 
 package gui.app;
 
+import des.graph2d.StripChart;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
@@ -19,17 +20,11 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.application.Platform;
-import javafx.embed.swing.JFXPanel;
-import javafx.scene.Scene;
-import javafx.scene.chart.LineChart;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.XYChart;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
-import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 /**
  *
@@ -49,30 +44,17 @@ public class PanelParameters extends javax.swing.JPanel {
     private final float[] oldParams;
     private ArrayList<Integer> paramsToSend = new ArrayList<Integer>();
     private final String[] watchNames;    
-    private LineChart<Number, Number> chart;
-    private final JPanel chartPanel = new JPanel();
-    private final JFXPanel chartPanelfx = new JFXPanel();
-    private boolean FXinited = false;
-    private final int GRAPH_SLIDING_WINDOW_TIME = 30;    
-    private NumberAxis xAxis;
-    private NumberAxis yAxis;
-    private boolean javaFXsupported = false;
-    private double newestTimeAllowed = (double) 0;    
-        
-    
-    private void checkJavaVersion(){
-        javaFXsupported = false;
-        if(System.getProperty("java.version").startsWith("1.8")){
-            javaFXsupported = true;
-        }
-    }
+    private final int GRAPH_SLIDING_WINDOW_TIME = 60;
+    private final int GRAPH_MAX_RATE = 1000;
+    private final StripChart chart = new StripChart(watchCount, GRAPH_SLIDING_WINDOW_TIME, GRAPH_MAX_RATE);
+    private final double[] watchLatest = new double[watchCount];
+    private boolean watchUpdatePending = false;
     
     /**
      * Creates new form PanelParameters
      */
     public PanelParameters() {
         initComponents();       
-        checkJavaVersion();
 
         oldParams = new float[paramCount];
         
@@ -211,59 +193,24 @@ public class PanelParameters extends javax.swing.JPanel {
         this.add(sendParam, c);
               
 
-        Platform.runLater(new Runnable() {
-            public void run() {
-                initFX(); 
-            }
-        });
-               
-        revalidate();     
-        updateChartSelection();
-    }
-    
-    private void addSeriesToChart(){
-        chart.getData().clear();
         for(int i = 0; i < watchCount; ++i)
-        {         
-            if(watchValuesScoped[i].isSelected()){
-                XYChart.Series<Number, Number> series = new XYChart.Series();
-                if(watchNames[i] == null || watchNames[i].isEmpty() ||
-                        watchNames[i].compareTo("Put a Name for Logging here") == 0){
-                    series.setName("Series " + (1+i));  
-                } else {
-                    series.setName(watchNames[i]);     
-                }                       
-                chart.getData().add(series); 
+        {
+            if(watchNames[i] == null || watchNames[i].isEmpty() ||
+                    watchNames[i].compareTo("Put a Name for Logging here") == 0){
+                chart.setChannelName(i, "Series " + (1+i));
+            } else {
+                chart.setChannelName(i, watchNames[i]);
             }
         }
-    }
-    
-    
-    private void initFX(){
-        if(!javaFXsupported){
-            return;
-        }
-        xAxis = new NumberAxis();
-        yAxis = new NumberAxis();
-        xAxis.setLabel("time [s]");
-        yAxis.setLabel("");
-        chart = new LineChart<Number, Number>(xAxis, yAxis);
-        chart.setCreateSymbols(false);
-        addSeriesToChart();
-        
         final int chartWidth = 650; //500;
         final int chartHeight = 400; //350;
-        Scene scene = new Scene(chart, chartWidth, chartHeight);               
-        chartPanelfx.setScene(scene);
-        chartPanel.add(chartPanelfx);
-        chartPanel.setPreferredSize(new Dimension(chartWidth,chartHeight));
-        GridBagConstraints c = new GridBagConstraints();
+        chart.setPreferredSize(new Dimension(chartWidth,chartHeight));
         c.gridx = 3;
         c.gridy = 0;        
         c.gridheight = watchCount + paramCount;
-        this.add(chartPanel, c);
-        
-        FXinited = true;
+        this.add(chart, c);
+               
+        revalidate();     
         updateChartSelection();
     }
     
@@ -275,51 +222,45 @@ public class PanelParameters extends javax.swing.JPanel {
         return -1;
     }
     
-    private long lastChartUpdate = System.currentTimeMillis();
-    
-    synchronized void setValues(final double[] values, final double time)
+    /**
+     * Called for every telemetry frame, from the scope consumer's thread,
+     * so the chart gets every sample.
+     *
+     * @param values
+     * @param time
+     */
+    void appendValues(double[] values, double time)
     {
-        if(!FXinited)
-            return;        
-        Platform.runLater(new Runnable() {
-            public synchronized void run() { 
-                    int chartIndex = 0;
+        chart.append(time, values);
+    }
+
+    /**
+     * Called with the newest values at the GUI rate, from the GUI
+     * consumer's thread. The labels are refreshed on the event thread, at
+     * most once per pass of it.
+     *
+     * @param values
+     * @param time
+     */
+    void setValues(final double[] values, final double time)
+    {
+        synchronized(watchLatest){
+            System.arraycopy(values, 0, watchLatest, 0, watchCount);
+            if(watchUpdatePending)
+                return;
+            watchUpdatePending = true;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                synchronized(watchLatest){
+                    watchUpdatePending = false;
                     for(int i = 0; i < watchCount; ++i)
                     {
-                        synchronized(chart.getData()){
-                            watchValues[i].setText(Double.toString(values[i]));
-                            
-                            if(watchValuesScoped[i].isSelected()){
-                                newestTimeAllowed = Math.max(newestTimeAllowed, time);                                                                                      
-                            
-                            
-                                while(chart.getData().get(chartIndex).getData().size() > (GRAPH_SLIDING_WINDOW_TIME + 10)*50 ){
-                                    //redo the chart
-                                    chart.getData().get(chartIndex).getData().remove(0);                                
-                                }
-                                chart.getData().get(chartIndex).getData().add( 
-                                        new XYChart.Data( time, values[i]));  
-                            
-                                chartIndex++;
-                            }
-                            
-                        }
-                    }    
-                
-                    long curTime = System.currentTimeMillis();
-                    if(curTime - lastChartUpdate > 1000){
-                        chartPanel.revalidate();
-                        lastChartUpdate = curTime;             
-                        xAxis.setAutoRanging(false);
-                        xAxis.setLowerBound(Math.floor(Math.max(0, newestTimeAllowed - GRAPH_SLIDING_WINDOW_TIME - 5)));
-                        xAxis.setUpperBound(Math.ceil(newestTimeAllowed + 5));                            
-                    }                    
-                                                            
+                        watchValues[i].setText(Double.toString(watchLatest[i]));
+                    }
                 }
-            
+            }
         });
-        
-
     }
     
     void setParams(double[] values)
@@ -339,17 +280,11 @@ public class PanelParameters extends javax.swing.JPanel {
         }
     }         
     
-    private synchronized void updateChartSelection(){
-        if(!FXinited)
-            return;
-        if(!javaFXsupported)
-            return;
-        Platform.runLater(new Runnable() {
-            public synchronized void run() {                        
-                addSeriesToChart();               
-            }
-        });
-
+    private void updateChartSelection(){
+        for(int i = 0; i < watchCount; ++i)
+        {
+            chart.setChannelVisible(i, watchValuesScoped[i].isSelected());
+        }
     }
 
 
@@ -0,0 +1,179 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gui.app;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JFileChooser;
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+import kernel.Kernel;
+import kernel.ReplaySource;
+
+/**
+ * Replay menu: plays a recorded flight back through Kernel.startReplay()
+ * and pauses, steps, moves and speeds it up. The items show the state of
+ * the replay every time the menu is opened.
+ */
+public class ReplayMenu extends JMenu {
+
+    private static final double[] speeds = {1, 2, 5, 10, 100, ReplaySource.MAX_SPEED};
+
+    private final FrameApp parent;
+    private final Kernel kernel;
+    private final JMenuItem itemOpen = new JMenuItem("Open recording...");
+    private final JCheckBoxMenuItem itemPause = new JCheckBoxMenuItem("Pause");
+    private final JMenuItem itemStep = new JMenuItem("Step");
+    private final JMenuItem itemSeek = new JMenuItem("Go to...");
+    private final JMenu menuSpeed = new JMenu("Speed");
+    private final JRadioButtonMenuItem[] itemSpeeds = new JRadioButtonMenuItem[speeds.length];
+    private final JMenuItem itemStop = new JMenuItem("Stop replay");
+
+    public ReplayMenu(FrameApp _parent, Kernel _kernel) {
+        super("Replay");
+        parent = _parent;
+        kernel = _kernel;
+        itemOpen.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                open();
+            }
+        });
+        itemPause.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                ReplaySource replay = kernel.getReplaySource();
+                if (replay == null) {
+                    return;
+                }
+                if (itemPause.isSelected()) {
+                    replay.pauseReplay();
+                } else {
+                    replay.resumeReplay();
+                }
+            }
+        });
+        itemStep.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                ReplaySource replay = kernel.getReplaySource();
+                if (replay != null) {
+                    replay.step(1);
+                }
+            }
+        });
+        itemSeek.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                seek();
+            }
+        });
+        ButtonGroup group = new ButtonGroup();
+        for (int i = 0; i < speeds.length; i++) {
+            final double speed = speeds[i];
+            itemSpeeds[i] = new JRadioButtonMenuItem(speed == ReplaySource.MAX_SPEED ? "Max" : (int) speed + "x");
+            itemSpeeds[i].addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    ReplaySource replay = kernel.getReplaySource();
+                    if (replay != null) {
+                        replay.setSpeed(speed);
+                    }
+                }
+            });
+            group.add(itemSpeeds[i]);
+            menuSpeed.add(itemSpeeds[i]);
+        }
+        itemStop.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                kernel.stopReplay();
+            }
+        });
+        add(itemOpen);
+        addSeparator();
+        add(itemPause);
+        add(itemStep);
+        add(itemSeek);
+        add(menuSpeed);
+        addSeparator();
+        add(itemStop);
+        addMenuListener(new MenuListener() {
+            public void menuSelected(MenuEvent e) {
+                refresh();
+            }
+
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+        refresh();
+    }
+
+    private void refresh() {
+        ReplaySource replay = kernel.getReplaySource();
+        boolean running = replay != null;
+        itemPause.setEnabled(running);
+        itemPause.setSelected(running && replay.isPaused());
+        itemStep.setEnabled(running && replay.isPaused());
+        itemSeek.setEnabled(running);
+        menuSpeed.setEnabled(running);
+        itemStop.setEnabled(running);
+        for (int i = 0; i < speeds.length; i++) {
+            itemSpeeds[i].setSelected(running && replay.getSpeed() == speeds[i]);
+        }
+    }
+
+    private void open() {
+        JFileChooser fileChooser = new JFileChooser(new File("recordings"));
+        if (fileChooser.showDialog(parent, "Replay") != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = fileChooser.getSelectedFile();
+        try {
+            kernel.startReplay(file);
+        } catch (IOException ex) {
+            parent.joutln("Cannot replay " + file.getName() + ": " + ex.getMessage(), true);
+            Logger.getLogger(ReplayMenu.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Asks for a time from the start of the recording and continues from
+     * there.
+     */
+    private void seek() {
+        ReplaySource replay = kernel.getReplaySource();
+        if (replay == null) {
+            return;
+        }
+        try {
+            long rows = replay.getLog().refresh();
+            if (rows == 0) {
+                return;
+            }
+            long first = replay.getLog().readTimestamp(0);
+            long last = replay.getLog().readTimestamp(rows - 1);
+            long position = Math.max(0, replay.getPositionMicros() - first);
+            String answer = JOptionPane.showInputDialog(parent,
+                    String.format("Seconds from the start (0 - %.0f)", (last - first) / 1e6),
+                    String.format("%.0f", position / 1e6));
+            if (answer == null) {
+                return;
+            }
+            replay.seek(first + (long) (Double.parseDouble(answer.trim()) * 1e6));
+        } catch (NumberFormatException ex) {
+            parent.joutln("Not a number of seconds", true);
+        } catch (IOException ex) {
+            Logger.getLogger(ReplayMenu.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
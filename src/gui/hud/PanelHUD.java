@@ -12,10 +12,12 @@ package gui.hud;
 
 
 import des.graph2d.BarDisplay;
+import des.graph2d.ChromeLayer;
 import des.graph2d.Entity2D;
 import des.graph2d.FlagDisplay;
 import des.graph2d.GPSDisplay;
 import des.graph2d.HeadingDisplay;
+import des.graph2d.RepaintScheduler;
 import des.graph2d.SlideDisplay;
 import des.graph2d.SurfacesDisplay;
 import des.graph2d.ThetaPhiDisplay;
@@ -27,6 +29,7 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
@@ -47,11 +50,37 @@ import javax.swing.JFrame;
  *
  * @author david2010a
  */
-public class PanelHUD extends javax.swing.JPanel implements Runnable{
+public class PanelHUD extends javax.swing.JPanel {
+
+    /**
+     * Widgets, in drawing order.
+     */
+    private static final int THETA_PHI = 0;
+    private static final int ALTITUDE = 1;
+    private static final int HEADING = 2;
+    private static final int AIR_SPEED = 3;
+    private static final int SURFACES = 4;
+    private static final int FLAGS = 5;
+    private static final int BATTERY = 6;
+    private static final int CPU_LOAD = 7;
+    private static final int GPS = 8;
+    private static final int TIME = 9;
+    private static final int WIDGETS = 10;
+
+    /**
+     * Smallest changes worth a repaint; below these the display would not
+     * change, or only in a digit nobody can read at 30 frames a second.
+     */
+    private static final double ATTITUDE_STEP = 0.05;
+    private static final double HEADING_STEP = 0.1;
+    private static final double TAPE_STEP = 0.05;
+    private static final double SURFACE_STEP = 0.05;
+    private static final double BAR_STEP = 0.1;
+    private static final double GPS_STEP = 0.00001;
+    private static final double TIME_STEP = 0.01;
 
     /** Creates new form PanelHUD */
     private double angle = 0;
-    private Graphics2D g2;
     private JFrame app;
     private ThetaPhiDisplay thetaPhiDisplay;
     private SlideDisplay altitudeDisplay;
@@ -63,6 +92,7 @@ public class PanelHUD extends javax.swing.JPanel implements Runnable{
     private BarDisplay cpuLoadBar;
     private GPSDisplay gpsDisplay;
     private TimeDisplay timeDisplay;
+    private ChromeLayer chromeLayer;
     private int center_x = 0;
     private int center_y = 0;
     private boolean isLineWidthLarge = true;
@@ -91,6 +121,10 @@ public class PanelHUD extends javax.swing.JPanel implements Runnable{
     private double altitudeRef = 0;
     private boolean init=false;
     private AppInterface parent;
+    private final double[] values = new double[3];
+    private final double[] surfaces = new double[4];
+    private final double[] shown = new double[WIDGETS * 4];
+    private volatile Rectangle[] extents = null;
 
 
 //    Thread t1=null;
@@ -126,6 +160,20 @@ public class PanelHUD extends javax.swing.JPanel implements Runnable{
 
         timeDisplay = new TimeDisplay(center_x + 100, center_y + 170 + 25, 4);
 
+        chromeLayer = new ChromeLayer();
+        chromeLayer.add(thetaPhiDisplay);
+        chromeLayer.add(altitudeDisplay);
+        chromeLayer.add(airSpeedDisplay);
+        chromeLayer.add(flagDisplay);
+        chromeLayer.add(surfacesSlides);
+        chromeLayer.add(headingDisplay);
+        chromeLayer.add(batteryBar);
+        chromeLayer.add(cpuLoadBar);
+        chromeLayer.add(gpsDisplay);
+        chromeLayer.add(timeDisplay);
+
+        java.util.Arrays.fill(shown, Double.NaN);
+
         repaint();
 
         //Thread t = new Thread(this);
@@ -149,150 +197,206 @@ public class PanelHUD extends javax.swing.JPanel implements Runnable{
     public void draw(Graphics2D g2) {
 
         //g2.setStroke(new BasicStroke(10));
-        double[] values = new double[3];
-        values[0] = theta;
-        values[1] = phi;
-        thetaPhiDisplay.update(values, g2);
-
-        values[0] = altitude;
+        chromeLayer.paint(g2, this, getWidth(), getHeight());
 
-        altitudeDisplay.update(values, g2);
+        Rectangle clip = g2.getClipBounds();
+        if (isInClip(THETA_PHI, clip)) {
+            values[0] = theta;
+            values[1] = phi;
+            thetaPhiDisplay.update(values, g2);
+        }
 
-        values[0] = yaw;
-        headingDisplay.update(values, g2);
+        if (isInClip(ALTITUDE, clip)) {
+            values[0] = altitude;
+            // the reference is whatever values[1] holds, as it always was
+            values[1] = phi;
+            altitudeDisplay.update(values, g2);
+        }
 
-        values[0] = airSpeed;
-        values[1] = airSpeedRef;
-        airSpeedDisplay.update(values, g2);
+        if (isInClip(HEADING, clip)) {
+            values[0] = yaw;
+            headingDisplay.update(values, g2);
+        }
 
-        double[] surfaces = {aileron, rudder, throttle, elevetor};
-        surfacesSlides.update(surfaces, g2);
+        if (isInClip(AIR_SPEED, clip)) {
+            values[0] = airSpeed;
+            values[1] = airSpeedRef;
+            airSpeedDisplay.update(values, g2);
+        }
 
+        if (isInClip(SURFACES, clip)) {
+            surfaces[0] = aileron;
+            surfaces[1] = rudder;
+            surfaces[2] = throttle;
+            surfaces[3] = elevetor;
+            surfacesSlides.update(surfaces, g2);
+        }
 
-        values[0] = modes;
-        flagDisplay.update(values, g2);
+        if (isInClip(FLAGS, clip)) {
+            values[0] = modes;
+            flagDisplay.update(values, g2);
+        }
 
-        values[0] = batteryLevel;
-        batteryBar.update(values, g2);
+        if (isInClip(BATTERY, clip)) {
+            values[0] = batteryLevel;
+            batteryBar.update(values, g2);
+        }
 
-        values[0] = cpuLoad;
-        cpuLoadBar.update(values, g2);
+        if (isInClip(CPU_LOAD, clip)) {
+            values[0] = cpuLoad;
+            cpuLoadBar.update(values, g2);
+        }
 
-        values[0] = latitude;
-        values[1] = longitude;
-        values[2] = gpsSatellites;
-        gpsDisplay.update(values, g2);
+        if (isInClip(GPS, clip)) {
+            values[0] = latitude;
+            values[1] = longitude;
+            values[2] = gpsSatellites;
+            gpsDisplay.update(values, g2);
+        }
 
-        values[0] = time;
-        timeDisplay.update(values, g2);
+        if (isInClip(TIME, clip)) {
+            values[0] = time;
+            timeDisplay.update(values, g2);
+        }
 
        
 
     }
 
-    public void draw() {
-
-        //g2.setStroke(new BasicStroke(10));
+    private boolean isInClip(int widget, Rectangle clip) {
+        Rectangle[] e = extents;
+        return e == null || clip == null || clip.intersects(e[widget]);
+    }
 
+    /**
+     * Schedules a repaint of the whole HUD.
+     */
+    public void draw() {
 
-        draw(g2);
+        RepaintScheduler.getInstance().invalidate(this);
 
     }
 
     public void paint(Graphics g) {
 
         super.paint(g);
-        g2 = (Graphics2D) g;
+        Graphics2D g2 = (Graphics2D) g;
 
         draw(g2);
-//        if(t1==null){
-//            t1 =new Thread(this);
-//        t1.start();
-//        }
+        if (extents == null) {
+            Rectangle[] e = new Rectangle[WIDGETS];
+            e[THETA_PHI] = thetaPhiDisplay.getExtent(g2);
+            e[ALTITUDE] = altitudeDisplay.getExtent(g2);
+            e[HEADING] = headingDisplay.getExtent(g2);
+            e[AIR_SPEED] = airSpeedDisplay.getExtent(g2);
+            e[SURFACES] = surfacesSlides.getExtent(g2);
+            e[FLAGS] = flagDisplay.getExtent(g2);
+            e[BATTERY] = batteryBar.getExtent(g2);
+            e[CPU_LOAD] = cpuLoadBar.getExtent(g2);
+            e[GPS] = gpsDisplay.getExtent(g2);
+            e[TIME] = timeDisplay.getExtent(g2);
+            extents = e;
+        }
 
+    }
 
+    /**
+     * Records a new value for a widget and repaints the widget if the value
+     * moved by at least step since it was last shown.
+     *
+     * @param widget
+     * @param slot which of the values of the widget, 0..3
+     * @param value
+     * @param step
+     */
+    private void update(int widget, int slot, double value, double step) {
+        int i = widget * 4 + slot;
+        if (Math.abs(value - shown[i]) < step) {
+            return;
+        }
+        shown[i] = value;
+        Rectangle[] e = extents;
+        if (e == null) {
+            RepaintScheduler.getInstance().invalidate(this);
+        } else {
+            RepaintScheduler.getInstance().invalidate(this, e[widget]);
+        }
     }
 
     public void setAirSpeed(double iAS, double ias_ref) {
         airSpeed = iAS;
         airSpeedRef = ias_ref;
+        update(AIR_SPEED, 0, iAS, TAPE_STEP);
+        update(AIR_SPEED, 1, ias_ref, TAPE_STEP);
     }
 
     public void setMode(int mode) {
         modes = mode;
+        update(FLAGS, 0, mode, 1);
     }
 
     public void setTime(double time_) {
         time = time_;
+        update(TIME, 0, time_, TIME_STEP);
     }
 
     public void setPitchAndBank(double pitch, double bank) {
         theta = pitch;
         phi = bank;
+        update(THETA_PHI, 0, pitch, ATTITUDE_STEP);
+        update(THETA_PHI, 1, bank, ATTITUDE_STEP);
+        update(ALTITUDE, 1, bank, ATTITUDE_STEP);
     }
 
     public void setHeading(double heading) {
         yaw = heading;
+        update(HEADING, 0, heading, HEADING_STEP);
     }
 
     public void setAltitude(double altitude_, double altitudeRef_) {
         altitude = altitude_;
         altitudeRef = altitudeRef_;
+        update(ALTITUDE, 0, altitude_, TAPE_STEP);
     }
 
     public void setLongitude(double longitude_) {
         longitude = longitude_;
+        update(GPS, 1, longitude_, GPS_STEP);
     }
 
     public void setLatitude(double latitude_) {
         latitude = latitude_;
+        update(GPS, 0, latitude_, GPS_STEP);
     }
 
     public void setBatteryLevel(double batteryLevel_) {
         batteryLevel = batteryLevel_;
+        update(BATTERY, 0, batteryLevel_, BAR_STEP);
     }
 
     public void setCPULoad(double CPULoad) {
         cpuLoad = CPULoad;
+        update(CPU_LOAD, 0, CPULoad, BAR_STEP);
     }
 
     public void setAileron(double aileron_) {
         aileron = aileron_;
+        update(SURFACES, 0, aileron_, SURFACE_STEP);
     }
 
     public void setElevetor(double elevetor_) {
         elevetor = elevetor_;
+        update(SURFACES, 3, elevetor_, SURFACE_STEP);
     }
 
     public void setThrottle(double throttle_) {
         throttle = throttle_;
+        update(SURFACES, 2, throttle_, SURFACE_STEP);
     }
 
     public void setRudder(double rudder_) {
         rudder = rudder_;
-    }
-
-
-    public void run() {
-        int count =80;
-        try {
-                Thread.sleep(1200);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(HeadingDisplay.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        while (true){
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(HeadingDisplay.class.getName()).log(Level.SEVERE, null, ex);
-            }
-
-            setAirSpeed(count, 100);
-            count--;
-
-           
-            repaint();
-        }
+        update(SURFACES, 1, rudder_, SURFACE_STEP);
     }
 
 
@@ -325,6 +429,7 @@ public class PanelHUD extends javax.swing.JPanel implements Runnable{
 
     public void setNumberSatellites(int nSatellites) {
         gpsSatellites = nSatellites;
+        update(GPS, 2, nSatellites, 1);
     }
 
 
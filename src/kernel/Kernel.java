@@ -4,16 +4,15 @@
  */
 package kernel;
 
-import com.jmatio.io.MatFileWriter;
-import com.jmatio.types.MLDouble;
 import comm.InternetAdapter;
 import comm.ChannelInterface;
+import comm.ReliableUplink;
 import comm.SerialManager;
+import comm.UplinkFrame;
 import data.DataPacket;
 import data.DataSettings;
 import data.ConnectionParameters;
-import data.ParamPacket;
-import data.WaypointPacket;
+import data.Waypoint;
 import gui.app.AppInterface;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -26,14 +25,26 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Vector;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import kml.KMLManager;
+import metrics.LatencyHistogram;
+import metrics.MetricsHttpServer;
+import metrics.MetricsJmx;
+import metrics.MetricsRegistry;
 import net.udp.server.ClientToMatlab;
 import net.udp.server.UDPServer;
+import recorder.ExportSelection;
+import recorder.FlightExporter;
+import recorder.FlightHistory;
+import recorder.FlightLog;
+import recorder.FlightRecorder;
 import sun.security.util.SecurityConstants;
 
 /**
@@ -43,21 +54,46 @@ import sun.security.util.SecurityConstants;
 public class Kernel extends Thread implements ChannelInterface, KernelInterface {
 
     private UDPServer udpServer = null;
+    private ReliableUplink reliableUplink;
+    /**
+     * Socket receive buffer of each UDP port, in bytes. Bursts from several
+     * vehicles are queued here while the GUI or the disk holds the server
+     * up. Set with -Dudp.receiveBufferSize=bytes, 0 keeps the OS default.
+     */
+    private int udpReceiveBufferSize = Integer.getInteger("udp.receiveBufferSize", 1 << 20);
     private ClientToMatlab client = null;
     private SerialManager serialManager = null;
-    private DataPacket dataPacket = null;
-    private Vector vectorData = null;
+    private final LinkRegistry linkRegistry = new LinkRegistry();
+    private volatile VehicleLink selectedLink = null;
+    private final String sessionName = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
     AppInterface gui;
     private int countPackets = 0;
     private int countPacketsCheck = 0;
-    private String tempFile = null;
     private boolean runFlag = true;
     private int dataPeriod = 1000;
     private KMLManager kmlManager;
+    private static final long kmlStopTimeoutMs = 2000;
     private InternetAdapter cpsserver;
     private long disconnectedWatchdogMs = 0;
     private final long disconnectionTimeoutMs = 2500;
     private boolean disconnectedWatchdogIsActive = false;
+    private static final long guiPeriodMs = 20;
+    private GuiPublisher guiPublisher;
+    private ScopePublisher scopePublisher;
+    private ReplaySource replaySource = null;
+    private static final LatencyHistogram guiLag = MetricsRegistry.getInstance().histogram(MetricsRegistry.GUI_LAG);
+    /**
+     * Local port the metrics are served on over HTTP, see
+     * MetricsHttpServer. Set with -Dmetrics.httpPort=port, 0 (the default)
+     * serves none. The metrics are always available over JMX.
+     */
+    private int metricsHttpPort = Integer.getInteger("metrics.httpPort", 0);
+    private MetricsHttpServer metricsServer = null;
+
+    /**
+     * Vehicle id of the link a replayed recording is played into.
+     */
+    public static final int REPLAY_VEHICLE_ID = 255;
     
     /**
      *
@@ -69,6 +105,8 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
     public static final int UDP_PORT = 1;
     public static final int MATLAB_PORT = 2;
     private static final String defaultFile = "default.data";
+    private static final String recordingsDir = "recordings";
+    private final FlightExporter flightExporter = new FlightExporter();
     private DataSettings dataSettings;
     private ConnectionParameters connectionParameters;
     private boolean forwardToServer = false;
@@ -97,13 +135,17 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
             Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
         }
         connectionParameters = new ConnectionParameters();
-        dataPacket = new DataPacket();
+        reliableUplink = new ReliableUplink(new ReliableUplink.Transport() {
+            public void send(int[] packet) throws IOException {
+                sendPacket(packet);
+            }
+        });
+        reliableUplink.start();
+        startMetrics();
         reconnect(gui.isUDP());
         System.out.println("Software developed by David Escobar Sanabria, Christian and Apurva");
         System.out.println("UAV research group, Aerospace Engineering and Mechanics, University of Minnesota");
         //InputStream io=new InputStream();
-        tempFile = "tempData.data";
-        deleteFile(tempFile);
 
         dataSettings = (DataSettings) openObjectFile(defaultFile);
         if (dataSettings != null) {
@@ -120,6 +162,48 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
 
     }
 
+    /**
+     * Adds what the kernel owns to the metrics and exports them.
+     */
+    private void startMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.register(reliableUplink.getRoundTrip());
+        metrics.register(reliableUplink.getParameterLatency());
+        metrics.register(reliableUplink.getWaypointLatency());
+        metrics.gauge("uplink retransmitted", new MetricsRegistry.Gauge() {
+            public long getValue() {
+                return reliableUplink.getRetransmitted();
+            }
+        });
+        metrics.gauge("uplink failed", new MetricsRegistry.Gauge() {
+            public long getValue() {
+                return reliableUplink.getFailed();
+            }
+        });
+        metrics.gauge("ring dropped", new MetricsRegistry.Gauge() {
+            public long getValue() {
+                long dropped = 0;
+                for (VehicleLink link : linkRegistry.getLinks()) {
+                    TelemetryRing.Consumer[] consumers = link.getTelemetryRing().getConsumers();
+                    for (int i = 0; i < consumers.length; i++) {
+                        dropped += consumers[i].getDropped();
+                    }
+                }
+                return dropped;
+            }
+        });
+        MetricsJmx.register();
+        if (metricsHttpPort > 0) {
+            try {
+                metricsServer = new MetricsHttpServer(metrics, metricsHttpPort);
+                metricsServer.start();
+                System.out.println("Metrics on http://127.0.0.1:" + metricsServer.getPort() + "/metrics");
+            } catch (IOException ex) {
+                Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
     /**
      * 
      */
@@ -130,12 +214,14 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
             } catch (InterruptedException ex) {
                 Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
             }
-            if (countPackets == countPacketsCheck) {
+            boolean replaying = selectedLink != null && selectedLink.getVehicleId() == REPLAY_VEHICLE_ID;
+            if (countPackets == countPacketsCheck && !replaying) {
                 gui.setMode((int) (0x0000));
             }
 
             countPacketsCheck = countPackets;
-            if(checkPacketTimeout()){
+
+            if(checkPacketTimeout() && !replaying){
                 gui.setConnectionLost();
             } else {                        
                 gui.resetConnectionLost();
@@ -192,17 +278,26 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
 
         if (isUDP) {
 
+            int[] ports = parsePorts(gui.getUDPPort());
+            updateLinks(ports);
             try {
                 connectionParameters.setConnectionType(ConnectionParameters.UDP);
-                connectionParameters.setPortDecNumber(Integer.parseInt(gui.getUDPPort()));
-                udpServer = new UDPServer(Integer.parseInt(gui.getUDPPort()), this);
+                connectionParameters.setPortDecNumber(ports[0]);
+                udpServer = new UDPServer(this, udpReceiveBufferSize);
+                for (VehicleLink link : linkRegistry.getLinks()) {
+                    if (link.getVehicleId() != REPLAY_VEHICLE_ID) {
+                        udpServer.addLink(link);
+                    }
+                }
                 activateConnectionLostWatchdog();            
-            } catch (SocketException ex) {
+            } catch (IOException ex) {
                 Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
             }
 
         } else {
 
+            updateLinks(new int[]{0});
+
             connectionParameters.setConnectionType(ConnectionParameters.SERIAL_TTY);
             connectionParameters.setBaudRate(gui.getRate());
             connectionParameters.setPortID(gui.getSerialPort());
@@ -236,64 +331,204 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
 
     }
 
-    public void setDataIn(int[] intArray) {
-        dataPacket.setDataIntArray(intArray);
-        
-        countPackets++;
-        
-        if (dataPacket.isCheckSum()) {
+    /**
+     * The ports of the UDP field are separated by commas; the vehicle at
+     * position i of the list gets vehicle id i.
+     */
+    private int[] parsePorts(String text) {
+        String[] parts = text.split(",");
+        int[] ports = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ports[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ports;
+    }
 
-            if (vectorData == null) {
-                vectorData = new Vector(100);
+    /**
+     * Keeps one link per port, reusing the links (and recordings) of
+     * vehicles that are still configured.
+     */
+    private void updateLinks(int[] ports) {
+        for (VehicleLink link : linkRegistry.getLinks()) {
+            if (link.getVehicleId() >= ports.length && link.getVehicleId() != REPLAY_VEHICLE_ID) {
+                linkRegistry.remove(link.getVehicleId());
+                link.close();
             }
-            vectorData.add(dataPacket.getDataArray().clone());
-            if (vectorData.size() == 5000) {
-                //System.out.println("Packets: "+vectorData.size());
-                saveVectorData();
+        }
+        for (int i = 0; i < ports.length; i++) {
+            VehicleLink link = linkRegistry.getByVehicle(i);
+            if (link == null) {
+                File recording = new File(recordingsDir, "flight_" + sessionName + "_v" + i + ".rec");
+                linkRegistry.add(new VehicleLink(i, ports[i], recording));
+            } else if (link.getPort() != ports[i]) {
+                linkRegistry.setPort(link, ports[i]);
             }
-            //System.out.println("Packets: "+countPackets);
-            try {
+        }
+        VehicleLink selected = selectedLink;
+        if (selected == null || linkRegistry.getByVehicle(selected.getVehicleId()) != selected) {
+            selectVehicle(0);
+        }
+        gui.setVehicles(linkRegistry.getVehicleIds(), selectedLink.getVehicleId());
+    }
+
+    /**
+     * Shows the telemetry of another vehicle in the GUI.
+     *
+     * @param vehicleId
+     */
+    public synchronized void selectVehicle(int vehicleId) {
+        VehicleLink link = linkRegistry.getByVehicle(vehicleId);
+        if (link == null || link == selectedLink) {
+            return;
+        }
+        if (guiPublisher != null) {
+            guiPublisher.stopConsumer();
+            scopePublisher.stopConsumer();
+        }
+        selectedLink = link;
+        guiPublisher = new GuiPublisher(link.getTelemetryRing());
+        guiPublisher.start();
+        scopePublisher = new ScopePublisher(link.getTelemetryRing());
+        scopePublisher.start();
+    }
+
+    /**
+     * Plays a recording back as vehicle REPLAY_VEHICLE_ID and shows it in the
+     * GUI. The live links keep receiving and recording meanwhile. A replay
+     * already running is stopped first.
+     *
+     * @param recording file written by FlightRecorder
+     * @return the replay, paused or sped up through its own methods
+     */
+    public synchronized ReplaySource startReplay(File recording) throws IOException {
+        stopReplay();
+        FlightLog log = new FlightLog(recording);
+        VehicleLink link = new VehicleLink(REPLAY_VEHICLE_ID, -1, null);
+        linkRegistry.add(link);
+        replaySource = new ReplaySource(log, link);
+        selectVehicle(REPLAY_VEHICLE_ID);
+        gui.setVehicles(linkRegistry.getVehicleIds(), REPLAY_VEHICLE_ID);
+        replaySource.start();
+        joutln("Replaying " + recording.getName());
+        return replaySource;
+    }
+
+    /**
+     * Stops the replay, if any, and goes back to the first live vehicle.
+     */
+    public synchronized void stopReplay() {
+        ReplaySource replay = replaySource;
+        if (replay == null) {
+            return;
+        }
+        replaySource = null;
+        replay.stopReplay();
+        try {
+            replay.join(1000);
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        linkRegistry.remove(REPLAY_VEHICLE_ID);
+        if (selectedLink == replay.getLink()) {
+            List<VehicleLink> links = linkRegistry.getLinks();
+            if (!links.isEmpty()) {
+                selectVehicle(links.get(0).getVehicleId());
+                gui.setVehicles(linkRegistry.getVehicleIds(), selectedLink.getVehicleId());
+            }
+        }
+        replay.getLink().close();
+        try {
+            replay.getLog().close();
+        } catch (IOException ex) {
+            Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
 
-                gui.setAirSpeed(dataPacket.getIAS(), dataPacket.getIas_ref());
-                //gui.setAirSpeed(dataPacket.getTime(), dataPacket.getIas_ref());
+    /**
+     *
+     * @return the replay running, null if none
+     */
+    public ReplaySource getReplaySource() {
+        return replaySource;
+    }
 
+    public int getUdpReceiveBufferSize() {
+        return udpReceiveBufferSize;
+    }
+
+    /**
+     * Takes effect on the next reconnect.
+     *
+     * @param udpReceiveBufferSize bytes, 0 for the OS default
+     */
+    public void setUdpReceiveBufferSize(int udpReceiveBufferSize) {
+        this.udpReceiveBufferSize = udpReceiveBufferSize;
+    }
+
+    public LinkRegistry getLinkRegistry() {
+        return linkRegistry;
+    }
 
-                gui.setHeading(dataPacket.getPsi());
+    /**
+     *
+     * @return link of the vehicle shown in the GUI
+     */
+    public VehicleLink getSelectedLink() {
+        return selectedLink;
+    }
 
-                gui.setPitchAndBank(dataPacket.getTheta(), -1 * dataPacket.getPhi());
-                //gui.setPitchAndBank(1*dataPacket.getTime(), -1*dataPacket.getTime());
+    public void setDataIn(int[] intArray) {
+        VehicleLink link = linkRegistry.getByVehicle(0);
+        link.decode(intArray);
+        updateFromDataPacket(link);
+    }
 
+    public void setDataIn(ByteBuffer frame, int offset) {
+        setDataIn(0, frame, offset);
+    }
 
-                gui.setTime(dataPacket.getTime());
-                //int auxMode= ( ~( ((int)dataPacket.getFlight_mode()) | 0xFE3F)) | ( ((int)dataPacket.getFlight_mode()) & 0xFE3F ) ;
-                int auxMode = (int) dataPacket.getFlight_mode();
-                //gui.setMode((int) (auxMode));
-                gui.setMode((int) (0x0200 | auxMode));
-                //gui.setBattery(dataPa);
-                gui.setCPULoad(dataPacket.getCpuload());
+    /**
+     * Receives a frame read from the link of one vehicle.
+     *
+     * @param vehicleId
+     * @param frame
+     * @param offset
+     */
+    public void setDataIn(int vehicleId, ByteBuffer frame, int offset) {
+        VehicleLink link = linkRegistry.getByVehicle(vehicleId);
+        if (link == null) {
+            // removed while the frame was read
+            return;
+        }
+        link.decode(frame, offset);
+        updateFromDataPacket(link);
+    }
 
-                gui.setGPS(dataPacket.getAltitude(), dataPacket.getLongitud(), dataPacket.getLatitud(), (int) dataPacket.getGpsSatellites());
-                //gui.setAltLonLat(-dataPacket.getTime(),dataPacket.getLongitud(),dataPacket.getLatitud());
+    private void updateFromDataPacket(VehicleLink link) {
+        DataPacket dataPacket = link.getDataPacket();
+        if (link.getVehicleId() == 0 && dataPacket.isCheckSum()) {
+            // The uplink (serial port or UDP 36866) reaches vehicle 0.
+            reliableUplink.echo(dataPacket);
+        }
+        if (link != selectedLink) {
+            return;
+        }
+        countPackets++;
+        
+        if (dataPacket.isCheckSum()) {
 
-                gui.setRefAltitude(dataPacket.getAltRef());
-                gui.setAileron(dataPacket.getAileron());
-                gui.setElevetor(dataPacket.getElevator());
-                gui.setThrottle(100 * dataPacket.getThrottle());
-                gui.setRudder(dataPacket.getRudder());
+            resetDisconnectedWatchdog();
 
-                gui.setCustomData(dataPacket.getCustomData(), dataPacket.getTime());
-                gui.setCustomParameters(dataPacket.getCustomParameters());
-                gui.setCustomWaypoints(dataPacket.getCustomWaypoints());
-                //gui.drawGUI();
-                //System.out.println("painting GUI: "+dataPacket.getTime());         
-                resetDisconnectedWatchdog();
-                
-                if(forwardToServer){
-                    cpsserver.send(dataPacket.getDataIntArray());
+            if(forwardToServer){
+                try {
+                    if (dataPacket.getDataBuffer() != null) {
+                        cpsserver.send(dataPacket.getDataBuffer(), dataPacket.getDataBufferOffset(), DataPacket.getDataPacketSize());
+                    } else {
+                        cpsserver.send(dataPacket.getDataIntArray());
+                    }
+                } catch (IOException e) {
+                    System.out.println("Problems while forwarding data");
                 }
-
-            } catch (IOException e) {
-                System.out.println("Problems while painting GUI");
             }
 
         } else {
@@ -301,9 +536,9 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
             if (dataPacket.isMessagaAvaliable()) {
                 joutln(dataPacket.getMessage());
             } else {
+                // counted by the link, see MetricsRegistry.CHECKSUM_FAILURES
                 gui.setMode((int) (0xFDFF & (int) dataPacket.getFlight_mode()));
                 resetDisconnectedWatchdog();
-                System.out.println("Data checksum Failed");
             }
 
 
@@ -311,33 +546,142 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
 
     }
 
-    public void sendParameter(byte paramId, float paramValue){
-        ParamPacket packet = new ParamPacket();        
-        packet.assembleParameterPacket(paramId, paramValue);
-        if(gui.isUDP()){
-            udpServer.sendData(packet.getPacketData());
-            client.sendDatatoMatlab(packet.getPacketData());
-        } else
-        {
-            serialManager.sendData(packet.getPacketData());
+    /**
+     * Pushes the newest telemetry row to the GUI, skipping rows that arrived
+     * while the previous update was being painted.
+     */
+    private class GuiPublisher extends TelemetryConsumer {
+
+        private final double[] customData = new double[DataPacket.getCustomDataCount()];
+        private final double[] customParameters = new double[DataPacket.getCustomParameterCount()];
+        private final Waypoint[] customWaypoints = new Waypoint[DataPacket.getCustomWaypointCount()];
+
+        GuiPublisher(TelemetryRing ring) {
+            super(ring, "gui", true, guiPeriodMs);
+            for (int i = 0; i < customWaypoints.length; i++) {
+                customWaypoints[i] = new Waypoint(0, 0, 0);
+            }
+        }
+
+        @Override
+        protected void process(double[] row) {
+            gui.setAirSpeed(row[DataPacket.INDEX_IAS], row[DataPacket.INDEX_IAS_REF]);
+            gui.setHeading(row[DataPacket.INDEX_PSI]);
+            gui.setPitchAndBank(row[DataPacket.INDEX_THETA], -1 * row[DataPacket.INDEX_PHI]);
+            gui.setTime(row[DataPacket.INDEX_TIME]);
+            int auxMode = (int) row[DataPacket.INDEX_FLIGHT_MODE];
+            gui.setMode((int) (0x0200 | auxMode));
+            gui.setCPULoad(row[DataPacket.INDEX_CPULOAD]);
+            gui.setGPS(row[DataPacket.INDEX_ALTITUDE], row[DataPacket.INDEX_LONGITUD], row[DataPacket.INDEX_LATITUD], (int) row[DataPacket.INDEX_GPS_SATELLITES]);
+            gui.setRefAltitude(row[DataPacket.INDEX_ALT_REF]);
+            gui.setAileron(row[DataPacket.INDEX_AILERON]);
+            gui.setElevetor(row[DataPacket.INDEX_ELEVATOR]);
+            gui.setThrottle(100 * row[DataPacket.INDEX_THROTTLE]);
+            gui.setRudder(row[DataPacket.INDEX_RUDDER]);
+
+            System.arraycopy(row, DataPacket.INDEX_CUSTOM_DATA, customData, 0, customData.length);
+            gui.setCustomData(customData, row[DataPacket.INDEX_TIME]);
+            System.arraycopy(row, DataPacket.INDEX_CUSTOM_PARAMETERS, customParameters, 0, customParameters.length);
+            gui.setCustomParameters(customParameters);
+            int idBase = DataPacket.getDataArraySize();
+            for (int i = 0; i < customWaypoints.length; i++) {
+                int base = DataPacket.INDEX_CUSTOM_WAYPOINTS + 3 * i;
+                customWaypoints[i].setID((int) row[idBase + i]);
+                customWaypoints[i].setLongitude(row[base]);
+                customWaypoints[i].setLatitude(row[base + 1]);
+                customWaypoints[i].setAltitude((float) row[base + 2]);
+            }
+            gui.setCustomWaypoints(customWaypoints);
+            guiLag.recordNanos(System.nanoTime() - getConsumer().getLastReceiveNanos());
+        }
+    }
+
+    /**
+     * Feeds every telemetry row's custom data to the GUI's scope, which the
+     * coalesced GuiPublisher would thin out to its own rate.
+     */
+    private class ScopePublisher extends TelemetryConsumer {
+
+        private final double[] customData = new double[DataPacket.getCustomDataCount()];
+
+        ScopePublisher(TelemetryRing ring) {
+            super(ring, "scope", false, 0);
+        }
+
+        @Override
+        protected void process(double[] row) {
+            System.arraycopy(row, DataPacket.INDEX_CUSTOM_DATA, customData, 0, customData.length);
+            gui.appendCustomData(customData, row[DataPacket.INDEX_TIME]);
         }
+    }
+
+    /**
+     *
+     * @return ring of the vehicle shown in the GUI
+     */
+    public TelemetryRing getTelemetryRing() {
+        return selectedLink.getTelemetryRing();
+    }
+
+    /**
+     * Sends a parameter update, retransmitting it until the telemetry
+     * echoes the new value.
+     *
+     * @param paramId
+     * @param paramValue
+     * @return completes when the aircraft confirmed the value
+     */
+    public Future<UplinkFrame> sendParameter(byte paramId, float paramValue){
+        return reliableUplink.sendParameter(paramId, paramValue);
     }        
     
-    public void sendWaypoint(byte waypointId, int longitude, int latitude, float altitude){
-        WaypointPacket packet = new WaypointPacket();
-        packet.assembleWaypointPacket(waypointId, longitude, latitude, altitude);
+    /**
+     * Sends a waypoint, retransmitting it until the telemetry echoes it.
+     *
+     * @return completes when the aircraft confirmed the waypoint
+     */
+    public Future<UplinkFrame> sendWaypoint(byte waypointId, int longitude, int latitude, float altitude){
+        return reliableUplink.sendWaypoint(waypointId, longitude, latitude, altitude);
+    }
+
+    /**
+     * Writes an uplink packet to the link that is open.
+     */
+    private void sendPacket(int[] packet) throws IOException {
         if(gui.isUDP()){
-            udpServer.sendData(packet.getPacketData());
+            if (udpServer == null) {
+                throw new IOException("UDP link not open");
+            }
+            udpServer.sendData(packet);
+            if (client != null && packet.length > 5 && packet[5] == 0) {
+                // Parameter packets are mirrored to Matlab.
+                client.sendDatatoMatlab(packet);
+            }
         } else
         {
-            serialManager.sendData(packet.getPacketData());
+            if (serialManager == null) {
+                throw new IOException("Serial link not open");
+            }
+            serialManager.sendData(packet);
         }
     }
+
+    /**
+     *
+     * @return uplink tracking the parameter and waypoint updates
+     */
+    public ReliableUplink getReliableUplink() {
+        return reliableUplink;
+    }
     
     /**
      *
      */
     public void quit() {
+        reliableUplink.stopUplink();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
         try {
             serialManager.closeConnection();
             serialManager.stop();
@@ -361,6 +705,10 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
         connectionParameters.setStopBits(gui.getStopBits());
 
 
+        for (VehicleLink link : linkRegistry.getLinks()) {
+            link.close();
+        }
+
         dataSettings.setConnectionParemeters(connectionParameters);
         dataSettings.setVectorCommands(gui.getListOfCommands());
         saveDefaultSettings(dataSettings);
@@ -368,20 +716,6 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
 
     }
 
-    private void saveVectorData() {
-
-        Vector tempVector = (Vector) openObjectFile(tempFile);
-        if (tempVector != null) {
-            tempVector.addAll(vectorData);
-            //System.out.println("Total size= "+tempVector.size());
-        } else {
-            tempVector = vectorData;
-        }
-        saveObjectFile(tempFile, tempVector);
-        vectorData.removeAllElements();
-
-    }
-
     /**
      *
      * @param path
@@ -499,127 +833,77 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
             }
             MfileName += ".mat";
         }
-        Vector vData = (Vector) openObjectFile(tempFile);
-
-        if (vData != null) {
-            vData.addAll(vectorData);
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            double[][] matrix = getMatrix(vData);
-            MLDouble mlDouble = new MLDouble(MfileName.substring(0, MfileName.length() - 4), matrix);
-            ArrayList list = new ArrayList();
-            list.add(mlDouble);
-            try {
-                new MatFileWriter(MfilePath, list);
-                //gui.setPitchAndBank(-40.7894, 270);
-            } catch (IOException ex) {
-                Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            joutln("Data saved sucessfully");
-        } else {
-            if (vectorData != null) {
-                if (vectorData.size() > 0) {
-                    vData = vectorData;
-                    double[][] matrix = getMatrix(vData);
-                    MLDouble mlDouble = new MLDouble(MfileName.substring(0, MfileName.length() - 4), matrix);
-                    ArrayList list = new ArrayList();
-                    list.add(mlDouble);
-                    try {
-                        new MatFileWriter(MfilePath, list);
-                        //gui.setPitchAndBank(-40.7894, 270);
-                    } catch (IOException ex) {
-                        Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                    joutln("Data saved sucessfully");
-                }
-
-
-
-            } else {
-                joutln("No Data avaliable", true);
-            }
+        FlightLog log = openRecording();
+        if (log == null) {
+            joutln("No Data avaliable", true);
+            return;
         }
-
+        String name = MfileName.substring(0, MfileName.length() - 4);
+        flightExporter.exportMat(log, new File(MfilePath), name, new ExportSelection(), new ExportProgress());
     }
 
     /**
      *
-     * @param vData
-     * @return
+     * @param MfilePath
      */
-    public double[][] getMatrix(Vector vData) {
-
-        double[][] matrix = new double[vData.size()][((double[]) vData.elementAt(0)).length];
-        for (int i = 0; i < vData.size(); i++) {
-
-            matrix[i] = (double[]) vData.elementAt(i);
-
+    public void genMFile(final String MfilePath) {
+        FlightLog log = openRecording();
+        if (log == null) {
+            joutln("No Data avaliable", true);
+            return;
         }
-        return matrix;
+        flightExporter.exportM(log, new File(MfilePath), new ExportSelection(), new ExportProgress());
     }
 
     /**
-     *
-     * @param MfilePath
+     * Reports export progress on the console in 10% steps.
      */
-    public void genMFile(final String MfilePath) {
-        Vector vData = (Vector) openObjectFile(tempFile);
+    private class ExportProgress implements FlightExporter.ProgressListener {
 
-        if (vData != null) {
-            vData.addAll(vectorData);
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            String stMFile = getStringMFile(vData);
-            saveFile(MfilePath, stMFile);
-            joutln("Data saved sucessfully");
-        } else {
-            if (vectorData != null) {
-                if (vectorData.size() > 0) {
-                    vData = vectorData;
-                    String stMFile = getStringMFile(vData);
-                    saveFile(MfilePath, stMFile);
+        private long lastStep = -1;
+
+        public void progress(long done, long total) {
+            long step = total == 0 ? 10 : done * 10 / total;
+            if (step != lastStep) {
+                lastStep = step;
+                if (step >= 10) {
                     joutln("Data saved sucessfully");
+                } else {
+                    joutln("Saving data: " + step * 10 + "%");
                 }
-
-
-
-            } else {
-                joutln("No Data avaliable", true);
             }
         }
+
+        public void failed(IOException ex) {
+            Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
+            joutln("Data could not be saved: " + ex.getMessage(), true);
+        }
     }
 
     /**
+     * Commits the recording of the vehicle shown in the GUI and opens it for
+     * reading. Time and channel queries go through FlightLog.getIndex(); the
+     * caller closes the log.
      *
-     * @param vData
-     * @return
+     * @return null if nothing was recorded yet
      */
-    public String getStringMFile(Vector vData) {
-        String mFile = "data=[\n";
-        for (int i = 0; i < vData.size(); i++) {
-            double[] array = null;
-            try {
-                array = (double[]) vData.elementAt(i);
-            } catch (Exception e) {
-            }
-
-            if (array != null) {
-                for (int j = 0; j < array.length; j++) {
-                    mFile = mFile + "" + array[j] + " ";
-
-                }
-                mFile = mFile + "\n";
+    public FlightLog openRecording() {
+        FlightRecorder flightRecorder = selectedLink.getFlightRecorder();
+        if (flightRecorder == null) {
+            return null;
+        }
+        try {
+            flightRecorder.commit();
+            FlightLog log = new FlightLog(flightRecorder.getFile());
+            if (log.getRowCount() == 0) {
+                log.close();
+                return null;
             }
-
+            return log;
+        } catch (IOException ex) {
+            Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
         }
-        mFile = mFile + "]";
-        return mFile;
     }
 
     /**
@@ -629,7 +913,10 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
      */
     public void setKMLPath(File file, int period) {
         System.out.println("KML ok");
-        kmlManager = null;
+        if (!stopKMLManager()) {
+            joutln("The KML file is still being written, try again", true);
+            return;
+        }
         kmlManager = new KMLManager(this, file, period);
 
     }
@@ -639,7 +926,7 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
      * @return
      */
     public double getLongitud() {
-        return dataPacket.getLongitud();
+        return selectedLink.getDataPacket().getLongitud();
     }
 
     /**
@@ -647,7 +934,7 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
      * @return
      */
     public double getLatitud() {
-        return dataPacket.getLatitud();
+        return selectedLink.getDataPacket().getLatitud();
     }
 
     /**
@@ -655,15 +942,39 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
      * @return
      */
     public double getAltitude() {
-        return dataPacket.getAltitude();
+        return selectedLink.getDataPacket().getAltitude();
     }
 
     /**
      *
      */
     public void kmlStop() {
+        stopKMLManager();
+    }
+
+    /**
+     * Stops the KML writer and waits for it to close the file: a new
+     * KMLManager may start the same file over.
+     *
+     * @return false if it did not stop in time
+     */
+    private boolean stopKMLManager() {
+        if (kmlManager == null) {
+            return true;
+        }
         kmlManager.setBreak(true);
-        kmlManager.stop();
+        try {
+            kmlManager.join(kmlStopTimeoutMs);
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Kernel.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        if (kmlManager.isAlive()) {
+            Logger.getLogger(Kernel.class.getName()).log(Level.WARNING,
+                    "KML writer did not stop within {0} ms", kmlStopTimeoutMs);
+            return false;
+        }
+        kmlManager = null;
+        return true;
     }
 
     /**
@@ -738,6 +1049,23 @@ public class Kernel extends Thread implements ChannelInterface, KernelInterface
         gui.sendDataToTerminal(buffer);
     }
 
+    /**
+     *
+     * @return recorder of the vehicle shown in the GUI, null if it could not
+     * be opened
+     */
+    public FlightRecorder getFlightRecorder() {
+        return selectedLink.getFlightRecorder();
+    }
+
+    /**
+     *
+     * @return level-of-detail history of the vehicle shown in the GUI
+     */
+    public FlightHistory getFlightHistory() {
+        return selectedLink.getFlightHistory();
+    }
+
     private void loadDefaultSettingsToGUI(DataSettings dataSettings_) {
 
 
@@ -0,0 +1,80 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kernel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Vehicle links of the station, looked up by vehicle id or by the local
+ * port the vehicle sends to.
+ */
+public class LinkRegistry {
+
+    private final Map<Integer, VehicleLink> byVehicle = new HashMap<Integer, VehicleLink>();
+    private final Map<Integer, VehicleLink> byPort = new HashMap<Integer, VehicleLink>();
+
+    public synchronized void add(VehicleLink link) {
+        VehicleLink old = byVehicle.put(link.getVehicleId(), link);
+        if (old != null) {
+            byPort.remove(old.getPort());
+        }
+        byPort.put(link.getPort(), link);
+    }
+
+    public synchronized VehicleLink remove(int vehicleId) {
+        VehicleLink link = byVehicle.remove(vehicleId);
+        if (link != null) {
+            byPort.remove(link.getPort());
+        }
+        return link;
+    }
+
+    /**
+     * Moves a registered link to another port.
+     */
+    public synchronized void setPort(VehicleLink link, int port) {
+        if (byPort.get(link.getPort()) == link) {
+            byPort.remove(link.getPort());
+        }
+        link.setPort(port);
+        byPort.put(port, link);
+    }
+
+    public synchronized VehicleLink getByVehicle(int vehicleId) {
+        return byVehicle.get(vehicleId);
+    }
+
+    public synchronized VehicleLink getByPort(int port) {
+        return byPort.get(port);
+    }
+
+    /**
+     *
+     * @return links sorted by vehicle id
+     */
+    public synchronized List<VehicleLink> getLinks() {
+        List<VehicleLink> links = new ArrayList<VehicleLink>(byVehicle.values());
+        Collections.sort(links, new Comparator<VehicleLink>() {
+            public int compare(VehicleLink a, VehicleLink b) {
+                return a.getVehicleId() < b.getVehicleId() ? -1 : (a.getVehicleId() == b.getVehicleId() ? 0 : 1);
+            }
+        });
+        return links;
+    }
+
+    public synchronized int[] getVehicleIds() {
+        List<VehicleLink> links = getLinks();
+        int[] ids = new int[links.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = links.get(i).getVehicleId();
+        }
+        return ids;
+    }
+}
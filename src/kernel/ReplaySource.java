@@ -0,0 +1,268 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kernel;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import recorder.FlightLog;
+
+/**
+ * Plays a recorded flight back into a VehicleLink, so the GUI, the history
+ * and every other ring consumer see it as if it were flying.
+ *
+ * Rows are published in recorded order with their recorded values, at a
+ * pace set by their receive timestamps divided by the speed: 1 is real
+ * time, 100 a hundred times faster and MAX_SPEED as fast as the rows can
+ * be read. The replay can be paused, stepped row by row while paused and
+ * moved to any time; the recording is memory mapped and seeks go through
+ * its FlightIndex, so a seek reads one block however long the flight is.
+ *
+ * At MAX_SPEED the replay does not wait for the consumers: like a fast
+ * link it makes the slow ones drop rows, which their counters show. That
+ * makes it a stress test of everything downstream of the decoder.
+ *
+ * At the end of the recording the replay pauses. resumeReplay() goes on after a
+ * seek(), or with the rows recorded since if the recording is still being
+ * written.
+ */
+public class ReplaySource extends Thread {
+
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private final FlightLog log;
+    private final VehicleLink link;
+    private final double[] row;
+    private long rows;
+    private long next = 0;
+    private double speed = 1;
+    private boolean paused = false;
+    private int steps = 0;
+    private boolean runFlag = true;
+    private boolean anchored = false;
+    private long anchorNanos = 0;
+    private long anchorMicros = 0;
+    private volatile long published = 0;
+    private volatile long positionMicros = 0;
+    private volatile long busyNanos = 0;
+
+    /**
+     *
+     * @param log recording to play
+     * @param link link the rows are published to; nothing else may publish
+     * to it while the replay runs
+     */
+    public ReplaySource(FlightLog log, VehicleLink link) {
+        super("Replay " + log.getFile().getName());
+        this.log = log;
+        this.link = link;
+        this.row = new double[log.getWidth()];
+        this.rows = log.getRowCount();
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long busyFrom = 0;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (!runFlag) {
+                        return;
+                    }
+                    if (next >= rows) {
+                        rows = log.refresh();
+                    }
+                    if (next >= rows || (paused && steps == 0)) {
+                        if (next >= rows && !paused) {
+                            paused = true;
+                            notifyAll();
+                        }
+                        if (busyFrom != 0) {
+                            busyNanos += System.nanoTime() - busyFrom;
+                            busyFrom = 0;
+                        }
+                        wait(next >= rows ? 500 : 0);
+                        continue;
+                    }
+                    long t = log.readTimestamp(next);
+                    if (steps == 0 && speed != MAX_SPEED) {
+                        long now = System.nanoTime();
+                        if (!anchored) {
+                            anchored = true;
+                            anchorNanos = now;
+                            anchorMicros = t;
+                        }
+                        long due = anchorNanos + (long) ((t - anchorMicros) * 1000 / speed);
+                        if (due - now > 0) {
+                            if (busyFrom != 0) {
+                                busyNanos += now - busyFrom;
+                                busyFrom = 0;
+                            }
+                            long wait = due - now;
+                            wait(wait / 1000000, (int) (wait % 1000000));
+                            continue;
+                        }
+                    }
+                    if (busyFrom == 0) {
+                        busyFrom = System.nanoTime();
+                    }
+                    log.readRow(next, row);
+                    link.replay(row);
+                    positionMicros = t;
+                    next++;
+                    published++;
+                    if (steps > 0) {
+                        steps--;
+                        anchored = false;
+                        if (steps == 0) {
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger(ReplaySource.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (IOException ex) {
+            Logger.getLogger(ReplaySource.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     *
+     * @param speed recorded seconds played per second, MAX_SPEED for as
+     * fast as possible
+     */
+    public synchronized void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed " + speed);
+        }
+        this.speed = speed;
+        anchored = false;
+        notifyAll();
+    }
+
+    public synchronized double getSpeed() {
+        return speed;
+    }
+
+    public synchronized void pauseReplay() {
+        paused = true;
+        notifyAll();
+    }
+
+    public synchronized void resumeReplay() {
+        paused = false;
+        anchored = false;
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Publishes the next rows right away while paused.
+     *
+     * @param count rows
+     */
+    public synchronized void step(int count) {
+        steps += count;
+        notifyAll();
+    }
+
+    /**
+     * Continues from the first row received at or after a time.
+     *
+     * @param timestampMicros epoch microseconds
+     */
+    public synchronized void seek(long timestampMicros) throws IOException {
+        seekRow(log.findRow(timestampMicros));
+    }
+
+    /**
+     * Continues from a row.
+     *
+     * @param row row number, clamped to the recording
+     */
+    public synchronized void seekRow(long row) throws IOException {
+        rows = log.refresh();
+        next = Math.max(0, Math.min(row, rows));
+        steps = 0;
+        anchored = false;
+        if (next < rows) {
+            positionMicros = log.readTimestamp(next);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Ends the replay thread; the log stays open.
+     */
+    public synchronized void stopReplay() {
+        runFlag = false;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the replay paused, at the end of the recording or because
+     * pauseReplay() was called.
+     *
+     * @param timeoutMs
+     * @return false on timeout
+     */
+    public synchronized boolean awaitPause(long timeoutMs) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMs;
+        while (!paused || steps > 0) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    public FlightLog getLog() {
+        return log;
+    }
+
+    public VehicleLink getLink() {
+        return link;
+    }
+
+    /**
+     *
+     * @return next row to be published
+     */
+    public synchronized long getRow() {
+        return next;
+    }
+
+    public synchronized long getRowCount() {
+        return rows;
+    }
+
+    /**
+     *
+     * @return receive time of the last row published, epoch microseconds
+     */
+    public long getPositionMicros() {
+        return positionMicros;
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     *
+     * @return time spent publishing rather than waiting, for rows per
+     * second at MAX_SPEED
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+}
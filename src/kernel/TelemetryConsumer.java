@@ -0,0 +1,119 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kernel;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread that drains one TelemetryRing consumer. With coalescing on it only
+ * sees the newest row each time it wakes up, and never more often than
+ * minPeriodMs; with coalescing off it processes every row in order.
+ *
+ * A lossless consumer is waited for by the producer; if it still loses
+ * rows, dropped() is called and logs them as an error.
+ */
+public abstract class TelemetryConsumer extends Thread {
+
+    private final TelemetryRing ring;
+    private final TelemetryRing.Consumer consumer;
+    private final boolean coalesce;
+    private final long minPeriodMs;
+    private final boolean lossless;
+    private final double[] row;
+    private long reportedDropped = 0;
+    private volatile boolean runFlag = true;
+
+    public TelemetryConsumer(TelemetryRing ring, String name, boolean coalesce, long minPeriodMs) {
+        this(ring, name, coalesce, minPeriodMs, false);
+    }
+
+    /**
+     *
+     * @param lossless true to have the producer wait for this consumer
+     * instead of overwriting its unread rows; only without coalescing
+     */
+    public TelemetryConsumer(TelemetryRing ring, String name, boolean coalesce, long minPeriodMs,
+            boolean lossless) {
+        super("Telemetry " + name);
+        this.ring = ring;
+        this.consumer = ring.newConsumer(name, lossless && !coalesce);
+        this.coalesce = coalesce;
+        this.minPeriodMs = minPeriodMs;
+        this.lossless = lossless && !coalesce;
+        this.row = new double[ring.getWidth()];
+        setDaemon(true);
+    }
+
+    /**
+     * Called on this thread with a row copied out of the ring. The array is
+     * reused for the next row.
+     */
+    protected abstract void process(double[] row);
+
+    /**
+     * Called after a batch of rows was processed and the ring is empty.
+     */
+    protected void idle() {
+    }
+
+    /**
+     * Called on this thread when rows were overwritten before it read them.
+     * Only a lossless consumer reports it, as an error.
+     *
+     * @param rows rows lost since the last call
+     */
+    protected void dropped(long rows) {
+        if (lossless) {
+            Logger.getLogger(TelemetryConsumer.class.getName()).log(Level.SEVERE,
+                    "{0} lost {1} rows", new Object[]{consumer.getName(), rows});
+        }
+    }
+
+    @Override
+    public void run() {
+        while (runFlag) {
+            boolean got = false;
+            if (coalesce) {
+                if (consumer.pollLatest(row)) {
+                    process(row);
+                    got = true;
+                }
+            } else {
+                while (runFlag && consumer.poll(row)) {
+                    process(row);
+                    got = true;
+                }
+                long dropped = consumer.getDropped();
+                if (dropped > reportedDropped) {
+                    dropped(dropped - reportedDropped);
+                    reportedDropped = dropped;
+                }
+            }
+            if (got) {
+                idle();
+            }
+            if (got && minPeriodMs > 0) {
+                try {
+                    Thread.sleep(minPeriodMs);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            } else {
+                consumer.await(200000000L);
+            }
+        }
+        ring.removeConsumer(consumer);
+    }
+
+    public TelemetryRing.Consumer getConsumer() {
+        return consumer;
+    }
+
+    public void stopConsumer() {
+        runFlag = false;
+        interrupt();
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kernel;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single-producer, multi-consumer ring of decoded telemetry rows.
+ *
+ * The link reader publishes every decoded frame and does not wait for
+ * ordinary consumers: one that falls more than a ring length behind loses
+ * the overwritten rows and counts them as dropped. A lossless consumer
+ * (the recorder) is waited for instead, up to gateTimeoutNanos per row;
+ * past that it is treated as stuck, stops being waited for and drops like
+ * the others. Each consumer reads at its own pace, either every row in
+ * order (poll) or only the newest one (pollLatest).
+ *
+ * Rows are stored as raw long bits in an AtomicLongArray so a consumer can
+ * detect a row the producer overwrote while it was being copied.
+ */
+public class TelemetryRing {
+
+    private final int capacity;
+    private final int mask;
+    private final int width;
+    private final int stride;
+    private final AtomicLongArray rows;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private volatile Consumer[] consumers = new Consumer[0];
+    private volatile Consumer[] lossless = new Consumer[0];
+    private long gateTimeoutNanos = 5000000000L;
+
+    /**
+     *
+     * @param capacity number of rows, rounded up to a power of two
+     * @param width number of doubles in a row
+     */
+    public TelemetryRing(int capacity, int width) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.width = width;
+        this.stride = width + 1;
+        this.rows = new AtomicLongArray(size * stride);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     *
+     * @return sequence of the newest published row, -1 if nothing was published yet
+     */
+    public long getPublished() {
+        return cursor.get();
+    }
+
+    /**
+     *
+     * @param timeoutNanos longest the producer waits for a lossless consumer
+     * to free a slot before giving up on it
+     */
+    public void setGateTimeoutNanos(long timeoutNanos) {
+        gateTimeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Copies a row into the ring and wakes up idle consumers. Must only be
+     * called from the single producer thread.
+     *
+     * @param values row values, at least getWidth() long
+     * @param receiveNanos System.nanoTime() when the frame arrived
+     */
+    public void publish(double[] values, long receiveNanos) {
+        long sequence = cursor.get() + 1;
+        Consumer[] gates = lossless;
+        for (int i = 0; i < gates.length; i++) {
+            if (sequence - gates[i].next >= capacity - 1) {
+                waitFor(gates[i], sequence);
+            }
+        }
+        int base = (int) (sequence & mask) * stride;
+        rows.lazySet(base, receiveNanos);
+        for (int i = 0; i < width; i++) {
+            rows.lazySet(base + 1 + i, Double.doubleToRawLongBits(values[i]));
+        }
+        // Full store so a consumer going to sleep either sees the row or
+        // has its waiter visible here.
+        cursor.set(sequence);
+
+        Consumer[] current = consumers;
+        for (int i = 0; i < current.length; i++) {
+            current[i].signal();
+        }
+    }
+
+    /**
+     * Waits until a lossless consumer has read far enough for sequence to be
+     * written, or gives up on it after gateTimeoutNanos.
+     */
+    private void waitFor(Consumer consumer, long sequence) {
+        long start = System.nanoTime();
+        while (sequence - consumer.next >= capacity - 1) {
+            long waited = System.nanoTime() - start;
+            if (waited > gateTimeoutNanos) {
+                consumer.stalledNanos += waited;
+                synchronized (this) {
+                    lossless = remove(lossless, consumer);
+                }
+                Logger.getLogger(TelemetryRing.class.getName()).log(Level.SEVERE,
+                        "{0} is {1} ms behind, no longer waiting for it: it will drop rows",
+                        new Object[]{consumer.getName(), waited / 1000000});
+                return;
+            }
+            consumer.signal();
+            LockSupport.parkNanos(this, 100000);
+        }
+        consumer.stalledNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Registers a consumer that starts reading after the newest published row.
+     *
+     * @param name name shown with its metrics
+     */
+    public Consumer newConsumer(String name) {
+        return newConsumer(name, false);
+    }
+
+    /**
+     * Registers a consumer that starts reading after the newest published row.
+     *
+     * @param name name shown with its metrics
+     * @param lossless true to make the producer wait for this consumer
+     * rather than overwrite rows it has not read
+     */
+    public synchronized Consumer newConsumer(String name, boolean lossless) {
+        Consumer consumer = new Consumer(name, cursor.get() + 1);
+        consumers = add(consumers, consumer);
+        if (lossless) {
+            this.lossless = add(this.lossless, consumer);
+        }
+        return consumer;
+    }
+
+    public synchronized void removeConsumer(Consumer consumer) {
+        consumers = remove(consumers, consumer);
+        lossless = remove(lossless, consumer);
+    }
+
+    private static Consumer[] add(Consumer[] array, Consumer consumer) {
+        Consumer[] grown = new Consumer[array.length + 1];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        grown[array.length] = consumer;
+        return grown;
+    }
+
+    private static Consumer[] remove(Consumer[] array, Consumer consumer) {
+        int n = 0;
+        Consumer[] shrunk = new Consumer[array.length];
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] != consumer) {
+                shrunk[n++] = array[i];
+            }
+        }
+        Consumer[] result = new Consumer[n];
+        System.arraycopy(shrunk, 0, result, 0, n);
+        return result;
+    }
+
+    public Consumer[] getConsumers() {
+        return consumers;
+    }
+
+    /**
+     * Read cursor of one consumer. Its methods must be called from a single
+     * thread; the metrics getters can be read from any thread.
+     */
+    public class Consumer {
+
+        private final String name;
+        // volatile: the producer reads it to wait for lossless consumers
+        private volatile long next;
+        private volatile Thread waiter = null;
+        private volatile long consumed = 0;
+        private volatile long dropped = 0;
+        private volatile long coalesced = 0;
+        private volatile long lastLatencyNanos = 0;
+        private volatile long maxLatencyNanos = 0;
+        private long totalLatencyNanos = 0;
+        private volatile long lastReceiveNanos = 0;
+        private volatile long stalledNanos = 0;
+
+        Consumer(String name, long next) {
+            this.name = name;
+            this.next = next;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Copies the next unread row into dst.
+         *
+         * @return false if there is no unread row
+         */
+        public boolean poll(double[] dst) {
+            while (true) {
+                long published = cursor.get();
+                if (next > published) {
+                    return false;
+                }
+                if (published - next >= capacity - 1) {
+                    long oldest = published - capacity + 2;
+                    dropped += oldest - next;
+                    next = oldest;
+                }
+                if (read(next, dst)) {
+                    next++;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Copies the newest row into dst and skips everything older.
+         *
+         * @return false if no row was published since the last read
+         */
+        public boolean pollLatest(double[] dst) {
+            while (true) {
+                long published = cursor.get();
+                if (next > published) {
+                    return false;
+                }
+                if (read(published, dst)) {
+                    coalesced += published - next;
+                    next = published + 1;
+                    return true;
+                }
+            }
+        }
+
+        private boolean read(long sequence, double[] dst) {
+            int base = (int) (sequence & mask) * stride;
+            long receiveNanos = rows.get(base);
+            for (int i = 0; i < width; i++) {
+                dst[i] = Double.longBitsToDouble(rows.get(base + 1 + i));
+            }
+            // The producer starts overwriting this slot once it has
+            // published sequence + capacity - 1.
+            if (cursor.get() - sequence >= capacity - 1) {
+                return false;
+            }
+            long latency = System.nanoTime() - receiveNanos;
+            lastReceiveNanos = receiveNanos;
+            lastLatencyNanos = latency;
+            totalLatencyNanos += latency;
+            if (latency > maxLatencyNanos) {
+                maxLatencyNanos = latency;
+            }
+            consumed++;
+            return true;
+        }
+
+        /**
+         * Parks the calling thread until a row is published or the timeout
+         * expires.
+         */
+        public void await(long timeoutNanos) {
+            waiter = Thread.currentThread();
+            if (next > cursor.get()) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+            waiter = null;
+        }
+
+        void signal() {
+            Thread t = waiter;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        /**
+         *
+         * @return number of published rows this consumer has not read yet
+         */
+        public long getDepth() {
+            return Math.max(0, cursor.get() + 1 - next);
+        }
+
+        public long getConsumed() {
+            return consumed;
+        }
+
+        /**
+         *
+         * @return rows overwritten before this consumer could read them
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         *
+         * @return rows skipped on purpose by pollLatest
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getLastLatencyNanos() {
+            return lastLatencyNanos;
+        }
+
+        public long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+
+        public long getMeanLatencyNanos() {
+            long n = consumed;
+            return n == 0 ? 0 : totalLatencyNanos / n;
+        }
+
+        public long getLastReceiveNanos() {
+            return lastReceiveNanos;
+        }
+
+        /**
+         *
+         * @return time the producer spent waiting for this consumer
+         */
+        public long getStalledNanos() {
+            return stalledNanos;
+        }
+
+        /**
+         *
+         * @return true while the producer waits for this consumer
+         */
+        public boolean isLossless() {
+            Consumer[] gates = lossless;
+            for (int i = 0; i < gates.length; i++) {
+                if (gates[i] == this) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: depth=%d consumed=%d dropped=%d coalesced=%d latency(last/mean/max)=%.2f/%.2f/%.2f ms",
+                    name, getDepth(), consumed, dropped, coalesced,
+                    lastLatencyNanos / 1e6, getMeanLatencyNanos() / 1e6, maxLatencyNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kernel;
+
+import data.DataPacket;
+import data.Waypoint;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import recorder.FlightHistory;
+import recorder.FlightLog;
+import recorder.FlightRecorder;
+
+/**
+ * Telemetry state of one aircraft: its own decoder, the ring its decoded
+ * rows are published to, the recording of its flight and the multi
+ * resolution history plots of the whole flight are drawn from.
+ *
+ * decode() is called by the thread that reads the vehicle's link; the ring
+ * consumers (recorder, GUI) run on their own threads.
+ */
+public class VehicleLink {
+
+    // about 8 s at 1 kHz before the link waits for a stalled recorder
+    private static final int telemetryRingSize = 8192;
+    private static final Counter framesReceived = MetricsRegistry.getInstance().counter(MetricsRegistry.FRAMES_RECEIVED);
+    private static final Counter checksumFailed = MetricsRegistry.getInstance().counter(MetricsRegistry.CHECKSUM_FAILURES);
+    private static final LatencyHistogram decodeTime = MetricsRegistry.getInstance().histogram(MetricsRegistry.DECODE);
+    private static final LatencyHistogram recorderLag = MetricsRegistry.getInstance().histogram(MetricsRegistry.RECORDER_LAG);
+    private static final Counter recorderDropped = MetricsRegistry.getInstance().counter(MetricsRegistry.RECORDER_DROPPED);
+
+    private final int vehicleId;
+    private volatile int port;
+    private final DataPacket dataPacket = new DataPacket();
+    private final TelemetryRing telemetryRing = new TelemetryRing(telemetryRingSize,
+            DataPacket.getDataArraySize() + DataPacket.getCustomWaypointCount());
+    private final double[] publishRow = new double[telemetryRing.getWidth()];
+    private FlightRecorder flightRecorder = null;
+    private final FlightHistory flightHistory = new FlightHistory(DataPacket.getDataArraySize());
+    private FlightLog historyLog = null;
+    private final Recorder recorder;
+    private volatile long frames = 0;
+    private volatile long checksumFailures = 0;
+
+    /**
+     *
+     * @param vehicleId id the GUI uses to select this vehicle
+     * @param port local UDP port the vehicle sends to, 0 for the serial link
+     * @param recording file to record the flight to, null to not record
+     */
+    public VehicleLink(int vehicleId, int port, File recording) {
+        this.vehicleId = vehicleId;
+        this.port = port;
+        if (recording != null) {
+            try {
+                flightRecorder = new FlightRecorder(recording, DataPacket.getDataArraySize());
+                historyLog = new FlightLog(recording);
+                flightHistory.setRawSource(historyLog);
+            } catch (IOException ex) {
+                Logger.getLogger(VehicleLink.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        recorder = new Recorder();
+        recorder.start();
+    }
+
+    /**
+     * Decodes a frame and publishes it when the checksum is valid.
+     *
+     * @return true if the frame passed the checksum
+     */
+    public boolean decode(ByteBuffer frame, int offset) {
+        long receiveNanos = System.nanoTime();
+        dataPacket.setDataBuffer(frame, offset);
+        boolean valid = publish(receiveNanos);
+        decodeTime.recordNanos(System.nanoTime() - receiveNanos);
+        return valid;
+    }
+
+    /**
+     * Same as decode(ByteBuffer, int) for frames held in an int array.
+     */
+    public boolean decode(int[] frame) {
+        long receiveNanos = System.nanoTime();
+        dataPacket.setDataIntArray(frame);
+        boolean valid = publish(receiveNanos);
+        decodeTime.recordNanos(System.nanoTime() - receiveNanos);
+        return valid;
+    }
+
+    private boolean publish(long receiveNanos) {
+        frames++;
+        framesReceived.increment();
+        if (!dataPacket.isCheckSum()) {
+            if (!dataPacket.isMessagaAvaliable()) {
+                checksumFailures++;
+                checksumFailed.increment();
+            }
+            return false;
+        }
+        double[] dataArray = dataPacket.getDataArray();
+        System.arraycopy(dataArray, 0, publishRow, 0, dataArray.length);
+        Waypoint[] waypoints = dataPacket.getCustomWaypoints();
+        for (int i = 0; i < waypoints.length; i++) {
+            publishRow[dataArray.length + i] = waypoints[i].getID();
+        }
+        telemetryRing.publish(publishRow, receiveNanos);
+        return true;
+    }
+
+    /**
+     * Publishes a row read back from a recording, as if it had just been
+     * decoded. Must be called from the one thread feeding this link.
+     *
+     * @param row recorded values, DataPacket.getDataArraySize() long
+     */
+    public void replay(double[] row) {
+        frames++;
+        int n = Math.min(row.length, publishRow.length);
+        System.arraycopy(row, 0, publishRow, 0, n);
+        for (int i = n; i < publishRow.length; i++) {
+            publishRow[i] = 0;
+        }
+        telemetryRing.publish(publishRow, System.nanoTime());
+    }
+
+    /**
+     * Appends every valid row to the flight recording, committing in groups
+     * whenever the ring runs dry. While recording it is a lossless consumer:
+     * the link waits for it rather than overwrite rows it has not written.
+     */
+    private class Recorder extends TelemetryConsumer {
+
+        // Converts the ring's System.nanoTime() stamps to epoch microseconds.
+        private final long epochOffsetMicros = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+
+        Recorder() {
+            super(telemetryRing, "recorder " + vehicleId, false, 0, flightRecorder != null);
+        }
+
+        @Override
+        protected void dropped(long rows) {
+            super.dropped(rows);
+            if (flightRecorder != null) {
+                recorderDropped.add(rows);
+            }
+        }
+
+        @Override
+        protected void process(double[] row) {
+            long timestampMicros = epochOffsetMicros + getConsumer().getLastReceiveNanos() / 1000;
+            flightHistory.append(row, timestampMicros);
+            if (flightRecorder == null) {
+                return;
+            }
+            try {
+                flightRecorder.append(row, timestampMicros);
+            } catch (IOException ex) {
+                Logger.getLogger(VehicleLink.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            recorderLag.recordNanos(System.nanoTime() - getConsumer().getLastReceiveNanos());
+        }
+
+        @Override
+        protected void idle() {
+            if (flightRecorder == null) {
+                return;
+            }
+            try {
+                flightRecorder.commitIfDue();
+            } catch (IOException ex) {
+                Logger.getLogger(VehicleLink.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Stops the recorder and closes the recording.
+     */
+    public void close() {
+        recorder.stopConsumer();
+        if (flightRecorder != null) {
+            try {
+                recorder.join(1000);
+                flightHistory.setRawSource(null);
+                if (historyLog != null) {
+                    historyLog.close();
+                }
+                flightRecorder.close();
+            } catch (InterruptedException ex) {
+                Logger.getLogger(VehicleLink.class.getName()).log(Level.SEVERE, null, ex);
+            } catch (IOException ex) {
+                Logger.getLogger(VehicleLink.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    public int getVehicleId() {
+        return vehicleId;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     *
+     * @return decoder of this link; only safe to read from the link thread
+     * or for values where a torn read does not matter
+     */
+    public DataPacket getDataPacket() {
+        return dataPacket;
+    }
+
+    public TelemetryRing getTelemetryRing() {
+        return telemetryRing;
+    }
+
+    /**
+     *
+     * @return recording of this vehicle, null if it could not be opened
+     */
+    public FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    /**
+     *
+     * @return min/max/mean history of every recorded channel, also kept when
+     * the flight could not be recorded to disk
+     */
+    public FlightHistory getFlightHistory() {
+        return flightHistory;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getChecksumFailures() {
+        return checksumFailures;
+    }
+}
@@ -13,7 +13,7 @@ public class KMLFrame {
 
     private String KMLString ="";
 
-    public static final String linePart1="" +
+    public static final String documentStart="" +
             "<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n"+
                 "<kml xmlns=\"http://www.opengis.net/kml/2.2\"> \n"+
                     "<Document> \n"+
@@ -26,7 +26,9 @@ public class KMLFrame {
                                       "<PolyStyle> \n"+
                                         "<color>7f00ff00</color> \n"+
                                       "</PolyStyle> \n"+
-                                    "</Style> \n"+
+                                    "</Style> \n";
+
+    public static final String placemarkStart="" +
                                     "<Placemark> \n"+
                                       "<name>Absolute Extruded</name> \n"+
                                       "<visibility>1</visibility> \n"+
@@ -37,7 +39,10 @@ public class KMLFrame {
                                         "<tessellate>1</tessellate> \n"+
                                         "<altitudeMode>absolute</altitudeMode> \n"+
                                         "<coordinates> \n";
-    public String linePart2="";
+
+    public static final String linePart1=documentStart+placemarkStart;
+
+    private final StringBuilder linePart2=new StringBuilder();
 
     public static final String linePart3= " " +
             "</coordinates> \n"+
@@ -48,7 +53,7 @@ public class KMLFrame {
 
     
     public void setPoint(double lon,double lat, double alt){
-        linePart2=linePart2+lon+","+lat+","+alt+"\n";
+        appendPoint(linePart2, lon, lat, alt);
     }
 
     public  String getKMLLineString(double lat, double lon, double alt) {
@@ -57,5 +62,17 @@ public class KMLFrame {
         return KMLString=linePart1+linePart2+linePart3;
 
     }
+
+    /**
+     * Appends a point as one line of a coordinates element.
+     *
+     * @param sb
+     * @param lon
+     * @param lat
+     * @param alt
+     */
+    public static void appendPoint(StringBuilder sb, double lon, double lat, double alt) {
+        sb.append(lon).append(',').append(lat).append(',').append(alt).append('\n');
+    }
     
 }
\ No newline at end of file
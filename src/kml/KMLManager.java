@@ -6,67 +6,90 @@
 package kml;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import kernel.KernelInterface;
 
 /**
+ * Samples the position and streams it to a KMLWriter: several times a
+ * second, written once every period seconds.
  *
  * @author david
  */
 public class KMLManager extends Thread{
 
-    private boolean breakFlag=false;
+    private volatile boolean breakFlag=false;
     private int period=2;
+    private int sampleMillis=Integer.getInteger("kml.sampleMillis", 250);
+    private int segmentPoints=Integer.getInteger("kml.segmentPoints", 3600);
     private File KMLFile;
-    private KMLFrame kmlFrame;
     private KernelInterface kernel;
     private double lon_1=0,alt_1=0, lat_1=0, lon=0,lat=0,alt=0;
-    private FileManager fileManager;
     public KMLManager(KernelInterface _kernel, File file, int _period){
         KMLFile=file;
         period=_period;
         kernel=_kernel;
-        kmlFrame=new KMLFrame();
-        fileManager=new FileManager();
         start();
     }
 
     public void run(){
 
-        while(!breakFlag){            
+        KMLWriter writer;
+        try {
+            writer = new KMLWriter(KMLFile, period, segmentPoints);
+        } catch (IOException ex) {
+            Logger.getLogger(KMLManager.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        long periodMillis = period * 1000L;
+        long nextFlush = System.currentTimeMillis() + periodMillis;
+        try {
+            while(!breakFlag){
 
-            lon= kernel.getLongitud();
-            lat=kernel.getLatitud();
-            alt=kernel.getAltitude();
-            if(alt!=alt_1 || lon_1!=lon || lat_1!=lat){
-                String KMLString =kmlFrame.getKMLLineString( lon,lat,alt);
-                try{
-                    fileManager.saveFile(KMLFile, KMLString);
+                lon= kernel.getLongitud();
+                lat=kernel.getLatitud();
+                alt=kernel.getAltitude();
+                if(alt!=alt_1 || lon_1!=lon || lat_1!=lat){
+                    writer.append(lon, lat, alt);
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextFlush) {
+                    writer.flush();
+                    nextFlush = now + periodMillis;
                 }
-                catch(Exception e){
-                    
+                try {
+                    Thread.sleep(Math.min(sampleMillis, periodMillis));
+                } catch (InterruptedException ex) {
+                    // setBreak()
                 }
 
-                
+                lon_1=lon;
+                lat_1=lat;
+                alt_1=alt;
+
             }
+        } catch (IOException ex) {
+            Logger.getLogger(KMLManager.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
             try {
-                Thread.sleep(period * 1000);
-            } catch (InterruptedException ex) {
+                writer.close();
+            } catch (IOException ex) {
                 Logger.getLogger(KMLManager.class.getName()).log(Level.SEVERE, null, ex);
             }
-
-            lon_1=lon;
-            lat_1=lat;
-            alt_1=alt;
-            
-           
         }
-        
+
     }
 
+    /**
+     *
+     * @param b true to write what is left, close the file and end the thread
+     */
     public void setBreak(boolean b){
         breakFlag=b;
+        if (b) {
+            interrupt();
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,270 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a flight track as KML while it grows, without rewriting it.
+ *
+ * The file is kept open and always ends with the fixed trailer of
+ * KMLFrame. New points are kept in memory until flush(), which writes them
+ * over the old trailer followed by the trailer again, so a flush costs
+ * the points since the last one, however long the flight, and the file is
+ * a complete KML document after every flush.
+ *
+ * With segments on, every segmentPoints points the track so far is
+ * written to <name>-0001.kmz, <name>-0002.kmz... and the file starts
+ * over with a NetworkLink to each segment before the track, so the file
+ * Google Earth polls stays small. <name>-latest.kml is a NetworkLink that
+ * refreshes the file every refreshSeconds; open that one in Google Earth.
+ *
+ * Not thread safe.
+ */
+public class KMLWriter {
+
+    private static final Charset charset = Charset.forName("UTF-8");
+    private static final byte[] trailer = KMLFrame.linePart3.getBytes(charset);
+
+    private final File file;
+    private final String baseName;
+    private final int segmentPoints;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private int flushPoints = 256;
+    // where the coordinates of the segment and the trailer start
+    private long coordinatesStart;
+    private long trailerPosition;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingPoints = 0;
+    private int segmentCount = 0;
+    private int points = 0;
+    private long totalPoints = 0;
+    private double lastLon, lastLat, lastAlt;
+
+    /**
+     *
+     * @param file the KML file, replaced if it exists
+     * @param refreshSeconds refresh interval of the latest file
+     * @param segmentPoints points per KMZ segment, 0 to keep the whole
+     * track in the file
+     * @throws IOException
+     */
+    public KMLWriter(File file, int refreshSeconds, int segmentPoints) throws IOException {
+        this.file = file;
+        this.segmentPoints = segmentPoints;
+        String name = file.getName();
+        baseName = name.toLowerCase().endsWith(".kml") ? name.substring(0, name.length() - 4) : name;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            start();
+            writeLatest(refreshSeconds);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes the head of the file: the document, a link to every segment
+     * and the start of the placemark, then the trailer.
+     */
+    private void start() throws IOException {
+        StringBuilder head = new StringBuilder(KMLFrame.documentStart);
+        for (int i = 1; i <= segmentCount; i++) {
+            head.append("<NetworkLink> \n")
+                    .append("<name>Segment ").append(i).append("</name> \n")
+                    .append("<Link><href>").append(escape(getSegmentFile(i).getName())).append("</href></Link> \n")
+                    .append("</NetworkLink> \n");
+        }
+        head.append(KMLFrame.placemarkStart);
+        byte[] bytes = head.toString().getBytes(charset);
+        raf.setLength(0);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + trailer.length);
+        buffer.put(bytes).put(trailer).flip();
+        write(buffer, 0);
+        coordinatesStart = bytes.length;
+        trailerPosition = coordinatesStart;
+    }
+
+    private void writeLatest(int refreshSeconds) throws IOException {
+        String latest = "<?xml version=\"1.0\" encoding=\"UTF-8\"?> \n"
+                + "<kml xmlns=\"http://www.opengis.net/kml/2.2\"> \n"
+                + "<NetworkLink> \n"
+                + "<name>" + escape(baseName) + "</name> \n"
+                + "<Link> \n"
+                + "<href>" + escape(file.getName()) + "</href> \n"
+                + "<refreshMode>onInterval</refreshMode> \n"
+                + "<refreshInterval>" + Math.max(1, refreshSeconds) + "</refreshInterval> \n"
+                + "</Link> \n"
+                + "</NetworkLink> \n"
+                + "</kml> ";
+        OutputStream out = new FileOutputStream(getLatestFile());
+        try {
+            out.write(latest.getBytes(charset));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Adds a point; it is written by the next flush, or right away once
+     * flushPoints points are waiting.
+     *
+     * @param lon
+     * @param lat
+     * @param alt
+     * @throws IOException
+     */
+    public void append(double lon, double lat, double alt) throws IOException {
+        KMLFrame.appendPoint(pending, lon, lat, alt);
+        pendingPoints++;
+        points++;
+        totalPoints++;
+        lastLon = lon;
+        lastLat = lat;
+        lastAlt = alt;
+        if (segmentPoints > 0 && points >= segmentPoints) {
+            roll();
+        } else if (pendingPoints >= flushPoints) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the points added since the last flush, and the trailer after
+     * them.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (pendingPoints == 0) {
+            return;
+        }
+        byte[] bytes = pending.toString().getBytes(charset);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + trailer.length);
+        buffer.put(bytes).put(trailer).flip();
+        // only grows the file, the old trailer is all overwritten
+        write(buffer, trailerPosition);
+        trailerPosition += bytes.length;
+        pending.setLength(0);
+        pendingPoints = 0;
+    }
+
+    /**
+     * Closes the segment: writes it as a KMZ and starts the file over with
+     * the last point, so the line goes on without a gap.
+     */
+    private void roll() throws IOException {
+        flush();
+        segmentCount++;
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+                new FileOutputStream(getSegmentFile(segmentCount))));
+        try {
+            zip.putNextEntry(new ZipEntry("doc.kml"));
+            zip.write(KMLFrame.linePart1.getBytes(charset));
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = coordinatesStart;
+            while (position < trailerPosition) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), trailerPosition - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("KML file truncated: " + file);
+                }
+                zip.write(buffer.array(), 0, n);
+                position += n;
+            }
+            zip.write(trailer);
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+        start();
+        KMLFrame.appendPoint(pending, lastLon, lastLat, lastAlt);
+        pendingPoints = 1;
+        points = 1;
+        flush();
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     *
+     * @param points the most points kept in memory before they are written
+     */
+    public void setFlushPoints(int points) {
+        flushPoints = Math.max(1, points);
+    }
+
+    public int getFlushPoints() {
+        return flushPoints;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     *
+     * @return the NetworkLink file that refreshes the KML file
+     */
+    public File getLatestFile() {
+        return new File(file.getAbsoluteFile().getParentFile(), baseName + "-latest.kml");
+    }
+
+    /**
+     *
+     * @param segment 1 for the first
+     * @return the KMZ of the segment
+     */
+    public File getSegmentFile(int segment) {
+        return new File(file.getAbsoluteFile().getParentFile(), String.format("%s-%04d.kmz", baseName, segment));
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     *
+     * @return points appended since the writer was opened
+     */
+    public long getPointCount() {
+        return totalPoints;
+    }
+}
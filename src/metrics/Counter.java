@@ -0,0 +1,46 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count of events, incremented from any thread without locking or
+ * allocating.
+ */
+public class Counter {
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+
+    public Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long n) {
+        count.addAndGet(n);
+    }
+
+    public long get() {
+        return count.get();
+    }
+
+    public void reset() {
+        count.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + count.get();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds with a fixed relative precision,
+ * in the spirit of HdrHistogram: values below 64 get a bucket each, above
+ * that every power of two is split in 32 buckets (about 3% error). Covers
+ * any long value in under 2000 counters and never allocates when recording.
+ *
+ * Recording is lock free and may happen from any thread; readers see a
+ * consistent enough view for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     *
+     * @param nanos latency in nanoseconds, stored in microseconds
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     *
+     * @param micros latency in microseconds; negative values count as 0
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     *
+     * @return largest value recorded, microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     *
+     * @return mean of the recorded values, microseconds
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     *
+     * @param percentile 0..100
+     * @return value at or below which the given share of the records lie,
+     * microseconds, rounded up to the end of its bucket
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return i + 1 < BUCKETS ? Math.min(lowestValueAt(i + 1) - 1, max.get()) : max.get();
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     *
+     * @return counts per bucket, with the lowest value of each bucket in
+     * the first column; only buckets with records
+     */
+    public long[][] getBuckets() {
+        int used = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                used++;
+            }
+        }
+        long[][] buckets = new long[used][2];
+        int j = 0;
+        for (int i = 0; i < BUCKETS && j < used; i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                buckets[j][0] = lowestValueAt(i);
+                buckets[j][1] = c;
+                j++;
+            }
+        }
+        return buckets;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: n=%d mean=%.0fus p50=%dus p90=%dus p99=%dus max=%dus",
+                name, getCount(), getMean(), getPercentile(50), getPercentile(90),
+                getPercentile(99), getMax());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Serves a MetricsRegistry on the loopback interface only:
+ *
+ * - /metrics in the Prometheus text format, for a scraper or curl;
+ * - /metrics.json as one JSON object.
+ *
+ * Requests are answered on the server's own thread, one at a time.
+ */
+public class MetricsHttpServer {
+
+    private final MetricsRegistry registry;
+    private final HttpServer server;
+
+    /**
+     *
+     * @param registry
+     * @param port local port, 0 for any free one
+     * @throws IOException if the port cannot be bound
+     */
+    public MetricsHttpServer(MetricsRegistry registry, int port) throws IOException {
+        this.registry = registry;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 4);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                StringBuilder body = new StringBuilder(4096);
+                String type;
+                if (exchange.getRequestURI().getPath().equals("/metrics.json")) {
+                    MetricsHttpServer.this.registry.writeJson(body);
+                    type = "application/json";
+                } else {
+                    MetricsHttpServer.this.registry.writeText(body);
+                    type = "text/plain; version=0.0.4";
+                }
+                byte[] bytes = body.toString().getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", type);
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     *
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+}
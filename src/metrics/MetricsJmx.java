@@ -0,0 +1,150 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Shows a MetricsRegistry as one MBean, so JConsole or VisualVM can watch
+ * the link during a mission: each counter and gauge is an attribute, each
+ * histogram gives its count, mean, percentiles and max in microseconds
+ * (e.g. decode_p99_us). The attributes follow the registry, metrics added
+ * later show up the next time the MBean info is read. The reset operation
+ * zeroes the counters and histograms.
+ */
+public class MetricsJmx implements DynamicMBean {
+
+    /**
+     * Name the registry of the application is registered under.
+     */
+    public static final String OBJECT_NAME = "gcs:type=Metrics";
+
+    private static final String[] histogramFields = {"count", "mean_us", "p50_us", "p90_us", "p99_us", "p999_us", "max_us"};
+
+    private final MetricsRegistry registry;
+
+    public MetricsJmx(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Registers the application's registry with the platform MBean server;
+     * does nothing if it already is.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsJmx(MetricsRegistry.getInstance()), name);
+            }
+        } catch (JMException ex) {
+            Logger.getLogger(MetricsJmx.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (Counter counter : registry.getCounters()) {
+            if (MetricsRegistry.metricName(counter.getName()).equals(attribute)) {
+                return counter.get();
+            }
+        }
+        for (Map.Entry<String, MetricsRegistry.Gauge> e : registry.getGauges().entrySet()) {
+            if (MetricsRegistry.metricName(e.getKey()).equals(attribute)) {
+                return e.getValue().getValue();
+            }
+        }
+        for (LatencyHistogram histogram : registry.getHistograms()) {
+            String prefix = MetricsRegistry.metricName(histogram.getName()) + "_";
+            if (attribute.startsWith(prefix)) {
+                String field = attribute.substring(prefix.length());
+                if (field.equals("count")) {
+                    return histogram.getCount();
+                } else if (field.equals("mean_us")) {
+                    return Math.round(histogram.getMean());
+                } else if (field.equals("p50_us")) {
+                    return histogram.getPercentile(50);
+                } else if (field.equals("p90_us")) {
+                    return histogram.getPercentile(90);
+                } else if (field.equals("p99_us")) {
+                    return histogram.getPercentile(99);
+                } else if (field.equals("p999_us")) {
+                    return histogram.getPercentile(99.9);
+                } else if (field.equals("max_us")) {
+                    return histogram.getMax();
+                }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read only");
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException ex) {
+                // left out, as the interface asks
+            }
+        }
+        return list;
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("reset")) {
+            registry.reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (Counter counter : registry.getCounters()) {
+            attributes.add(new MBeanAttributeInfo(MetricsRegistry.metricName(counter.getName()),
+                    "long", counter.getName(), true, false, false));
+        }
+        for (String name : registry.getGauges().keySet()) {
+            attributes.add(new MBeanAttributeInfo(MetricsRegistry.metricName(name),
+                    "long", name, true, false, false));
+        }
+        for (LatencyHistogram histogram : registry.getHistograms()) {
+            for (String field : histogramFields) {
+                attributes.add(new MBeanAttributeInfo(MetricsRegistry.metricName(histogram.getName()) + "_" + field,
+                        "long", histogram.getName() + ", " + field, true, false, false));
+            }
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Zeroes the counters and histograms",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(MetricsJmx.class.getName(), "Telemetry link metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[]{reset}, null);
+    }
+}
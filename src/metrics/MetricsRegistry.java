@@ -0,0 +1,247 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The station's runtime metrics: counters, histograms and gauges by name,
+ * read by the metrics tab and exported over HTTP and JMX.
+ *
+ * Hot paths look their counter or histogram up once, keep it in a field
+ * and only call increment() or record() on it afterwards, which neither
+ * locks nor allocates. The registry itself is only locked to add or list
+ * metrics.
+ */
+public class MetricsRegistry {
+
+    /**
+     * Telemetry frames read from any link, valid or not.
+     */
+    public static final String FRAMES_RECEIVED = "frames received";
+    /**
+     * Telemetry frames whose checksum did not match.
+     */
+    public static final String CHECKSUM_FAILURES = "checksum failures";
+    /**
+     * Times a framer lost the frame boundaries and had to look for the
+     * next header.
+     */
+    public static final String RESYNCS = "resyncs";
+    /**
+     * Checksum and decoding of a frame, up to its row being published.
+     */
+    public static final String DECODE = "decode";
+    /**
+     * Frame received to its row shown by the GUI.
+     */
+    public static final String GUI_LAG = "gui lag";
+    /**
+     * Frame received to its row written to the recording.
+     */
+    public static final String RECORDER_LAG = "recorder lag";
+    /**
+     * Rows the recorder lost because it fell too far behind; anything but 0
+     * is a hole in the recording.
+     */
+    public static final String RECORDER_DROPPED = "recorder dropped";
+    /**
+     * Uplink packet sent to the aircraft echoing it.
+     */
+    public static final String UPLINK_RTT = "uplink rtt";
+    /**
+     * Parameter update first sent to the aircraft echoing the new value.
+     */
+    public static final String PARAMETER_ACK = "parameter ack";
+    /**
+     * Waypoint update first sent to the aircraft echoing the new waypoint.
+     */
+    public static final String WAYPOINT_ACK = "waypoint ack";
+
+    /**
+     * Value owned by something else, read when the metrics are.
+     */
+    public interface Gauge {
+
+        long getValue();
+    }
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    private final Map<String, Counter> counters = new LinkedHashMap<String, Counter>();
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<String, LatencyHistogram>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<String, Gauge>();
+
+    public MetricsRegistry() {
+    }
+
+    /**
+     *
+     * @return the registry of the application
+     */
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     *
+     * @param name
+     * @return the counter of that name, created on first use
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     *
+     * @param name
+     * @return the histogram of that name, created on first use
+     */
+    public synchronized LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(name);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Adds a histogram kept by its owner, replacing one of the same name.
+     *
+     * @param histogram
+     */
+    public synchronized void register(LatencyHistogram histogram) {
+        histograms.put(histogram.getName(), histogram);
+    }
+
+    /**
+     * Adds or replaces a gauge.
+     *
+     * @param name
+     * @param gauge
+     */
+    public synchronized void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public synchronized List<Counter> getCounters() {
+        return new ArrayList<Counter>(counters.values());
+    }
+
+    public synchronized List<LatencyHistogram> getHistograms() {
+        return new ArrayList<LatencyHistogram>(histograms.values());
+    }
+
+    /**
+     *
+     * @return gauges by name, in the order they were added
+     */
+    public synchronized Map<String, Gauge> getGauges() {
+        return new LinkedHashMap<String, Gauge>(gauges);
+    }
+
+    /**
+     * Zeroes the counters and histograms; gauges belong to their owners.
+     */
+    public void reset() {
+        for (Counter counter : getCounters()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : getHistograms()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format: counters as
+     * "_total", gauges as they are, histograms as summaries in microseconds
+     * with the 0.5, 0.9, 0.99 and 0.999 quantiles and their max.
+     *
+     * @param out
+     */
+    public void writeText(StringBuilder out) {
+        for (Counter counter : getCounters()) {
+            String name = metricName(counter.getName()) + "_total";
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(counter.get()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> e : getGauges().entrySet()) {
+            String name = metricName(e.getKey());
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(e.getValue().getValue()).append('\n');
+        }
+        double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+        for (LatencyHistogram histogram : getHistograms()) {
+            String name = metricName(histogram.getName()) + "_micros";
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double q : quantiles) {
+                out.append(name).append("{quantile=\"").append(q).append("\"} ")
+                        .append(histogram.getPercentile(100 * q)).append('\n');
+            }
+            out.append(name).append("_max ").append(histogram.getMax()).append('\n');
+            out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+            out.append(name).append("_sum ").append(Math.round(histogram.getMean() * histogram.getCount())).append('\n');
+        }
+    }
+
+    /**
+     * Writes every metric as one JSON object.
+     *
+     * @param out
+     */
+    public void writeJson(StringBuilder out) {
+        out.append("{\"counters\":{");
+        String separator = "";
+        for (Counter counter : getCounters()) {
+            out.append(separator).append('"').append(counter.getName()).append("\":").append(counter.get());
+            separator = ",";
+        }
+        out.append("},\"gauges\":{");
+        separator = "";
+        for (Map.Entry<String, Gauge> e : getGauges().entrySet()) {
+            out.append(separator).append('"').append(e.getKey()).append("\":").append(e.getValue().getValue());
+            separator = ",";
+        }
+        out.append("},\"histograms\":{");
+        separator = "";
+        for (LatencyHistogram histogram : getHistograms()) {
+            out.append(separator).append('"').append(histogram.getName()).append("\":{")
+                    .append("\"count\":").append(histogram.getCount())
+                    .append(",\"mean_us\":").append(Math.round(histogram.getMean()))
+                    .append(",\"p50_us\":").append(histogram.getPercentile(50))
+                    .append(",\"p90_us\":").append(histogram.getPercentile(90))
+                    .append(",\"p99_us\":").append(histogram.getPercentile(99))
+                    .append(",\"p999_us\":").append(histogram.getPercentile(99.9))
+                    .append(",\"max_us\":").append(histogram.getMax())
+                    .append('}');
+            separator = ",";
+        }
+        out.append("}}");
+    }
+
+    /**
+     *
+     * @param name
+     * @return name with everything but letters and digits turned into '_',
+     * as export formats want them
+     */
+    static String metricName(String name) {
+        StringBuilder s = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            s.append(c < 128 && Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : '_');
+        }
+        return s.toString();
+    }
+}
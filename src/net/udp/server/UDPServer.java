@@ -7,73 +7,130 @@
 package net.udp.server;
 
 
-import data.DataPacket;
-import gui.app.AppInterface;
-import gui.app.PanelConsole;
+import comm.ChannelInterface;
+import comm.StreamFramer;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import kernel.Kernel;
-import kernel.KernelInterface;
-import terminal.gui.PanelTerminal;
+import kernel.VehicleLink;
 
 
 /**
+ * Receives the telemetry of every vehicle on one thread: each vehicle link
+ * gets its own non-blocking channel bound to its port, and the frames read
+ * from a channel are handed to the kernel together with the link they came
+ * from.
  *
  * @author David Escobar Sanabria and Apurva Badithela
  */
 public class UDPServer extends Thread {
 
-    private byte[] buffer = new byte[202];
-    private DatagramSocket socket = null;
+    /**
+     * Largest payload of a UDP datagram; a datagram may carry several frames.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+    /**
+     * Datagrams read from one channel before the others get their turn.
+     */
+    private static final int maxDatagramsPerWakeup = 256;
+
+    private final ByteBuffer frameBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final int receiveBufferSize;
+    private volatile long datagrams = 0;
+    private volatile long frames = 0;
+    private final Selector selector;
+    private final Queue<VehicleLink> pendingLinks = new LinkedList<VehicleLink>();
+    // filled on the server thread, read by any: selector.keys() is not thread safe
+    private final ConcurrentHashMap<VehicleLink, LinkFramer> framers = new ConcurrentHashMap<VehicleLink, LinkFramer>();
+    private DatagramChannel uplinkChannel = null;
+    private final SocketAddress uplinkAddress = new InetSocketAddress("127.0.0.1", 36866);
     private boolean connection = true;
-    private int port = 9001;
-    private Kernel kernel;
-    private int cont = 0;
-    private int[] intArray = new int[51];
-    private int contFrames = 0;
-    private boolean stopThread = false;
+    private ChannelInterface kernel;
+    private volatile boolean stopThread = false;
     private boolean stopped = false;
 
     
     
     /**
      *
-     * @param _port
-     * @param _kernel
-     * @throws SocketException
+     * @param _kernel receives the frames, the Kernel or a test station
+     * @param _receiveBufferSize socket receive buffer requested from the
+     * operating system for each port, 0 to keep its default
+     * @throws IOException
      */
-    public UDPServer(int _port, Kernel _kernel) throws SocketException {
+    public UDPServer(ChannelInterface _kernel, int _receiveBufferSize) throws IOException {
         
         kernel = _kernel;
-        port = _port;
-        socket = new DatagramSocket(port);
-              
+        receiveBufferSize = _receiveBufferSize;
+        selector = Selector.open();
+        setName("UDP server");
 
 //setPriority(MIN_PRIORITY);
         start();
-        kernel.joutln("UDP service initilized, port: " + port);
 
     }
+
+    /**
+     * Starts listening on the port of a vehicle link.
+     *
+     * @param link
+     */
+    public void addLink(VehicleLink link) {
+        synchronized (pendingLinks) {
+            pendingLinks.add(link);
+        }
+        selector.wakeup();
+    }
+
+    private void registerPendingLinks() {
+        synchronized (pendingLinks) {
+            while (!pendingLinks.isEmpty()) {
+                VehicleLink link = pendingLinks.poll();
+                try {
+                    DatagramChannel channel = DatagramChannel.open();
+                    if (receiveBufferSize > 0) {
+                        channel.socket().setReceiveBufferSize(receiveBufferSize);
+                    }
+                    channel.socket().bind(new InetSocketAddress(link.getPort()));
+                    channel.configureBlocking(false);
+                    LinkFramer linkFramer = new LinkFramer(link);
+                    channel.register(selector, SelectionKey.OP_READ, linkFramer);
+                    framers.put(link, linkFramer);
+                    if (uplinkChannel == null) {
+                        uplinkChannel = channel;
+                    }
+                    System.out.println("Listening on port " + link.getPort());
+                    kernel.joutln("UDP service initilized, vehicle " + link.getVehicleId() + ", port: " + link.getPort());
+                } catch (IOException ex) {
+                    Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+                    kernel.joutln("Could not open UDP port " + link.getPort());
+                }
+            }
+        }
+    }
     
     
     public void sendData(int[] data)
     {
         try {
-            SocketAddress addr = new InetSocketAddress("127.0.0.1", 36866);
             byte[] dataBytes = new byte[data.length];
             for(int i = 0; i < data.length; ++i){
                 dataBytes[i] = (byte)data[i];
-            }            
-            DatagramPacket packet = new DatagramPacket(dataBytes, dataBytes.length, addr);                        
-            socket.send(packet);
+            }
+            DatagramChannel channel = uplinkChannel;
+            if (channel != null) {
+                channel.send(ByteBuffer.wrap(dataBytes), uplinkAddress);
+            }
         } catch (IOException ex) {
             Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -84,145 +141,159 @@ public class UDPServer extends Thread {
         @Override
     public void run() {
 
-        System.out.println("Listening on port " + port);
-        try {
-            socket.setSoTimeout(1000);
-        } catch (SocketException ex) {
-            Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        while (connection) {
-            if(socket.isClosed()){
-                return;
-            }
-            if(stopThread){
-                stopped = true;
-                socket.close();
-                return;
-            }
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (connection && !stopThread) {
+            registerPendingLinks();
             try {
-                try{
-                    socket.receive(packet);
-                } catch (SocketTimeoutException ex){
-                    if(stopThread){
-                        stopped = true;
-                        socket.close();
-                        return;
-                    }
-                    continue;
+                // closeConnection() and addLink() wake the selector up.
+                selector.select();
+            } catch (IOException ex) {
+                Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+                break;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid()) {
+                    drain((DatagramChannel) key.channel(), (LinkFramer) key.attachment());
                 }
-                //System.out.println(" ........... "+packet.getLength());
-
-                for (int i = 0; i < packet.getLength(); i++) {
-
-                    //System.out.println(">>"+packet.getData()[i]);
-                    if (i > 1 && packet.getData()[i - 2] == (int) 'U' && packet.getData()[i - 1] == (int) 'U' && packet.getData()[i] == (int) 'T') {
-                        //System.out.println("85 85 84 OK");
-                        intArray = copy(packet.getData(), i - 2, i + DataPacket.getDataPacketSize() - 2);
-                        for (int j = 0; j < intArray.length; j++) {
-                            if (intArray[j] < 0) {
-                                intArray[j] = intArray[j] + 256;
-                            }
-                        }
-
-                        kernel.setDataIn(intArray);
-                        
-                        break;
-                    }
+            }
 
-                }
-                //System.out.println("Brak ok");
-                /*if (cont == 50) {
-                intArray[cont] = (int) (packet.getData()[0]);
-                if (intArray[cont] < 0) {
-                intArray[cont] = intArray[cont] + 256;
-                }
-                //System.out.println(" ,, " + intArray[cont] + " , " + packet.getData()[0]);
-                if (intArray[0] == (int) 'U' && intArray[1] == (int) 'U' && intArray[2] == (int) 'T') {
-                //System.out.println("Complete frame # " + contFrames++);
-                kernel.setDataIn(intArray);
-                }
-                cont = 0;
-                } else {
-                intArray[cont] = (packet.getData()[0]);
-                if (intArray[cont] < 0) {
-                intArray[cont] = intArray[cont] + 256;
-                }
+        }
+        closeChannels();
+        stopped = true;
 
-                System.out.println(" ,, " + intArray[cont] + " , " + packet.getData()[0]);
+    }
 
-                if (cont > 1 && intArray[cont - 2] == (int) 'U' && intArray[cont - 1] == (int) 'U' && intArray[cont] == (int) 'T') {
-                intArray[0] = intArray[cont - 2];
-                intArray[1] = intArray[cont - 1];
-                intArray[2] = intArray[cont];
-                //System.out.println(" ..................................... ");
-                cont = 2;
+    /**
+     * Reads the datagrams queued on a channel until it runs dry, passing on
+     * every frame found in each of them.
+     */
+    private void drain(DatagramChannel channel, LinkFramer linkFramer) {
+        for (int n = 0; n < maxDatagramsPerWakeup && !stopThread; n++) {
+            frameBuffer.clear();
+            try {
+                if (channel.receive(frameBuffer) == null) {
+                    return;
                 }
-                cont++;
-                }*/
-
-
             } catch (IOException ex) {
                 Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+                return;
             }
-            //System.out.println(">> " + packet.getLength());
-            //kernel.setDataIn(dataString);
+            datagrams++;
+            frameBuffer.flip();
+            linkFramer.framer.feed(frameBuffer);
+        }
+    }
 
+    /**
+     * Frames the datagrams of one vehicle. Frames split across datagrams
+     * are put back together.
+     */
+    private class LinkFramer implements StreamFramer.FrameListener {
+
+        private final VehicleLink link;
+        private final StreamFramer framer = new StreamFramer(this);
+
+        LinkFramer(VehicleLink link) {
+            this.link = link;
+        }
+
+        public void frameReceived(ByteBuffer buffer, int offset) {
+            frames++;
+            kernel.setDataIn(link.getVehicleId(), buffer, offset);
         }
 
+        public void frameRejected(ByteBuffer buffer, int offset) {
+            kernel.setDataIn(link.getVehicleId(), buffer, offset);
+        }
+
+        public void messageReceived(String message) {
+            kernel.setDataIn(message);
+        }
     }
 
     /**
      *
-     * @return
+     * @param link
+     * @return framer of the link's port, null if the link is not registered
      */
-    public boolean isConnection() {
-        return connection;
+    public StreamFramer getFramer(VehicleLink link) {
+        LinkFramer linkFramer = framers.get(link);
+        return linkFramer == null ? null : linkFramer.framer;
     }
 
     /**
      *
-     * @param connection
+     * @return datagrams received since the server started
      */
-    public void setConnection(boolean connection) {
-        this.connection = connection;
+    public long getDatagrams() {
+        return datagrams;
+    }
+
+    /**
+     *
+     * @return telemetry frames with a valid checksum found in the received
+     * datagrams
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    private void closeChannels() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ex) {
+                Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        framers.clear();
+        uplinkChannel = null;
     }
 
     /**
      *
      * @return
      */
-    public int getPort() {
-        return port;
+    public boolean isConnection() {
+        return connection;
     }
 
     /**
      *
-     * @param port
+     * @param connection
      */
-    public void setPort(int port) {
-        this.port = port;
+    public void setConnection(boolean connection) {
+        this.connection = connection;
     }
 
     /**
      *
+     * @return true once the ports have been released
      */
-    public void closeConnection() {
-        stopThread = true;        
+    public boolean isStopped() {
+        return stopped;
     }
-    
-    
-    private int[] copy(byte[] data, int i, int i0) {
-        int k = i;
-        int[] intArray2 = new int[i0 - i];
-        for (int j = 0; j < i0 - i; j++) {
-            intArray2[j] = data[k];
-            //System.out.println("Data copied, lenght= "+intArray.length);
-            k++;
+
+    /**
+     * Stops the server and waits until its ports are released, so they can
+     * be bound again right away.
+     */
+    public void closeConnection() {
+        stopThread = true;
+        selector.wakeup();
+        if (Thread.currentThread() != this) {
+            try {
+                join(2000);
+            } catch (InterruptedException ex) {
+                Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+            }
         }
-        //System.out.println("Data copied, lenght= "+intArray2.length);
-        return intArray2;
     }
 }
-
-   
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package recorder;
+
+import java.io.IOException;
+
+/**
+ * Part of a recording to export: a receive time range and a subset of
+ * channels. The defaults select everything.
+ */
+public class ExportSelection {
+
+    private long fromMicros = Long.MIN_VALUE;
+    private long toMicros = Long.MAX_VALUE;
+    private int[] channels = null;
+
+    public ExportSelection() {
+    }
+
+    /**
+     *
+     * @param fromMicros first receive time included, epoch microseconds
+     * @param toMicros receive time excluded, epoch microseconds
+     */
+    public void setTimeRange(long fromMicros, long toMicros) {
+        this.fromMicros = fromMicros;
+        this.toMicros = toMicros;
+    }
+
+    public long getFromMicros() {
+        return fromMicros;
+    }
+
+    public long getToMicros() {
+        return toMicros;
+    }
+
+    /**
+     *
+     * @param channels channel indexes in export order, null for all
+     */
+    public void setChannels(int[] channels) {
+        this.channels = channels == null ? null : channels.clone();
+    }
+
+    /**
+     *
+     * @return selected channel indexes for a log of the given width
+     */
+    public int[] getChannels(int width) {
+        if (channels != null) {
+            return channels.clone();
+        }
+        int[] all = new int[width];
+        for (int i = 0; i < width; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    /**
+     *
+     * @return first selected row
+     */
+    public long getFirstRow(FlightLog log) throws IOException {
+        return fromMicros == Long.MIN_VALUE ? 0 : log.findRow(fromMicros);
+    }
+
+    /**
+     *
+     * @return row after the last selected one
+     */
+    public long getEndRow(FlightLog log) throws IOException {
+        return toMicros == Long.MAX_VALUE ? log.getRowCount() : log.findRow(toMicros);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package recorder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Exports a recording to MAT or M files on a background thread, reading a
+ * bounded chunk of rows at a time so the heap use does not depend on the
+ * length of the flight.
+ */
+public class FlightExporter {
+
+    /**
+     * Receives progress of a running export.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called on the export thread.
+         *
+         * @param done values written so far
+         * @param total values to write
+         */
+        public void progress(long done, long total);
+
+        /**
+         * Called on the export thread if the export stops on an error.
+         */
+        public void failed(IOException ex);
+    }
+
+    public static final int CHUNK_ROWS = 65536;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Flight export");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Queues a MAT-file export. The log is closed once the export finishes.
+     */
+    public Future<File> exportMat(final FlightLog log, final File file, final String name,
+            final ExportSelection selection, final ProgressListener listener) {
+        return executor.submit(new Callable<File>() {
+            public File call() throws IOException {
+                try {
+                    writeMat(log, file, name, selection, listener);
+                    return file;
+                } catch (IOException ex) {
+                    if (listener != null) {
+                        listener.failed(ex);
+                    }
+                    throw ex;
+                } finally {
+                    log.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues an M-file export. The log is closed once the export finishes.
+     */
+    public Future<File> exportM(final FlightLog log, final File file,
+            final ExportSelection selection, final ProgressListener listener) {
+        return executor.submit(new Callable<File>() {
+            public File call() throws IOException {
+                Writer out = null;
+                try {
+                    out = new BufferedWriter(new FileWriter(file), 1 << 16);
+                    writeM(log, out, selection, listener);
+                    out.close();
+                    return file;
+                } catch (IOException ex) {
+                    if (listener != null) {
+                        listener.failed(ex);
+                    }
+                    throw ex;
+                } finally {
+                    if (out != null) {
+                        out.close();
+                    }
+                    log.close();
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Writes the selection as one rows x channels matrix called name. When
+     * that does not fit a level 5 variable, each channel is written as its
+     * own column vector called name_<channel>.
+     */
+    public static void writeMat(FlightLog log, File file, String name,
+            ExportSelection selection, ProgressListener listener) throws IOException {
+        long first = selection.getFirstRow(log);
+        long end = selection.getEndRow(log);
+        int[] channels = selection.getChannels(log.getWidth());
+        long rows = Math.max(0, end - first);
+        if (rows > Integer.MAX_VALUE) {
+            throw new IOException("Too many rows for a MAT-file: " + rows);
+        }
+        long total = rows * channels.length;
+        boolean split = total * 8 > MatFileStreamWriter.MAX_VARIABLE_BYTES;
+        double[] chunk = new double[(int) Math.min(CHUNK_ROWS, Math.max(1, rows))];
+        long done = 0;
+
+        MatFileStreamWriter writer = new MatFileStreamWriter(file);
+        try {
+            if (!split) {
+                writer.beginMatrix(name, (int) rows, channels.length);
+            }
+            for (int c = 0; c < channels.length; c++) {
+                if (split) {
+                    writer.beginMatrix(name + "_" + channels[c], (int) rows, 1);
+                }
+                for (long row = first; row < end; row += chunk.length) {
+                    int n = (int) Math.min(chunk.length, end - row);
+                    log.readColumn(channels[c], row, chunk, 0, n);
+                    writer.write(chunk, 0, n);
+                    done += n;
+                }
+                if (listener != null) {
+                    listener.progress(done, total);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (listener != null) {
+            listener.progress(total, total);
+        }
+    }
+
+    /**
+     * Writes the selection as a matlab script assigning a matrix to data.
+     */
+    public static void writeM(FlightLog log, Writer out, ExportSelection selection,
+            ProgressListener listener) throws IOException {
+        long first = selection.getFirstRow(log);
+        long end = selection.getEndRow(log);
+        int[] channels = selection.getChannels(log.getWidth());
+        long total = Math.max(0, end - first) * channels.length;
+        int chunkRows = (int) Math.min(log.getBlockRows(), Math.max(1, end - first));
+        double[][] columns = new double[channels.length][chunkRows];
+        StringBuilder line = new StringBuilder(channels.length * 24);
+        long done = 0;
+
+        out.write("data=[\n");
+        for (long row = first; row < end; row += chunkRows) {
+            int n = (int) Math.min(chunkRows, end - row);
+            for (int c = 0; c < channels.length; c++) {
+                log.readColumn(channels[c], row, columns[c], 0, n);
+            }
+            for (int i = 0; i < n; i++) {
+                line.setLength(0);
+                for (int c = 0; c < channels.length; c++) {
+                    line.append(columns[c][i]).append(' ');
+                }
+                line.append('\n');
+                out.append(line);
+            }
+            done += (long) n * channels.length;
+            if (listener != null) {
+                listener.progress(done, total);
+            }
+        }
+        out.write("]");
+        if (listener != null) {
+            listener.progress(total, total);
+        }
+    }
+}
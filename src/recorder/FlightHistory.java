@@ -0,0 +1,414 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package recorder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Level-of-detail summary of a recording, for plotting any part of a flight
+ * without touching every row.
+ *
+ * For every channel the history keeps min/max/mean pyramids at power of two
+ * decimations: a bucket of level k summarises 2^k consecutive rows. The
+ * finest level kept in memory is getBaseLevel() (64 rows by default); each
+ * level above it is built incrementally from pairs of buckets of the level
+ * below as rows are appended, so the whole pyramid costs about two base
+ * levels. Buckets are stored as floats, channel by channel.
+ *
+ * query() picks the coarsest level that still gives about one bucket per
+ * pixel for the span asked, so a query costs O(pixels) whether it covers a
+ * minute or the whole flight. Spans of at most a few rows per pixel are
+ * read row by row from the recording itself (setRawSource()), which only
+ * has committed rows; in between the base level is shown, with fewer
+ * buckets than pixels.
+ *
+ * Time is the receive timestamp of the rows, epoch microseconds, as in
+ * FlightRecorder and FlightLog.
+ */
+public class FlightHistory {
+
+    public static final int DEFAULT_BASE_LEVEL = 6;
+
+    /**
+     * Result of a query: one bucket per entry, oldest first. The arrays are
+     * reused from one query to the next and may be longer than getSize().
+     */
+    public static class Buckets {
+
+        private long[] start = new long[0];
+        private double[] min = new double[0];
+        private double[] max = new double[0];
+        private double[] mean = new double[0];
+        private int size = 0;
+        private int level = 0;
+
+        void clear(int capacity) {
+            size = 0;
+            if (start.length < capacity) {
+                reserve(capacity);
+            }
+        }
+
+        private void reserve(int capacity) {
+            long[] s = new long[capacity];
+            double[] lo = new double[capacity];
+            double[] hi = new double[capacity];
+            double[] avg = new double[capacity];
+            System.arraycopy(start, 0, s, 0, size);
+            System.arraycopy(min, 0, lo, 0, size);
+            System.arraycopy(max, 0, hi, 0, size);
+            System.arraycopy(mean, 0, avg, 0, size);
+            start = s;
+            min = lo;
+            max = hi;
+            mean = avg;
+        }
+
+        void add(long t, double lo, double hi, double avg) {
+            if (size == start.length) {
+                reserve(Math.max(16, 2 * size));
+            }
+            start[size] = t;
+            min[size] = lo;
+            max[size] = hi;
+            mean[size] = avg;
+            size++;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         *
+         * @return decimation of the buckets, rows per bucket = 2^level; the
+         * newest buckets of a live recording may hold fewer rows
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         *
+         * @return receive time of the first row of each bucket
+         */
+        public long[] getStart() {
+            return start;
+        }
+
+        public double[] getMin() {
+            return min;
+        }
+
+        public double[] getMax() {
+            return max;
+        }
+
+        public double[] getMean() {
+            return mean;
+        }
+    }
+
+    /**
+     * Completed buckets of one decimation level.
+     */
+    private static class Pyramid {
+
+        int count = 0;
+        long[] start = new long[64];
+        float[][] min;
+        float[][] max;
+        float[][] mean;
+
+        Pyramid(int width) {
+            min = new float[width][64];
+            max = new float[width][64];
+            mean = new float[width][64];
+        }
+
+        void ensure() {
+            if (count < start.length) {
+                return;
+            }
+            int n = 2 * start.length;
+            long[] s = new long[n];
+            System.arraycopy(start, 0, s, 0, count);
+            start = s;
+            for (int c = 0; c < min.length; c++) {
+                min[c] = grow(min[c], n);
+                max[c] = grow(max[c], n);
+                mean[c] = grow(mean[c], n);
+            }
+        }
+
+        private float[] grow(float[] a, int n) {
+            float[] b = new float[n];
+            System.arraycopy(a, 0, b, 0, count);
+            return b;
+        }
+
+        /**
+         *
+         * @return first bucket starting at or after t
+         */
+        int search(long t) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start[mid] < t) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        long bytes() {
+            return start.length * (8L + 12L * min.length);
+        }
+    }
+
+    private final int width;
+    private final int baseLevel;
+    private final int baseRows;
+    private final ArrayList<Pyramid> levels = new ArrayList<Pyramid>();
+    private long rows = 0;
+
+    // rows of the base bucket being filled
+    private int pendingRows = 0;
+    private long pendingStart = 0;
+    private final double[] pendingMin;
+    private final double[] pendingMax;
+    private final double[] pendingSum;
+
+    private FlightLog rawSource = null;
+    private double[] rawValues = new double[0];
+    private long[] rawTimes = new long[0];
+
+    public FlightHistory(int width) {
+        this(width, DEFAULT_BASE_LEVEL);
+    }
+
+    /**
+     *
+     * @param width number of channels in a row
+     * @param baseLevel finest level kept in memory, 2^baseLevel rows a bucket
+     */
+    public FlightHistory(int width, int baseLevel) {
+        this.width = width;
+        this.baseLevel = baseLevel;
+        this.baseRows = 1 << baseLevel;
+        pendingMin = new double[width];
+        pendingMax = new double[width];
+        pendingSum = new double[width];
+        levels.add(new Pyramid(width));
+    }
+
+    /**
+     * Recording to read single rows from when a span is shorter than the
+     * base level can show.
+     *
+     * @param log null to always answer from the pyramid
+     */
+    public synchronized void setRawSource(FlightLog log) {
+        rawSource = log;
+    }
+
+    /**
+     * Adds one row. Only the first getWidth() values are used.
+     *
+     * @param values channel values
+     * @param timestampMicros receive time, epoch microseconds
+     */
+    public synchronized void append(double[] values, long timestampMicros) {
+        if (pendingRows == 0) {
+            pendingStart = timestampMicros;
+            for (int c = 0; c < width; c++) {
+                double v = values[c];
+                pendingMin[c] = v;
+                pendingMax[c] = v;
+                pendingSum[c] = v;
+            }
+        } else {
+            for (int c = 0; c < width; c++) {
+                double v = values[c];
+                if (v < pendingMin[c]) {
+                    pendingMin[c] = v;
+                }
+                if (v > pendingMax[c]) {
+                    pendingMax[c] = v;
+                }
+                pendingSum[c] += v;
+            }
+        }
+        pendingRows++;
+        rows++;
+        if (pendingRows == baseRows) {
+            pendingRows = 0;
+            closeBaseBucket();
+        }
+    }
+
+    private void closeBaseBucket() {
+        Pyramid base = levels.get(0);
+        base.ensure();
+        int b = base.count;
+        base.start[b] = pendingStart;
+        for (int c = 0; c < width; c++) {
+            base.min[c][b] = (float) pendingMin[c];
+            base.max[c][b] = (float) pendingMax[c];
+            base.mean[c][b] = (float) (pendingSum[c] / baseRows);
+        }
+        base.count++;
+        // every second bucket completes one of the level above
+        int k = 0;
+        while ((levels.get(k).count & 1) == 0) {
+            Pyramid lower = levels.get(k);
+            if (k + 1 == levels.size()) {
+                levels.add(new Pyramid(width));
+            }
+            Pyramid upper = levels.get(k + 1);
+            upper.ensure();
+            int i = lower.count - 2;
+            int u = upper.count;
+            upper.start[u] = lower.start[i];
+            for (int c = 0; c < width; c++) {
+                upper.min[c][u] = Math.min(lower.min[c][i], lower.min[c][i + 1]);
+                upper.max[c][u] = Math.max(lower.max[c][i], lower.max[c][i + 1]);
+                upper.mean[c][u] = 0.5f * (lower.mean[c][i] + lower.mean[c][i + 1]);
+            }
+            upper.count++;
+            k++;
+        }
+    }
+
+    /**
+     * Summarises one channel between two times in about pixels buckets.
+     *
+     * @param channel channel index, 0 to getWidth()-1
+     * @param fromMicros start of the span, epoch microseconds
+     * @param toMicros end of the span, exclusive
+     * @param pixels width the span is drawn on
+     * @param out filled with the buckets, oldest first
+     * @return number of buckets
+     */
+    public synchronized int query(int channel, long fromMicros, long toMicros, int pixels, Buckets out) {
+        Pyramid base = levels.get(0);
+        int baseBuckets = base.search(toMicros) - base.search(fromMicros) + (pendingRows > 0 ? 1 : 0);
+        if ((long) baseBuckets * baseRows <= 4L * pixels && rawSource != null
+                && queryRaw(channel, fromMicros, toMicros, out)) {
+            return out.size;
+        }
+        int k = 0;
+        while (k + 1 < levels.size() && (baseBuckets >> k) > 2 * pixels) {
+            k++;
+        }
+        out.clear(2 * pixels + levels.size() + 1);
+        out.level = baseLevel + k;
+
+        // complete buckets of level k, then the newer rows that have not
+        // filled one yet: at most one bucket from each level below and the
+        // base bucket being filled
+        Pyramid p = levels.get(k);
+        int i = Math.max(0, p.search(fromMicros) - 1);
+        long coveredBase = 0;
+        for (int level = k; level >= 0; level--) {
+            p = levels.get(level);
+            if (level < k) {
+                i = (int) (coveredBase >> level);
+            }
+            for (; i < p.count && p.start[i] < toMicros; i++) {
+                if (i + 1 < p.count && p.start[i + 1] <= fromMicros) {
+                    continue;
+                }
+                out.add(p.start[i], p.min[channel][i], p.max[channel][i], p.mean[channel][i]);
+            }
+            coveredBase = (long) p.count << level;
+            if (i < p.count) {
+                return out.size;
+            }
+        }
+        if (pendingRows > 0 && pendingStart < toMicros) {
+            out.add(pendingStart, pendingMin[channel], pendingMax[channel], pendingSum[channel] / pendingRows);
+        }
+        return out.size;
+    }
+
+    /**
+     * Reads the rows of the span straight from the recording. The base
+     * buckets tell which rows those are (bucket b starts at row b * 2^base),
+     * so only the blocks holding them are mapped.
+     */
+    private boolean queryRaw(int channel, long fromMicros, long toMicros, Buckets out) {
+        Pyramid base = levels.get(0);
+        long first = (long) Math.max(0, base.search(fromMicros) - 1) * baseRows;
+        int next = base.search(toMicros);
+        long last = next < base.count ? (long) next * baseRows : rows;
+        try {
+            last = Math.min(last, rawSource.refresh());
+            int n = (int) (last - first);
+            if (n <= 0) {
+                return false;
+            }
+            if (rawValues.length < n) {
+                rawValues = new double[n];
+                rawTimes = new long[n];
+            }
+            rawSource.readColumn(channel, first, rawValues, 0, n);
+            rawSource.readTimestamps(first, rawTimes, 0, n);
+            out.clear(n);
+            out.level = 0;
+            for (int i = 0; i < n && rawTimes[i] < toMicros; i++) {
+                // keep the last row before the span, it is where the line
+                // enters the plot
+                if (i + 1 < n && rawTimes[i + 1] <= fromMicros) {
+                    continue;
+                }
+                out.add(rawTimes[i], rawValues[i], rawValues[i], rawValues[i]);
+            }
+            return out.size > 0;
+        } catch (IOException ex) {
+            Logger.getLogger(FlightHistory.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getBaseLevel() {
+        return baseLevel;
+    }
+
+    /**
+     *
+     * @return levels in memory, base level included
+     */
+    public synchronized int getLevels() {
+        return levels.size();
+    }
+
+    public synchronized long getRowCount() {
+        return rows;
+    }
+
+    /**
+     *
+     * @return memory held by the pyramids
+     */
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (Pyramid p : levels) {
+            bytes += p.bytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sparse time index of a recording, kept next to it in a .idx file.
+ *
+ * There is one entry per block of the recording: how many rows it holds,
+ * the receive time of its first and last row and, for every channel, the
+ * smallest and largest value in the block (a zone map). Queries use the
+ * entries to go straight to the blocks they need and skip the others, so
+ * finding a time costs one block read and a filter on a channel only
+ * reads the blocks whose range can match.
+ *
+ * FlightRecorder writes the index as it records. A recording without one,
+ * or with one that stops short of the committed rows, is indexed by
+ * reading the missing blocks when the index is opened or refreshed.
+ *
+ * File layout: a 64 byte header (magic, version, width, block rows, number
+ * of entries) followed by the entries, each rows, first and last time as
+ * longs and then min and max of every channel as doubles.
+ */
+public class FlightIndex {
+
+    static final int MAGIC = 0x55475349; // "UGSI"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int OFFSET_WIDTH = 8;
+    static final int OFFSET_BLOCK_ROWS = 12;
+    static final int OFFSET_BLOCKS = 16;
+
+    /**
+     * Receives the rows of a scan.
+     */
+    public interface RowVisitor {
+
+        /**
+         *
+         * @param row row number in the recording
+         * @param timestampMicros receive time, epoch microseconds
+         * @param values the channels asked for, in the order asked; reused
+         * for the next row
+         */
+        void row(long row, long timestampMicros, double[] values);
+    }
+
+    /**
+     * Receives the rows where a channel changed value.
+     */
+    public interface ChangeVisitor {
+
+        void change(long row, long timestampMicros, double previous, double value);
+    }
+
+    private final FlightLog log;
+    private final File file;
+    private final int width;
+    private final int blockRows;
+    private int blocks = 0;
+    private long[] rows = new long[16];
+    private long[] first = new long[16];
+    private long[] last = new long[16];
+    private double[][] min;
+    private double[][] max;
+
+    private long[] times;
+    private double[][] columns;
+
+    static File fileFor(File recording) {
+        return new File(recording.getPath() + ".idx");
+    }
+
+    static int entrySize(int width) {
+        return 24 + 16 * width;
+    }
+
+    /**
+     * Opens the index of a recording, indexing whatever it does not cover.
+     *
+     * @param log
+     */
+    public FlightIndex(FlightLog log) throws IOException {
+        this.log = log;
+        this.file = fileFor(log.getFile());
+        this.width = log.getWidth();
+        this.blockRows = log.getBlockRows();
+        min = new double[width][16];
+        max = new double[width][16];
+        times = new long[blockRows];
+        columns = new double[width][];
+        refresh();
+    }
+
+    /**
+     * Reads entries written since the last refresh and indexes committed
+     * rows that have none yet.
+     *
+     * @return rows covered
+     */
+    public synchronized long refresh() throws IOException {
+        long logRows = log.refresh();
+        if (covered() >= logRows) {
+            return covered();
+        }
+        readEntries(logRows);
+        // rows the file does not cover yet, from the last partial block on
+        int b = blocks > 0 && rows[blocks - 1] < blockRows ? blocks - 1 : blocks;
+        for (long start = (long) b * blockRows; start < logRows; start += blockRows, b++) {
+            scanBlock(b, (int) Math.min(blockRows, logRows - start));
+        }
+        return covered();
+    }
+
+    private long covered() {
+        return blocks == 0 ? 0 : (long) (blocks - 1) * blockRows + rows[blocks - 1];
+    }
+
+    private void readEntries(long logRows) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || header.getInt(OFFSET_WIDTH) != width || header.getInt(OFFSET_BLOCK_ROWS) != blockRows) {
+                return;
+            }
+            long published = header.getLong(OFFSET_BLOCKS);
+            long needed = (logRows + blockRows - 1) / blockRows;
+            int n = (int) Math.min(published, needed);
+            // the last entry already read may have grown since
+            int b = blocks > 0 && rows[blocks - 1] < blockRows ? blocks - 1 : blocks;
+            ByteBuffer entry = ByteBuffer.allocate(entrySize(width));
+            for (; b < n; b++) {
+                entry.clear();
+                readFully(channel, entry, HEADER_SIZE + (long) b * entry.capacity());
+                ensure(b);
+                rows[b] = Math.min(entry.getLong(0), logRows - (long) b * blockRows);
+                first[b] = entry.getLong(8);
+                last[b] = entry.getLong(16);
+                int position = 24;
+                for (int c = 0; c < width; c++) {
+                    min[c][b] = entry.getDouble(position);
+                    max[c][b] = entry.getDouble(position + 8);
+                    position += 16;
+                }
+                blocks = b + 1;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Index truncated");
+            }
+        }
+    }
+
+    private void scanBlock(int b, int n) throws IOException {
+        long start = (long) b * blockRows;
+        ensure(b);
+        log.readTimestamps(start, times, 0, n);
+        rows[b] = n;
+        first[b] = times[0];
+        last[b] = times[n - 1];
+        for (int c = 0; c < width; c++) {
+            double[] v = column(c);
+            log.readColumn(c, start, v, 0, n);
+            double lo = v[0];
+            double hi = v[0];
+            for (int i = 1; i < n; i++) {
+                if (v[i] < lo) {
+                    lo = v[i];
+                }
+                if (v[i] > hi) {
+                    hi = v[i];
+                }
+            }
+            min[c][b] = lo;
+            max[c][b] = hi;
+        }
+        blocks = Math.max(blocks, b + 1);
+    }
+
+    private double[] column(int c) {
+        if (columns[c] == null) {
+            columns[c] = new double[blockRows];
+        }
+        return columns[c];
+    }
+
+    private void ensure(int b) {
+        if (b < rows.length) {
+            return;
+        }
+        int n = Math.max(2 * rows.length, b + 1);
+        rows = grow(rows, n);
+        first = grow(first, n);
+        last = grow(last, n);
+        for (int c = 0; c < width; c++) {
+            min[c] = grow(min[c], n);
+            max[c] = grow(max[c], n);
+        }
+    }
+
+    private static long[] grow(long[] a, int n) {
+        long[] b = new long[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private static double[] grow(double[] a, int n) {
+        double[] b = new double[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    /**
+     * Binary search over the block time ranges, then inside one block.
+     *
+     * @param timestampMicros epoch microseconds
+     * @return first row received at or after timestampMicros, the number of
+     * rows covered if there is none
+     */
+    public synchronized long findRow(long timestampMicros) throws IOException {
+        int lo = 0;
+        int hi = blocks;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (last[mid] < timestampMicros) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == blocks) {
+            return covered();
+        }
+        long start = (long) lo * blockRows;
+        if (first[lo] >= timestampMicros) {
+            return start;
+        }
+        int n = (int) rows[lo];
+        log.readTimestamps(start, times, 0, n);
+        int a = 0;
+        int b = n;
+        while (a < b) {
+            int mid = (a + b) >>> 1;
+            if (times[mid] < timestampMicros) {
+                a = mid + 1;
+            } else {
+                b = mid;
+            }
+        }
+        return start + a;
+    }
+
+    /**
+     * Visits some channels of every row received between two times.
+     *
+     * @param channels channel indexes, in the order the visitor gets them
+     * @param fromMicros first receive time included
+     * @param toMicros receive time excluded
+     * @param visitor
+     * @return rows visited
+     */
+    public long scan(int[] channels, long fromMicros, long toMicros, RowVisitor visitor) throws IOException {
+        return scan(channels, fromMicros, toMicros, -1, 0, 0, visitor);
+    }
+
+    /**
+     * Visits the rows received between two times where one channel lies in
+     * [low, high]. Blocks whose zone map does not reach that range are not
+     * read.
+     *
+     * @param channels channel indexes, in the order the visitor gets them
+     * @param fromMicros first receive time included
+     * @param toMicros receive time excluded
+     * @param filter channel tested, -1 for no filter
+     * @param low smallest value accepted
+     * @param high largest value accepted
+     * @param visitor
+     * @return rows visited
+     */
+    public synchronized long scan(int[] channels, long fromMicros, long toMicros,
+            int filter, double low, double high, RowVisitor visitor) throws IOException {
+        long from = findRow(fromMicros);
+        long to = findRow(toMicros);
+        double[] values = new double[channels.length];
+        long visited = 0;
+        while (from < to) {
+            int b = (int) (from / blockRows);
+            long start = (long) b * blockRows;
+            int offset = (int) (from - start);
+            int n = (int) (Math.min(to, start + rows[b]) - from);
+            from += n;
+            if (filter >= 0 && (max[filter][b] < low || min[filter][b] > high)) {
+                continue;
+            }
+            log.readTimestamps(start + offset, times, 0, n);
+            for (int k = 0; k < channels.length; k++) {
+                log.readColumn(channels[k], start + offset, column(channels[k]), 0, n);
+            }
+            double[] f = null;
+            if (filter >= 0) {
+                f = column(filter);
+                log.readColumn(filter, start + offset, f, 0, n);
+            }
+            for (int i = 0; i < n; i++) {
+                if (f != null && (f[i] < low || f[i] > high)) {
+                    continue;
+                }
+                for (int k = 0; k < channels.length; k++) {
+                    values[k] = columns[channels[k]][i];
+                }
+                visitor.row(start + offset + i, times[i], values);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the rows received between two times whose value of a channel
+     * differs from the row before, e.g. flight mode changes. Blocks where
+     * the channel is constant and equal to the value before them are not
+     * read.
+     *
+     * @param channel
+     * @param fromMicros first receive time included
+     * @param toMicros receive time excluded
+     * @param visitor
+     * @return changes visited
+     */
+    public synchronized long changes(int channel, long fromMicros, long toMicros, ChangeVisitor visitor) throws IOException {
+        long from = findRow(fromMicros);
+        long to = findRow(toMicros);
+        if (from >= to) {
+            return 0;
+        }
+        double[] v = column(channel);
+        double previous = Double.NaN;
+        if (from > 0) {
+            log.readColumn(channel, from - 1, v, 0, 1);
+            previous = v[0];
+        }
+        long visited = 0;
+        while (from < to) {
+            int b = (int) (from / blockRows);
+            long start = (long) b * blockRows;
+            int n = (int) (Math.min(to, start + rows[b]) - from);
+            if (min[channel][b] == max[channel][b] && min[channel][b] == previous) {
+                from += n;
+                continue;
+            }
+            log.readColumn(channel, from, v, 0, n);
+            boolean timesRead = false;
+            for (int i = 0; i < n; i++) {
+                if (v[i] != previous && previous == previous) {
+                    if (!timesRead) {
+                        log.readTimestamps(from, times, 0, n);
+                        timesRead = true;
+                    }
+                    visitor.change(from + i, times[i], previous, v[i]);
+                    visited++;
+                }
+                previous = v[i];
+            }
+            from += n;
+        }
+        return visited;
+    }
+
+    public synchronized int getBlocks() {
+        return blocks;
+    }
+
+    public synchronized long getRowCount() {
+        return covered();
+    }
+
+    /**
+     *
+     * @return receive time of the first row of a block
+     */
+    public synchronized long getFirstMicros(int block) {
+        return first[block];
+    }
+
+    public synchronized long getLastMicros(int block) {
+        return last[block];
+    }
+
+    /**
+     *
+     * @return smallest value of a channel in a block
+     */
+    public synchronized double getMin(int channel, int block) {
+        return min[channel][block];
+    }
+
+    public synchronized double getMax(int channel, int block) {
+        return max[channel][block];
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a file written by FlightRecorder. Only committed rows
+ * are visible; refresh() picks up rows committed after the log was opened,
+ * so a recording can be read while it is still being written.
+ *
+ * Blocks are mapped on demand and the last one used is kept, so reading a
+ * column or a range of rows touches only the blocks it needs. Lookups by
+ * time go through the recording's FlightIndex, opened on first use.
+ */
+public class FlightLog {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int width;
+    private final int blockRows;
+    private final long blockBytes;
+    private final long created;
+    private long rows;
+    private MappedByteBuffer block = null;
+    private long blockIndex = -1;
+    private FlightIndex index = null;
+
+    public FlightLog(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        if (channel.size() < FlightRecorder.HEADER_SIZE) {
+            raf.close();
+            throw new IOException("Not a flight recording: " + file);
+        }
+        header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FlightRecorder.HEADER_SIZE);
+        if (header.getInt(0) != FlightRecorder.MAGIC || header.getInt(4) != FlightRecorder.VERSION) {
+            raf.close();
+            throw new IOException("Not a flight recording: " + file);
+        }
+        width = header.getInt(FlightRecorder.OFFSET_WIDTH);
+        blockRows = header.getInt(FlightRecorder.OFFSET_BLOCK_ROWS);
+        blockBytes = FlightRecorder.blockBytes(width, blockRows);
+        created = header.getLong(FlightRecorder.OFFSET_CREATED);
+        refresh();
+    }
+
+    /**
+     * Re-reads the committed row count.
+     *
+     * @return number of rows now visible
+     */
+    public synchronized long refresh() {
+        rows = header.getLong(FlightRecorder.OFFSET_COMMITTED);
+        return rows;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    public synchronized long getRowCount() {
+        return rows;
+    }
+
+    /**
+     *
+     * @return creation time of the recording, epoch milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    private MappedByteBuffer block(long index) throws IOException {
+        if (index != blockIndex) {
+            block = channel.map(FileChannel.MapMode.READ_ONLY, FlightRecorder.HEADER_SIZE + index * blockBytes, blockBytes);
+            blockIndex = index;
+        }
+        return block;
+    }
+
+    private void checkRange(long from, int length) {
+        if (from < 0 || length < 0 || from + length > rows) {
+            throw new IndexOutOfBoundsException("rows " + from + "+" + length + " of " + rows);
+        }
+    }
+
+    /**
+     * Copies one channel of a run of rows.
+     *
+     * @param column channel index, 0 to getWidth()-1
+     * @param from first row
+     * @param dst destination array
+     * @param offset first index written in dst
+     * @param length number of rows
+     */
+    public synchronized void readColumn(int column, long from, double[] dst, int offset, int length) throws IOException {
+        checkRange(from, length);
+        long columnBase = (long) (column + 1) * blockRows * 8;
+        while (length > 0) {
+            long index = from / blockRows;
+            int row = (int) (from - index * blockRows);
+            int n = Math.min(length, blockRows - row);
+            MappedByteBuffer b = block(index);
+            int position = (int) (columnBase + row * 8);
+            for (int i = 0; i < n; i++) {
+                dst[offset + i] = b.getDouble(position);
+                position += 8;
+            }
+            from += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Copies the receive timestamps (epoch microseconds) of a run of rows.
+     */
+    public synchronized void readTimestamps(long from, long[] dst, int offset, int length) throws IOException {
+        checkRange(from, length);
+        while (length > 0) {
+            long index = from / blockRows;
+            int row = (int) (from - index * blockRows);
+            int n = Math.min(length, blockRows - row);
+            MappedByteBuffer b = block(index);
+            int position = row * 8;
+            for (int i = 0; i < n; i++) {
+                dst[offset + i] = b.getLong(position);
+                position += 8;
+            }
+            from += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Copies every channel of one row.
+     */
+    public synchronized void readRow(long row, double[] dst) throws IOException {
+        checkRange(row, 1);
+        long index = row / blockRows;
+        int r = (int) (row - index * blockRows);
+        MappedByteBuffer b = block(index);
+        int columnBytes = blockRows * 8;
+        int position = columnBytes + r * 8;
+        for (int i = 0; i < width; i++) {
+            dst[i] = b.getDouble(position);
+            position += columnBytes;
+        }
+    }
+
+    public synchronized long readTimestamp(long row) throws IOException {
+        checkRange(row, 1);
+        long index = row / blockRows;
+        int r = (int) (row - index * blockRows);
+        return block(index).getLong(r * 8);
+    }
+
+    /**
+     *
+     * @return time index of the recording, brought up to the committed rows
+     */
+    public FlightIndex getIndex() throws IOException {
+        FlightIndex i;
+        synchronized (this) {
+            i = index;
+        }
+        if (i == null) {
+            i = new FlightIndex(this);
+            synchronized (this) {
+                if (index == null) {
+                    index = i;
+                }
+                i = index;
+            }
+        } else {
+            i.refresh();
+        }
+        return i;
+    }
+
+    /**
+     * Looks the time up in the index, then in the one block holding it.
+     *
+     * @param timestampMicros epoch microseconds
+     * @return first row received at or after timestampMicros, getRowCount()
+     * if there is none
+     */
+    public long findRow(long timestampMicros) throws IOException {
+        return getIndex().findRow(timestampMicros);
+    }
+
+    public synchronized void close() throws IOException {
+        block = null;
+        channel.close();
+        raf.close();
+    }
+}
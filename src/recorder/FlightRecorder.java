@@ -0,0 +1,260 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only, memory-mapped flight recording.
+ *
+ * The file is a 4 KB header followed by fixed-size blocks of blockRows rows.
+ * Inside a block the data is stored by column: first the receive timestamps
+ * (epoch microseconds, one long per row), then one double column per
+ * channel. A block can be read column by column without touching the rest
+ * of the flight, and appending never rewrites what is already on disk.
+ *
+ * Rows become durable in groups: commit() forces the mapped data to disk
+ * and only then advances the committed row count in the header, so after a
+ * crash a reader sees every row up to the last commit and nothing torn.
+ *
+ * Alongside the recording a FlightIndex file gets one entry per block with
+ * its time range and the min/max of every channel. A block's entry is
+ * written when the block fills and, while it is the last one, on every
+ * commit before the rows are published.
+ */
+public class FlightRecorder {
+
+    static final int MAGIC = 0x55475352; // "UGSR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4096;
+    static final int OFFSET_WIDTH = 8;
+    static final int OFFSET_BLOCK_ROWS = 12;
+    static final int OFFSET_COMMITTED = 16;
+    static final int OFFSET_CREATED = 24;
+    public static final int DEFAULT_BLOCK_ROWS = 4096;
+
+    private final File file;
+    private final int width;
+    private final int blockRows;
+    private final long blockBytes;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer block = null;
+    private long blockIndex = -1;
+    private long rows = 0;
+    private long committed = 0;
+    private long lastCommitMs = System.currentTimeMillis();
+    private int commitRows = 1000;
+    private long commitPeriodMs = 1000;
+    private boolean closed = false;
+
+    private final RandomAccessFile indexRaf;
+    private final FileChannel indexChannel;
+    private final ByteBuffer indexEntry;
+    private final ByteBuffer indexHeader = ByteBuffer.allocate(FlightIndex.HEADER_SIZE);
+    private final double[] zoneMin;
+    private final double[] zoneMax;
+    private long zoneFirst = 0;
+    private long zoneLast = 0;
+    private int zoneRows = 0;
+
+    /**
+     * Creates a new recording, replacing the file if it exists.
+     *
+     * @param file recording file
+     * @param width number of channels in a row
+     */
+    public FlightRecorder(File file, int width) throws IOException {
+        this(file, width, DEFAULT_BLOCK_ROWS);
+    }
+
+    public FlightRecorder(File file, int width, int blockRows) throws IOException {
+        this.file = file;
+        this.width = width;
+        this.blockRows = blockRows;
+        this.blockBytes = blockBytes(width, blockRows);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(OFFSET_WIDTH, width);
+        header.putInt(OFFSET_BLOCK_ROWS, blockRows);
+        header.putLong(OFFSET_COMMITTED, 0);
+        header.putLong(OFFSET_CREATED, System.currentTimeMillis());
+        header.force();
+
+        zoneMin = new double[width];
+        zoneMax = new double[width];
+        indexEntry = ByteBuffer.allocate(FlightIndex.entrySize(width));
+        indexRaf = new RandomAccessFile(FlightIndex.fileFor(file), "rw");
+        indexRaf.setLength(0);
+        indexChannel = indexRaf.getChannel();
+        indexHeader.putInt(0, FlightIndex.MAGIC);
+        indexHeader.putInt(4, FlightIndex.VERSION);
+        indexHeader.putInt(FlightIndex.OFFSET_WIDTH, width);
+        indexHeader.putInt(FlightIndex.OFFSET_BLOCK_ROWS, blockRows);
+        writeIndexHeader(0);
+    }
+
+    static long blockBytes(int width, int blockRows) {
+        return (long) blockRows * 8 * (width + 1);
+    }
+
+    /**
+     * Appends one row. Only the first getWidth() values are stored.
+     *
+     * @param values channel values
+     * @param timestampMicros receive time, epoch microseconds
+     */
+    public synchronized void append(double[] values, long timestampMicros) throws IOException {
+        if (closed) {
+            throw new IOException("Recorder closed: " + file);
+        }
+        long index = rows / blockRows;
+        if (index != blockIndex) {
+            if (block != null) {
+                block.force();
+                writeIndexEntry();
+                zoneRows = 0;
+            }
+            block = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + index * blockBytes, blockBytes);
+            blockIndex = index;
+        }
+        int row = (int) (rows - index * blockRows);
+        block.putLong(row * 8, timestampMicros);
+        int columnBytes = blockRows * 8;
+        int position = columnBytes + row * 8;
+        for (int i = 0; i < width; i++) {
+            block.putDouble(position, values[i]);
+            position += columnBytes;
+        }
+        if (zoneRows == 0) {
+            zoneFirst = timestampMicros;
+            System.arraycopy(values, 0, zoneMin, 0, width);
+            System.arraycopy(values, 0, zoneMax, 0, width);
+        } else {
+            for (int i = 0; i < width; i++) {
+                double v = values[i];
+                if (v < zoneMin[i]) {
+                    zoneMin[i] = v;
+                }
+                if (v > zoneMax[i]) {
+                    zoneMax[i] = v;
+                }
+            }
+        }
+        zoneLast = timestampMicros;
+        zoneRows++;
+        rows++;
+    }
+
+    /**
+     * Writes the entry of the current block, full or not.
+     */
+    private void writeIndexEntry() throws IOException {
+        indexEntry.clear();
+        indexEntry.putLong(zoneRows);
+        indexEntry.putLong(zoneFirst);
+        indexEntry.putLong(zoneLast);
+        for (int i = 0; i < width; i++) {
+            indexEntry.putDouble(zoneMin[i]);
+            indexEntry.putDouble(zoneMax[i]);
+        }
+        indexEntry.flip();
+        long position = FlightIndex.HEADER_SIZE + blockIndex * indexEntry.capacity();
+        while (indexEntry.hasRemaining()) {
+            indexChannel.write(indexEntry, position + indexEntry.position());
+        }
+    }
+
+    private void writeIndexHeader(long blocks) throws IOException {
+        indexHeader.putLong(FlightIndex.OFFSET_BLOCKS, blocks);
+        indexHeader.clear();
+        while (indexHeader.hasRemaining()) {
+            indexChannel.write(indexHeader, indexHeader.position());
+        }
+        indexChannel.force(false);
+    }
+
+    /**
+     * Commits when enough rows or time have piled up since the last commit.
+     */
+    public synchronized void commitIfDue() throws IOException {
+        if (rows - committed >= commitRows
+                || (rows > committed && System.currentTimeMillis() - lastCommitMs >= commitPeriodMs)) {
+            commit();
+        }
+    }
+
+    /**
+     * Forces every appended row to disk and publishes it in the header.
+     */
+    public synchronized void commit() throws IOException {
+        if (closed || rows == committed) {
+            return;
+        }
+        if (block != null) {
+            block.force();
+            writeIndexEntry();
+            indexChannel.force(false);
+            writeIndexHeader(blockIndex + 1);
+        }
+        header.putLong(OFFSET_COMMITTED, rows);
+        header.force();
+        committed = rows;
+        lastCommitMs = System.currentTimeMillis();
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        commit();
+        closed = true;
+        block = null;
+        channel.close();
+        raf.close();
+        indexChannel.close();
+        indexRaf.close();
+    }
+
+    /**
+     *
+     * @param commitRows commit after this many rows
+     * @param commitPeriodMs or after this many milliseconds with pending rows
+     */
+    public synchronized void setCommitPolicy(int commitRows, long commitPeriodMs) {
+        this.commitRows = commitRows;
+        this.commitPeriodMs = commitPeriodMs;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public synchronized long getRowCount() {
+        return rows;
+    }
+
+    public synchronized long getCommittedRows() {
+        return committed;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package recorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+/**
+ * Writes MAT-file level 5 double matrices without holding them in memory.
+ * The size of each matrix is declared up front and its values are then
+ * streamed in column-major order through a fixed-size buffer.
+ *
+ * A level 5 variable is limited to 2^31 bytes of data; callers split larger
+ * exports into several variables.
+ */
+public class MatFileStreamWriter {
+
+    public static final long MAX_VARIABLE_BYTES = Integer.MAX_VALUE;
+    private static final int miINT8 = 1;
+    private static final int miINT32 = 5;
+    private static final int miUINT32 = 6;
+    private static final int miDOUBLE = 9;
+    private static final int miMATRIX = 14;
+    private static final int mxDOUBLE_CLASS = 6;
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long remaining = 0;
+
+    public MatFileStreamWriter(File file) throws IOException {
+        this(file, 1 << 19);
+    }
+
+    public MatFileStreamWriter(File file, int bufferSize) throws IOException {
+        out = new FileOutputStream(file);
+        channel = out.getChannel();
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        String text = "MATLAB 5.0 MAT-file, Platform: Java, Created on: " + new Date();
+        byte[] description = new byte[116];
+        for (int i = 0; i < description.length; i++) {
+            description[i] = i < text.length() ? (byte) text.charAt(i) : (byte) ' ';
+        }
+        buffer.put(description);
+        buffer.putLong(0);
+        buffer.putShort((short) 0x0100);
+        buffer.put((byte) 'I');
+        buffer.put((byte) 'M');
+    }
+
+    private static int padding(long size) {
+        return (int) ((8 - size % 8) % 8);
+    }
+
+    /**
+     * Starts a rows x columns double matrix. Exactly rows * columns values
+     * must follow before the next call to beginMatrix or close.
+     */
+    public void beginMatrix(String name, int rows, int columns) throws IOException {
+        if (remaining != 0) {
+            throw new IOException("Previous matrix is missing " + remaining + " values");
+        }
+        long dataBytes = (long) rows * columns * 8;
+        if (dataBytes > MAX_VARIABLE_BYTES) {
+            throw new IOException("Matrix " + name + " is too large for a level 5 MAT-file");
+        }
+        byte[] nameBytes = name.getBytes("US-ASCII");
+        long size = 16 + 16 + 8 + nameBytes.length + padding(nameBytes.length) + 8 + dataBytes;
+
+        ensure(64 + nameBytes.length);
+        buffer.putInt(miMATRIX);
+        buffer.putInt((int) size);
+        buffer.putInt(miUINT32);
+        buffer.putInt(8);
+        buffer.putInt(mxDOUBLE_CLASS);
+        buffer.putInt(0);
+        buffer.putInt(miINT32);
+        buffer.putInt(8);
+        buffer.putInt(rows);
+        buffer.putInt(columns);
+        buffer.putInt(miINT8);
+        buffer.putInt(nameBytes.length);
+        buffer.put(nameBytes);
+        for (int i = padding(nameBytes.length); i > 0; i--) {
+            buffer.put((byte) 0);
+        }
+        buffer.putInt(miDOUBLE);
+        buffer.putInt((int) dataBytes);
+        remaining = (long) rows * columns;
+    }
+
+    /**
+     * Appends values to the current matrix, in column-major order.
+     */
+    public void write(double[] values, int offset, int length) throws IOException {
+        if (length > remaining) {
+            throw new IOException("More values than declared for the matrix");
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putDouble(values[offset + i]);
+        }
+        remaining -= length;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            if (remaining != 0) {
+                throw new IOException("Matrix is missing " + remaining + " values");
+            }
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sim;
+
+import data.DataPacket;
+import java.util.Random;
+
+/**
+ * Kinematics of a simulated aircraft loitering around a point, good enough
+ * for telemetry that looks like a flight: a coordinated turn on a circle
+ * (heading, bank and yaw rate consistent with speed and radius), altitude
+ * and airspeed wandering around their references with the pitch that goes
+ * with the climb rate, control deflections with a little noise, and the
+ * waypoints of the circle as custom waypoints.
+ *
+ * Each vehicle of a TelemetryGenerator has its own model, with its own
+ * circle, so the tracks do not overlap on the map.
+ */
+public class FlightModel {
+
+    private static final double g = 9.81;
+    private static final double metersPerDegree = 111320;
+
+    private final double homeLatitude;
+    private final double homeLongitude;
+    private final double radius;
+    private final double speed;
+    private final double altitude;
+    private final double phase;
+    private final Random random;
+    private final double[] waypoints;
+    private final int[] waypointIds;
+
+    /**
+     *
+     * @param vehicle index of the vehicle, sets its circle and phase
+     * @param seed of the noise
+     */
+    public FlightModel(int vehicle, long seed) {
+        homeLatitude = 44.9740 + 0.004 * (vehicle % 8);
+        homeLongitude = -93.2277 + 0.006 * (vehicle / 8);
+        radius = 150 + 25 * (vehicle % 5);
+        speed = 17 + (vehicle % 3);
+        altitude = 100 + 10 * (vehicle % 4);
+        phase = vehicle * 0.7;
+        random = new Random(seed + 31 * vehicle);
+        int n = DataPacket.getCustomWaypointCount();
+        waypoints = new double[3 * n];
+        waypointIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            double a = 2 * Math.PI * i / n;
+            waypoints[3 * i] = homeLongitude + radius * Math.sin(a) / (metersPerDegree * Math.cos(Math.toRadians(homeLatitude)));
+            waypoints[3 * i + 1] = homeLatitude + radius * Math.cos(a) / metersPerDegree;
+            waypoints[3 * i + 2] = altitude;
+            waypointIds[i] = i + 1;
+        }
+    }
+
+    /**
+     * Fills a row with the state at a time of the flight.
+     *
+     * @param t seconds since the start of the flight
+     * @param row DataPacket.getDataArraySize() values, by DataPacket.INDEX_*
+     */
+    public void fill(double t, double[] row) {
+        double omega = speed / radius;
+        double angle = phase + omega * t;
+        double north = radius * Math.cos(angle);
+        double east = radius * Math.sin(angle);
+        double alt = altitude + 10 * Math.sin(0.05 * t + phase);
+        double climb = 0.5 * Math.cos(0.05 * t + phase);
+        double ias = speed + 0.8 * Math.sin(0.13 * t + phase);
+        double bank = Math.toDegrees(Math.atan(speed * speed / (g * radius)));
+        double pitch = Math.toDegrees(Math.asin(climb / speed)) + 2;
+
+        row[DataPacket.INDEX_TIME] = t;
+        row[DataPacket.INDEX_ALT_REF] = altitude;
+        row[DataPacket.INDEX_IAS_REF] = speed;
+        row[DataPacket.INDEX_P] = 0.01 * random.nextGaussian();
+        row[DataPacket.INDEX_Q] = 0.01 * random.nextGaussian();
+        row[DataPacket.INDEX_R] = omega + 0.005 * random.nextGaussian();
+        row[DataPacket.INDEX_ALTITUDE] = alt + 0.3 * random.nextGaussian();
+        row[DataPacket.INDEX_IAS] = ias + 0.2 * random.nextGaussian();
+        // clockwise seen from above, heading along the tangent, in the
+        // -180..180 range of the frame field
+        double heading = (Math.toDegrees(angle) + 90) % 360;
+        row[DataPacket.INDEX_PSI] = heading >= 180 ? heading - 360 : heading;
+        row[DataPacket.INDEX_THETA] = pitch + 0.2 * random.nextGaussian();
+        row[DataPacket.INDEX_PHI] = bank + 0.3 * random.nextGaussian();
+        row[DataPacket.INDEX_AILERON] = 2 + random.nextGaussian();
+        row[DataPacket.INDEX_ELEVATOR] = -3 + random.nextGaussian();
+        row[DataPacket.INDEX_THROTTLE] = 0.55 + 0.1 * climb + 0.01 * random.nextGaussian();
+        row[DataPacket.INDEX_RUDDER] = 0.5 * random.nextGaussian();
+        row[DataPacket.INDEX_CPULOAD] = 35 + random.nextInt(10);
+        row[DataPacket.INDEX_LONGITUD] = homeLongitude + east / (metersPerDegree * Math.cos(Math.toRadians(homeLatitude)));
+        row[DataPacket.INDEX_LATITUD] = homeLatitude + north / metersPerDegree;
+        row[DataPacket.INDEX_FLIGHT_MODE] = DataPacket.MODE_WPN;
+        row[DataPacket.INDEX_GPS_SATELLITES] = 9;
+        for (int i = 0; i < DataPacket.getCustomDataCount(); i++) {
+            row[DataPacket.INDEX_CUSTOM_DATA + i] = Math.sin((i + 1) * 0.5 * t);
+        }
+        for (int i = 0; i < DataPacket.getCustomParameterCount(); i++) {
+            row[DataPacket.INDEX_CUSTOM_PARAMETERS + i] = 0.1 * (i + 1);
+        }
+        System.arraycopy(waypoints, 0, row, DataPacket.INDEX_CUSTOM_WAYPOINTS, waypoints.length);
+    }
+
+    /**
+     *
+     * @return ids of the custom waypoints, in the order of the row
+     */
+    public int[] getWaypointIds() {
+        return waypointIds;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sim;
+
+import data.DataPacket;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a row in DataPacket's layout as a 'UUT' telemetry frame, the way
+ * the autopilot does: the same offsets and scale factors DataPacket decodes
+ * with, big-endian, followed by the byte sum checksum.
+ *
+ * The checksum is compared as a signed 16 bit value, so a frame whose
+ * payload bytes add up to more than 32767 cannot be sent valid; encode()
+ * refuses those.
+ */
+public class FrameEncoder {
+
+    private static final int checksumLimit = Short.MAX_VALUE;
+
+    private FrameEncoder() {
+    }
+
+    /**
+     * Encodes one frame.
+     *
+     * @param row values by DataPacket.INDEX_*, DataPacket.getDataArraySize()
+     * long; values outside the range of their field are clamped
+     * @param waypointIds ids of the custom waypoints, one per waypoint
+     * @param frame written from offset on, DataPacket.getDataPacketSize()
+     * bytes
+     * @param offset
+     * @return false if the frame could not get a valid checksum
+     */
+    public static boolean encode(double[] row, int[] waypointIds, ByteBuffer frame, int offset) {
+        frame.put(offset, (byte) 'U');
+        frame.put(offset + 1, (byte) 'U');
+        frame.put(offset + 2, (byte) 'T');
+        frame.putInt(offset + 3, (int) Math.round(row[DataPacket.INDEX_TIME] / 1.0e-04));
+        putShort(frame, offset + 7, row[DataPacket.INDEX_ALT_REF], 2.441480758e-03);
+        putShort(frame, offset + 9, row[DataPacket.INDEX_IAS_REF], 2.441480758e-03);
+        putShort(frame, offset + 11, row[DataPacket.INDEX_P], 1.065264436e-04);
+        putShort(frame, offset + 13, row[DataPacket.INDEX_Q], 1.065264436e-04);
+        putShort(frame, offset + 15, row[DataPacket.INDEX_R], 1.065264436e-04);
+        putShort(frame, offset + 17, row[DataPacket.INDEX_ALTITUDE], 3.0517578125e-01);
+        putShort(frame, offset + 19, row[DataPacket.INDEX_IAS], 2.4414062500e-03);
+        putShort(frame, offset + 21, row[DataPacket.INDEX_PSI], 5.4931640625e-03);
+        putShort(frame, offset + 23, row[DataPacket.INDEX_THETA], 2.7465820313e-03);
+        putShort(frame, offset + 25, row[DataPacket.INDEX_PHI], 5.4931640625e-03);
+        putShort(frame, offset + 27, row[DataPacket.INDEX_AILERON], 1.220740379e-03);
+        putShort(frame, offset + 29, row[DataPacket.INDEX_ELEVATOR], 1.220740379e-03);
+        putShort(frame, offset + 31, row[DataPacket.INDEX_THROTTLE], 3.051850947599719e-05);
+        putShort(frame, offset + 33, row[DataPacket.INDEX_RUDDER], 1.220740379e-03);
+        putShort(frame, offset + 35, row[DataPacket.INDEX_CPULOAD], 1);
+        frame.putInt(offset + 37, (int) Math.round(row[DataPacket.INDEX_LONGITUD] / 1.0e-07));
+        frame.putInt(offset + 41, (int) Math.round(row[DataPacket.INDEX_LATITUD] / 1.0e-07));
+        putShort(frame, offset + 45, row[DataPacket.INDEX_FLIGHT_MODE], 1);
+        putShort(frame, offset + 47, row[DataPacket.INDEX_GPS_SATELLITES], 1);
+
+        int position = offset + 49;
+        for (int i = 0; i < DataPacket.getCustomDataCount(); i++) {
+            frame.putFloat(position, (float) row[DataPacket.INDEX_CUSTOM_DATA + i]);
+            position += 4;
+        }
+        for (int i = 0; i < DataPacket.getCustomParameterCount(); i++) {
+            frame.putFloat(position, (float) row[DataPacket.INDEX_CUSTOM_PARAMETERS + i]);
+            position += 4;
+        }
+        for (int i = 0; i < DataPacket.getCustomWaypointCount(); i++) {
+            int base = DataPacket.INDEX_CUSTOM_WAYPOINTS + 3 * i;
+            frame.put(position, (byte) waypointIds[i]);
+            frame.putInt(position + 1, (int) Math.round(row[base] * 1e7));
+            frame.putInt(position + 5, (int) Math.round(row[base + 1] * 1e7));
+            frame.putFloat(position + 9, (float) row[base + 2]);
+            position += 13;
+        }
+
+        int sum = 0;
+        for (int i = offset + 3; i < position; i++) {
+            sum += frame.get(i) & 0xFF;
+        }
+        frame.putShort(position, (short) sum);
+        return sum <= checksumLimit;
+    }
+
+    private static void putShort(ByteBuffer frame, int offset, double value, double scale) {
+        long raw = Math.round(value / scale);
+        frame.putShort(offset, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, raw)));
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package sim;
+
+import data.DataPacket;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load generator standing in for a fleet of aircraft: sends valid 'UUT'
+ * telemetry frames of N simulated vehicles, each flying its own
+ * FlightModel, to the station over UDP or over a stream such as a pipe
+ * posing as the serial port.
+ *
+ * Every vehicle sends at the same nominal rate. The link can be made worse
+ * on purpose: each frame is delayed by up to the jitter, and with the
+ * given probabilities lost, corrupted (one payload byte changed, so the
+ * checksum fails) or sent twice. What was done to each frame is counted,
+ * so a test can compare it with what the station saw.
+ *
+ * The time field of a frame is the vehicle's flight time, sequence / rate
+ * seconds; getSequence() turns it back into the sequence number and
+ * getSendNanos() gives when that frame left, for end to end latency. The
+ * time field has a resolution of 0.1 ms, so this needs rates up to 5 kHz.
+ *
+ * Replaces the UDPClient_Testing one-off sender; run main() for the same
+ * use from the command line.
+ */
+public class TelemetryGenerator extends Thread {
+
+    private static final int sendHistory = 1 << 16;
+
+    /**
+     * Where the frames go.
+     */
+    public interface Sink {
+
+        /**
+         *
+         * @param vehicle index of the sending vehicle
+         * @param frame the frame, position to limit; backed by an array
+         */
+        void send(int vehicle, ByteBuffer frame) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    /**
+     * Sends each vehicle's frames in their own datagram to its own port,
+     * the way the station expects them.
+     */
+    public static class UdpSink implements Sink {
+
+        private final DatagramChannel channel;
+        private final InetSocketAddress[] targets;
+
+        /**
+         *
+         * @param host
+         * @param ports port of each vehicle
+         */
+        public UdpSink(String host, int[] ports) throws IOException {
+            channel = DatagramChannel.open();
+            targets = new InetSocketAddress[ports.length];
+            for (int i = 0; i < ports.length; i++) {
+                targets[i] = new InetSocketAddress(host, ports[i]);
+            }
+        }
+
+        public void send(int vehicle, ByteBuffer frame) throws IOException {
+            channel.send(frame, targets[vehicle]);
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes each vehicle's frames to its own stream, e.g. a pipe read as
+     * the serial port.
+     */
+    public static class StreamSink implements Sink {
+
+        private final OutputStream[] streams;
+
+        /**
+         *
+         * @param streams stream of each vehicle
+         */
+        public StreamSink(OutputStream[] streams) {
+            this.streams = streams;
+        }
+
+        public void send(int vehicle, ByteBuffer frame) throws IOException {
+            streams[vehicle].write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            streams[vehicle].flush();
+        }
+
+        public void close() throws IOException {
+            for (OutputStream stream : streams) {
+                stream.close();
+            }
+        }
+    }
+
+    private final Sink sink;
+    private final int vehicles;
+    private final double rateHz;
+    private final FlightModel[] models;
+    private final AtomicLongArray sendNanos;
+    private final AtomicLongArray sendSequence;
+    private double jitterMs = 0;
+    private double loss = 0;
+    private double duplication = 0;
+    private double corruption = 0;
+    private long durationMs = 0;
+    private final Random random;
+    private volatile boolean runFlag = true;
+    private volatile long startNanos = 0;
+
+    private volatile long sent = 0;
+    private volatile long lost = 0;
+    private volatile long duplicated = 0;
+    private volatile long corrupted = 0;
+    private volatile long unencodable = 0;
+    private volatile long bytes = 0;
+    private volatile long late = 0;
+
+    /**
+     *
+     * @param sink
+     * @param vehicles number of simulated vehicles, vehicle i sends to sink
+     * index i
+     * @param rateHz frames per second of each vehicle, up to 5000
+     * @param seed of the flight noise and of the link impairments
+     */
+    public TelemetryGenerator(Sink sink, int vehicles, double rateHz, long seed) {
+        super("Telemetry generator");
+        if (!(rateHz > 0 && rateHz <= 5000)) {
+            throw new IllegalArgumentException("rate " + rateHz);
+        }
+        this.sink = sink;
+        this.vehicles = vehicles;
+        this.rateHz = rateHz;
+        this.random = new Random(seed);
+        models = new FlightModel[vehicles];
+        for (int i = 0; i < vehicles; i++) {
+            models[i] = new FlightModel(i, seed);
+        }
+        sendNanos = new AtomicLongArray(vehicles * sendHistory);
+        sendSequence = new AtomicLongArray(vehicles * sendHistory);
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long period = (long) (1e9 / rateHz);
+        long[] sequence = new long[vehicles];
+        long[] due = new long[vehicles];
+        double[] row = new double[DataPacket.getDataArraySize()];
+        ByteBuffer frame = ByteBuffer.allocate(DataPacket.getDataPacketSize());
+        long start = System.nanoTime();
+        startNanos = start;
+        for (int v = 0; v < vehicles; v++) {
+            // spread the vehicles over the period instead of sending bursts
+            due[v] = start + period * v / vehicles + jitter();
+        }
+        long end = durationMs > 0 ? start + durationMs * 1000000L : Long.MAX_VALUE;
+        try {
+            while (runFlag) {
+                int v = 0;
+                for (int i = 1; i < vehicles; i++) {
+                    if (due[i] < due[v]) {
+                        v = i;
+                    }
+                }
+                if (due[v] >= end) {
+                    break;
+                }
+                long wait = due[v] - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                if (wait < -period) {
+                    late++;
+                }
+                emit(v, sequence[v], row, frame);
+                sequence[v]++;
+                long nominal = start + period * v / vehicles + sequence[v] * period;
+                // frames of one vehicle stay in order, like on a real link
+                due[v] = Math.max(due[v], nominal + jitter());
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TelemetryGenerator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        runFlag = false;
+    }
+
+    private long jitter() {
+        return jitterMs > 0 ? (long) (random.nextDouble() * jitterMs * 1e6) : 0;
+    }
+
+    private void emit(int v, long sequence, double[] row, ByteBuffer frame) throws IOException {
+        models[v].fill(sequence / rateHz, row);
+        if (!FrameEncoder.encode(row, models[v].getWaypointIds(), frame, 0)) {
+            unencodable++;
+            return;
+        }
+        if (loss > 0 && random.nextDouble() < loss) {
+            lost++;
+            return;
+        }
+        if (corruption > 0 && random.nextDouble() < corruption) {
+            int i = 3 + random.nextInt(frame.capacity() - 5);
+            frame.put(i, (byte) (frame.get(i) ^ (1 + random.nextInt(255))));
+            corrupted++;
+        }
+        int slot = v * sendHistory + (int) (sequence & (sendHistory - 1));
+        sendSequence.set(slot, -1);
+        sendNanos.set(slot, System.nanoTime());
+        sendSequence.set(slot, sequence);
+        frame.clear();
+        sink.send(v, frame);
+        sent++;
+        bytes += frame.capacity();
+        if (duplication > 0 && random.nextDouble() < duplication) {
+            frame.clear();
+            sink.send(v, frame);
+            duplicated++;
+            bytes += frame.capacity();
+        }
+    }
+
+    /**
+     * Stops sending; the sink stays open.
+     */
+    public void stopGenerator() {
+        runFlag = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     *
+     * @param time time field of a received frame, seconds
+     * @return sequence number of the frame within its vehicle
+     */
+    public long getSequence(double time) {
+        return Math.round(time * rateHz);
+    }
+
+    /**
+     *
+     * @param vehicle
+     * @param sequence
+     * @return System.nanoTime() when the frame was sent, 0 if it was not
+     * sent or is too old to be remembered
+     */
+    public long getSendNanos(int vehicle, long sequence) {
+        int slot = vehicle * sendHistory + (int) (sequence & (sendHistory - 1));
+        if (sendSequence.get(slot) != sequence) {
+            return 0;
+        }
+        long nanos = sendNanos.get(slot);
+        return sendSequence.get(slot) == sequence ? nanos : 0;
+    }
+
+    /**
+     *
+     * @param jitterMs each frame is sent up to this late
+     */
+    public void setJitterMs(double jitterMs) {
+        this.jitterMs = jitterMs;
+    }
+
+    /**
+     *
+     * @param loss probability a frame is not sent
+     */
+    public void setLoss(double loss) {
+        this.loss = loss;
+    }
+
+    /**
+     *
+     * @param duplication probability a frame is sent twice
+     */
+    public void setDuplication(double duplication) {
+        this.duplication = duplication;
+    }
+
+    /**
+     *
+     * @param corruption probability a frame is sent with a changed byte
+     */
+    public void setCorruption(double corruption) {
+        this.corruption = corruption;
+    }
+
+    /**
+     *
+     * @param durationMs time to send for, 0 until stopGenerator()
+     */
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public Sink getSink() {
+        return sink;
+    }
+
+    public int getVehicles() {
+        return vehicles;
+    }
+
+    public double getRateHz() {
+        return rateHz;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public boolean isRunning() {
+        return runFlag;
+    }
+
+    /**
+     *
+     * @return frames sent once, corrupted ones included, duplicates not
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getDuplicated() {
+        return duplicated;
+    }
+
+    public long getCorrupted() {
+        return corrupted;
+    }
+
+    /**
+     *
+     * @return frames skipped because their byte sum does not fit the
+     * checksum
+     */
+    public long getUnencodable() {
+        return unencodable;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     *
+     * @return frames sent more than one period after they were due
+     */
+    public long getLate() {
+        return late;
+    }
+
+    @Override
+    public String toString() {
+        return "vehicles " + vehicles + ", rate " + rateHz + " Hz, sent " + sent + ", lost " + lost
+                + ", duplicated " + duplicated + ", corrupted " + corrupted + ", unencodable " + unencodable
+                + ", late " + late + ", bytes " + bytes;
+    }
+
+    /**
+     * Sends the telemetry of simulated vehicles to a station.
+     *
+     * Arguments: host, ports separated by commas (one vehicle each), rate in
+     * Hz, seconds, and optionally loss, duplication and corruption
+     * probabilities and jitter in ms. Defaults: localhost 10000 50 10.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        String[] parts = (args.length > 1 ? args[1] : "10000").split(",");
+        int[] ports = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ports[i] = Integer.parseInt(parts[i].trim());
+        }
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 50;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        TelemetryGenerator generator = new TelemetryGenerator(new UdpSink(host, ports), ports.length, rate, 1);
+        generator.setLoss(args.length > 4 ? Double.parseDouble(args[4]) : 0);
+        generator.setDuplication(args.length > 5 ? Double.parseDouble(args[5]) : 0);
+        generator.setCorruption(args.length > 6 ? Double.parseDouble(args[6]) : 0);
+        generator.setJitterMs(args.length > 7 ? Double.parseDouble(args[7]) : 0);
+        generator.setDurationMs((long) (seconds * 1000));
+        generator.start();
+        generator.join();
+        generator.getSink().close();
+        System.out.println(generator);
+    }
+}